@@ -0,0 +1,247 @@
+package com.rbkmoney.file.storage.benchmark;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Protocol;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.rbkmoney.file.storage.configuration.properties.FileBatchProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileDataCacheProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileDedupProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileIndexProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileMetadataProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileNotificationProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileReaperProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileSingleFlightProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileUploadProperties;
+import com.rbkmoney.file.storage.configuration.properties.S3BucketInitProperties;
+import com.rbkmoney.file.storage.configuration.properties.S3BucketShardingProperties;
+import com.rbkmoney.file.storage.configuration.properties.S3Properties;
+import com.rbkmoney.file.storage.configuration.properties.S3SdkV2Properties;
+import com.rbkmoney.file.storage.configuration.properties.VirtualThreadsProperties;
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.S3Service;
+import com.rbkmoney.file.storage.service.S3V2Service;
+import com.rbkmoney.file.storage.service.batch.BatchExecutor;
+import com.rbkmoney.file.storage.service.bucket.BucketInitializer;
+import com.rbkmoney.file.storage.service.bucket.BucketSharding;
+import com.rbkmoney.file.storage.service.cache.FileDataCache;
+import com.rbkmoney.file.storage.service.dedup.ContentDeduplicator;
+import com.rbkmoney.file.storage.service.index.FileIndex;
+import com.rbkmoney.file.storage.service.metadata.EncodedMetadata;
+import com.rbkmoney.file.storage.service.metadata.MetadataFormat;
+import com.rbkmoney.file.storage.service.metadata.MetadataSerializer;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.service.notification.ResolvedFiles;
+import com.rbkmoney.file.storage.service.reaper.PendingUploads;
+import com.rbkmoney.file.storage.service.singleflight.SingleFlight;
+import com.rbkmoney.file.storage.service.upload.MultipartUploader;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+// сервисы собираются вручную, без spring контекста и без обращений к s3 при старте
+public class BenchmarkServices {
+
+    public static final String BUCKET_NAME = "files";
+    private static final String ENDPOINT = "http://127.0.0.1:9000";
+    private static final String REGION = "RU";
+    private static final int MAX_HEADER_SIZE = 1536;
+    private static final StaticCredentialsProvider CREDENTIALS_PROVIDER =
+            StaticCredentialsProvider.create(AwsBasicCredentials.create("test", "test"));
+
+    public static S3V2Service s3V2Service(FileDataCacheProperties fileDataCacheProperties,
+                                          Map<String, String> fileMetadataHeaders) {
+        return s3V2Service(
+                fileDataCacheProperties,
+                new EncodedMetadata(fileMetadataHeaders, new byte[0]),
+                MetadataFormat.HEADERS);
+    }
+
+    public static S3V2Service s3V2Service(FileDataCacheProperties fileDataCacheProperties,
+                                          EncodedMetadata fileMetadata,
+                                          MetadataFormat metadataFormat) {
+        return s3V2Service(
+                fileDataCacheProperties,
+                s3Client(new StubS3HttpClient(fileMetadata)),
+                metadataFormat,
+                bucketInitializer(false));
+    }
+
+    public static S3V2Service s3V2Service(FileDataCacheProperties fileDataCacheProperties,
+                                          S3Client s3Client,
+                                          MetadataFormat metadataFormat,
+                                          BucketInitializer bucketInitializer) {
+        var s3SdkV2Properties = new S3SdkV2Properties();
+        s3SdkV2Properties.setBucketName(BUCKET_NAME);
+        s3SdkV2Properties.setEndpoint(ENDPOINT);
+        s3SdkV2Properties.setRegion(REGION);
+        var fileDataCache = new FileDataCache(fileDataCacheProperties, new SimpleMeterRegistry());
+        fileDataCache.init();
+        return new S3V2Service(
+                s3SdkV2Properties,
+                s3Client,
+                s3Presigner(),
+                fileDataCache,
+                new BatchExecutor(new FileBatchProperties(), new VirtualThreadsProperties()),
+                metadataSerializer(metadataFormat),
+                new StorageMetrics(new SimpleMeterRegistry()),
+                singleFlight(),
+                bucketInitializer,
+                bucketSharding(),
+                multipartUploader(),
+                fileIndex(),
+                pendingUploads(),
+                resolvedFiles());
+    }
+
+    public static S3Service s3Service(String fileDataId,
+                                      EncodedMetadata fileMetadata,
+                                      MetadataFormat metadataFormat) {
+        var s3Properties = new S3Properties();
+        s3Properties.setBucketName(BUCKET_NAME);
+        var s3Client = new StubAmazonS3(fileDataId, fileMetadata);
+        var s3Service = new S3Service(
+                TransferManagerBuilder.standard().withS3Client(s3Client).build(),
+                s3Client,
+                s3Properties,
+                new BatchExecutor(new FileBatchProperties(), new VirtualThreadsProperties()),
+                metadataSerializer(metadataFormat),
+                new StorageMetrics(new SimpleMeterRegistry()),
+                singleFlight(),
+                bucketInitializer(false),
+                bucketSharding(),
+                multipartUploader(),
+                new ContentDeduplicator(new FileDedupProperties(), s3Client),
+                fileIndex(),
+                pendingUploads());
+        s3Service.init();
+        return s3Service;
+    }
+
+    // заголовки ревизии с метаданными в том виде, в котором их записывает сервис,
+    // в первой версии fileId указывает на отдельный объект с файлом, во второй совпадает с fileDataId
+    public static Map<String, String> fileMetadataHeaders(String fileDataId, String fileId, int metadataSize) {
+        return fileMetadata(fileDataId, fileId, metadataSize, MetadataFormat.HEADERS).getHeaders();
+    }
+
+    public static EncodedMetadata fileMetadata(String fileDataId,
+                                               String fileId,
+                                               int metadataSize,
+                                               MetadataFormat metadataFormat) {
+        var metadata = new HashMap<String, Value>();
+        for (int i = 0; i < metadataSize; i++) {
+            metadata.put("key" + i, Value.str("value-" + i));
+        }
+        var encodedMetadata = metadataSerializer(metadataFormat).encode(metadata);
+        var headers = new HashMap<>(encodedMetadata.getHeaders());
+        headers.put("x-rbkmoney-file-data-id", fileDataId);
+        headers.put("x-rbkmoney-file-id", fileId);
+        headers.put("x-rbkmoney-created-at", Instant.now().toString());
+        return new EncodedMetadata(headers, encodedMetadata.getBody());
+    }
+
+    public static MetadataSerializer metadataSerializer(MetadataFormat metadataFormat) {
+        var fileMetadataProperties = new FileMetadataProperties();
+        fileMetadataProperties.setFormat(metadataFormat);
+        fileMetadataProperties.setMaxHeaderSize(MAX_HEADER_SIZE);
+        fileMetadataProperties.setPackedWriteEnabled(true);
+        return new MetadataSerializer(fileMetadataProperties);
+    }
+
+    public static SingleFlight singleFlight() {
+        var fileSingleFlightProperties = new FileSingleFlightProperties();
+        fileSingleFlightProperties.setEnabled(true);
+        var singleFlight = new SingleFlight(fileSingleFlightProperties, new SimpleMeterRegistry());
+        singleFlight.init();
+        return singleFlight;
+    }
+
+    public static BucketInitializer bucketInitializer(boolean asyncEnabled) {
+        var s3BucketInitProperties = new S3BucketInitProperties();
+        s3BucketInitProperties.setAsyncEnabled(asyncEnabled);
+        s3BucketInitProperties.setRetryDelay(Duration.ofSeconds(1));
+        return new BucketInitializer(s3BucketInitProperties);
+    }
+
+    public static BucketSharding bucketSharding() {
+        return new BucketSharding(new S3BucketShardingProperties());
+    }
+
+    // загрузка через сервис не вызывается, поэтому потоки загрузчика не запускаются
+    public static MultipartUploader multipartUploader() {
+        return new MultipartUploader(
+                new FileUploadProperties(),
+                new VirtualThreadsProperties(),
+                new SimpleMeterRegistry());
+    }
+
+    public static FileIndex fileIndex() {
+        return new FileIndex(new FileIndexProperties(), null, new SimpleMeterRegistry());
+    }
+
+    public static PendingUploads pendingUploads() {
+        return new PendingUploads(new FileReaperProperties(), null);
+    }
+
+    public static ResolvedFiles resolvedFiles() {
+        return new ResolvedFiles(new FileNotificationProperties(), null, new SimpleMeterRegistry());
+    }
+
+    public static FileDataCacheProperties fileDataCacheProperties(boolean enabled, boolean fastDownloadUrlEnabled) {
+        var fileDataCacheProperties = new FileDataCacheProperties();
+        fileDataCacheProperties.setEnabled(enabled);
+        fileDataCacheProperties.setMaximumSize(10_000);
+        fileDataCacheProperties.setExpireAfterWrite(Duration.ofHours(1));
+        fileDataCacheProperties.setFastDownloadUrlEnabled(fastDownloadUrlEnabled);
+        return fileDataCacheProperties;
+    }
+
+    public static S3Presigner s3Presigner() {
+        return S3Presigner.builder()
+                .region(Region.of(REGION))
+                .credentialsProvider(CREDENTIALS_PROVIDER)
+                .endpointOverride(URI.create(ENDPOINT))
+                .serviceConfiguration(S3Configuration.builder()
+                        .pathStyleAccessEnabled(true)
+                        .checksumValidationEnabled(false)
+                        .build())
+                .build();
+    }
+
+    public static AmazonS3 amazonS3(String signerOverride) {
+        return AmazonS3ClientBuilder.standard()
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("test", "test")))
+                .withPathStyleAccessEnabled(true)
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(ENDPOINT, REGION))
+                .withClientConfiguration(new ClientConfiguration()
+                        .withProtocol(Protocol.HTTP)
+                        .withSignerOverride(signerOverride))
+                .build();
+    }
+
+    public static S3Client s3Client(StubS3HttpClient httpClient) {
+        return S3Client.builder()
+                .region(Region.of(REGION))
+                .credentialsProvider(CREDENTIALS_PROVIDER)
+                .endpointOverride(URI.create(ENDPOINT))
+                .httpClient(httpClient)
+                .serviceConfiguration(S3Configuration.builder()
+                        .pathStyleAccessEnabled(true)
+                        .build())
+                .build();
+    }
+}
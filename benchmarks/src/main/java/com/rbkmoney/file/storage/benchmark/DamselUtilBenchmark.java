@@ -0,0 +1,64 @@
+package com.rbkmoney.file.storage.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.util.DamselUtil;
+import com.rbkmoney.geck.serializer.kit.json.JsonHandler;
+import com.rbkmoney.geck.serializer.kit.json.JsonProcessor;
+import com.rbkmoney.geck.serializer.kit.tbase.TBaseHandler;
+import com.rbkmoney.geck.serializer.kit.tbase.TBaseProcessor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// сериализация значений метаданных — выполняется для каждого ключа метаданных на каждый запрос,
+// legacy* — прежняя реализация через дерево JsonNode и ObjectMapper на каждый вызов,
+// для оценки аллокаций запускать с -prof gc
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DamselUtilBenchmark {
+
+    @Param({"str", "obj"})
+    public String valueType;
+
+    private Value value;
+    private String json;
+
+    @Setup
+    public void setUp() {
+        value = "str".equals(valueType)
+                ? Value.str("Mary Doe")
+                : Value.obj(Map.of(
+                        Value.str("author"), Value.str("Mary Doe"),
+                        Value.str("version"), Value.i(1),
+                        Value.str("tags"), Value.arr(List.of(Value.str("scan"), Value.b(true)))));
+        json = DamselUtil.toJsonString(value);
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return DamselUtil.toJsonString(value);
+    }
+
+    @Benchmark
+    public Value fromJson() {
+        return DamselUtil.fromJson(json, Value.class);
+    }
+
+    @Benchmark
+    public String legacyToJsonString() throws IOException {
+        return new TBaseProcessor().process(value, new JsonHandler()).toString();
+    }
+
+    @Benchmark
+    public Value legacyFromJson() throws IOException {
+        return new JsonProcessor().process(new ObjectMapper().readTree(json), new TBaseHandler<>(Value.class));
+    }
+}
@@ -0,0 +1,44 @@
+package com.rbkmoney.file.storage.benchmark;
+
+import com.rbkmoney.file.storage.service.S3V2Service;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URL;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// сравнение generateDownloadUrl со списком ревизий на каждый вызов и с закэшированным id ревизии,
+// один поток — количество подписанных ссылок в секунду на ядро
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class DownloadUrlBenchmark {
+
+    @Param({"false", "true"})
+    public boolean fastDownloadUrlEnabled;
+
+    private S3V2Service s3V2Service;
+    private String fileId;
+    private Instant expirationTime;
+
+    @Setup
+    public void setUp() {
+        s3V2Service = BenchmarkServices.s3V2Service(
+                BenchmarkServices.fileDataCacheProperties(true, fastDownloadUrlEnabled),
+                Map.of());
+        fileId = UUID.randomUUID().toString();
+        expirationTime = Instant.now().plus(1, ChronoUnit.DAYS);
+    }
+
+    @Benchmark
+    public URL generateDownloadUrl() {
+        return s3V2Service.generateDownloadUrl(fileId, expirationTime);
+    }
+}
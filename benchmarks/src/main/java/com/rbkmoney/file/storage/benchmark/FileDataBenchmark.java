@@ -0,0 +1,61 @@
+package com.rbkmoney.file.storage.benchmark;
+
+import com.rbkmoney.file.storage.FileData;
+import com.rbkmoney.file.storage.service.S3Service;
+import com.rbkmoney.file.storage.service.S3V2Service;
+import com.rbkmoney.file.storage.service.metadata.MetadataFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// getFileData без кэша — разбор заголовков в метаданные и извлечение имени файла из Content-Disposition
+// в обеих реализациях, для v2 сюда же входит работа sdk по запросам ревизий к заглушке s3,
+// metadataFormat — заголовок на ключ, вся карта одним упакованным заголовком или в теле ревизии (GET вместо HEAD)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileDataBenchmark {
+
+    @Param({"0", "5", "20"})
+    public int metadataSize;
+
+    @Param({"HEADERS", "PACKED", "BODY"})
+    public MetadataFormat metadataFormat;
+
+    private S3V2Service s3V2Service;
+    private S3Service s3Service;
+    private String fileId;
+
+    @Setup
+    public void setUp() {
+        fileId = UUID.randomUUID().toString();
+        s3V2Service = BenchmarkServices.s3V2Service(
+                BenchmarkServices.fileDataCacheProperties(false, false),
+                BenchmarkServices.fileMetadata(fileId, fileId, metadataSize, metadataFormat),
+                metadataFormat);
+        var realFileId = UUID.randomUUID().toString();
+        s3Service = BenchmarkServices.s3Service(
+                fileId,
+                BenchmarkServices.fileMetadata(fileId, realFileId, metadataSize, metadataFormat),
+                metadataFormat);
+    }
+
+    @TearDown
+    public void tearDown() {
+        s3Service.terminate();
+    }
+
+    @Benchmark
+    public FileData s3V2ServiceGetFileData() {
+        return s3V2Service.getFileData(fileId);
+    }
+
+    @Benchmark
+    public FileData s3ServiceGetFileData() {
+        return s3Service.getFileData(fileId);
+    }
+}
@@ -0,0 +1,50 @@
+package com.rbkmoney.file.storage.benchmark;
+
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.metadata.MetadataFormat;
+import com.rbkmoney.file.storage.service.metadata.MetadataSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// разбор всей карты метаданных из заголовков ревизии: заголовок на ключ против одного упакованного заголовка
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataSerializerBenchmark {
+
+    @Param({"5", "20"})
+    public int metadataSize;
+
+    @Param({"HEADERS", "PACKED"})
+    public MetadataFormat metadataFormat;
+
+    private MetadataSerializer metadataSerializer;
+    private Map<String, Value> metadata;
+    private Map<String, String> headers;
+
+    @Setup
+    public void setUp() {
+        metadataSerializer = BenchmarkServices.metadataSerializer(metadataFormat);
+        metadata = new HashMap<>();
+        for (int i = 0; i < metadataSize; i++) {
+            metadata.put("key" + i, Value.str("value-" + i));
+        }
+        headers = metadataSerializer.encode(metadata).getHeaders();
+    }
+
+    @Benchmark
+    public Object encode() {
+        return metadataSerializer.encode(metadata);
+    }
+
+    @Benchmark
+    public Map<String, Value> decodeHeaders() {
+        return metadataSerializer.decodeHeaders(headers);
+    }
+}
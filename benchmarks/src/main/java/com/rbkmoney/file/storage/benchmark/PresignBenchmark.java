@@ -0,0 +1,96 @@
+package com.rbkmoney.file.storage.benchmark;
+
+import com.amazonaws.HttpMethod;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// подпись ссылок без обращений к s3 — S3Presigner для v2 и оба варианта сигнера первой версии sdk
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class PresignBenchmark {
+
+    private S3Presigner s3Presigner;
+    private String fileId;
+
+    @Setup
+    public void setUp() {
+        s3Presigner = BenchmarkServices.s3Presigner();
+        fileId = UUID.randomUUID().toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        s3Presigner.close();
+    }
+
+    @Benchmark
+    public URL s3PresignerGetObject() {
+        return s3Presigner.presignGetObject(GetObjectPresignRequest.builder()
+                .signatureDuration(Duration.ofDays(1))
+                .getObjectRequest(GetObjectRequest.builder()
+                        .bucket(BenchmarkServices.BUCKET_NAME)
+                        .key(fileId)
+                        .versionId(StubS3HttpClient.FILE_VERSION_ID)
+                        .build())
+                .build())
+                .url();
+    }
+
+    @Benchmark
+    public URL s3PresignerPutObject() {
+        return s3Presigner.presignPutObject(PutObjectPresignRequest.builder()
+                .signatureDuration(Duration.ofDays(1))
+                .putObjectRequest(PutObjectRequest.builder()
+                        .bucket(BenchmarkServices.BUCKET_NAME)
+                        .key(fileId)
+                        .build())
+                .build())
+                .url();
+    }
+
+    @Benchmark
+    public URL amazonS3GeneratePresignedUrl(AmazonS3State amazonS3State) {
+        return amazonS3State.amazonS3.generatePresignedUrl(
+                new GeneratePresignedUrlRequest(BenchmarkServices.BUCKET_NAME, fileId)
+                        .withMethod(HttpMethod.GET)
+                        .withExpiration(Date.from(Instant.now().plus(1, ChronoUnit.DAYS))));
+    }
+
+    @State(Scope.Benchmark)
+    public static class AmazonS3State {
+
+        @Param({"S3SignerType", "AWSS3V4SignerType"})
+        public String signerOverride;
+
+        private AmazonS3 amazonS3;
+
+        @Setup
+        public void setUp() {
+            amazonS3 = BenchmarkServices.amazonS3(signerOverride);
+        }
+
+        @TearDown
+        public void tearDown() {
+            amazonS3.shutdown();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.rbkmoney.file.storage.benchmark;
+
+import com.rbkmoney.file.storage.service.S3V2Service;
+import com.rbkmoney.file.storage.service.bucket.BucketInitializer;
+import com.rbkmoney.file.storage.service.metadata.EncodedMetadata;
+import com.rbkmoney.file.storage.service.metadata.MetadataFormat;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// старт S3V2Service: сборка клиента sdk и @PostConstruct с проверкой бакета, на которую заглушка s3 отвечает
+// с задержкой bucketLatencyMillis. timeToStart — сколько ждет старт spring контекста,
+// timeToReady — время до готовности бакета, то есть до поднятия readiness пробы
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"false", "true"})
+    public boolean asyncEnabled;
+
+    @Param({"0", "200"})
+    public int bucketLatencyMillis;
+
+    private S3Client s3Client;
+    private BucketInitializer bucketInitializer;
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        bucketInitializer.shutdown();
+        s3Client.close();
+    }
+
+    @Benchmark
+    public S3V2Service timeToStart() {
+        return start();
+    }
+
+    @Benchmark
+    public boolean timeToReady() throws InterruptedException {
+        start();
+        return bucketInitializer.awaitReady(Duration.ofSeconds(10));
+    }
+
+    private S3V2Service start() {
+        s3Client = BenchmarkServices.s3Client(new StubS3HttpClient(
+                new EncodedMetadata(Map.of(), new byte[0]),
+                Duration.ofMillis(bucketLatencyMillis)));
+        bucketInitializer = BenchmarkServices.bucketInitializer(asyncEnabled);
+        var s3V2Service = BenchmarkServices.s3V2Service(
+                BenchmarkServices.fileDataCacheProperties(true, false),
+                s3Client,
+                MetadataFormat.HEADERS,
+                bucketInitializer);
+        s3V2Service.init();
+        return s3V2Service;
+    }
+}
@@ -0,0 +1,55 @@
+package com.rbkmoney.file.storage.benchmark;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.rbkmoney.file.storage.service.metadata.EncodedMetadata;
+
+import java.io.ByteArrayInputStream;
+
+// клиент первой версии sdk, который отвечает заранее подготовленными метаданными без сети
+public class StubAmazonS3 extends AbstractAmazonS3 {
+
+    private final String fileDataId;
+    private final ObjectMetadata fileMetadata;
+    private final byte[] fileMetadataBody;
+    private final ObjectMetadata file;
+
+    public StubAmazonS3(String fileDataId, EncodedMetadata encodedMetadata) {
+        this.fileDataId = fileDataId;
+        this.fileMetadata = new ObjectMetadata();
+        encodedMetadata.getHeaders().forEach(fileMetadata::addUserMetadata);
+        this.fileMetadataBody = encodedMetadata.getBody();
+        this.file = new ObjectMetadata();
+        file.setContentDisposition("attachment;filename=" + StubS3HttpClient.FILE_NAME);
+    }
+
+    @Override
+    public boolean doesBucketExistV2(String bucketName) {
+        return true;
+    }
+
+    @Override
+    public boolean doesObjectExist(String bucketName, String objectName) {
+        return true;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest) {
+        return fileDataId.equals(getObjectMetadataRequest.getKey()) ? fileMetadata : file;
+    }
+
+    @Override
+    public S3Object getObject(String bucketName, String key) {
+        var s3Object = new S3Object();
+        s3Object.setKey(key);
+        s3Object.setObjectMetadata(fileMetadata);
+        s3Object.setObjectContent(new ByteArrayInputStream(fileMetadataBody));
+        return s3Object;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
@@ -0,0 +1,125 @@
+package com.rbkmoney.file.storage.benchmark;
+
+import com.rbkmoney.file.storage.service.metadata.EncodedMetadata;
+import software.amazon.awssdk.http.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+// http клиент для S3Client, который отвечает заранее подготовленными ответами без сети —
+// в замерах остается только работа sdk: маршалинг, подпись запроса и разбор ответа
+public class StubS3HttpClient implements SdkHttpClient {
+
+    public static final String FILE_METADATA_VERSION_ID = "1";
+    public static final String FILE_VERSION_ID = "2";
+    public static final String FILE_NAME = "scan.pdf";
+
+    private static final String LIST_VERSIONS_RESULT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<ListVersionsResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">" +
+            "<Name>files</Name><Prefix>%1$s</Prefix><MaxKeys>1000</MaxKeys><IsTruncated>false</IsTruncated>" +
+            "<Version><Key>%1$s</Key><VersionId>" + FILE_VERSION_ID + "</VersionId><IsLatest>true</IsLatest>" +
+            "<LastModified>2021-10-01T00:00:01.000Z</LastModified><ETag>\"etag\"</ETag><Size>4</Size>" +
+            "<StorageClass>STANDARD</StorageClass></Version>" +
+            "<Version><Key>%1$s</Key><VersionId>" + FILE_METADATA_VERSION_ID + "</VersionId>" +
+            "<IsLatest>false</IsLatest><LastModified>2021-10-01T00:00:00.000Z</LastModified>" +
+            "<ETag>\"etag\"</ETag><Size>0</Size><StorageClass>STANDARD</StorageClass></Version>" +
+            "</ListVersionsResult>";
+
+    private final EncodedMetadata fileMetadata;
+    private final Duration bucketLatency;
+    private final Duration objectLatency;
+
+    public StubS3HttpClient(EncodedMetadata fileMetadata) {
+        this(fileMetadata, Duration.ZERO);
+    }
+
+    // задержка ответа на запросы к самому бакету — медленный кластер при старте сервиса
+    public StubS3HttpClient(EncodedMetadata fileMetadata, Duration bucketLatency) {
+        this(fileMetadata, bucketLatency, Duration.ZERO);
+    }
+
+    // задержка ответа на запросы к объектам — медленный кластер под нагрузкой, поток запроса ждет ответа
+    public StubS3HttpClient(EncodedMetadata fileMetadata, Duration bucketLatency, Duration objectLatency) {
+        this.fileMetadata = fileMetadata;
+        this.bucketLatency = bucketLatency;
+        this.objectLatency = objectLatency;
+    }
+
+    @Override
+    public ExecutableHttpRequest prepareRequest(HttpExecuteRequest request) {
+        return new ExecutableHttpRequest() {
+            @Override
+            public HttpExecuteResponse call() {
+                return response(request.httpRequest());
+            }
+
+            @Override
+            public void abort() {
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private HttpExecuteResponse response(SdkHttpRequest httpRequest) {
+        if (!bucketLatency.isZero() && httpRequest.encodedPath().equals("/" + BenchmarkServices.BUCKET_NAME)) {
+            sleep(bucketLatency);
+        } else if (!objectLatency.isZero()) {
+            sleep(objectLatency);
+        }
+        if (httpRequest.method() == SdkHttpMethod.HEAD) {
+            var versionId = queryParameter(httpRequest, "versionId", FILE_VERSION_ID);
+            var response = SdkHttpResponse.builder()
+                    .statusCode(200)
+                    .putHeader("Content-Length", "0");
+            if (FILE_METADATA_VERSION_ID.equals(versionId)) {
+                fileMetadata.getHeaders().forEach((key, value) -> response.putHeader("x-amz-meta-" + key, value));
+            } else {
+                response.putHeader("Content-Disposition", "attachment;filename=" + FILE_NAME);
+            }
+            return HttpExecuteResponse.builder()
+                    .response(response.build())
+                    .build();
+        }
+        if (httpRequest.rawQueryParameters().containsKey("versionId")) {
+            // GET ревизии с метаданными — заголовки вместе с телом
+            var body = fileMetadata.getBody();
+            var response = SdkHttpResponse.builder()
+                    .statusCode(200)
+                    .putHeader("Content-Length", String.valueOf(body.length));
+            fileMetadata.getHeaders().forEach((key, value) -> response.putHeader("x-amz-meta-" + key, value));
+            return HttpExecuteResponse.builder()
+                    .response(response.build())
+                    .responseBody(AbortableInputStream.create(new ByteArrayInputStream(body)))
+                    .build();
+        }
+        var prefix = queryParameter(httpRequest, "prefix", "");
+        var body = String.format(LIST_VERSIONS_RESULT, prefix).getBytes(StandardCharsets.UTF_8);
+        return HttpExecuteResponse.builder()
+                .response(SdkHttpResponse.builder()
+                        .statusCode(200)
+                        .headers(Map.of(
+                                "Content-Type", List.of("application/xml"),
+                                "Content-Length", List.of(String.valueOf(body.length))))
+                        .build())
+                .responseBody(AbortableInputStream.create(new ByteArrayInputStream(body)))
+                .build();
+    }
+
+    private void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String queryParameter(SdkHttpRequest httpRequest, String name, String defaultValue) {
+        return httpRequest.rawQueryParameters().getOrDefault(name, List.of(defaultValue)).get(0);
+    }
+}
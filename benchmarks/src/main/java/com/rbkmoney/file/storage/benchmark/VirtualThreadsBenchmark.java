@@ -0,0 +1,85 @@
+package com.rbkmoney.file.storage.benchmark;
+
+import com.rbkmoney.file.storage.FileData;
+import com.rbkmoney.file.storage.service.S3V2Service;
+import com.rbkmoney.file.storage.service.metadata.MetadataFormat;
+import com.rbkmoney.file.storage.util.VirtualThreads;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// concurrency одновременных getFileData при медленном s3 (s3Latency на каждый запрос к объекту):
+// PLATFORM — запросы обслуживает пул tomcat по умолчанию в 200 потоков, VIRTUAL — каждый запрос в своем
+// виртуальном потоке, как при virtual-threads.enabled. Время операции — время обслуживания всех запросов,
+// режим VIRTUAL запускается только на java 21 и новее
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VirtualThreadsBenchmark {
+
+    private static final int TOMCAT_MAX_THREADS = 200;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ThreadMode threadMode;
+
+    @Param({"200", "2000"})
+    public int concurrency;
+
+    @Param({"20"})
+    public int s3Latency;
+
+    private S3V2Service s3V2Service;
+    private ExecutorService requestExecutor;
+    private String fileId;
+
+    @Setup
+    public void setUp() {
+        fileId = UUID.randomUUID().toString();
+        var httpClient = new StubS3HttpClient(
+                BenchmarkServices.fileMetadata(fileId, fileId, 5, MetadataFormat.HEADERS),
+                Duration.ZERO,
+                Duration.ofMillis(s3Latency));
+        s3V2Service = BenchmarkServices.s3V2Service(
+                BenchmarkServices.fileDataCacheProperties(false, false),
+                BenchmarkServices.s3Client(httpClient),
+                MetadataFormat.HEADERS,
+                BenchmarkServices.bucketInitializer(false));
+        if (threadMode == ThreadMode.VIRTUAL) {
+            requestExecutor = VirtualThreads.newThreadPerTaskExecutor("http-virtual-");
+        } else {
+            var threadFactory = new CustomizableThreadFactory("http-nio-exec-");
+            threadFactory.setDaemon(true);
+            requestExecutor = Executors.newFixedThreadPool(TOMCAT_MAX_THREADS, threadFactory);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        requestExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public int getFileData() {
+        var requests = new ArrayList<CompletableFuture<FileData>>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            requests.add(CompletableFuture.supplyAsync(() -> s3V2Service.getFileData(fileId), requestExecutor));
+        }
+        requests.forEach(CompletableFuture::join);
+        return requests.size();
+    }
+
+    public enum ThreadMode {
+        PLATFORM,
+        VIRTUAL
+    }
+}
@@ -0,0 +1,20 @@
+package com.rbkmoney.file.storage.configuration;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PostConstruct;
+
+// дедупликация встроена в загрузку через сервис на AWS SDK S3 V1. В AWS SDK S3 V2 файл хранится ревизией объекта
+// своих метаданных и сослаться на общий объект не может, поэтому включенная с ним дедупликация останавливает старт,
+// а не молча выключается
+@Configuration
+@ConditionalOnExpression("${file-dedup.enabled:false} and ${s3-sdk-v2.enabled:false}")
+public class FileDedupConfig {
+
+    @PostConstruct
+    public void init() {
+        throw new IllegalStateException(
+                "file-dedup.enabled is supported only with AWS SDK S3 V1, but s3-sdk-v2.enabled is true");
+    }
+}
@@ -0,0 +1,29 @@
+package com.rbkmoney.file.storage.configuration;
+
+import com.rbkmoney.file.storage.configuration.properties.FileDownloadProperties;
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.download.DownloadUrlSigner;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.servlet.FileDownloadServlet;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(value = "file-download.enabled", havingValue = "true")
+public class FileDownloadConfig {
+
+    public static final String DOWNLOAD_PATH = "/file_storage/download/*";
+
+    @Bean
+    public ServletRegistrationBean<FileDownloadServlet> fileDownloadServlet(
+            StorageService storageService,
+            DownloadUrlSigner downloadUrlSigner,
+            FileDownloadProperties fileDownloadProperties,
+            StorageMetrics storageMetrics) {
+        return new ServletRegistrationBean<>(
+                new FileDownloadServlet(storageService, downloadUrlSigner, fileDownloadProperties, storageMetrics),
+                DOWNLOAD_PATH);
+    }
+}
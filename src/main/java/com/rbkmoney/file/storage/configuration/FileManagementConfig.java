@@ -0,0 +1,39 @@
+package com.rbkmoney.file.storage.configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rbkmoney.file.storage.configuration.properties.FileBatchProperties;
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.download.DownloadUrlSigner;
+import com.rbkmoney.file.storage.service.index.FileIndex;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.servlet.FileManagementServlet;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(value = "file-management.enabled", havingValue = "true")
+public class FileManagementConfig {
+
+    public static final String FILES_PATH = "/file_storage/files/*";
+
+    @Bean
+    public ServletRegistrationBean<FileManagementServlet> fileManagementServlet(
+            StorageService storageService,
+            FileIndex fileIndex,
+            DownloadUrlSigner downloadUrlSigner,
+            FileBatchProperties fileBatchProperties,
+            StorageMetrics storageMetrics,
+            ObjectMapper objectMapper) {
+        return new ServletRegistrationBean<>(
+                new FileManagementServlet(
+                        storageService,
+                        fileIndex,
+                        downloadUrlSigner,
+                        fileBatchProperties,
+                        storageMetrics,
+                        objectMapper),
+                FILES_PATH);
+    }
+}
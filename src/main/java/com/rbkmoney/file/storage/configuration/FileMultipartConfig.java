@@ -0,0 +1,27 @@
+package com.rbkmoney.file.storage.configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.servlet.FileMultipartServlet;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(value = "file-multipart.enabled", havingValue = "true")
+public class FileMultipartConfig {
+
+    public static final String MULTIPART_PATH = "/file_storage/multipart/*";
+
+    @Bean
+    public ServletRegistrationBean<FileMultipartServlet> fileMultipartServlet(
+            StorageService storageService,
+            StorageMetrics storageMetrics,
+            ObjectMapper objectMapper) {
+        return new ServletRegistrationBean<>(
+                new FileMultipartServlet(storageService, storageMetrics, objectMapper),
+                MULTIPART_PATH);
+    }
+}
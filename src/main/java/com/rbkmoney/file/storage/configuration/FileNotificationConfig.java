@@ -0,0 +1,33 @@
+package com.rbkmoney.file.storage.configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rbkmoney.file.storage.configuration.properties.FileNotificationProperties;
+import com.rbkmoney.file.storage.service.notification.UploadNotifications;
+import com.rbkmoney.file.storage.servlet.FileNotificationServlet;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(value = "file-notification.enabled", havingValue = "true")
+public class FileNotificationConfig {
+
+    public static final String NOTIFICATION_PATH = "/file_storage/notification";
+
+    @Bean
+    public ServletRegistrationBean<FileNotificationServlet> fileNotificationServlet(
+            UploadNotifications uploadNotifications,
+            FileNotificationProperties fileNotificationProperties,
+            ObjectMapper objectMapper) {
+        // без токена любой, кто видит порт сервиса, мог бы заставить его разбирать произвольные файлы
+        var authToken = fileNotificationProperties.getAuthToken();
+        if (authToken == null || authToken.isEmpty()) {
+            throw new IllegalStateException(
+                    "File notifications are enabled, but file-notification.auth-token is empty");
+        }
+        return new ServletRegistrationBean<>(
+                new FileNotificationServlet(uploadNotifications, fileNotificationProperties, objectMapper),
+                NOTIFICATION_PATH);
+    }
+}
@@ -0,0 +1,27 @@
+package com.rbkmoney.file.storage.configuration;
+
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.service.upload.UploadUrlSigner;
+import com.rbkmoney.file.storage.servlet.FileUploadServlet;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(value = "file-upload.enabled", havingValue = "true")
+public class FileUploadConfig {
+
+    public static final String UPLOAD_PATH = "/file_storage/upload/*";
+
+    @Bean
+    public ServletRegistrationBean<FileUploadServlet> fileUploadServlet(
+            StorageService storageService,
+            UploadUrlSigner uploadUrlSigner,
+            StorageMetrics storageMetrics) {
+        return new ServletRegistrationBean<>(
+                new FileUploadServlet(storageService, uploadUrlSigner, storageMetrics),
+                UPLOAD_PATH);
+    }
+}
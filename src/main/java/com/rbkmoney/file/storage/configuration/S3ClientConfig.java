@@ -1,27 +1,47 @@
 package com.rbkmoney.file.storage.configuration;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceClient;
 import com.amazonaws.ClientConfiguration;
+import com.amazonaws.SdkClientException;
 import com.amazonaws.auth.AWSCredentialsProviderChain;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.EnvironmentVariableCredentialsProvider;
 import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.http.AmazonHttpClient;
+import com.amazonaws.http.apache.client.impl.ConnectionManagerAwareHttpClient;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.rbkmoney.file.storage.configuration.properties.S3EndpointRoutingProperties;
 import com.rbkmoney.file.storage.configuration.properties.S3Properties;
+import com.rbkmoney.file.storage.service.metrics.S3MetricsRequestHandler;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.service.routing.EndpointRouter;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.pool.ConnPoolControl;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.ReflectionUtils;
 
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Slf4j
 @Configuration
 @RequiredArgsConstructor
 @EnableConfigurationProperties(S3Properties.class)
 public class S3ClientConfig {
 
     private final S3Properties s3Properties;
+    private final S3EndpointRoutingProperties s3EndpointRoutingProperties;
+    private final StorageMetrics storageMetrics;
 
     @Bean
     public TransferManager transferManager(AmazonS3 s3Client) {
@@ -30,8 +50,30 @@ public class S3ClientConfig {
                 .build();
     }
 
+    // при нескольких endpoints на каждый узел строится свой клиент, а запросы между ними распределяет EndpointRouter,
+    // ссылки подписываются клиентом endpoint — адреса, доступного внешним клиентам
     @Bean
     public AmazonS3 s3Client() {
+        AmazonS3 s3Client = amazonS3(s3Properties.getEndpoint());
+        if (CollectionUtils.isEmpty(s3Properties.getEndpoints())) {
+            registerPool(s3Properties.getEndpoint(), s3Client);
+            return s3Client;
+        }
+        Map<String, AmazonS3> clients = new LinkedHashMap<>();
+        s3Properties.getEndpoints().forEach(endpoint -> clients.put(endpoint, amazonS3(endpoint)));
+        // клиент endpoint при этом только подписывает ссылки, пулы публикуются для клиентов узлов
+        clients.forEach(this::registerPool);
+        return new EndpointRouter<>(
+                AmazonS3.class,
+                s3Client,
+                clients,
+                this::isNodeFailure,
+                s3EndpointRoutingProperties,
+                storageMetrics,
+                "v1").proxy();
+    }
+
+    private AmazonS3 amazonS3(String endpoint) {
         return AmazonS3ClientBuilder.standard()
                 .withCredentials(
                         new AWSCredentialsProviderChain(
@@ -43,13 +85,53 @@ public class S3ClientConfig {
                 .withPathStyleAccessEnabled(true)
                 .withEndpointConfiguration(
                         new AwsClientBuilder.EndpointConfiguration(
-                                s3Properties.getEndpoint(),
+                                endpoint,
                                 s3Properties.getSigningRegion()))
                 .withClientConfiguration(
                         new ClientConfiguration()
                                 .withProtocol(s3Properties.getClientProtocol())
                                 .withSignerOverride(s3Properties.getSignerOverride())
-                                .withMaxErrorRetry(s3Properties.getClientMaxErrorRetry()))
+                                .withMaxErrorRetry(s3Properties.getClientMaxErrorRetry())
+                                .withMaxConnections(s3Properties.getClientMaxConnections())
+                                .withConnectionTimeout((int) s3Properties.getClientConnectionTimeout().toMillis())
+                                .withSocketTimeout((int) s3Properties.getClientSocketTimeout().toMillis())
+                                .withConnectionTTL(s3Properties.getClientConnectionTimeToLive().toMillis())
+                                .withConnectionMaxIdleMillis(s3Properties.getClientConnectionMaxIdleTime().toMillis())
+                                .withReaper(s3Properties.isClientUseReaper())
+                                .withTcpKeepAlive(s3Properties.isClientTcpKeepAlive()))
+                .withRequestHandlers(new S3MetricsRequestHandler(storageMetrics))
                 .build();
     }
+
+    // узел виноват в ошибках соединения и 5xx, а 4xx — ответ на сам запрос
+    private boolean isNodeFailure(Throwable ex) {
+        if (ex instanceof AmazonServiceException) {
+            return ((AmazonServiceException) ex).getStatusCode() >= 500;
+        }
+        return ex instanceof SdkClientException;
+    }
+
+    // сдк не отдает пул соединений клиента, поэтому менеджер соединений читается из полей самого клиента —
+    // так пул виден без client-use-reaper, а пулы узлов при нескольких endpoints не смешиваются
+    private void registerPool(String endpoint, AmazonS3 s3Client) {
+        try {
+            Field clientField = ReflectionUtils.findField(AmazonWebServiceClient.class, "client");
+            Field httpClientField = ReflectionUtils.findField(AmazonHttpClient.class, "httpClient");
+            ReflectionUtils.makeAccessible(clientField);
+            ReflectionUtils.makeAccessible(httpClientField);
+            var amazonHttpClient = (AmazonHttpClient) ReflectionUtils.getField(clientField, s3Client);
+            var httpClient = (ConnectionManagerAwareHttpClient) ReflectionUtils.getField(
+                    httpClientField,
+                    amazonHttpClient);
+            var connectionManager = httpClient.getHttpClientConnectionManager();
+            if (!(connectionManager instanceof ConnPoolControl)) {
+                log.warn("Connection pool of s3 client is not available, endpoint={}", endpoint);
+                return;
+            }
+            var connectionPool = (ConnPoolControl<?>) connectionManager;
+            storageMetrics.registerPool("v1", "Apache", endpoint, connectionPool::getTotalStats);
+        } catch (RuntimeException ex) {
+            log.warn("Connection pool of s3 client is not available, endpoint={}", endpoint, ex);
+        }
+    }
 }
@@ -1,25 +1,48 @@
 package com.rbkmoney.file.storage.configuration;
 
+import com.rbkmoney.file.storage.configuration.properties.S3EndpointRoutingProperties;
 import com.rbkmoney.file.storage.configuration.properties.S3SdkV2Properties;
+import com.rbkmoney.file.storage.service.metrics.S3SdkV2MetricsInterceptor;
+import com.rbkmoney.file.storage.service.metrics.S3SdkV2PoolMetricPublisher;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.service.routing.EndpointRouter;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.CollectionUtils;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3Configuration;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Function;
 
 @Configuration
 @RequiredArgsConstructor
 @EnableConfigurationProperties(S3SdkV2Properties.class)
 public class S3SdkV2ClientConfig {
 
+    private static final String SDK = "v2";
+
     private final S3SdkV2Properties s3SdkV2Properties;
+    private final S3EndpointRoutingProperties s3EndpointRoutingProperties;
+    private final StorageMetrics storageMetrics;
 
     @Bean(destroyMethod = "close")
     public S3Presigner s3Presigner() {
@@ -38,8 +61,20 @@ public class S3SdkV2ClientConfig {
                 .build();
     }
 
+    // при нескольких endpoints на каждый узел строится свой клиент, а запросы между ними распределяет EndpointRouter,
+    // ссылки при этом подписываются для endpoint — адреса, доступного внешним клиентам
     @Bean(destroyMethod = "close")
     public S3Client s3SdkV2Client() {
+        return routed(S3Client.class, this::s3Client);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(value = "s3-sdk-v2.async-enabled", havingValue = "true")
+    public S3AsyncClient s3SdkV2AsyncClient() {
+        return routed(S3AsyncClient.class, this::s3AsyncClient);
+    }
+
+    private S3Client s3Client(String endpoint) {
         return S3Client.builder()
                 .region(Region.of(s3SdkV2Properties.getRegion()))
                 .credentialsProvider(
@@ -47,10 +82,104 @@ public class S3SdkV2ClientConfig {
                                 AwsBasicCredentials.create(
                                         s3SdkV2Properties.getAccessKey(),
                                         s3SdkV2Properties.getSecretKey())))
-                .endpointOverride(URI.create(s3SdkV2Properties.getEndpoint()))
+                .endpointOverride(URI.create(endpoint))
+                .serviceConfiguration(S3Configuration.builder()
+                        .pathStyleAccessEnabled(true)
+                        .build())
+                .httpClientBuilder(httpClientBuilder())
+                .overrideConfiguration(metricsOverrideConfiguration(endpoint))
+                .build();
+    }
+
+    private S3AsyncClient s3AsyncClient(String endpoint) {
+        return S3AsyncClient.builder()
+                .region(Region.of(s3SdkV2Properties.getRegion()))
+                .credentialsProvider(
+                        StaticCredentialsProvider.create(
+                                AwsBasicCredentials.create(
+                                        s3SdkV2Properties.getAccessKey(),
+                                        s3SdkV2Properties.getSecretKey())))
+                .endpointOverride(URI.create(endpoint))
                 .serviceConfiguration(S3Configuration.builder()
                         .pathStyleAccessEnabled(true)
                         .build())
+                .httpClientBuilder(asyncHttpClientBuilder())
+                .overrideConfiguration(metricsOverrideConfiguration(endpoint))
+                .build();
+    }
+
+    private <T> T routed(Class<T> clientType, Function<String, T> clientFactory) {
+        var clients = new LinkedHashMap<String, T>();
+        endpoints().forEach(endpoint -> clients.put(endpoint, clientFactory.apply(endpoint)));
+        var primary = clients.values().iterator().next();
+        if (clients.size() == 1) {
+            return primary;
+        }
+        return new EndpointRouter<>(
+                clientType,
+                primary,
+                clients,
+                this::isNodeFailure,
+                s3EndpointRoutingProperties,
+                storageMetrics,
+                SDK).proxy();
+    }
+
+    private List<String> endpoints() {
+        return CollectionUtils.isEmpty(s3SdkV2Properties.getEndpoints())
+                ? List.of(s3SdkV2Properties.getEndpoint())
+                : s3SdkV2Properties.getEndpoints();
+    }
+
+    // узел виноват в ошибках соединения и 5xx, а 4xx — ответ на сам запрос
+    private boolean isNodeFailure(Throwable ex) {
+        if (ex instanceof SdkServiceException) {
+            return ((SdkServiceException) ex).statusCode() >= 500;
+        }
+        return ex instanceof SdkClientException;
+    }
+
+    private ClientOverrideConfiguration metricsOverrideConfiguration(String endpoint) {
+        return ClientOverrideConfiguration.builder()
+                .addExecutionInterceptor(new S3SdkV2MetricsInterceptor(storageMetrics))
+                .addMetricPublisher(new S3SdkV2PoolMetricPublisher(storageMetrics, endpoint))
                 .build();
     }
+
+    // клиент передается билдером, чтобы сдк закрывал его вместе с S3Client
+    private SdkHttpClient.Builder<?> httpClientBuilder() {
+        switch (s3SdkV2Properties.getHttpClient()) {
+            case APACHE:
+                return ApacheHttpClient.builder()
+                        .maxConnections(s3SdkV2Properties.getMaxConnections())
+                        .connectionTimeout(s3SdkV2Properties.getConnectionTimeout())
+                        .socketTimeout(s3SdkV2Properties.getSocketTimeout())
+                        .connectionAcquisitionTimeout(s3SdkV2Properties.getConnectionAcquisitionTimeout())
+                        .connectionTimeToLive(s3SdkV2Properties.getConnectionTimeToLive())
+                        .connectionMaxIdleTime(s3SdkV2Properties.getConnectionMaxIdleTime())
+                        .useIdleConnectionReaper(s3SdkV2Properties.isUseIdleConnectionReaper())
+                        .tcpKeepAlive(s3SdkV2Properties.isTcpKeepAlive());
+            case URL_CONNECTION:
+                return UrlConnectionHttpClient.builder()
+                        .connectionTimeout(s3SdkV2Properties.getConnectionTimeout())
+                        .socketTimeout(s3SdkV2Properties.getSocketTimeout());
+            default:
+                throw new IllegalArgumentException(
+                        String.format("Unknown http client, httpClient=%s", s3SdkV2Properties.getHttpClient()));
+        }
+    }
+
+    private SdkAsyncHttpClient.Builder<?> asyncHttpClientBuilder() {
+        return NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(s3SdkV2Properties.getMaxConnections())
+                .maxPendingConnectionAcquires(s3SdkV2Properties.getMaxPendingConnectionAcquires())
+                .connectionTimeout(s3SdkV2Properties.getConnectionTimeout())
+                .readTimeout(s3SdkV2Properties.getSocketTimeout())
+                .writeTimeout(s3SdkV2Properties.getSocketTimeout())
+                .connectionAcquisitionTimeout(s3SdkV2Properties.getConnectionAcquisitionTimeout())
+                .connectionTimeToLive(s3SdkV2Properties.getConnectionTimeToLive())
+                .connectionMaxIdleTime(s3SdkV2Properties.getConnectionMaxIdleTime())
+                .useIdleConnectionReaper(s3SdkV2Properties.isUseIdleConnectionReaper())
+                .tcpKeepAlive(s3SdkV2Properties.isTcpKeepAlive());
+    }
 }
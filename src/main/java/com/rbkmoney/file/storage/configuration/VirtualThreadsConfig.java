@@ -0,0 +1,32 @@
+package com.rbkmoney.file.storage.configuration;
+
+import com.rbkmoney.file.storage.util.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// запросы к сервису, включая woody сервлет, обрабатываются каждый в своем виртуальном потоке вместо пула tomcat:
+// поток, ждущий ответа s3, не занимает поток платформы, и число одновременных запросов ограничено
+// server.tomcat.max-connections и пулом соединений к s3, а не server.tomcat.threads.max
+@Configuration
+@ConditionalOnProperty(value = "virtual-threads.enabled", havingValue = "true")
+@Slf4j
+public class VirtualThreadsConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadsProtocolHandlerCustomizer() {
+        // на старой jvm контекст не поднимется, а не упадет позже при запуске tomcat
+        if (!VirtualThreads.isSupported()) {
+            throw new IllegalStateException(String.format(
+                    "virtual-threads.enabled requires java 21 or newer, current java version is %s",
+                    System.getProperty("java.version")));
+        }
+        return protocolHandler -> {
+            protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("http-virtual-"));
+            log.info("Requests are handled on virtual threads, protocolHandler={}", protocolHandler);
+        };
+    }
+}
@@ -0,0 +1,17 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("file-batch")
+public class FileBatchProperties {
+
+    private int parallelism;
+    private int maxSize;
+
+}
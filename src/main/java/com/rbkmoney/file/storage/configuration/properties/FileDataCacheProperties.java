@@ -0,0 +1,21 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("file-data-cache")
+public class FileDataCacheProperties {
+
+    private boolean enabled;
+    private long maximumSize;
+    private Duration expireAfterWrite;
+    private boolean fastDownloadUrlEnabled;
+
+}
@@ -0,0 +1,22 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("file-download")
+public class FileDownloadProperties {
+
+    private boolean enabled;
+    private String publicUrl;
+    private String secret;
+    private int bufferSize;
+    private Duration asyncTimeout;
+
+}
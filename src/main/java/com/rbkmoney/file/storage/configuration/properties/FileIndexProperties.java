@@ -0,0 +1,18 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("file-index")
+public class FileIndexProperties {
+
+    private boolean enabled;
+    private int maxPageSize;
+    private int maxValueLength;
+
+}
@@ -0,0 +1,19 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+import com.rbkmoney.file.storage.service.metadata.MetadataFormat;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("file-metadata")
+public class FileMetadataProperties {
+
+    private MetadataFormat format;
+    private int maxHeaderSize;
+    private boolean packedWriteEnabled;
+
+}
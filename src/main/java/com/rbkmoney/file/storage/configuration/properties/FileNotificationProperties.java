@@ -0,0 +1,23 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("file-notification")
+public class FileNotificationProperties {
+
+    private boolean enabled;
+    private String authToken;
+    private int parallelism;
+    private int queueCapacity;
+    private long missingCacheMaximumSize;
+    private Duration missingCacheExpireAfterWrite;
+
+}
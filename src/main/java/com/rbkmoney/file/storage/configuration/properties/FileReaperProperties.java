@@ -0,0 +1,23 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("file-reaper")
+public class FileReaperProperties {
+
+    private boolean enabled;
+    private Duration interval;
+    private Duration grace;
+    private int batchSize;
+    private int deletesPerSecond;
+    private Duration leaseDuration;
+
+}
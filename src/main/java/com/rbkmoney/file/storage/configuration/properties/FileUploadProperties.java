@@ -0,0 +1,27 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("file-upload")
+public class FileUploadProperties {
+
+    private boolean enabled;
+    private String publicUrl;
+    private String secret;
+    private DataSize partSize;
+    private int maxBufferedParts;
+    private int parallelism;
+    private int maxPartAttempts;
+    private Duration partRetryDelay;
+    private Duration maxPartRetryDelay;
+
+}
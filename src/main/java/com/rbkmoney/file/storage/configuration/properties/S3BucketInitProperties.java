@@ -0,0 +1,19 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("s3-bucket-init")
+public class S3BucketInitProperties {
+
+    private boolean asyncEnabled;
+    private Duration retryDelay;
+
+}
@@ -0,0 +1,16 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("s3-bucket-sharding")
+public class S3BucketShardingProperties {
+
+    private int shards;
+
+}
@@ -0,0 +1,21 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("s3-endpoint-routing")
+public class S3EndpointRoutingProperties {
+
+    private int failureThreshold;
+    private Duration ejectionDuration;
+    private Duration latencyDecay;
+    private int maxAttempts;
+
+}
@@ -0,0 +1,10 @@
+package com.rbkmoney.file.storage.configuration.properties;
+
+public enum S3HttpClientType {
+
+    // пул соединений apache http client, настраивается параметрами пула
+    APACHE,
+    // HttpURLConnection без собственного пула, keep-alive соединений jdk, учитываются только таймауты
+    URL_CONNECTION
+
+}
@@ -6,6 +6,9 @@ import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.util.List;
+
 @Getter
 @Setter
 @Component
@@ -13,11 +16,19 @@ import org.springframework.stereotype.Component;
 public class S3Properties {
 
     private String endpoint;
+    private List<String> endpoints;
     private String bucketName;
     private String signingRegion;
     private Protocol clientProtocol;
     private Integer clientMaxErrorRetry;
     private String signerOverride;
+    private Integer clientMaxConnections;
+    private Duration clientConnectionTimeout;
+    private Duration clientSocketTimeout;
+    private Duration clientConnectionTimeToLive;
+    private Duration clientConnectionMaxIdleTime;
+    private boolean clientUseReaper;
+    private boolean clientTcpKeepAlive;
     private String accessKey;
     private String secretKey;
 
@@ -5,6 +5,9 @@ import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.util.List;
+
 @Getter
 @Setter
 @Component
@@ -12,9 +15,20 @@ import org.springframework.stereotype.Component;
 public class S3SdkV2Properties {
 
     private String endpoint;
+    private List<String> endpoints;
     private String bucketName;
     private String region;
     private String accessKey;
     private String secretKey;
+    private S3HttpClientType httpClient;
+    private Integer maxConnections;
+    private Integer maxPendingConnectionAcquires;
+    private Duration connectionTimeout;
+    private Duration socketTimeout;
+    private Duration connectionAcquisitionTimeout;
+    private Duration connectionTimeToLive;
+    private Duration connectionMaxIdleTime;
+    private boolean useIdleConnectionReaper;
+    private boolean tcpKeepAlive;
 
 }
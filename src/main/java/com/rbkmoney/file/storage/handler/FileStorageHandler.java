@@ -6,8 +6,11 @@ import com.rbkmoney.file.storage.FileStorageSrv;
 import com.rbkmoney.file.storage.NewFileResult;
 import com.rbkmoney.file.storage.msgpack.Value;
 import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.download.DownloadUrlSigner;
 import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
 import com.rbkmoney.file.storage.service.exception.StorageException;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.service.upload.UploadUrlSigner;
 import com.rbkmoney.geck.common.util.TypeUtil;
 import com.rbkmoney.woody.api.flow.error.WUnavailableResultException;
 import com.rbkmoney.woody.api.flow.error.WUndefinedResultException;
@@ -28,12 +31,21 @@ import static com.rbkmoney.file.storage.util.CheckerUtil.checkString;
 public class FileStorageHandler implements FileStorageSrv.Iface {
 
     private final StorageService storageService;
+    private final StorageMetrics storageMetrics;
+    private final DownloadUrlSigner downloadUrlSigner;
+    private final UploadUrlSigner uploadUrlSigner;
 
     @Override
     public NewFileResult createNewFile(Map<String, Value> metadata, String expiresAt) throws TException {
         try {
-            Instant instant = TypeUtil.stringToInstant(expiresAt);
-            return storageService.createNewFile(metadata, instant);
+            return storageMetrics.recordHandler("createNewFile", () -> {
+                Instant instant = TypeUtil.stringToInstant(expiresAt);
+                NewFileResult newFileResult = storageService.createNewFile(metadata, instant);
+                String fileDataId = newFileResult.getFileDataId();
+                return new NewFileResult(
+                        fileDataId,
+                        uploadUrlSigner.uploadUrl(fileDataId, instant, newFileResult.getUploadUrl()));
+            });
         } catch (StorageException e) {
             throw unavailableResultException(e);
         } catch (Exception e) {
@@ -44,11 +56,13 @@ public class FileStorageHandler implements FileStorageSrv.Iface {
     @Override
     public String generateDownloadUrl(String fileDataId, String expiresAt) throws TException {
         try {
-            checkString(fileDataId, "Bad request parameter, fileDataId required and not empty arg");
-            checkString(expiresAt, "Bad request parameter, expiresAt required and not empty arg");
-            Instant instant = TypeUtil.stringToInstant(expiresAt);
-            URL url = storageService.generateDownloadUrl(fileDataId, instant);
-            return url.toString();
+            return storageMetrics.recordHandler("generateDownloadUrl", () -> {
+                checkString(fileDataId, "Bad request parameter, fileDataId required and not empty arg");
+                checkString(expiresAt, "Bad request parameter, expiresAt required and not empty arg");
+                Instant instant = TypeUtil.stringToInstant(expiresAt);
+                URL url = storageService.generateDownloadUrl(fileDataId, instant);
+                return downloadUrlSigner.downloadUrl(fileDataId, instant, url);
+            });
         } catch (FileNotFoundException e) {
             throw fileNotFound(e);
         } catch (StorageException e) {
@@ -61,8 +75,10 @@ public class FileStorageHandler implements FileStorageSrv.Iface {
     @Override
     public FileData getFileData(String fileDataId) throws TException {
         try {
-            checkString(fileDataId, "Bad request parameter, fileDataId required and not empty arg");
-            return storageService.getFileData(fileDataId);
+            return storageMetrics.recordHandler("getFileData", () -> {
+                checkString(fileDataId, "Bad request parameter, fileDataId required and not empty arg");
+                return storageService.getFileData(fileDataId);
+            });
         } catch (FileNotFoundException e) {
             throw fileNotFound(e);
         } catch (StorageException e) {
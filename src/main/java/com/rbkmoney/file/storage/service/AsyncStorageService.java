@@ -0,0 +1,104 @@
+package com.rbkmoney.file.storage.service;
+
+import com.rbkmoney.file.storage.FileData;
+import com.rbkmoney.file.storage.NewFileResult;
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.download.FileContent;
+import com.rbkmoney.file.storage.service.download.FileContentRequest;
+import com.rbkmoney.file.storage.service.reaper.PendingUpload;
+import com.rbkmoney.file.storage.service.reaper.ReapedFiles;
+import com.rbkmoney.file.storage.service.upload.NewMultipartFileResult;
+
+import java.net.URL;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public interface AsyncStorageService extends StorageService {
+
+    CompletableFuture<NewFileResult> createNewFileAsync(Map<String, Value> metadata, Instant expirationTime);
+
+    CompletableFuture<URL> generateDownloadUrlAsync(String fileDataId, Instant expirationTime);
+
+    CompletableFuture<FileData> getFileDataAsync(String fileDataId);
+
+    CompletableFuture<FileContent> getFileContentAsync(FileContentRequest request);
+
+    CompletableFuture<NewMultipartFileResult> createNewMultipartFileAsync(
+            Map<String, Value> metadata,
+            String fileName,
+            Instant expirationTime,
+            int partCount);
+
+    CompletableFuture<Void> completeMultipartFileAsync(String fileDataId, String uploadId, List<String> partETags);
+
+    CompletableFuture<Void> abortMultipartFileAsync(String fileDataId, String uploadId);
+
+    CompletableFuture<Void> deleteFileAsync(String fileDataId);
+
+    CompletableFuture<ReapedFiles> deleteAbandonedFilesAsync(List<PendingUpload> pendingUploads);
+
+    // синхронные методы ждут future на вызывающем потоке
+    @Override
+    default NewFileResult createNewFile(Map<String, Value> metadata, Instant expirationTime) {
+        return join(createNewFileAsync(metadata, expirationTime));
+    }
+
+    @Override
+    default URL generateDownloadUrl(String fileDataId, Instant expirationTime) {
+        return join(generateDownloadUrlAsync(fileDataId, expirationTime));
+    }
+
+    @Override
+    default FileData getFileData(String fileDataId) {
+        return join(getFileDataAsync(fileDataId));
+    }
+
+    @Override
+    default FileContent getFileContent(FileContentRequest request) {
+        return join(getFileContentAsync(request));
+    }
+
+    @Override
+    default NewMultipartFileResult createNewMultipartFile(
+            Map<String, Value> metadata,
+            String fileName,
+            Instant expirationTime,
+            int partCount) {
+        return join(createNewMultipartFileAsync(metadata, fileName, expirationTime, partCount));
+    }
+
+    @Override
+    default void completeMultipartFile(String fileDataId, String uploadId, List<String> partETags) {
+        join(completeMultipartFileAsync(fileDataId, uploadId, partETags));
+    }
+
+    @Override
+    default void abortMultipartFile(String fileDataId, String uploadId) {
+        join(abortMultipartFileAsync(fileDataId, uploadId));
+    }
+
+    @Override
+    default void deleteFile(String fileDataId) {
+        join(deleteFileAsync(fileDataId));
+    }
+
+    @Override
+    default ReapedFiles deleteAbandonedFiles(List<PendingUpload> pendingUploads) {
+        return join(deleteAbandonedFilesAsync(pendingUploads));
+    }
+
+    // исключения сервиса пробрасываются как есть, чтобы хендлер мог их различать
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+}
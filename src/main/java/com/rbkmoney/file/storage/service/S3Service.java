@@ -3,18 +3,39 @@ package com.rbkmoney.file.storage.service;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.SdkBaseException;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.*;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.Upload;
+import com.amazonaws.util.IOUtils;
 import com.rbkmoney.file.storage.FileData;
 import com.rbkmoney.file.storage.NewFileResult;
 import com.rbkmoney.file.storage.configuration.properties.S3Properties;
 import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.batch.BatchExecutor;
+import com.rbkmoney.file.storage.service.batch.BatchResult;
+import com.rbkmoney.file.storage.service.bucket.BucketInitializer;
+import com.rbkmoney.file.storage.service.bucket.BucketSharding;
+import com.rbkmoney.file.storage.service.dedup.ContentDeduplicator;
+import com.rbkmoney.file.storage.service.download.FileContent;
+import com.rbkmoney.file.storage.service.download.FileContentRequest;
 import com.rbkmoney.file.storage.service.exception.ExtractMetadataException;
+import com.rbkmoney.file.storage.service.exception.FileAlreadyUploadedException;
 import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
 import com.rbkmoney.file.storage.service.exception.StorageException;
 import com.rbkmoney.file.storage.service.exception.WaitingUploadException;
-import com.rbkmoney.file.storage.util.DamselUtil;
+import com.rbkmoney.file.storage.service.index.FileIndex;
+import com.rbkmoney.file.storage.service.metadata.EncodedMetadata;
+import com.rbkmoney.file.storage.service.metadata.MetadataSerializer;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.service.reaper.PendingUpload;
+import com.rbkmoney.file.storage.service.reaper.PendingUploads;
+import com.rbkmoney.file.storage.service.reaper.ReapedFiles;
+import com.rbkmoney.file.storage.service.singleflight.SingleFlight;
+import com.rbkmoney.file.storage.service.upload.FileUpload;
+import com.rbkmoney.file.storage.service.upload.MultipartTarget;
+import com.rbkmoney.file.storage.service.upload.MultipartUploader;
+import com.rbkmoney.file.storage.service.upload.NewMultipartFileResult;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
@@ -28,9 +49,11 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.DigestInputStream;
 import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 import static java.lang.String.format;
 
@@ -43,35 +66,52 @@ public class S3Service implements StorageService {
     private static final String FILE_DATA_ID = "x-rbkmoney-file-data-id";
     private static final String FILE_ID = "x-rbkmoney-file-id";
     private static final String CREATED_AT = "x-rbkmoney-created-at";
-    private static final String METADATA = "x-rbkmoney-metadata-";
+    private static final String CONTENT_DISPOSITION = "x-rbkmoney-content-disposition";
     private static final String FILENAME_PARAM = "filename=";
+    private static final String FILE_DTO_FLIGHT = "file-dto:";
+    private static final String FILE_NAME_FLIGHT = "file-name:";
+    private static final String BYTES_UNIT = "bytes=";
+    // ограничение s3 на число объектов в одном DeleteObjects
+    private static final int MAX_DELETE_OBJECTS = 1000;
 
     private final TransferManager transferManager;
     private final AmazonS3 s3Client;
     private final S3Properties s3Properties;
-    private String bucketName;
+    private final BatchExecutor batchExecutor;
+    private final MetadataSerializer metadataSerializer;
+    private final StorageMetrics storageMetrics;
+    private final SingleFlight singleFlight;
+    private final BucketInitializer bucketInitializer;
+    private final BucketSharding bucketSharding;
+    private final MultipartUploader multipartUploader;
+    private final ContentDeduplicator contentDeduplicator;
+    private final FileIndex fileIndex;
+    private final PendingUploads pendingUploads;
 
     @PostConstruct
     public void init() {
-        this.bucketName = s3Properties.getBucketName();
-        bucketInit();
+        bucketInitializer.initialize(bucketSharding.bucketNames(s3Properties.getBucketName()), this::bucketInit);
     }
 
     @Override
     public NewFileResult createNewFile(Map<String, Value> metadata, Instant expirationTime) {
-        String fileDataId = id();
-        String fileId = id();
+        String fileDataId = bucketSharding.newFileId();
+        // объект с файлом кладется в тот же бакет, что и объект с метаданными
+        String fileId = bucketSharding.newFileId(fileDataId);
+        String bucketName = bucketName(fileDataId);
 
         log.info("Trying to create NewFileResult, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
 
         FileDto fileDto = fileDto(fileDataId, fileId, metadata);
 
+        pendingUploads.track(fileDataId, expirationTime);
+
         // записывается неизменяемый фейковый файл с метаданными, в котором находится ссылка на реальный файл
         uploadEmptyFileWithMetadata(fileDataId, fileDto);
 
         // генерируется ссылка на выгрузку файла в хранилище напрямую в цеф по ключу fileId
         log.info("Generate Upload Url, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
-        URL uploadUrl = generatePresignedUrl(fileDataId, fileId, expirationTime, HttpMethod.PUT);
+        URL uploadUrl = generatePresignedUrl(fileDataId, fileId, expirationTime, HttpMethod.PUT, null);
 
         log.info("NewFileResult has been successfully created, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
 
@@ -80,11 +120,12 @@ public class S3Service implements StorageService {
 
     @Override
     public URL generateDownloadUrl(String fileDataId, Instant expirationTime) {
+        String bucketName = bucketName(fileDataId);
         log.info("Trying to generate Download Url, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
 
         // достается неизменяемый фейковый файл с метаданными
         log.info("Extract file, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
-        FileDto fileDto = getFileDto(fileDataId);
+        FileDto fileDto = singleFlight.execute(FILE_DTO_FLIGHT + fileDataId, () -> getFileDto(fileDataId));
 
         // генерируем ссылку на загрузку файла из хранилища напрямую в цеф по ключу fileId
         log.info("Generate Download Url, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
@@ -92,7 +133,8 @@ public class S3Service implements StorageService {
                 fileDto.getFileDataId(),
                 fileDto.getFileId(),
                 expirationTime,
-                HttpMethod.GET);
+                HttpMethod.GET,
+                fileDto.getContentDisposition());
 
         log.info("Download Url has been successfully generate, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
 
@@ -101,26 +143,256 @@ public class S3Service implements StorageService {
 
     @Override
     public FileData getFileData(String fileDataId) {
+        String bucketName = bucketName(fileDataId);
         log.info("Trying to get FileData, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
 
         // достается неизменяемый фейковый файл с метаданными
         log.info("Extract file, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
-        FileDto fileDto = getFileDto(fileDataId);
+        FileDto fileDto = singleFlight.execute(FILE_DTO_FLIGHT + fileDataId, () -> getFileDto(fileDataId));
 
         // достается реальный файл формата s3
-        String fileName = getFileName(fileDataId, fileDto);
+        String fileName = singleFlight.execute(
+                FILE_NAME_FLIGHT + fileDataId,
+                () -> getFileName(fileDataId, fileDto));
 
         log.info("FileData has been successfully got, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
 
         return new FileData(fileDto.getFileDataId(), fileName, fileDto.getCreatedAt(), fileDto.getMetadata());
     }
 
+    @Override
+    public BatchResult<URL> generateDownloadUrlBatch(List<String> fileDataIds, Instant expirationTime) {
+        return batchExecutor.execute(fileDataIds, fileDataId -> generateDownloadUrl(fileDataId, expirationTime));
+    }
+
+    @Override
+    public BatchResult<FileData> getFileDataBatch(List<String> fileDataIds) {
+        return batchExecutor.execute(fileDataIds, this::getFileData);
+    }
+
+    @Override
+    public FileContent getFileContent(FileContentRequest request) {
+        String fileDataId = request.getFileDataId();
+        FileDto fileDto = singleFlight.execute(FILE_DTO_FLIGHT + fileDataId, () -> getFileDto(fileDataId));
+        String fileId = fileDto.getFileId();
+
+        // на невыполненное условие sdk возвращает null вместо ответа s3, поэтому условия проверяются по заголовкам
+        // файла, а тело запрашивается с условием на тот же ETag, чтобы файл не подменился между запросами
+        ObjectMetadata objectMetadata = getObjectMetadata(fileDataId, fileId);
+        String eTag = quote(objectMetadata.getETag());
+        Integer preconditionStatus = request.preconditionStatus(eTag, objectMetadata.getLastModified().toInstant());
+        if (preconditionStatus != null) {
+            return FileContent.status(preconditionStatus, eTag);
+        }
+        // HEAD отдает заголовки всего файла, Range для него не обязателен
+        if (request.isHeadOnly()) {
+            return fileContent(objectMetadata, fileDto, null, () -> {
+            });
+        }
+
+        GetObjectRequest getObjectRequest = new GetObjectRequest(bucketName(fileId), fileId)
+                .withMatchingETagConstraint(objectMetadata.getETag());
+        if (!applyRange(getObjectRequest, request.getRange(), objectMetadata.getContentLength())) {
+            return FileContent.status(FileContent.RANGE_NOT_SATISFIABLE, eTag);
+        }
+        try {
+            S3Object s3Object = s3Client.getObject(getObjectRequest);
+            if (s3Object == null) {
+                throw new StorageException(
+                        format("File has been changed while reading, fileDataId=%s, bucketId=%s",
+                                fileDataId, bucketName(fileId)));
+            }
+            // тело не буферизуется — поток читается прямо из соединения с s3
+            S3ObjectInputStream content = s3Object.getObjectContent();
+            return fileContent(s3Object.getObjectMetadata(), fileDto, content, content::abort);
+        } catch (SdkBaseException ex) {
+            throw new StorageException(
+                    format("Failed to get S3Object content, fileDataId=%s, bucketId=%s",
+                            fileDataId, bucketName(fileId)),
+                    ex
+            );
+        }
+    }
+
+    // TransferManager загружает части потока неизвестной длины последовательно, поэтому тело запроса загружается
+    // общим MultipartUploader — части параллельно, а память ограничена его буферами
+    @Override
+    public long uploadFile(FileUpload fileUpload) {
+        String fileDataId = fileUpload.getFileDataId();
+        String bucketName = bucketName(fileDataId);
+        log.info("Trying to upload file, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
+
+        // ключ реального файла записан в фейковом файле с метаданными
+        ObjectMetadata objectMetadata = getObjectMetadata(fileDataId, fileDataId);
+        String fileId = getFileIdFromObjectMetadata(fileDataId, objectMetadata);
+
+        if (!contentDeduplicator.isEnabled()) {
+            long uploaded = multipartUploader.upload(
+                    fileId,
+                    fileUpload.getContent(),
+                    new S3MultipartTarget(
+                            fileDataId, fileId, fileUpload.getContentDisposition(), fileUpload.getContentType()));
+
+            fileIndex.markUploaded(fileDataId);
+            log.info("File has been successfully uploaded, fileDataId='{}', bucketId='{}', bytes={}",
+                    fileDataId, bucketName, uploaded);
+
+            return uploaded;
+        }
+
+        // после дедупликации файл может ссылаться на общий объект, перезапись которого испортила бы чужие файлы
+        if (doesObjectExist(fileDataId, fileId)) {
+            throw new FileAlreadyUploadedException(
+                    format("File has been already uploaded, fileDataId=%s, bucketId=%s", fileDataId, bucketName));
+        }
+
+        DigestInputStream content = contentDeduplicator.digest(fileUpload.getContent());
+        long uploaded = multipartUploader.upload(
+                fileId,
+                content,
+                new S3MultipartTarget(
+                        fileDataId, fileId, fileUpload.getContentDisposition(), fileUpload.getContentType()));
+
+        String originalId = contentDeduplicator.acquire(
+                bucketName, fileDataId, fileId, contentDeduplicator.contentHash(content));
+        if (!originalId.equals(fileId)) {
+            // файл переключается на оригинал до удаления своей копии, поэтому всегда ссылается на целый объект
+            replaceFileId(fileDataId, objectMetadata, originalId, fileUpload.getContentDisposition());
+            deleteObject(fileDataId, fileId);
+        }
+
+        fileIndex.markUploaded(fileDataId);
+        log.info("File has been successfully uploaded, fileDataId='{}', bucketId='{}', bytes={}, fileId='{}'",
+                fileDataId, bucketName, uploaded, originalId);
+
+        return uploaded;
+    }
+
+    @Override
+    public NewMultipartFileResult createNewMultipartFile(
+            Map<String, Value> metadata,
+            String fileName,
+            Instant expirationTime,
+            int partCount) {
+        String fileDataId = bucketSharding.newFileId();
+        String fileId = bucketSharding.newFileId(fileDataId);
+        String bucketName = bucketName(fileDataId);
+
+        log.info("Trying to create NewMultipartFileResult, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
+
+        pendingUploads.track(fileDataId, expirationTime);
+        uploadEmptyFileWithMetadata(fileDataId, fileDto(fileDataId, fileId, metadata));
+
+        // имя файла задается при создании загрузки, в presigned ссылки на части заголовки не передаются
+        String uploadId = new S3MultipartTarget(fileDataId, fileId, FileUpload.contentDisposition(fileName), null)
+                .createMultipartUpload();
+        pendingUploads.trackMultipart(fileDataId, expirationTime, uploadId);
+
+        List<String> partUploadUrls = new ArrayList<>(partCount);
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            partUploadUrls.add(generatePresignedUploadPartUrl(
+                    fileDataId, fileId, uploadId, partNumber, expirationTime).toString());
+        }
+
+        log.info("NewMultipartFileResult has been successfully created, fileDataId='{}', bucketId='{}', parts={}",
+                fileDataId, bucketName, partCount);
+
+        return new NewMultipartFileResult(fileDataId, uploadId, partUploadUrls);
+    }
+
+    @Override
+    public void completeMultipartFile(String fileDataId, String uploadId, List<String> partETags) {
+        String fileId = getFileIdFromObjectMetadata(fileDataId, getObjectMetadata(fileDataId, fileDataId));
+
+        new S3MultipartTarget(fileDataId, fileId, null, null).completeMultipartUpload(uploadId, partETags);
+        fileIndex.markUploaded(fileDataId);
+
+        log.info("Multipart upload has been successfully completed, fileDataId='{}', bucketId='{}', parts={}",
+                fileDataId, bucketName(fileDataId), partETags.size());
+    }
+
+    @Override
+    public void abortMultipartFile(String fileDataId, String uploadId) {
+        String fileId = getFileIdFromObjectMetadata(fileDataId, getObjectMetadata(fileDataId, fileDataId));
+
+        new S3MultipartTarget(fileDataId, fileId, null, null).abortMultipartUpload(uploadId);
+
+        log.info("Multipart upload has been successfully aborted, fileDataId='{}', bucketId='{}'",
+                fileDataId, bucketName(fileDataId));
+    }
+
+    @Override
+    public void deleteFile(String fileDataId) {
+        String bucketName = bucketName(fileDataId);
+        log.info("Trying to delete file, fileDataId='{}', bucketId='{}'", fileDataId, bucketName);
+
+        ObjectMetadata objectMetadata = getDeletedFileMetadata(fileDataId);
+        String fileId = getFileIdFromObjectMetadata(fileDataId, objectMetadata);
+
+        deleteObject(fileDataId, fileDataId);
+        // объект с файлом мог остаться общим после дедупликации, даже если сейчас она выключена,
+        // поэтому он удаляется только вместе с последней ссылкой на него
+        boolean released = contentDeduplicator.release(bucketName, fileDataId, fileId);
+        fileIndex.remove(fileDataId);
+
+        log.info("File has been successfully deleted, fileDataId='{}', bucketId='{}', fileId='{}', released={}",
+                fileDataId, bucketName, fileId, released);
+    }
+
+    // файл брошен, если объект с метаданными есть, а объекта с файлом по ссылке из него так и нет.
+    // Ссылки на загрузку к этому моменту уже истекли, поэтому файл не появится между проверкой и удалением
+    @Override
+    public ReapedFiles deleteAbandonedFiles(List<PendingUpload> pendingUploads) {
+        // fileId брошенного файла, null — файл загружен или уже удален, и его отметка больше не нужна
+        Map<String, String> abandonedFileIds = new LinkedHashMap<>();
+        for (PendingUpload pendingUpload : pendingUploads) {
+            if (!abandonedFileIds.containsKey(pendingUpload.getFileDataId())) {
+                abandonedFileIds.put(pendingUpload.getFileDataId(), abandonedFileId(pendingUpload.getFileDataId()));
+            }
+        }
+        // multipart загрузка отменяется до удаления метаданных, иначе ее части останутся в s3. Файл, загрузку
+        // которого не удалось отменить, остается со своей отметкой до следующего прохода
+        Set<String> notAborted = new HashSet<>();
+        for (PendingUpload pendingUpload : pendingUploads) {
+            String fileId = abandonedFileIds.get(pendingUpload.getFileDataId());
+            if (pendingUpload.getUploadId() != null && fileId != null && !abortAbandonedUpload(pendingUpload, fileId)) {
+                notAborted.add(pendingUpload.getFileDataId());
+            }
+        }
+        List<String> resolved = new ArrayList<>();
+        Map<String, List<String>> abandonedByBucket = new LinkedHashMap<>();
+        abandonedFileIds.forEach((fileDataId, fileId) -> {
+            if (fileId == null) {
+                resolved.add(fileDataId);
+            } else if (!notAborted.contains(fileDataId)) {
+                abandonedByBucket.computeIfAbsent(bucketName(fileDataId), key -> new ArrayList<>()).add(fileDataId);
+            }
+        });
+        List<String> deleted = new ArrayList<>();
+        abandonedByBucket.forEach((bucketName, bucketFileDataIds) -> {
+            for (int from = 0; from < bucketFileDataIds.size(); from += MAX_DELETE_OBJECTS) {
+                deleted.addAll(deleteAbandonedObjects(bucketName, bucketFileDataIds.subList(
+                        from, Math.min(bucketFileDataIds.size(), from + MAX_DELETE_OBJECTS))));
+            }
+        });
+        resolved.addAll(deleted);
+        log.info("Abandoned files have been deleted, checked={}, deleted={}", pendingUploads.size(), deleted.size());
+        return new ReapedFiles(deleted, resolved);
+    }
+
+    // объект с файлом загружается по ключу fileId, из которого не получить fileDataId, а кэша разобранных файлов
+    // у AWS SDK S3 V1 нет, поэтому уведомления о загрузке пропускаются
+    @Override
+    public void resolveUploadedFile(String fileId) {
+        log.debug("Upload notifications are not supported by AWS SDK S3 V1, fileId='{}'", fileId);
+    }
+
     @PreDestroy
     public void terminate() {
         transferManager.shutdownNow(true);
     }
 
-    private void bucketInit() {
+    private void bucketInit(String bucketName) {
         try {
             if (!s3Client.doesBucketExistV2(bucketName)) {
                 s3Client.createBucket(bucketName);
@@ -135,109 +407,315 @@ public class S3Service implements StorageService {
 
     private void uploadEmptyFileWithMetadata(String fileDataId, FileDto fileDto) {
         try {
-            PutObjectRequest putObjectRequest = putObjectRequest(fileDataId, fileDto, byteArrayInputStream());
+            EncodedMetadata encodedMetadata = metadataSerializer.encode(fileDto.getMetadata());
+            PutObjectRequest putObjectRequest = putObjectRequest(
+                    fileDataId,
+                    fileDto,
+                    encodedMetadata,
+                    new ByteArrayInputStream(encodedMetadata.getBody())
+            );
 
             Upload upload = transferManager.upload(putObjectRequest);
 
             upload.waitForUploadResult();
+
+            fileIndex.index(fileDataId, Instant.parse(fileDto.getCreatedAt()), fileDto.getMetadata());
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new WaitingUploadException(
                     format(
                             "Thread is interrupted while waiting for the file upload to complete, " +
                                     "fileDataId=%s, bucketId=%s",
-                            fileDataId, bucketName
+                            fileDataId, bucketName(fileDataId)
                     )
             );
         } catch (SdkBaseException ex) {
             throw new StorageException(
-                    format("Failed to upload file, fileDataId=%s, bucketId=%s", fileDataId, bucketName),
+                    format("Failed to upload file, fileDataId=%s, bucketId=%s", fileDataId, bucketName(fileDataId)),
                     ex
             );
         }
     }
 
-    private URL generatePresignedUrl(String fileDataId, String fileId, Instant expirationTime, HttpMethod httpMethod) {
+    private URL generatePresignedUrl(
+            String fileDataId,
+            String fileId,
+            Instant expirationTime,
+            HttpMethod httpMethod,
+            String contentDisposition) {
         try {
             GeneratePresignedUrlRequest request = generatePresignedUrlRequest(fileId, expirationTime, httpMethod);
+            // общий после дедупликации объект хранит имя файла оригинала,
+            // поэтому имя своего файла подставляется в ответ
+            if (contentDisposition != null) {
+                request.setResponseHeaders(new ResponseHeaderOverrides().withContentDisposition(contentDisposition));
+            }
 
-            URL url = s3Client.generatePresignedUrl(request);
+            URL url = storageMetrics.recordPresign(
+                    httpMethod == HttpMethod.GET ? "PresignGetObject" : "PresignPutObject",
+                    () -> s3Client.generatePresignedUrl(request));
 
             checkNotNull("PresignedUrl", fileDataId, url);
 
             return url;
         } catch (SdkBaseException ex) {
             throw new StorageException(
-                    format("Failed to generate PresignedUrl, fileDataId=%s, bucketId=%s", fileDataId, bucketName),
+                    format("Failed to generate PresignedUrl, fileDataId=%s, bucketId=%s",
+                            fileDataId, bucketName(fileDataId)),
+                    ex
+            );
+        }
+    }
+
+    private URL generatePresignedUploadPartUrl(
+            String fileDataId,
+            String fileId,
+            String uploadId,
+            int partNumber,
+            Instant expirationTime) {
+        try {
+            GeneratePresignedUrlRequest request = generatePresignedUrlRequest(fileId, expirationTime, HttpMethod.PUT);
+            request.addRequestParameter("uploadId", uploadId);
+            request.addRequestParameter("partNumber", String.valueOf(partNumber));
+
+            URL url = storageMetrics.recordPresign("PresignUploadPart", () -> s3Client.generatePresignedUrl(request));
+
+            checkNotNull("PresignedUrl", fileDataId, url);
+
+            return url;
+        } catch (SdkBaseException ex) {
+            throw new StorageException(
+                    format("Failed to generate PresignedUrl for upload part, fileDataId=%s, bucketId=%s, partNumber=%d",
+                            fileDataId, bucketName(fileDataId), partNumber),
                     ex
             );
         }
     }
 
     private FileDto getFileDto(String fileDataId) {
-        S3Object s3Object = getS3Object(fileDataId, fileDataId);
+        // в формате body фейковый файл сразу читается вместе с телом одним запросом
+        if (metadataSerializer.isReadWithBody()) {
+            FileDataObject fileDataObject = getFileDataObject(fileDataId);
+
+            checkRealFileStatus(fileDataId, fileDataObject.getObjectMetadata());
 
-        checkRealFileStatus(fileDataId, s3Object);
+            return getFileDto(fileDataId, fileDataObject.getObjectMetadata(), fileDataObject::getContent);
+        }
 
-        return getFileDto(fileDataId, s3Object.getObjectMetadata());
+        ObjectMetadata objectMetadata = getObjectMetadata(fileDataId, fileDataId);
+
+        checkRealFileStatus(fileDataId, objectMetadata);
+
+        // упакованные метаданные, не влезшие в заголовок, лежат в теле фейкового файла
+        return getFileDto(fileDataId, objectMetadata, () -> getFileDataObject(fileDataId).getContent());
     }
 
-    private FileDto getFileDto(String fileDataId, ObjectMetadata objectMetadata) {
+    private FileDto getFileDto(String fileDataId, ObjectMetadata objectMetadata, Supplier<ByteBuffer> content) {
         String id = getUserMetadataParameter(fileDataId, objectMetadata, FILE_DATA_ID);
         String fileId = getFileIdFromObjectMetadata(fileDataId, objectMetadata);
         String createdAt = getUserMetadataParameter(fileDataId, objectMetadata, CREATED_AT);
-        Map<String, Value> metadata = objectMetadata.getUserMetadata().entrySet().stream()
-                .filter(entry -> entry.getKey().startsWith(METADATA) && entry.getValue() != null)
-                .collect(
-                        Collectors.toMap(
-                                o -> o.getKey().substring(METADATA.length()),
-                                o -> DamselUtil.fromJson(o.getValue(), Value.class)
-                        )
-                );
-        return new FileDto(id, fileId, createdAt, metadata);
+        Map<String, String> userMetadata = objectMetadata.getUserMetadata();
+        Map<String, Value> metadata = metadataSerializer.isStoredInBody(userMetadata)
+                ? metadataSerializer.decodeBody(content.get())
+                : metadataSerializer.decodeHeaders(userMetadata);
+        String contentDisposition = objectMetadata.getUserMetaDataOf(CONTENT_DISPOSITION);
+        return new FileDto(id, fileId, createdAt, metadata, contentDisposition);
+    }
+
+    private FileDataObject getFileDataObject(String fileDataId) {
+        try (S3Object s3Object = s3Client.getObject(bucketName(fileDataId), fileDataId)) {
+            checkNotNull("S3Object", fileDataId, s3Object);
+
+            return new FileDataObject(
+                    s3Object.getObjectMetadata(),
+                    ByteBuffer.wrap(IOUtils.toByteArray(s3Object.getObjectContent()))
+            );
+        } catch (SdkBaseException | IOException ex) {
+            throw new StorageException(
+                    format("Failed to get S3Object, fileDataId=%s, bucketId=%s", fileDataId, bucketName(fileDataId)),
+                    ex
+            );
+        }
     }
 
     private String getFileName(String fileDataId, FileDto fileDto) {
-        S3Object s3Object = getS3Object(fileDataId, fileDto.getFileId());
+        if (fileDto.getContentDisposition() != null) {
+            return extractFileName(fileDto.getContentDisposition());
+        }
 
-        return extractFileName(s3Object);
+        ObjectMetadata objectMetadata = getObjectMetadata(fileDataId, fileDto.getFileId());
+
+        return extractFileName(objectMetadata.getContentDisposition());
     }
 
-    private S3Object getS3Object(String fileDataId, String id) {
-        try (S3Object object = s3Client.getObject(new GetObjectRequest(bucketName, id))) {
+    // для метаданных и имени файла достаточно заголовков, поэтому вместо GET с телом объекта
+    // выполняется HEAD запрос — иначе для больших файлов sdk вычитывает или обрывает соединение
+    private ObjectMetadata getObjectMetadata(String fileDataId, String id) {
+        try {
+            ObjectMetadata objectMetadata = s3Client.getObjectMetadata(
+                    new GetObjectMetadataRequest(bucketName(id), id));
 
-            checkNotNull("S3Object", fileDataId, object);
+            checkNotNull("ObjectMetadata", fileDataId, objectMetadata);
 
-            return object;
+            return objectMetadata;
         } catch (SdkBaseException ex) {
             throw new StorageException(
-                    format("Failed to get S3Object, fileDataId=%s, bucketId=%s", fileDataId, bucketName),
+                    format("Failed to get ObjectMetadata, fileDataId=%s, bucketId=%s",
+                            fileDataId, bucketName(fileDataId)),
                     ex
             );
-        } catch (IOException ex) {
-            throw new StorageException(
-                    format("Unable to close S3Object, fileDataId=%s, bucketId=%s", fileDataId, bucketName),
-                    ex);
         }
     }
 
-    private void checkRealFileStatus(String fileDataId, S3Object s3Object) {
+    private void checkRealFileStatus(String fileDataId, ObjectMetadata objectMetadata) {
         try {
-            ObjectMetadata objectMetadata = s3Object.getObjectMetadata();
-
             String fileId = getFileIdFromObjectMetadata(fileDataId, objectMetadata);
-            if (s3Client.doesObjectExist(bucketName, fileId)) {
+            if (s3Client.doesObjectExist(bucketName(fileDataId), fileId)) {
                 return;
             }
         } catch (SdkBaseException ex) {
             throw new StorageException(
-                    format("Failed to check on exist the file, fileDataId=%s, bucketId=%s", fileDataId, bucketName),
+                    format("Failed to check on exist the file, fileDataId=%s, bucketId=%s",
+                            fileDataId, bucketName(fileDataId)),
                     ex
             );
         }
 
         // если файл не соотвествует условиям, блокируем доступ к нему
-        throw new FileNotFoundException(format("S3Object is null, fileDataId=%s, bucketId=%s", fileDataId, bucketName));
+        throw new FileNotFoundException(
+                format("S3Object is null, fileDataId=%s, bucketId=%s", fileDataId, bucketName(fileDataId)));
+    }
+
+    private boolean doesObjectExist(String fileDataId, String id) {
+        try {
+            return s3Client.doesObjectExist(bucketName(id), id);
+        } catch (SdkBaseException ex) {
+            throw new StorageException(
+                    format("Failed to check on exist the file, fileDataId=%s, bucketId=%s",
+                            fileDataId, bucketName(fileDataId)),
+                    ex
+            );
+        }
+    }
+
+    private void replaceFileId(
+            String fileDataId,
+            ObjectMetadata objectMetadata,
+            String fileId,
+            String contentDisposition) {
+        try {
+            ObjectMetadata newObjectMetadata = new ObjectMetadata();
+            newObjectMetadata.setUserMetadata(new HashMap<>(objectMetadata.getUserMetadata()));
+            newObjectMetadata.addUserMetadata(FILE_ID, fileId);
+            newObjectMetadata.addUserMetadata(CONTENT_DISPOSITION, contentDisposition);
+            s3Client.copyObject(new CopyObjectRequest(
+                    bucketName(fileDataId), fileDataId, bucketName(fileDataId), fileDataId)
+                    .withNewObjectMetadata(newObjectMetadata));
+        } catch (SdkBaseException ex) {
+            throw new StorageException(
+                    format("Failed to replace fileId in ObjectMetadata, fileDataId=%s, bucketId=%s",
+                            fileDataId, bucketName(fileDataId)),
+                    ex
+            );
+        }
+    }
+
+    private void deleteObject(String fileDataId, String id) {
+        try {
+            s3Client.deleteObject(bucketName(id), id);
+        } catch (SdkBaseException ex) {
+            throw new StorageException(
+                    format("Failed to delete object, fileDataId=%s, bucketId=%s", fileDataId, bucketName(fileDataId)),
+                    ex
+            );
+        }
+    }
+
+    // удаление отсутствующего файла — ошибка клиента, а не хранилища, как и в AWS SDK S3 V2
+    private ObjectMetadata getDeletedFileMetadata(String fileDataId) {
+        try {
+            return s3Client.getObjectMetadata(bucketName(fileDataId), fileDataId);
+        } catch (AmazonS3Exception ex) {
+            if (ex.getStatusCode() == 404) {
+                throw new FileNotFoundException(
+                        format("File not found, fileDataId=%s, bucketId=%s", fileDataId, bucketName(fileDataId)));
+            }
+            throw new StorageException(
+                    format("Failed to get ObjectMetadata, fileDataId=%s, bucketId=%s",
+                            fileDataId, bucketName(fileDataId)),
+                    ex
+            );
+        } catch (SdkBaseException ex) {
+            throw new StorageException(
+                    format("Failed to get ObjectMetadata, fileDataId=%s, bucketId=%s",
+                            fileDataId, bucketName(fileDataId)),
+                    ex
+            );
+        }
+    }
+
+    private String abandonedFileId(String fileDataId) {
+        try {
+            ObjectMetadata objectMetadata = s3Client.getObjectMetadata(bucketName(fileDataId), fileDataId);
+            String fileId = getFileIdFromObjectMetadata(fileDataId, objectMetadata);
+            return doesObjectExist(fileDataId, fileId) ? null : fileId;
+        } catch (AmazonS3Exception ex) {
+            // файл уже удален
+            if (ex.getStatusCode() == 404) {
+                return null;
+            }
+            throw new StorageException(
+                    format("Failed to get ObjectMetadata, fileDataId=%s, bucketId=%s",
+                            fileDataId, bucketName(fileDataId)),
+                    ex
+            );
+        } catch (SdkBaseException ex) {
+            throw new StorageException(
+                    format("Failed to get ObjectMetadata, fileDataId=%s, bucketId=%s",
+                            fileDataId, bucketName(fileDataId)),
+                    ex
+            );
+        }
+    }
+
+    private boolean abortAbandonedUpload(PendingUpload pendingUpload, String fileId) {
+        String fileDataId = pendingUpload.getFileDataId();
+        try {
+            new S3MultipartTarget(fileDataId, fileId, null, null).abortMultipartUpload(pendingUpload.getUploadId());
+            log.info("Abandoned multipart upload has been aborted, fileDataId='{}', bucketId='{}'",
+                    fileDataId, bucketName(fileDataId));
+            return true;
+        } catch (StorageException ex) {
+            // загрузка уже завершена или отменена
+            if (ex.getCause() instanceof AmazonS3Exception
+                    && ((AmazonS3Exception) ex.getCause()).getStatusCode() == 404) {
+                return true;
+            }
+            log.warn("Failed to abort abandoned multipart upload, fileDataId='{}', bucketId='{}'",
+                    fileDataId, bucketName(fileDataId), ex);
+            return false;
+        }
+    }
+
+    private List<String> deleteAbandonedObjects(String bucketName, List<String> fileDataIds) {
+        try {
+            s3Client.deleteObjects(new DeleteObjectsRequest(bucketName)
+                    .withKeys(fileDataIds.toArray(String[]::new))
+                    .withQuiet(true));
+            return fileDataIds;
+        } catch (MultiObjectDeleteException ex) {
+            log.warn("Failed to delete some abandoned files, bucketId={}, errors={}", bucketName, ex.getErrors());
+            Set<String> failed = new HashSet<>();
+            ex.getErrors().forEach(error -> failed.add(error.getKey()));
+            List<String> deleted = new ArrayList<>(fileDataIds);
+            deleted.removeAll(failed);
+            return deleted;
+        } catch (SdkBaseException ex) {
+            throw new StorageException(
+                    format("Failed to delete abandoned files, bucketId=%s, objects=%d", bucketName, fileDataIds.size()),
+                    ex
+            );
+        }
     }
 
     private String getFileIdFromObjectMetadata(String fileDataId, ObjectMetadata objectMetadata) {
@@ -250,14 +728,13 @@ public class S3Service implements StorageService {
                         () -> new ExtractMetadataException(
                                 format(
                                         "Failed to extract metadata parameter, fileDataId=%s, bucketId=%s, key=%s",
-                                        fileDataId, bucketName, key
+                                        fileDataId, bucketName(fileDataId), key
                                 )
                         )
                 );
     }
 
-    private String extractFileName(S3Object s3Object) {
-        String contentDisposition = s3Object.getObjectMetadata().getContentDisposition();
+    private String extractFileName(String contentDisposition) {
         int fileNameIndex = contentDisposition.lastIndexOf(FILENAME_PARAM) + FILENAME_PARAM.length();
         return contentDisposition.substring(fileNameIndex);
     }
@@ -265,39 +742,89 @@ public class S3Service implements StorageService {
     private void checkNotNull(String objectType, String fileDataId, Object object) {
         if (Objects.isNull(object)) {
             throw new FileNotFoundException(
-                    format("%s is null, fileDataId=%s, bucketId=%s", objectType, fileDataId, bucketName));
+                    format("%s is null, fileDataId=%s, bucketId=%s", objectType, fileDataId, bucketName(fileDataId)));
+        }
+    }
+
+    // sdk проверяет md5 всего тела, если Range передан не через setRange, поэтому Range разбирается здесь,
+    // несколько диапазонов в одном запросе не поддерживаются, и файл отдается целиком
+    private boolean applyRange(GetObjectRequest getObjectRequest, String range, long contentLength) {
+        if (range == null || !range.startsWith(BYTES_UNIT) || range.contains(",")) {
+            return true;
         }
+        String[] bounds = range.substring(BYTES_UNIT.length()).trim().split("-", 2);
+        try {
+            long start;
+            long end;
+            if (bounds[0].isEmpty()) {
+                start = Math.max(0, contentLength - Long.parseLong(bounds[1]));
+                end = contentLength - 1;
+            } else {
+                start = Long.parseLong(bounds[0]);
+                end = bounds[1].isEmpty() ? contentLength - 1 : Math.min(Long.parseLong(bounds[1]), contentLength - 1);
+            }
+            if (start > end || start >= contentLength) {
+                return false;
+            }
+            getObjectRequest.setRange(start, end);
+            return true;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            // некорректный Range игнорируется
+            return true;
+        }
+    }
+
+    private FileContent fileContent(
+            ObjectMetadata objectMetadata,
+            FileDto fileDto,
+            InputStream content,
+            Runnable abort) {
+        Object contentRange = objectMetadata.getRawMetadataValue(Headers.CONTENT_RANGE);
+        return new FileContent(
+                contentRange != null ? FileContent.PARTIAL_CONTENT : FileContent.OK,
+                objectMetadata.getContentLength(),
+                contentRange != null ? contentRange.toString() : null,
+                quote(objectMetadata.getETag()),
+                objectMetadata.getLastModified().toInstant(),
+                objectMetadata.getContentType(),
+                Optional.ofNullable(fileDto.getContentDisposition()).orElse(objectMetadata.getContentDisposition()),
+                content,
+                abort);
     }
 
-    private String id() {
-        return UUID.randomUUID().toString();
+    // первая версия sdk отдает ETag без кавычек
+    private String quote(String eTag) {
+        return eTag == null || eTag.startsWith("\"") ? eTag : "\"" + eTag + "\"";
     }
 
-    private ByteArrayInputStream byteArrayInputStream() {
-        return new ByteArrayInputStream(new byte[0]);
+    private String bucketName(String fileId) {
+        return bucketSharding.bucketName(s3Properties.getBucketName(), fileId);
     }
 
     private FileDto fileDto(String fileDataId, String fileId, Map<String, Value> metadata) {
-        return new FileDto(fileDataId, fileId, Instant.now().toString(), metadata);
+        return new FileDto(fileDataId, fileId, Instant.now().toString(), metadata, null);
     }
 
-    private PutObjectRequest putObjectRequest(String fileDataId, FileDto fileDto, InputStream inputStream) {
+    private PutObjectRequest putObjectRequest(
+            String fileDataId,
+            FileDto fileDto,
+            EncodedMetadata encodedMetadata,
+            InputStream inputStream) {
         return new PutObjectRequest(
-                bucketName,
+                bucketName(fileDataId),
                 fileDataId,
                 inputStream,
-                objectMetadata(fileDto)
+                objectMetadata(fileDto, encodedMetadata)
         );
     }
 
-    private ObjectMetadata objectMetadata(FileDto fileDto) {
+    private ObjectMetadata objectMetadata(FileDto fileDto, EncodedMetadata encodedMetadata) {
         ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setContentLength(encodedMetadata.getBody().length);
         objectMetadata.addUserMetadata(FILE_DATA_ID, fileDto.getFileDataId());
         objectMetadata.addUserMetadata(FILE_ID, fileDto.getFileId());
         objectMetadata.addUserMetadata(CREATED_AT, fileDto.getCreatedAt());
-        fileDto.getMetadata().forEach(
-                (key, value) -> objectMetadata.addUserMetadata(METADATA + key, DamselUtil.toJsonString(value))
-        );
+        encodedMetadata.getHeaders().forEach(objectMetadata::addUserMetadata);
         return objectMetadata;
     }
 
@@ -305,11 +832,110 @@ public class S3Service implements StorageService {
             String fileId,
             Instant expirationTime,
             HttpMethod httpMethod) {
-        return new GeneratePresignedUrlRequest(bucketName, fileId)
+        return new GeneratePresignedUrlRequest(bucketName(fileId), fileId)
                 .withMethod(httpMethod)
                 .withExpiration(Date.from(expirationTime));
     }
 
+    private StorageException uploadException(String operation, String fileDataId, SdkBaseException ex) {
+        return new StorageException(
+                format("Failed to %s, fileDataId=%s, bucketId=%s", operation, fileDataId, bucketName(fileDataId)),
+                ex
+        );
+    }
+
+    @RequiredArgsConstructor
+    private class S3MultipartTarget implements MultipartTarget {
+
+        private final String fileDataId;
+        private final String fileId;
+        private final String contentDisposition;
+        private final String contentType;
+
+        @Override
+        public void putObject(byte[] data, int length) {
+            try {
+                ObjectMetadata objectMetadata = uploadObjectMetadata();
+                objectMetadata.setContentLength(length);
+                s3Client.putObject(new PutObjectRequest(
+                        bucketName(fileId),
+                        fileId,
+                        new ByteArrayInputStream(data, 0, length),
+                        objectMetadata));
+            } catch (SdkBaseException ex) {
+                throw uploadException("put file", fileDataId, ex);
+            }
+        }
+
+        @Override
+        public String createMultipartUpload() {
+            try {
+                return s3Client.initiateMultipartUpload(
+                        new InitiateMultipartUploadRequest(bucketName(fileId), fileId, uploadObjectMetadata()))
+                        .getUploadId();
+            } catch (SdkBaseException ex) {
+                throw uploadException("initiate multipart upload", fileDataId, ex);
+            }
+        }
+
+        @Override
+        public String uploadPart(String uploadId, int partNumber, byte[] data, int length) {
+            try {
+                return s3Client.uploadPart(new UploadPartRequest()
+                                .withBucketName(bucketName(fileId))
+                                .withKey(fileId)
+                                .withUploadId(uploadId)
+                                .withPartNumber(partNumber)
+                                .withPartSize(length)
+                                .withInputStream(new ByteArrayInputStream(data, 0, length)))
+                        .getETag();
+            } catch (SdkBaseException ex) {
+                throw uploadException("upload part " + partNumber, fileDataId, ex);
+            }
+        }
+
+        @Override
+        public void completeMultipartUpload(String uploadId, List<String> partETags) {
+            List<PartETag> parts = new ArrayList<>(partETags.size());
+            for (int i = 0; i < partETags.size(); i++) {
+                parts.add(new PartETag(i + 1, partETags.get(i)));
+            }
+            try {
+                s3Client.completeMultipartUpload(
+                        new CompleteMultipartUploadRequest(bucketName(fileId), fileId, uploadId, parts));
+            } catch (SdkBaseException ex) {
+                throw uploadException("complete multipart upload", fileDataId, ex);
+            }
+        }
+
+        @Override
+        public void abortMultipartUpload(String uploadId) {
+            try {
+                s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName(fileId), fileId, uploadId));
+            } catch (SdkBaseException ex) {
+                throw uploadException("abort multipart upload", fileDataId, ex);
+            }
+        }
+
+        private ObjectMetadata uploadObjectMetadata() {
+            ObjectMetadata objectMetadata = new ObjectMetadata();
+            objectMetadata.setContentDisposition(contentDisposition);
+            if (contentType != null) {
+                objectMetadata.setContentType(contentType);
+            }
+            return objectMetadata;
+        }
+    }
+
+    @RequiredArgsConstructor
+    @Getter
+    private static class FileDataObject {
+
+        private final ObjectMetadata objectMetadata;
+        private final ByteBuffer content;
+
+    }
+
     @RequiredArgsConstructor
     @Getter
     @ToString
@@ -319,6 +945,8 @@ public class S3Service implements StorageService {
         private final String fileId;
         private final String createdAt;
         private final Map<String, Value> metadata;
+        // имя файла, ссылающегося после дедупликации на объект другого файла
+        private final String contentDisposition;
 
     }
 }
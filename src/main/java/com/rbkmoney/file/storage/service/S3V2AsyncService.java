@@ -0,0 +1,808 @@
+package com.rbkmoney.file.storage.service;
+
+import com.rbkmoney.file.storage.FileData;
+import com.rbkmoney.file.storage.NewFileResult;
+import com.rbkmoney.file.storage.configuration.properties.S3SdkV2Properties;
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.S3V2Objects.FileMetadata;
+import com.rbkmoney.file.storage.service.batch.BatchExecutor;
+import com.rbkmoney.file.storage.service.batch.BatchResult;
+import com.rbkmoney.file.storage.service.bucket.BucketInitializer;
+import com.rbkmoney.file.storage.service.bucket.BucketSharding;
+import com.rbkmoney.file.storage.service.cache.CachedFileData;
+import com.rbkmoney.file.storage.service.cache.FileDataCache;
+import com.rbkmoney.file.storage.service.download.FileContent;
+import com.rbkmoney.file.storage.service.download.FileContentRequest;
+import com.rbkmoney.file.storage.service.download.FileContentResponseTransformer;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import com.rbkmoney.file.storage.service.index.FileIndex;
+import com.rbkmoney.file.storage.service.metadata.MetadataSerializer;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.service.notification.ResolvedFiles;
+import com.rbkmoney.file.storage.service.reaper.PendingUpload;
+import com.rbkmoney.file.storage.service.reaper.PendingUploads;
+import com.rbkmoney.file.storage.service.reaper.ReapedFiles;
+import com.rbkmoney.file.storage.service.singleflight.SingleFlight;
+import com.rbkmoney.file.storage.service.upload.FileUpload;
+import com.rbkmoney.file.storage.service.upload.MultipartTarget;
+import com.rbkmoney.file.storage.service.upload.MultipartUploader;
+import com.rbkmoney.file.storage.service.upload.NewMultipartFileResult;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import javax.annotation.PostConstruct;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static com.rbkmoney.file.storage.service.S3V2Objects.*;
+import static com.rbkmoney.file.storage.util.FileContentUtil.conditionalStatus;
+import static com.rbkmoney.file.storage.util.FileContentUtil.fileContent;
+
+// реализация поверх S3AsyncClient — ревизии с метаданными и с файлом запрашиваются параллельно, а ответы s3
+// разбираются на потоках http клиента. Поток запроса освобождается только у вызывающих *Async методы
+// (FileDownloadServlet), woody сервлет синхронный и ждет future через методы StorageService
+@Service
+@ConditionalOnExpression("${s3-sdk-v2.enabled:false} and ${s3-sdk-v2.async-enabled:false}")
+@Slf4j
+@RequiredArgsConstructor
+public class S3V2AsyncService implements AsyncStorageService {
+
+    private static final String FILE_DATA_FLIGHT = "file-data:";
+    private static final String FILE_VERSION_ID_FLIGHT = "file-version-id:";
+    private static final int CONTENT_PREFETCH = 16;
+
+    private final S3SdkV2Properties s3SdkV2Properties;
+    private final S3AsyncClient s3SdkV2AsyncClient;
+    private final S3Presigner s3Presigner;
+    private final FileDataCache fileDataCache;
+    private final BatchExecutor batchExecutor;
+    private final MetadataSerializer metadataSerializer;
+    private final StorageMetrics storageMetrics;
+    private final SingleFlight singleFlight;
+    private final BucketInitializer bucketInitializer;
+    private final BucketSharding bucketSharding;
+    private final MultipartUploader multipartUploader;
+    private final FileIndex fileIndex;
+    private final PendingUploads pendingUploads;
+    private final ResolvedFiles resolvedFiles;
+
+    @PostConstruct
+    public void init() {
+        bucketInitializer.initialize(
+                bucketSharding.bucketNames(s3SdkV2Properties.getBucketName()),
+                this::bucketInit);
+    }
+
+    @Override
+    public CompletableFuture<NewFileResult> createNewFileAsync(Map<String, Value> metadata, Instant expirationTime) {
+        var fileId = bucketSharding.newFileId();
+        // отметка для сборщика брошенных загрузок пишется синхронно и до метаданных, см. PendingUploads
+        pendingUploads.track(fileId, expirationTime);
+        return uploadFileMetadata(metadata, fileId)
+                .thenApply(ignored -> {
+                    var url = presignUploadUrl(s3Presigner, storageMetrics, bucketName(fileId), fileId, expirationTime);
+                    return new NewFileResult(fileId, url.toString());
+                });
+    }
+
+    @Override
+    public CompletableFuture<URL> generateDownloadUrlAsync(String fileId, Instant expirationTime) {
+        return resolveFileVersionId(fileId)
+                .thenApply(fileVersionId -> presignDownloadUrl(
+                        s3Presigner, storageMetrics, bucketName(fileId), fileId, fileVersionId, expirationTime));
+    }
+
+    @Override
+    public CompletableFuture<FileData> getFileDataAsync(String fileId) {
+        return fileDataCache.get(fileId)
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> singleFlight.executeAsync(FILE_DATA_FLIGHT + fileId, () -> loadFileData(fileId)))
+                .thenApply(cachedFileData -> new FileData(
+                        cachedFileData.getFileId(),
+                        cachedFileData.getFileName(),
+                        cachedFileData.getCreatedAt(),
+                        cachedFileData.getMetadata()));
+    }
+
+    @Override
+    public BatchResult<URL> generateDownloadUrlBatch(List<String> fileDataIds, Instant expirationTime) {
+        return batchExecutor.executeAsync(
+                fileDataIds,
+                fileDataId -> generateDownloadUrlAsync(fileDataId, expirationTime));
+    }
+
+    @Override
+    public BatchResult<FileData> getFileDataBatch(List<String> fileDataIds) {
+        return batchExecutor.executeAsync(fileDataIds, this::getFileDataAsync);
+    }
+
+    @Override
+    public CompletableFuture<FileContent> getFileContentAsync(FileContentRequest request) {
+        var fileId = request.getFileDataId();
+        return resolveFileVersionId(fileId)
+                .thenCompose(fileVersionId -> getFileContent(request, fileVersionId));
+    }
+
+    @Override
+    public CompletableFuture<NewMultipartFileResult> createNewMultipartFileAsync(
+            Map<String, Value> metadata,
+            String fileName,
+            Instant expirationTime,
+            int partCount) {
+        var fileId = bucketSharding.newFileId();
+        // имя файла задается при создании загрузки, в presigned ссылки на части заголовки не передаются
+        var target = new S3MultipartTarget(fileId, FileUpload.contentDisposition(fileName), null);
+        pendingUploads.track(fileId, expirationTime);
+        return uploadFileMetadata(metadata, fileId)
+                .thenCompose(ignored -> target.createMultipartUploadAsync())
+                .thenApply(uploadId -> {
+                    pendingUploads.trackMultipart(fileId, expirationTime, uploadId);
+                    var partUploadUrls = presignUploadPartUrls(
+                            s3Presigner, storageMetrics, bucketName(fileId),
+                            fileId, uploadId, partCount, expirationTime);
+                    log.info("Multipart upload was created, fileId={}, bucketName={}, parts={}",
+                            fileId, bucketName(fileId), partCount);
+                    return new NewMultipartFileResult(fileId, uploadId, partUploadUrls);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> completeMultipartFileAsync(
+            String fileId,
+            String uploadId,
+            List<String> partETags) {
+        return getObjectVersions(fileId)
+                .thenCompose(versions -> {
+                    checkFileWaitingUpload(bucketName(fileId), fileId, versions);
+                    return new S3MultipartTarget(fileId, null, null).completeMultipartUploadAsync(uploadId, partETags);
+                })
+                .thenRun(() -> {
+                    fileIndex.markUploaded(fileId);
+                    log.info("Multipart upload was completed, fileId={}, bucketName={}, parts={}",
+                            fileId, bucketName(fileId), partETags.size());
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> abortMultipartFileAsync(String fileId, String uploadId) {
+        return new S3MultipartTarget(fileId, null, null).abortMultipartUploadAsync(uploadId)
+                .thenRun(() -> log.info("Multipart upload was aborted, fileId={}, bucketName={}",
+                        fileId, bucketName(fileId)));
+    }
+
+    // удаляются все ревизии объекта — и метаданные, и сам файл
+    @Override
+    public CompletableFuture<Void> deleteFileAsync(String fileId) {
+        var errorMessage = String.format(
+                "Failed to delete object versions, fileId=%s, bucketName=%s", fileId, bucketName(fileId));
+        return getObjectVersions(fileId)
+                .thenCompose(versions -> {
+                    var objects = objectIdentifiers(fileId, versions);
+                    if (objects.isEmpty()) {
+                        throw new FileNotFoundException(String.format(
+                                "Object versions not found, fileId=%s, bucketName=%s", fileId, bucketName(fileId)));
+                    }
+                    return s3SdkV2AsyncClient.deleteObjects(DeleteObjectsRequest.builder()
+                                    .bucket(bucketName(fileId))
+                                    .delete(Delete.builder().objects(objects).quiet(true).build())
+                                    .build())
+                            .handle((deleteObjectsResponse, throwable) -> {
+                                fileDataCache.invalidate(fileId);
+                                if (throwable != null) {
+                                    throw storageException(throwable, errorMessage);
+                                }
+                                if (deleteObjectsResponse.hasErrors() && !deleteObjectsResponse.errors().isEmpty()) {
+                                    throw new StorageException(
+                                            errorMessage + ", errors=" + deleteObjectsResponse.errors());
+                                }
+                                fileIndex.remove(fileId);
+                                resolvedFiles.remove(fileId);
+                                log.info("File was deleted, fileId={}, bucketName={}, objectVersions={}",
+                                        fileId, bucketName(fileId), objects.size());
+                                return null;
+                            });
+                });
+    }
+
+    @Override
+    public CompletableFuture<ReapedFiles> deleteAbandonedFilesAsync(List<PendingUpload> pendingUploads) {
+        var versionFutures = pendingUploads.stream()
+                .map(PendingUpload::getFileDataId)
+                .distinct()
+                .collect(Collectors.toMap(fileId -> fileId, this::getObjectVersions, (a, b) -> a, LinkedHashMap::new));
+        var versionsByFileId = new LinkedHashMap<String, List<ObjectVersion>>();
+        return CompletableFuture.allOf(versionFutures.values().toArray(CompletableFuture[]::new))
+                .thenCompose(ignored -> {
+                    versionFutures.forEach((fileId, versionsFuture) ->
+                            versionsByFileId.put(fileId, versionsFuture.join()));
+                    var abortFutures = abandonedUploads(pendingUploads, versionsByFileId).stream()
+                            .collect(Collectors.toMap(
+                                    pendingUpload -> pendingUpload,
+                                    this::abortAbandonedUpload,
+                                    (a, b) -> a,
+                                    LinkedHashMap::new));
+                    return CompletableFuture.allOf(abortFutures.values().toArray(CompletableFuture[]::new))
+                            .thenApply(nothing -> abortFutures);
+                })
+                .thenCompose(abortFutures -> {
+                    // файл, загрузку которого не удалось отменить, остается со своей отметкой до следующего прохода
+                    abortFutures.forEach((pendingUpload, aborted) -> {
+                        if (!aborted.join()) {
+                            versionsByFileId.remove(pendingUpload.getFileDataId());
+                        }
+                    });
+                    var deleteFutures = new ArrayList<CompletableFuture<List<String>>>();
+                    abandonedObjectsByBucket(versionsByFileId, this::bucketName).forEach((bucketName, objects) -> {
+                        for (int from = 0; from < objects.size(); from += MAX_DELETE_OBJECTS) {
+                            int to = Math.min(objects.size(), from + MAX_DELETE_OBJECTS);
+                            deleteFutures.add(deleteAbandonedObjects(bucketName, objects.subList(from, to)));
+                        }
+                    });
+                    return CompletableFuture.allOf(deleteFutures.toArray(CompletableFuture[]::new))
+                            .thenApply(nothing -> deleteFutures.stream()
+                                    .flatMap(deleteFuture -> deleteFuture.join().stream())
+                                    .collect(Collectors.toList()));
+                })
+                .thenApply(deleted -> {
+                    log.info("Abandoned files were deleted, checked={}, deleted={}",
+                            pendingUploads.size(), deleted.size());
+                    return reapedFiles(versionsByFileId, deleted);
+                });
+    }
+
+    // вызывается из фонового потока UploadNotifications, поэтому ждет разбора файла
+    @Override
+    public void resolveUploadedFile(String fileId) {
+        var cachedFileData = await(
+                resolveFileData(fileId),
+                String.format("Failed to resolve uploaded file, fileId=%s, bucketName=%s", fileId, bucketName(fileId)));
+        resolvedFiles.put(cachedFileData);
+        fileIndex.markUploaded(fileId);
+        log.info("Uploaded file has been resolved, fileId={}, bucketName={}", fileId, bucketName(fileId));
+    }
+
+    // тело запроса читается блокирующим потоком сервлета, поэтому загрузка ждет ответы s3 на каждую часть
+    @Override
+    public long uploadFile(FileUpload fileUpload) {
+        var fileId = fileUpload.getFileDataId();
+        var versions = await(
+                getObjectVersions(fileId),
+                String.format("Failed to get list object versions, fileId=%s, bucketName=%s",
+                        fileId, bucketName(fileId)));
+        checkFileWaitingUpload(bucketName(fileId), fileId, versions);
+        var uploaded = multipartUploader.upload(fileId, fileUpload.getContent(), new S3MultipartTarget(
+                fileId, fileUpload.getContentDisposition(), fileUpload.getContentType()));
+        fileIndex.markUploaded(fileId);
+        log.info("File has been uploaded, fileId={}, bucketName={}, bytes={}", fileId, bucketName(fileId), uploaded);
+        return uploaded;
+    }
+
+    private CompletableFuture<String> resolveFileVersionId(String fileId) {
+        return fileDataCache.getFileVersionId(fileId)
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> singleFlight.executeAsync(
+                        FILE_VERSION_ID_FLIGHT + fileId,
+                        () -> resolvedFile(fileId)
+                                .thenCompose(resolvedFile -> resolvedFile
+                                        .map(cachedFileData -> CompletableFuture.completedFuture(
+                                                cachedFileData.getFileVersionId()))
+                                        .orElseGet(() -> getObjectVersions(fileId)
+                                                .thenApply(versions -> resolveFileVersionId(fileId, versions))))));
+    }
+
+    private String resolveFileVersionId(String fileId, List<ObjectVersion> versions) {
+        checkFileExist(bucketName(fileId), fileId, versions);
+        var fileVersionId = getFileVersionId(bucketName(fileId), fileId, versions);
+        fileDataCache.putFileVersionId(fileId, fileVersionId);
+        return fileVersionId;
+    }
+
+    private CompletableFuture<CachedFileData> loadFileData(String fileId) {
+        return resolvedFile(fileId)
+                .thenCompose(resolvedFile -> resolvedFile
+                        .map(CompletableFuture::completedFuture)
+                        .orElseGet(() -> resolveFileData(fileId)));
+    }
+
+    private CompletableFuture<Optional<CachedFileData>> resolvedFile(String fileId) {
+        return resolvedFiles.getAsync(fileId)
+                .thenApply(resolvedFile -> {
+                    resolvedFile.ifPresent(fileDataCache::put);
+                    return resolvedFile;
+                });
+    }
+
+    private CompletableFuture<FileContent> getFileContent(FileContentRequest request, String fileVersionId) {
+        var fileId = request.getFileDataId();
+        var errorMessage = String.format(
+                "Failed to get object version content with file, " +
+                        "fileId=%s, fileVersionId=%s, bucketName=%s",
+                fileId, fileVersionId, bucketName(fileId));
+        CompletableFuture<FileContent> fileContentFuture;
+        if (request.isHeadOnly()) {
+            fileContentFuture = s3SdkV2AsyncClient.headObject(
+                            headObjectRequest(bucketName(fileId), request, fileVersionId))
+                    .thenApply(headObjectResponse -> fileContent(headObjectResponse));
+        } else {
+            // тело не буферизуется — future завершается на заголовках, а тело читается из s3 по мере отдачи клиенту
+            fileContentFuture = s3SdkV2AsyncClient.getObject(
+                    getObjectRequest(bucketName(fileId), request, fileVersionId),
+                    new FileContentResponseTransformer(CONTENT_PREFETCH));
+        }
+        return fileContentFuture.handle((fileContent, throwable) -> {
+            if (throwable == null) {
+                return fileContent;
+            }
+            var cause = throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause()
+                    : throwable;
+            if (cause instanceof S3Exception) {
+                return conditionalStatus((S3Exception) cause)
+                        .orElseThrow(() -> storageException(cause, errorMessage));
+            }
+            throw storageException(cause, errorMessage);
+        });
+    }
+
+    private CompletableFuture<CachedFileData> resolveFileData(String fileId) {
+        return getObjectVersions(fileId)
+                .thenCompose(versions -> {
+                    checkFileExist(bucketName(fileId), fileId, versions);
+                    var fileMetadataVersionId = getFileMetadataVersionId(bucketName(fileId), fileId, versions);
+                    var fileVersionId = getFileVersionId(bucketName(fileId), fileId, versions);
+                    // после получения списка ревизий запросы к ним друг от друга не зависят
+                    var fileMetadataFuture = getFileMetadata(fileId, fileMetadataVersionId);
+                    var fileNameFuture = getFileName(fileId, fileVersionId);
+                    return fileMetadataFuture.thenCombine(fileNameFuture, (fileMetadata, fileName) -> {
+                        var cachedFileData = cachedFileData(
+                                fileMetadata, fileMetadataVersionId, fileVersionId, fileName);
+                        fileDataCache.put(cachedFileData);
+                        return cachedFileData;
+                    });
+                });
+    }
+
+    private void bucketInit(String bucketName) {
+        if (!doesBucketExist(bucketName)) {
+            createBucket(bucketName);
+            enableBucketVersioning(bucketName);
+        }
+    }
+
+    private String bucketName(String fileId) {
+        return bucketSharding.bucketName(s3SdkV2Properties.getBucketName(), fileId);
+    }
+
+    private boolean doesBucketExist(String bucketName) {
+        try {
+            var request = HeadBucketRequest.builder()
+                    .bucket(bucketName)
+                    .build();
+            var headBucketResponse = s3SdkV2AsyncClient.headBucket(request).join();
+            var response = headBucketResponse.sdkHttpResponse();
+            log.info(String.format("Check exist bucket result %d:%s",
+                    response.statusCode(), response.statusText()));
+            if (response.isSuccessful()) {
+                log.info("Bucket is exist, bucketName={}", bucketName);
+            } else {
+                throw new StorageException(String.format(
+                        "Failed to check bucket on exist, bucketName=%s", bucketName));
+            }
+            return true;
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof NoSuchBucketException) {
+                log.info("Bucket does not exist, bucketName={}", bucketName);
+                return false;
+            }
+            throw storageException(
+                    ex,
+                    String.format("Failed to check bucket on exist, bucketName=%s", bucketName));
+        }
+    }
+
+    private void createBucket(String bucketName) {
+        try {
+            var createBucketRequest = CreateBucketRequest.builder()
+                    .bucket(bucketName)
+                    .build();
+            s3SdkV2AsyncClient.createBucket(createBucketRequest).join();
+            var headBucketRequest = HeadBucketRequest.builder()
+                    .bucket(bucketName)
+                    .build();
+            s3SdkV2AsyncClient.waiter().waitUntilBucketExists(headBucketRequest).join()
+                    .matched()
+                    .response()
+                    .ifPresent(headBucketResponse -> {
+                        var response = headBucketResponse.sdkHttpResponse();
+                        log.info(String.format("Check created bucket result %d:%s",
+                                response.statusCode(), response.statusText()));
+                        if (response.isSuccessful()) {
+                            log.info("Bucket has been created, bucketName={}", bucketName);
+                        } else {
+                            throw new StorageException(String.format(
+                                    "Failed to create bucket, bucketName=%s", bucketName));
+                        }
+                    });
+        } catch (CompletionException ex) {
+            throw storageException(
+                    ex,
+                    String.format("Failed to create bucket, bucketName=%s", bucketName));
+        }
+    }
+
+    private void enableBucketVersioning(String bucketName) {
+        try {
+            var request = PutBucketVersioningRequest.builder()
+                    .bucket(bucketName)
+                    .versioningConfiguration(VersioningConfiguration.builder()
+                            .status(BucketVersioningStatus.ENABLED)
+                            .build())
+                    .build();
+            var putBucketVersioningResponse = s3SdkV2AsyncClient.putBucketVersioning(request).join();
+            var response = putBucketVersioningResponse.sdkHttpResponse();
+            log.info(String.format("Check enable versioning bucket result %d:%s",
+                    response.statusCode(), response.statusText()));
+            if (response.isSuccessful()) {
+                log.info("Versioning bucket has been enabled, bucketName={}", bucketName);
+            } else {
+                throw new StorageException(String.format(
+                        "Failed to enable bucket versioning, bucketName=%s", bucketName));
+            }
+        } catch (CompletionException ex) {
+            throw storageException(
+                    ex,
+                    String.format("Failed to enable bucket versioning, " +
+                            "bucketName=%s", bucketName));
+        }
+    }
+
+    private CompletableFuture<Void> uploadFileMetadata(Map<String, Value> metadata, String fileId) {
+        var encodedMetadata = metadataSerializer.encode(metadata);
+        var createdAt = Instant.now();
+        var request = fileMetadataRequest(bucketName(fileId), fileId, encodedMetadata, createdAt);
+        var errorMessage = String.format(
+                "Failed to upload object version with file metadata, fileId=%s, bucketName=%s",
+                fileId, bucketName(fileId));
+        return s3SdkV2AsyncClient.putObject(request, AsyncRequestBody.fromBytes(encodedMetadata.getBody()))
+                .handle((putObjectResponse, throwable) -> {
+                    if (throwable != null) {
+                        throw storageException(throwable, errorMessage);
+                    }
+                    var response = putObjectResponse.sdkHttpResponse();
+                    log.info(String.format("Check upload object version with file metadata result %d:%s",
+                            response.statusCode(), response.statusText()));
+                    if (response.isSuccessful()) {
+                        log.info("Object version with file metadata was uploaded, fileId={}, bucketName={}",
+                                fileId, bucketName(fileId));
+                        fileIndex.index(fileId, createdAt, metadata);
+                        return null;
+                    } else {
+                        throw new StorageException(errorMessage);
+                    }
+                });
+    }
+
+    private CompletableFuture<List<ObjectVersion>> getObjectVersions(String fileId) {
+        return getObjectVersions(fileId, null, new ArrayList<>())
+                .thenApply(versions -> {
+                    log.info("List object versions has been got, fileId={}, bucketName={}, objectVersions={}, ",
+                            fileId,
+                            bucketName(fileId),
+                            versionsToString(versions));
+                    return versions;
+                });
+    }
+
+    private CompletableFuture<List<ObjectVersion>> getObjectVersions(String fileId,
+                                                                     String versionIdMarker,
+                                                                     List<ObjectVersion> versions) {
+        var errorMessage = String.format(
+                "Failed to get list object versions, fileId=%s, bucketName=%s",
+                fileId, bucketName(fileId));
+        var request = listObjectVersionsRequest(bucketName(fileId), fileId, versionIdMarker);
+        return s3SdkV2AsyncClient.listObjectVersions(request)
+                .handle((listObjectVersionsResponse, throwable) -> {
+                    if (throwable != null) {
+                        throw storageException(throwable, errorMessage);
+                    }
+                    var response = listObjectVersionsResponse.sdkHttpResponse();
+                    log.info(String.format("Check list object versions result %d:%s",
+                            response.statusCode(), response.statusText()));
+                    if (!response.isSuccessful()) {
+                        throw new StorageException(errorMessage);
+                    }
+                    versions.addAll(exactKeyVersions(fileId, listObjectVersionsResponse));
+                    return listObjectVersionsResponse;
+                })
+                .thenCompose(listObjectVersionsResponse -> {
+                    var nextVersionIdMarker = nextVersionIdMarker(fileId, listObjectVersionsResponse);
+                    return nextVersionIdMarker != null
+                            ? getObjectVersions(fileId, nextVersionIdMarker, versions)
+                            : CompletableFuture.completedFuture(versions);
+                });
+    }
+
+    private CompletableFuture<Boolean> abortAbandonedUpload(PendingUpload pendingUpload) {
+        var fileId = pendingUpload.getFileDataId();
+        return s3SdkV2AsyncClient.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucketName(fileId))
+                        .key(fileId)
+                        .uploadId(pendingUpload.getUploadId())
+                        .build())
+                .handle((response, throwable) -> {
+                    var cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    if (cause == null) {
+                        log.info("Abandoned multipart upload was aborted, fileId={}, bucketName={}",
+                                fileId, bucketName(fileId));
+                        return true;
+                    }
+                    if (isUploadNotFound(cause)) {
+                        return true;
+                    }
+                    log.warn("Failed to abort abandoned multipart upload, fileId={}, bucketName={}",
+                            fileId, bucketName(fileId), cause);
+                    return false;
+                });
+    }
+
+    private CompletableFuture<List<String>> deleteAbandonedObjects(String bucketName,
+                                                                   List<ObjectIdentifier> objects) {
+        var errorMessage = String.format(
+                "Failed to delete abandoned files, bucketName=%s, objects=%d", bucketName, objects.size());
+        return s3SdkV2AsyncClient.deleteObjects(DeleteObjectsRequest.builder()
+                        .bucket(bucketName)
+                        .delete(Delete.builder().objects(objects).quiet(true).build())
+                        .build())
+                .handle((deleteObjectsResponse, throwable) -> {
+                    objects.forEach(object -> fileDataCache.invalidate(object.key()));
+                    if (throwable != null) {
+                        throw storageException(throwable, errorMessage);
+                    }
+                    return deletedFileIds(bucketName, objects, deleteObjectsResponse);
+                });
+    }
+
+    private CompletableFuture<FileMetadata> getFileMetadata(String fileId, String fileMetadataVersionId) {
+        // в формате body ревизия с метаданными читается сразу вместе с телом одним запросом
+        if (metadataSerializer.isReadWithBody()) {
+            return getFileMetadataObject(fileId, fileMetadataVersionId)
+                    .thenCompose(responseBytes -> decodeFileMetadata(
+                            fileId,
+                            fileMetadataVersionId,
+                            responseBytes.response().metadata(),
+                            () -> CompletableFuture.completedFuture(responseBytes.asByteBuffer())));
+        }
+        var errorMessage = String.format(
+                "Failed to get object version with file metadata, " +
+                        "fileId=%s, fileMetadataVersionId=%s, bucketName=%s",
+                fileId, fileMetadataVersionId, bucketName(fileId));
+        return s3SdkV2AsyncClient.headObject(headObjectRequest(bucketName(fileId), fileId, fileMetadataVersionId))
+                .handle((headObjectResponse, throwable) -> {
+                    if (throwable != null) {
+                        throw storageException(throwable, errorMessage);
+                    }
+                    var response = headObjectResponse.sdkHttpResponse();
+                    log.info(String.format("Check head object result %d:%s",
+                            response.statusCode(), response.statusText()));
+                    if (!response.isSuccessful()) {
+                        throw new StorageException(errorMessage);
+                    }
+                    log.info("Object version with file metadata has been got, " +
+                                    "fileId={}, fileMetadataVersionId={}, bucketName={}",
+                            fileId, fileMetadataVersionId, bucketName(fileId));
+                    return headObjectResponse.metadata();
+                })
+                // упакованные метаданные, не влезшие в заголовок, лежат в теле ревизии
+                .thenCompose(s3Metadata -> decodeFileMetadata(
+                        fileId,
+                        fileMetadataVersionId,
+                        s3Metadata,
+                        () -> getFileMetadataObject(fileId, fileMetadataVersionId)
+                                .thenApply(ResponseBytes::asByteBuffer)));
+    }
+
+    private CompletableFuture<FileMetadata> decodeFileMetadata(
+            String fileId,
+            String fileMetadataVersionId,
+            Map<String, String> s3Metadata,
+            Supplier<CompletableFuture<ByteBuffer>> body) {
+        checkFileMetadataNotEmpty(bucketName(fileId), fileId, fileMetadataVersionId, s3Metadata);
+        var metadataFuture = metadataSerializer.isStoredInBody(s3Metadata)
+                ? body.get().thenApply(metadataSerializer::decodeBody)
+                : CompletableFuture.completedFuture(metadataSerializer.decodeHeaders(s3Metadata));
+        return metadataFuture.thenApply(metadata -> new FileMetadata(fileId, s3Metadata.get(CREATED_AT), metadata));
+    }
+
+    private CompletableFuture<ResponseBytes<GetObjectResponse>> getFileMetadataObject(
+            String fileId,
+            String fileMetadataVersionId) {
+        var errorMessage = String.format(
+                "Failed to get object version body with file metadata, " +
+                        "fileId=%s, fileMetadataVersionId=%s, bucketName=%s",
+                fileId, fileMetadataVersionId, bucketName(fileId));
+        // тело ревизии с метаданными небольшое, ResponseBytes отдает его буфером без копирования
+        return s3SdkV2AsyncClient.getObject(
+                        getObjectRequest(bucketName(fileId), fileId, fileMetadataVersionId),
+                        AsyncResponseTransformer.toBytes())
+                .handle((responseBytes, throwable) -> {
+                    if (throwable != null) {
+                        throw storageException(throwable, errorMessage);
+                    }
+                    var response = responseBytes.response().sdkHttpResponse();
+                    log.info(String.format("Check get object result %d:%s",
+                            response.statusCode(), response.statusText()));
+                    if (!response.isSuccessful()) {
+                        throw new StorageException(errorMessage);
+                    }
+                    log.info("Object version body with file metadata has been got, " +
+                                    "fileId={}, fileMetadataVersionId={}, bucketName={}",
+                            fileId, fileMetadataVersionId, bucketName(fileId));
+                    return responseBytes;
+                });
+    }
+
+    private CompletableFuture<String> getFileName(String fileId, String fileVersionId) {
+        var errorMessage = String.format(
+                "Failed to get object version with file, " +
+                        "fileId=%s, fileVersionId=%s, bucketName=%s",
+                fileId, fileVersionId, bucketName(fileId));
+        return s3SdkV2AsyncClient.headObject(headObjectRequest(bucketName(fileId), fileId, fileVersionId))
+                .handle((headObjectResponse, throwable) -> {
+                    if (throwable != null) {
+                        throw storageException(throwable, errorMessage);
+                    }
+                    var response = headObjectResponse.sdkHttpResponse();
+                    log.info(String.format("Check head object result %d:%s",
+                            response.statusCode(), response.statusText()));
+                    if (!response.isSuccessful()) {
+                        throw new StorageException(errorMessage);
+                    }
+                    log.info("Object version with file has been got, " +
+                                    "fileId={}, fileVersionId={}, bucketName={}",
+                            fileId, fileVersionId, bucketName(fileId));
+                    return fileName(bucketName(fileId), fileId, fileVersionId, headObjectResponse);
+                });
+    }
+
+    // ошибки s3 оборачиваются в StorageException, остальные исключения пробрасываются без изменений
+    private RuntimeException storageException(Throwable throwable, String message) {
+        var cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        if (cause instanceof S3Exception) {
+            return new StorageException(message, cause);
+        }
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new CompletionException(cause);
+    }
+
+    private <T> T await(CompletableFuture<T> future, String errorMessage) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            throw storageException(ex, errorMessage);
+        }
+    }
+
+    private String uploadErrorMessage(String operation, String fileId) {
+        return String.format("Failed to %s, fileId=%s, bucketName=%s", operation, fileId, bucketName(fileId));
+    }
+
+    @RequiredArgsConstructor
+    private class S3MultipartTarget implements MultipartTarget {
+
+        private final String fileId;
+        private final String contentDisposition;
+        private final String contentType;
+
+        @Override
+        public void putObject(byte[] data, int length) {
+            await(
+                    s3SdkV2AsyncClient.putObject(
+                            PutObjectRequest.builder()
+                                    .bucket(bucketName(fileId))
+                                    .key(fileId)
+                                    .contentDisposition(contentDisposition)
+                                    .contentType(contentType)
+                                    .build(),
+                            AsyncRequestBody.fromByteBuffer(ByteBuffer.wrap(data, 0, length))),
+                    uploadErrorMessage("put object with file", fileId));
+        }
+
+        @Override
+        public String createMultipartUpload() {
+            return await(createMultipartUploadAsync(), uploadErrorMessage("create multipart upload", fileId));
+        }
+
+        public CompletableFuture<String> createMultipartUploadAsync() {
+            return s3SdkV2AsyncClient.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                            .bucket(bucketName(fileId))
+                            .key(fileId)
+                            .contentDisposition(contentDisposition)
+                            .contentType(contentType)
+                            .build())
+                    .handle((response, throwable) -> {
+                        if (throwable != null) {
+                            throw storageException(throwable, uploadErrorMessage("create multipart upload", fileId));
+                        }
+                        return response.uploadId();
+                    });
+        }
+
+        @Override
+        public String uploadPart(String uploadId, int partNumber, byte[] data, int length) {
+            return await(
+                    s3SdkV2AsyncClient.uploadPart(
+                            UploadPartRequest.builder()
+                                    .bucket(bucketName(fileId))
+                                    .key(fileId)
+                                    .uploadId(uploadId)
+                                    .partNumber(partNumber)
+                                    .contentLength((long) length)
+                                    .build(),
+                            AsyncRequestBody.fromByteBuffer(ByteBuffer.wrap(data, 0, length))),
+                    uploadErrorMessage("upload part " + partNumber, fileId))
+                    .eTag();
+        }
+
+        @Override
+        public void completeMultipartUpload(String uploadId, List<String> partETags) {
+            await(
+                    completeMultipartUploadAsync(uploadId, partETags),
+                    uploadErrorMessage("complete multipart upload", fileId));
+        }
+
+        public CompletableFuture<Void> completeMultipartUploadAsync(String uploadId, List<String> partETags) {
+            return s3SdkV2AsyncClient.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                            .bucket(bucketName(fileId))
+                            .key(fileId)
+                            .uploadId(uploadId)
+                            .multipartUpload(CompletedMultipartUpload.builder()
+                                    .parts(completedParts(partETags))
+                                    .build())
+                            .build())
+                    .handle((response, throwable) -> {
+                        if (throwable != null) {
+                            throw storageException(throwable, uploadErrorMessage("complete multipart upload", fileId));
+                        }
+                        return null;
+                    });
+        }
+
+        @Override
+        public void abortMultipartUpload(String uploadId) {
+            await(abortMultipartUploadAsync(uploadId), uploadErrorMessage("abort multipart upload", fileId));
+        }
+
+        public CompletableFuture<Void> abortMultipartUploadAsync(String uploadId) {
+            return s3SdkV2AsyncClient.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                            .bucket(bucketName(fileId))
+                            .key(fileId)
+                            .uploadId(uploadId)
+                            .build())
+                    .handle((response, throwable) -> {
+                        if (throwable != null) {
+                            throw storageException(throwable, uploadErrorMessage("abort multipart upload", fileId));
+                        }
+                        return null;
+                    });
+        }
+    }
+}
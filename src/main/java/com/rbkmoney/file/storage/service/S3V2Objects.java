@@ -0,0 +1,386 @@
+package com.rbkmoney.file.storage.service;
+
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.cache.CachedFileData;
+import com.rbkmoney.file.storage.service.download.FileContentRequest;
+import com.rbkmoney.file.storage.service.exception.FileAlreadyUploadedException;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import com.rbkmoney.file.storage.service.metadata.EncodedMetadata;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.service.reaper.PendingUpload;
+import com.rbkmoney.file.storage.service.reaper.ReapedFiles;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+// общая часть синхронной и асинхронной реализаций AWS SDK S3 V2: запросы к ревизиям файла и разбор ответов s3.
+// Сами вызовы клиента остаются в сервисах, здесь нет ни клиента, ни состояния
+@Slf4j
+final class S3V2Objects {
+
+    static final String FILE_ID = "x-rbkmoney-file-id";
+    static final String CREATED_AT = "x-rbkmoney-created-at";
+    // ограничение s3 на число объектов в одном DeleteObjects
+    static final int MAX_DELETE_OBJECTS = 1000;
+
+    private static final String FILENAME_PARAM = "filename=";
+    // две ревизии файла и одна запись, чтобы увидеть конец ревизий fileId без второго запроса
+    private static final int VERSIONS_PAGE_SIZE = 3;
+
+    private S3V2Objects() {
+    }
+
+    // ревизии только объекта fileId. Ключи с тем же префиксом идут в листинге после самого fileId, поэтому страница
+    // ограничена VERSIONS_PAGE_SIZE записями и следующая запрашивается, только пока листинг не вышел за fileId, —
+    // стоимость поиска не зависит от числа объектов в бакете
+    static ListObjectVersionsRequest listObjectVersionsRequest(String bucketName,
+                                                              String fileId,
+                                                              String versionIdMarker) {
+        return ListObjectVersionsRequest.builder()
+                .bucket(bucketName)
+                .prefix(fileId)
+                .keyMarker(versionIdMarker != null ? fileId : null)
+                .versionIdMarker(versionIdMarker)
+                .maxKeys(VERSIONS_PAGE_SIZE)
+                .build();
+    }
+
+    static List<ObjectVersion> exactKeyVersions(String fileId, ListObjectVersionsResponse response) {
+        return response.versions().stream()
+                .filter(version -> version.key().equals(fileId))
+                .collect(Collectors.toList());
+    }
+
+    // null, если ревизий fileId больше нет
+    static String nextVersionIdMarker(String fileId, ListObjectVersionsResponse response) {
+        return Boolean.TRUE.equals(response.isTruncated()) && fileId.equals(response.nextKeyMarker())
+                ? response.nextVersionIdMarker()
+                : null;
+    }
+
+    static String versionsToString(List<ObjectVersion> versions) {
+        return versions.stream().map(ObjectVersion::toString).collect(Collectors.joining(","));
+    }
+
+    static void checkFileExist(String bucketName, String fileId, List<ObjectVersion> versions) {
+        // должно быть 2 ревизии — 1я это метаданные, 2ая это сам загруженный файл
+        if (versions.size() != 2) {
+            throw new FileNotFoundException(String.format(
+                    "Failed to check object version with file on exist, fileId=%s, bucketName=%s, objectVersions=%s, ",
+                    fileId, bucketName, versionsToString(versions)));
+        }
+    }
+
+    // файл загружается второй ревизией поверх ревизии с метаданными, третья ревизия сломала бы чтение файла
+    static void checkFileWaitingUpload(String bucketName, String fileId, List<ObjectVersion> versions) {
+        if (versions.isEmpty()) {
+            throw new FileNotFoundException(String.format(
+                    "Object version with file metadata not found, fileId=%s, bucketName=%s", fileId, bucketName));
+        }
+        if (versions.size() > 1) {
+            throw new FileAlreadyUploadedException(String.format(
+                    "File has been already uploaded, fileId=%s, bucketName=%s", fileId, bucketName));
+        }
+    }
+
+    static String getFileMetadataVersionId(String bucketName, String fileId, List<ObjectVersion> versions) {
+        return versions.stream()
+                .filter(Predicate.not(ObjectVersion::isLatest))
+                .findFirst()
+                .orElseThrow(() -> new StorageException(String.format(
+                        "Object version with file metadata not found, fileId=%s, bucketName=%s, objectVersions=%s, ",
+                        fileId, bucketName, versionsToString(versions))))
+                .versionId();
+    }
+
+    static String getFileVersionId(String bucketName, String fileId, List<ObjectVersion> versions) {
+        return versions.stream()
+                .filter(ObjectVersion::isLatest)
+                .findFirst()
+                .orElseThrow(() -> new StorageException(String.format(
+                        "Object version with file not found, fileId=%s, bucketName=%s, objectVersions=%s, ",
+                        fileId, bucketName, versionsToString(versions))))
+                .versionId();
+    }
+
+    static List<ObjectIdentifier> objectIdentifiers(String fileId, List<ObjectVersion> versions) {
+        return versions.stream()
+                .map(version -> ObjectIdentifier.builder().key(fileId).versionId(version.versionId()).build())
+                .collect(Collectors.toList());
+    }
+
+    // брошены файлы, у которых так и осталась одна ревизия с метаданными. Ревизии группируются по бакетам, потому что
+    // DeleteObjects удаляет объекты одного бакета, и удаляются по versionId — загрузка, завершившаяся между листингом
+    // и удалением, не пострадает
+    static Map<String, List<ObjectIdentifier>> abandonedObjectsByBucket(
+            Map<String, List<ObjectVersion>> versionsByFileId,
+            Function<String, String> bucketName) {
+        var objectsByBucket = new LinkedHashMap<String, List<ObjectIdentifier>>();
+        versionsByFileId.forEach((fileId, versions) -> {
+            if (versions.size() == 1) {
+                objectsByBucket.computeIfAbsent(bucketName.apply(fileId), key -> new ArrayList<>())
+                        .addAll(objectIdentifiers(fileId, versions));
+            }
+        });
+        return objectsByBucket;
+    }
+
+    // multipart загрузки файлов без ревизии с телом. Загрузка отменяется до удаления метаданных: иначе ее части
+    // останутся в s3, а завершение загрузки создаст файл без метаданных, который уже никто не удалит
+    static List<PendingUpload> abandonedUploads(List<PendingUpload> pendingUploads,
+                                                Map<String, List<ObjectVersion>> versionsByFileId) {
+        return pendingUploads.stream()
+                .filter(pendingUpload -> pendingUpload.getUploadId() != null)
+                .filter(pendingUpload -> versionsByFileId.get(pendingUpload.getFileDataId()).size() < 2)
+                .collect(Collectors.toList());
+    }
+
+    // загрузка уже завершена или отменена
+    static boolean isUploadNotFound(Throwable throwable) {
+        return throwable instanceof S3Exception && ((S3Exception) throwable).statusCode() == 404;
+    }
+
+    // кроме удаленных файлов, отметки больше не нужны загруженным файлам с двумя ревизиями и уже удаленным файлам
+    static ReapedFiles reapedFiles(Map<String, List<ObjectVersion>> versionsByFileId, List<String> deleted) {
+        var resolved = versionsByFileId.entrySet().stream()
+                .filter(entry -> entry.getValue().size() != 1)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toCollection(ArrayList::new));
+        resolved.addAll(deleted);
+        return new ReapedFiles(deleted, resolved);
+    }
+
+    static List<String> deletedFileIds(String bucketName,
+                                       List<ObjectIdentifier> objects,
+                                       DeleteObjectsResponse response) {
+        var failed = response.hasErrors()
+                ? response.errors().stream().map(S3Error::key).collect(Collectors.toSet())
+                : Set.<String>of();
+        if (!failed.isEmpty()) {
+            log.warn("Failed to delete some abandoned files, bucketName={}, errors={}", bucketName, response.errors());
+        }
+        return objects.stream()
+                .map(ObjectIdentifier::key)
+                .filter(fileId -> !failed.contains(fileId))
+                .collect(Collectors.toList());
+    }
+
+    static PutObjectRequest fileMetadataRequest(String bucketName,
+                                                String fileId,
+                                                EncodedMetadata encodedMetadata,
+                                                Instant createdAt) {
+        var s3Metadata = new HashMap<>(encodedMetadata.getHeaders());
+        s3Metadata.put(FILE_ID, fileId);
+        s3Metadata.put(CREATED_AT, createdAt.toString());
+        return PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(fileId)
+                .metadata(s3Metadata)
+                .build();
+    }
+
+    static void checkFileMetadataNotEmpty(String bucketName,
+                                          String fileId,
+                                          String fileMetadataVersionId,
+                                          Map<String, String> s3Metadata) {
+        if (s3Metadata.isEmpty()) {
+            throw new StorageException(String.format(
+                    "Object version with file metadata is empty, " +
+                            "fileId=%s, fileMetadataVersionId=%s, bucketName=%s",
+                    fileId, fileMetadataVersionId, bucketName));
+        }
+    }
+
+    static CachedFileData cachedFileData(FileMetadata fileMetadata,
+                                         String fileMetadataVersionId,
+                                         String fileVersionId,
+                                         String fileName) {
+        return new CachedFileData(
+                fileMetadata.getFileId(),
+                fileMetadataVersionId,
+                fileVersionId,
+                fileName,
+                fileMetadata.getCreatedAt(),
+                fileMetadata.getMetadata());
+    }
+
+    static String fileName(String bucketName,
+                           String fileId,
+                           String fileVersionId,
+                           HeadObjectResponse headObjectResponse) {
+        return Optional.ofNullable(headObjectResponse.contentDisposition())
+                .map(S3V2Objects::extractFileName)
+                .or(() -> headObjectResponse.sdkHttpResponse().firstMatchingHeader("Content-Disposition")
+                        .map(S3V2Objects::extractFileName))
+                .orElseThrow(() -> new StorageException(String.format(
+                        "Header 'Content-Disposition' in object version with file is empty, " +
+                                "fileId=%s, fileVersionId=%s, bucketName=%s",
+                        fileId, fileVersionId, bucketName)));
+    }
+
+    static HeadObjectRequest headObjectRequest(String bucketName, String fileId, String versionId) {
+        return HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(fileId)
+                .versionId(versionId)
+                .build();
+    }
+
+    static GetObjectRequest getObjectRequest(String bucketName, String fileId, String versionId) {
+        return GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(fileId)
+                .versionId(versionId)
+                .build();
+    }
+
+    static HeadObjectRequest headObjectRequest(String bucketName, FileContentRequest request, String fileVersionId) {
+        return HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(request.getFileDataId())
+                .versionId(fileVersionId)
+                .range(request.getRange())
+                .ifMatch(request.getIfMatch())
+                .ifNoneMatch(request.getIfNoneMatch())
+                .ifModifiedSince(request.getIfModifiedSince())
+                .ifUnmodifiedSince(request.getIfUnmodifiedSince())
+                .build();
+    }
+
+    static GetObjectRequest getObjectRequest(String bucketName, FileContentRequest request, String fileVersionId) {
+        return GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(request.getFileDataId())
+                .versionId(fileVersionId)
+                .range(request.getRange())
+                .ifMatch(request.getIfMatch())
+                .ifNoneMatch(request.getIfNoneMatch())
+                .ifModifiedSince(request.getIfModifiedSince())
+                .ifUnmodifiedSince(request.getIfUnmodifiedSince())
+                .build();
+    }
+
+    static List<CompletedPart> completedParts(List<String> partETags) {
+        var parts = new ArrayList<CompletedPart>(partETags.size());
+        for (int i = 0; i < partETags.size(); i++) {
+            parts.add(CompletedPart.builder().partNumber(i + 1).eTag(partETags.get(i)).build());
+        }
+        return parts;
+    }
+
+    static URL presignDownloadUrl(S3Presigner s3Presigner,
+                                  StorageMetrics storageMetrics,
+                                  String bucketName,
+                                  String fileId,
+                                  String fileVersionId,
+                                  Instant expirationTime) {
+        var presignRequest = GetObjectPresignRequest.builder()
+                .signatureDuration(Duration.between(Instant.now(), expirationTime))
+                .getObjectRequest(getObjectRequest(bucketName, fileId, fileVersionId))
+                .build();
+        var presignedRequest = storageMetrics.recordPresign(
+                "PresignGetObject",
+                () -> s3Presigner.presignGetObject(presignRequest));
+        log.info("Download url was presigned, fileId={}, bucketName={}, isBrowserExecutable={}",
+                fileId, bucketName, presignedRequest.isBrowserExecutable());
+        log.debug("Presigned http request={}", presignedRequest.httpRequest().toString());
+        return presignedRequest.url();
+    }
+
+    static URL presignUploadUrl(S3Presigner s3Presigner,
+                                StorageMetrics storageMetrics,
+                                String bucketName,
+                                String fileId,
+                                Instant expirationTime) {
+        var presignRequest = PutObjectPresignRequest.builder()
+                .signatureDuration(Duration.between(Instant.now(), expirationTime))
+                .putObjectRequest(PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(fileId)
+                        .build())
+                .build();
+        var presignedRequest = storageMetrics.recordPresign(
+                "PresignPutObject",
+                () -> s3Presigner.presignPutObject(presignRequest));
+        log.info("Upload url was presigned, fileId={}, bucketName={}", fileId, bucketName);
+        log.debug("Presigned http request={}", presignedRequest.httpRequest().toString());
+        return presignedRequest.url();
+    }
+
+    static List<String> presignUploadPartUrls(S3Presigner s3Presigner,
+                                              StorageMetrics storageMetrics,
+                                              String bucketName,
+                                              String fileId,
+                                              String uploadId,
+                                              int partCount,
+                                              Instant expirationTime) {
+        var partUploadUrls = new ArrayList<String>(partCount);
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            var presignRequest = UploadPartPresignRequest.builder()
+                    .signatureDuration(Duration.between(Instant.now(), expirationTime))
+                    .uploadPartRequest(UploadPartRequest.builder()
+                            .bucket(bucketName)
+                            .key(fileId)
+                            .uploadId(uploadId)
+                            .partNumber(partNumber)
+                            .build())
+                    .build();
+            var presignedRequest = storageMetrics.recordPresign(
+                    "PresignUploadPart",
+                    () -> s3Presigner.presignUploadPart(presignRequest));
+            partUploadUrls.add(presignedRequest.url().toString());
+        }
+        log.info("Upload part urls were presigned, fileId={}, bucketName={}, parts={}",
+                fileId, bucketName, partCount);
+        return partUploadUrls;
+    }
+
+    private static String extractFileName(String contentDisposition) {
+        int fileNameIndex = contentDisposition.lastIndexOf(FILENAME_PARAM) + FILENAME_PARAM.length();
+        return contentDisposition.substring(fileNameIndex).replaceAll("\"", "");
+    }
+
+    @RequiredArgsConstructor
+    @Getter
+    @ToString
+    static class FileMetadata {
+
+        private final String fileId;
+        private final String createdAt;
+        private final Map<String, Value> metadata;
+
+    }
+}
@@ -4,94 +4,298 @@ import com.rbkmoney.file.storage.FileData;
 import com.rbkmoney.file.storage.NewFileResult;
 import com.rbkmoney.file.storage.configuration.properties.S3SdkV2Properties;
 import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.S3V2Objects.FileMetadata;
+import com.rbkmoney.file.storage.service.batch.BatchExecutor;
+import com.rbkmoney.file.storage.service.batch.BatchResult;
+import com.rbkmoney.file.storage.service.bucket.BucketInitializer;
+import com.rbkmoney.file.storage.service.bucket.BucketSharding;
+import com.rbkmoney.file.storage.service.cache.CachedFileData;
+import com.rbkmoney.file.storage.service.cache.FileDataCache;
+import com.rbkmoney.file.storage.service.download.FileContent;
+import com.rbkmoney.file.storage.service.download.FileContentRequest;
 import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
 import com.rbkmoney.file.storage.service.exception.StorageException;
-import com.rbkmoney.file.storage.util.DamselUtil;
-import lombok.Getter;
+import com.rbkmoney.file.storage.service.index.FileIndex;
+import com.rbkmoney.file.storage.service.metadata.MetadataSerializer;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.service.notification.ResolvedFiles;
+import com.rbkmoney.file.storage.service.reaper.PendingUpload;
+import com.rbkmoney.file.storage.service.reaper.PendingUploads;
+import com.rbkmoney.file.storage.service.reaper.ReapedFiles;
+import com.rbkmoney.file.storage.service.singleflight.SingleFlight;
+import com.rbkmoney.file.storage.service.upload.FileUpload;
+import com.rbkmoney.file.storage.service.upload.MultipartTarget;
+import com.rbkmoney.file.storage.service.upload.MultipartUploader;
+import com.rbkmoney.file.storage.service.upload.NewMultipartFileResult;
 import lombok.RequiredArgsConstructor;
-import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
-import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
 
 import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
 import java.net.URL;
-import java.time.Duration;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.*;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
+
+import static com.rbkmoney.file.storage.service.S3V2Objects.*;
+import static com.rbkmoney.file.storage.util.FileContentUtil.conditionalStatus;
+import static com.rbkmoney.file.storage.util.FileContentUtil.fileContent;
 
 @Service
-@ConditionalOnProperty(value = "s3-sdk-v2.enabled", havingValue = "true")
+@ConditionalOnExpression("${s3-sdk-v2.enabled:false} and !${s3-sdk-v2.async-enabled:false}")
 @Slf4j
 @RequiredArgsConstructor
 public class S3V2Service implements StorageService {
 
-    private static final String FILE_ID = "x-rbkmoney-file-id";
-    private static final String CREATED_AT = "x-rbkmoney-created-at";
-    private static final String METADATA = "x-rbkmoney-metadata-";
-    private static final String FILENAME_PARAM = "filename=";
+    private static final String FILE_DATA_FLIGHT = "file-data:";
+    private static final String FILE_VERSION_ID_FLIGHT = "file-version-id:";
 
     private final S3SdkV2Properties s3SdkV2Properties;
     private final S3Client s3SdkV2Client;
     private final S3Presigner s3Presigner;
+    private final FileDataCache fileDataCache;
+    private final BatchExecutor batchExecutor;
+    private final MetadataSerializer metadataSerializer;
+    private final StorageMetrics storageMetrics;
+    private final SingleFlight singleFlight;
+    private final BucketInitializer bucketInitializer;
+    private final BucketSharding bucketSharding;
+    private final MultipartUploader multipartUploader;
+    private final FileIndex fileIndex;
+    private final PendingUploads pendingUploads;
+    private final ResolvedFiles resolvedFiles;
 
     @PostConstruct
     public void init() {
-        if (!doesBucketExist()) {
-            createBucket();
-            enableBucketVersioning();
-        }
+        bucketInitializer.initialize(
+                bucketSharding.bucketNames(s3SdkV2Properties.getBucketName()),
+                this::bucketInit);
     }
 
     @Override
     public NewFileResult createNewFile(Map<String, Value> metadata, Instant expirationTime) {
-        var fileId = UUID.randomUUID().toString();
+        var fileId = bucketSharding.newFileId();
+        pendingUploads.track(fileId, expirationTime);
         uploadFileMetadata(metadata, fileId);
-        var url = presignUploadUrl(expirationTime, fileId);
+        var url = presignUploadUrl(s3Presigner, storageMetrics, bucketName(fileId), fileId, expirationTime);
         return new NewFileResult(fileId, url.toString());
     }
 
     @Override
     public URL generateDownloadUrl(String fileId, Instant expirationTime) {
-        var versions = getObjectVersions(fileId);
-        checkFileExist(fileId, versions);
-        var fileVersionId = getFileVersionId(fileId, versions);
-        var presignRequest = GetObjectPresignRequest.builder()
-                .signatureDuration(Duration.between(Instant.now(), expirationTime))
-                .getObjectRequest(GetObjectRequest.builder()
-                        .bucket(s3SdkV2Properties.getBucketName())
-                        .key(fileId)
-                        .versionId(fileVersionId)
-                        .build())
-                .build();
-        var presignedRequest = s3Presigner.presignGetObject(presignRequest);
-        log.info("Download url was presigned, fileId={}, bucketName={}, isBrowserExecutable={}",
-                fileId, s3SdkV2Properties.getBucketName(), presignedRequest.isBrowserExecutable());
-        log.debug("Presigned http request={}", presignedRequest.httpRequest().toString());
-        return presignedRequest.url();
+        var fileVersionId = resolveFileVersionId(fileId);
+        return presignDownloadUrl(
+                s3Presigner, storageMetrics, bucketName(fileId), fileId, fileVersionId, expirationTime);
     }
 
     @Override
     public FileData getFileData(String fileId) {
+        var cachedFileData = fileDataCache.get(fileId)
+                .orElseGet(() -> singleFlight.execute(FILE_DATA_FLIGHT + fileId, () -> loadFileData(fileId)));
+        return new FileData(
+                cachedFileData.getFileId(),
+                cachedFileData.getFileName(),
+                cachedFileData.getCreatedAt(),
+                cachedFileData.getMetadata());
+    }
+
+    @Override
+    public BatchResult<URL> generateDownloadUrlBatch(List<String> fileDataIds, Instant expirationTime) {
+        return batchExecutor.execute(fileDataIds, fileDataId -> generateDownloadUrl(fileDataId, expirationTime));
+    }
+
+    @Override
+    public BatchResult<FileData> getFileDataBatch(List<String> fileDataIds) {
+        return batchExecutor.execute(fileDataIds, this::getFileData);
+    }
+
+    @Override
+    public FileContent getFileContent(FileContentRequest request) {
+        var fileId = request.getFileDataId();
+        var fileVersionId = resolveFileVersionId(fileId);
+        try {
+            if (request.isHeadOnly()) {
+                var headObjectResponse = s3SdkV2Client.headObject(
+                        headObjectRequest(bucketName(fileId), request, fileVersionId));
+                return fileContent(headObjectResponse);
+            }
+            // тело не буферизуется — поток читается прямо из соединения с s3
+            var responseInputStream = s3SdkV2Client.getObject(
+                    getObjectRequest(bucketName(fileId), request, fileVersionId));
+            log.info("Object version with file content has been opened, fileId={}, fileVersionId={}, bucketName={}",
+                    fileId, fileVersionId, bucketName(fileId));
+            return fileContent(responseInputStream.response(), responseInputStream, responseInputStream::abort);
+        } catch (S3Exception ex) {
+            return conditionalStatus(ex)
+                    .orElseThrow(() -> new StorageException(
+                            String.format(
+                                    "Failed to get object version content with file, " +
+                                            "fileId=%s, fileVersionId=%s, bucketName=%s",
+                                    fileId, fileVersionId, bucketName(fileId)),
+                            ex));
+        }
+    }
+
+    @Override
+    public long uploadFile(FileUpload fileUpload) {
+        var fileId = fileUpload.getFileDataId();
+        checkFileWaitingUpload(bucketName(fileId), fileId, getObjectVersions(fileId));
+        var uploaded = multipartUploader.upload(fileId, fileUpload.getContent(), new S3MultipartTarget(
+                fileId, fileUpload.getContentDisposition(), fileUpload.getContentType()));
+        fileIndex.markUploaded(fileId);
+        log.info("File has been uploaded, fileId={}, bucketName={}, bytes={}", fileId, bucketName(fileId), uploaded);
+        return uploaded;
+    }
+
+    @Override
+    public NewMultipartFileResult createNewMultipartFile(
+            Map<String, Value> metadata,
+            String fileName,
+            Instant expirationTime,
+            int partCount) {
+        var fileId = bucketSharding.newFileId();
+        pendingUploads.track(fileId, expirationTime);
+        uploadFileMetadata(metadata, fileId);
+        // имя файла задается при создании загрузки, в presigned ссылки на части заголовки не передаются
+        var uploadId = new S3MultipartTarget(fileId, FileUpload.contentDisposition(fileName), null)
+                .createMultipartUpload();
+        pendingUploads.trackMultipart(fileId, expirationTime, uploadId);
+        var partUploadUrls = presignUploadPartUrls(
+                s3Presigner, storageMetrics, bucketName(fileId), fileId, uploadId, partCount, expirationTime);
+        log.info("Multipart upload was created, fileId={}, bucketName={}, parts={}",
+                fileId, bucketName(fileId), partCount);
+        return new NewMultipartFileResult(fileId, uploadId, partUploadUrls);
+    }
+
+    @Override
+    public void completeMultipartFile(String fileId, String uploadId, List<String> partETags) {
+        checkFileWaitingUpload(bucketName(fileId), fileId, getObjectVersions(fileId));
+        new S3MultipartTarget(fileId, null, null).completeMultipartUpload(uploadId, partETags);
+        fileIndex.markUploaded(fileId);
+        log.info("Multipart upload was completed, fileId={}, bucketName={}, parts={}",
+                fileId, bucketName(fileId), partETags.size());
+    }
+
+    @Override
+    public void abortMultipartFile(String fileId, String uploadId) {
+        new S3MultipartTarget(fileId, null, null).abortMultipartUpload(uploadId);
+        log.info("Multipart upload was aborted, fileId={}, bucketName={}", fileId, bucketName(fileId));
+    }
+
+    // удаляются все ревизии объекта — и метаданные, и сам файл
+    @Override
+    public void deleteFile(String fileId) {
+        var objects = objectIdentifiers(fileId, getObjectVersions(fileId));
+        if (objects.isEmpty()) {
+            throw new FileNotFoundException(String.format(
+                    "Object versions not found, fileId=%s, bucketName=%s", fileId, bucketName(fileId)));
+        }
+        try {
+            var deleteObjectsResponse = s3SdkV2Client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(bucketName(fileId))
+                    .delete(Delete.builder().objects(objects).quiet(true).build())
+                    .build());
+            if (deleteObjectsResponse.hasErrors() && !deleteObjectsResponse.errors().isEmpty()) {
+                throw new StorageException(String.format(
+                        "Failed to delete object versions, fileId=%s, bucketName=%s, errors=%s",
+                        fileId, bucketName(fileId), deleteObjectsResponse.errors()));
+            }
+        } catch (S3Exception ex) {
+            throw new StorageException(
+                    String.format("Failed to delete object versions, fileId=%s, bucketName=%s",
+                            fileId, bucketName(fileId)),
+                    ex);
+        } finally {
+            fileDataCache.invalidate(fileId);
+        }
+        fileIndex.remove(fileId);
+        resolvedFiles.remove(fileId);
+        log.info("File was deleted, fileId={}, bucketName={}, objectVersions={}",
+                fileId, bucketName(fileId), objects.size());
+    }
+
+    @Override
+    public ReapedFiles deleteAbandonedFiles(List<PendingUpload> pendingUploads) {
+        var versionsByFileId = new LinkedHashMap<String, List<ObjectVersion>>();
+        pendingUploads.forEach(pendingUpload ->
+                versionsByFileId.computeIfAbsent(pendingUpload.getFileDataId(), this::getObjectVersions));
+        // файл, загрузку которого не удалось отменить, остается со своей отметкой до следующего прохода
+        abandonedUploads(pendingUploads, versionsByFileId).stream()
+                .filter(pendingUpload -> !abortAbandonedUpload(pendingUpload))
+                .forEach(pendingUpload -> versionsByFileId.remove(pendingUpload.getFileDataId()));
+        var deleted = new ArrayList<String>();
+        abandonedObjectsByBucket(versionsByFileId, this::bucketName).forEach((bucketName, objects) -> {
+            for (int from = 0; from < objects.size(); from += MAX_DELETE_OBJECTS) {
+                int to = Math.min(objects.size(), from + MAX_DELETE_OBJECTS);
+                deleted.addAll(deleteAbandonedObjects(bucketName, objects.subList(from, to)));
+            }
+        });
+        log.info("Abandoned files were deleted, checked={}, deleted={}", pendingUploads.size(), deleted.size());
+        return reapedFiles(versionsByFileId, deleted);
+    }
+
+    @Override
+    public void resolveUploadedFile(String fileId) {
+        resolvedFiles.put(resolveFileData(fileId));
+        fileIndex.markUploaded(fileId);
+        log.info("Uploaded file has been resolved, fileId={}, bucketName={}", fileId, bucketName(fileId));
+    }
+
+    private String resolveFileVersionId(String fileId) {
+        return fileDataCache.getFileVersionId(fileId)
+                .orElseGet(() -> singleFlight.execute(FILE_VERSION_ID_FLIGHT + fileId, () -> resolvedFile(fileId)
+                        .map(CachedFileData::getFileVersionId)
+                        .orElseGet(() -> {
+                            var versions = getObjectVersions(fileId);
+                            checkFileExist(bucketName(fileId), fileId, versions);
+                            var fileVersionId = getFileVersionId(bucketName(fileId), fileId, versions);
+                            fileDataCache.putFileVersionId(fileId, fileVersionId);
+                            return fileVersionId;
+                        })));
+    }
+
+    private CachedFileData loadFileData(String fileId) {
+        return resolvedFile(fileId).orElseGet(() -> resolveFileData(fileId));
+    }
+
+    // файл, разобранный по уведомлению о загрузке, читается одним запросом и сразу попадает в кэш
+    private Optional<CachedFileData> resolvedFile(String fileId) {
+        var resolvedFile = resolvedFiles.get(fileId);
+        resolvedFile.ifPresent(fileDataCache::put);
+        return resolvedFile;
+    }
+
+    private CachedFileData resolveFileData(String fileId) {
         var versions = getObjectVersions(fileId);
-        checkFileExist(fileId, versions);
-        var fileMetadataVersionId = getFileMetadataVersionId(fileId, versions);
+        checkFileExist(bucketName(fileId), fileId, versions);
+        var fileMetadataVersionId = getFileMetadataVersionId(bucketName(fileId), fileId, versions);
         var fileMetadata = getFileMetadata(fileId, fileMetadataVersionId);
-        var fileVersionId = getFileVersionId(fileId, versions);
+        var fileVersionId = getFileVersionId(bucketName(fileId), fileId, versions);
         var fileName = getFileName(fileId, fileVersionId);
-        return new FileData(
-                fileMetadata.getFileId(),
-                fileName,
-                fileMetadata.getCreatedAt(),
-                fileMetadata.getMetadata());
+        var cachedFileData = cachedFileData(fileMetadata, fileMetadataVersionId, fileVersionId, fileName);
+        // в кэш попадают только файлы с обеими ревизиями, которые уже не изменятся
+        fileDataCache.put(cachedFileData);
+        return cachedFileData;
+    }
+
+    private void bucketInit(String bucketName) {
+        if (!doesBucketExist(bucketName)) {
+            createBucket(bucketName);
+            enableBucketVersioning(bucketName);
+        }
+    }
+
+    private String bucketName(String fileId) {
+        return bucketSharding.bucketName(s3SdkV2Properties.getBucketName(), fileId);
     }
 
     // единственный доступный вариант проверки существования бакета на данный момент через catch
@@ -100,41 +304,41 @@ public class S3V2Service implements StorageService {
     // разница только в том, что проверка идет через метод S3Client#getBucketAcl
     // во второй версии тоже есть этот метод, не уверен в чем разница с выбранным вариантом,
     // но везде советуют его
-    private boolean doesBucketExist() {
+    private boolean doesBucketExist(String bucketName) {
         try {
             var request = HeadBucketRequest.builder()
-                    .bucket(s3SdkV2Properties.getBucketName())
+                    .bucket(bucketName)
                     .build();
             var headBucketResponse = s3SdkV2Client.headBucket(request);
             var response = headBucketResponse.sdkHttpResponse();
             log.info(String.format("Check exist bucket result %d:%s",
                     response.statusCode(), response.statusText()));
             if (response.isSuccessful()) {
-                log.info("Bucket is exist, bucketName={}", s3SdkV2Properties.getBucketName());
+                log.info("Bucket is exist, bucketName={}", bucketName);
             } else {
                 throw new StorageException(String.format(
-                        "Failed to check bucket on exist, bucketName=%s", s3SdkV2Properties.getBucketName()));
+                        "Failed to check bucket on exist, bucketName=%s", bucketName));
             }
             return true;
         } catch (NoSuchBucketException ex) {
-            log.info("Bucket does not exist, bucketName={}", s3SdkV2Properties.getBucketName());
+            log.info("Bucket does not exist, bucketName={}", bucketName);
             return false;
         } catch (S3Exception ex) {
             throw new StorageException(
-                    String.format("Failed to check bucket on exist, bucketName=%s", s3SdkV2Properties.getBucketName()),
+                    String.format("Failed to check bucket on exist, bucketName=%s", bucketName),
                     ex);
         }
     }
 
-    private void createBucket() {
+    private void createBucket(String bucketName) {
         try {
             var s3Waiter = s3SdkV2Client.waiter();
             var createBucketRequest = CreateBucketRequest.builder()
-                    .bucket(s3SdkV2Properties.getBucketName())
+                    .bucket(bucketName)
                     .build();
             s3SdkV2Client.createBucket(createBucketRequest);
             var headBucketRequest = HeadBucketRequest.builder()
-                    .bucket(s3SdkV2Properties.getBucketName())
+                    .bucket(bucketName)
                     .build();
             // Wait until the bucket is created and print out the response.
             s3Waiter.waitUntilBucketExists(headBucketRequest)
@@ -145,23 +349,23 @@ public class S3V2Service implements StorageService {
                         log.info(String.format("Check created bucket result %d:%s",
                                 response.statusCode(), response.statusText()));
                         if (response.isSuccessful()) {
-                            log.info("Bucket has been created, bucketName={}", s3SdkV2Properties.getBucketName());
+                            log.info("Bucket has been created, bucketName={}", bucketName);
                         } else {
                             throw new StorageException(String.format(
-                                    "Failed to create bucket, bucketName=%s", s3SdkV2Properties.getBucketName()));
+                                    "Failed to create bucket, bucketName=%s", bucketName));
                         }
                     });
         } catch (S3Exception ex) {
             throw new StorageException(
-                    String.format("Failed to create bucket, bucketName=%s", s3SdkV2Properties.getBucketName()),
+                    String.format("Failed to create bucket, bucketName=%s", bucketName),
                     ex);
         }
     }
 
-    private void enableBucketVersioning() {
+    private void enableBucketVersioning(String bucketName) {
         try {
             var request = PutBucketVersioningRequest.builder()
-                    .bucket(s3SdkV2Properties.getBucketName())
+                    .bucket(bucketName)
                     .versioningConfiguration(VersioningConfiguration.builder()
                             .status(BucketVersioningStatus.ENABLED)
                             .build())
@@ -171,243 +375,313 @@ public class S3V2Service implements StorageService {
             log.info(String.format("Check enable versioning bucket result %d:%s",
                     response.statusCode(), response.statusText()));
             if (response.isSuccessful()) {
-                log.info("Versioning bucket has been enabled, bucketName={}", s3SdkV2Properties.getBucketName());
+                log.info("Versioning bucket has been enabled, bucketName={}", bucketName);
             } else {
                 throw new StorageException(String.format(
-                        "Failed to enable bucket versioning, bucketName=%s", s3SdkV2Properties.getBucketName()));
+                        "Failed to enable bucket versioning, bucketName=%s", bucketName));
             }
         } catch (S3Exception ex) {
             throw new StorageException(
                     String.format("Failed to enable bucket versioning, " +
-                            "bucketName=%s", s3SdkV2Properties.getBucketName()),
+                            "bucketName=%s", bucketName),
                     ex);
         }
     }
 
     private void uploadFileMetadata(Map<String, Value> metadata, String fileId) {
         try {
-            var s3Metadata = new HashMap<String, String>();
-            s3Metadata.put(FILE_ID, fileId);
-            s3Metadata.put(CREATED_AT, Instant.now().toString());
-            metadata.forEach((key, value) -> s3Metadata.put(METADATA + key, DamselUtil.toJsonString(value)));
-            var request = PutObjectRequest.builder()
-                    .bucket(s3SdkV2Properties.getBucketName())
-                    .key(fileId)
-                    .metadata(s3Metadata)
-                    .build();
-            var putObjectResponse = s3SdkV2Client.putObject(request, RequestBody.empty());
+            var encodedMetadata = metadataSerializer.encode(metadata);
+            var createdAt = Instant.now();
+            var request = fileMetadataRequest(bucketName(fileId), fileId, encodedMetadata, createdAt);
+            var putObjectResponse = s3SdkV2Client.putObject(request, RequestBody.fromBytes(encodedMetadata.getBody()));
             var response = putObjectResponse.sdkHttpResponse();
             log.info(String.format("Check upload object version with file metadata result %d:%s",
                     response.statusCode(), response.statusText()));
             if (response.isSuccessful()) {
                 log.info("Object version with file metadata was uploaded, fileId={}, bucketName={}",
-                        fileId, s3SdkV2Properties.getBucketName());
+                        fileId, bucketName(fileId));
+                fileIndex.index(fileId, createdAt, metadata);
             } else {
                 throw new StorageException(String.format(
                         "Failed to upload object version with file metadata, fileId=%s, bucketName=%s",
-                        fileId, s3SdkV2Properties.getBucketName()));
+                        fileId, bucketName(fileId)));
             }
         } catch (S3Exception ex) {
             throw new StorageException(
                     String.format("Failed to upload object version with file metadata, fileId=%s, bucketName=%s",
-                            fileId, s3SdkV2Properties.getBucketName()),
+                            fileId, bucketName(fileId)),
                     ex);
         }
     }
 
-    private URL presignUploadUrl(Instant expirationTime, String fileId) {
-        var presignRequest = PutObjectPresignRequest.builder()
-                .signatureDuration(Duration.between(Instant.now(), expirationTime))
-                .putObjectRequest(PutObjectRequest.builder()
-                        .bucket(s3SdkV2Properties.getBucketName())
-                        .key(fileId)
-                        .build())
-                .build();
-        var presignedRequest = s3Presigner.presignPutObject(presignRequest);
-        log.info("Upload url was presigned, fileId={}, bucketName={}", fileId, s3SdkV2Properties.getBucketName());
-        log.debug("Presigned http request={}", presignedRequest.httpRequest().toString());
-        return presignedRequest.url();
-    }
-
     private List<ObjectVersion> getObjectVersions(String fileId) {
+        var versions = new ArrayList<ObjectVersion>();
         try {
-            var request = ListObjectVersionsRequest.builder()
-                    .bucket(s3SdkV2Properties.getBucketName())
-                    .prefix(fileId)
-                    .build();
-            var listObjectVersionsResponse = s3SdkV2Client.listObjectVersions(request);
-            var response = listObjectVersionsResponse.sdkHttpResponse();
-            log.info(String.format("Check list object versions result %d:%s",
-                    response.statusCode(), response.statusText()));
-            if (response.isSuccessful()) {
-                var versions = listObjectVersionsResponse.versions();
-                log.info("List object versions has been got, fileId={}, bucketName={}, objectVersions={}, ",
-                        fileId,
-                        s3SdkV2Properties.getBucketName(),
-                        versions.stream().map(ObjectVersion::toString).collect(Collectors.joining(",")));
-                return versions;
-            } else {
-                throw new StorageException(String.format(
-                        "Failed to get list object versions, fileId=%s, bucketName=%s",
-                        fileId, s3SdkV2Properties.getBucketName()));
-            }
+            String versionIdMarker = null;
+            do {
+                var listObjectVersionsResponse = s3SdkV2Client.listObjectVersions(
+                        listObjectVersionsRequest(bucketName(fileId), fileId, versionIdMarker));
+                var response = listObjectVersionsResponse.sdkHttpResponse();
+                log.info(String.format("Check list object versions result %d:%s",
+                        response.statusCode(), response.statusText()));
+                if (!response.isSuccessful()) {
+                    throw new StorageException(String.format(
+                            "Failed to get list object versions, fileId=%s, bucketName=%s",
+                            fileId, bucketName(fileId)));
+                }
+                versions.addAll(exactKeyVersions(fileId, listObjectVersionsResponse));
+                versionIdMarker = nextVersionIdMarker(fileId, listObjectVersionsResponse);
+            } while (versionIdMarker != null);
         } catch (S3Exception ex) {
             throw new StorageException(
                     String.format(
                             "Failed to get list object versions, fileId=%s, bucketName=%s",
-                            fileId, s3SdkV2Properties.getBucketName()),
+                            fileId, bucketName(fileId)),
                     ex);
         }
+        log.info("List object versions has been got, fileId={}, bucketName={}, objectVersions={}, ",
+                fileId,
+                bucketName(fileId),
+                versionsToString(versions));
+        return versions;
     }
 
-    private void checkFileExist(String fileId, List<ObjectVersion> versions) {
-        if (!doesFileExist(versions)) {
-            throw new FileNotFoundException(String.format(
-                    "Failed to check object version with file on exist, fileId=%s, bucketName=%s, objectVersions=%s, ",
-                    fileId,
-                    s3SdkV2Properties.getBucketName(),
-                    versions.stream().map(ObjectVersion::toString).collect(Collectors.joining(","))));
+    private boolean abortAbandonedUpload(PendingUpload pendingUpload) {
+        var fileId = pendingUpload.getFileDataId();
+        try {
+            new S3MultipartTarget(fileId, null, null).abortMultipartUpload(pendingUpload.getUploadId());
+            log.info("Abandoned multipart upload was aborted, fileId={}, bucketName={}", fileId, bucketName(fileId));
+            return true;
+        } catch (StorageException ex) {
+            if (isUploadNotFound(ex.getCause())) {
+                return true;
+            }
+            log.warn("Failed to abort abandoned multipart upload, fileId={}, bucketName={}",
+                    fileId, bucketName(fileId), ex);
+            return false;
         }
     }
 
-    private Boolean doesFileExist(List<ObjectVersion> versions) {
-        // должно быть 2 ревизии — 1я это метаданные, 2ая это сам загруженный файл
-        return versions.size() == 2;
-//                && versions.stream()
-//                .filter(v -> v.size() > 0)
-//                .map(v -> true)
-//                .findFirst()
-//                .orElse(false);
-    }
-
-    private String getFileMetadataVersionId(String fileId, List<ObjectVersion> versions) {
-        return versions.stream()
-                .filter(Predicate.not(ObjectVersion::isLatest))
-                .findFirst()
-                .orElseThrow(() -> new StorageException(String.format(
-                        "Object version with file metadata not found, fileId=%s, bucketName=%s, objectVersions=%s, ",
-                        fileId,
-                        s3SdkV2Properties.getBucketName(),
-                        versions.stream().map(ObjectVersion::toString).collect(Collectors.joining(",")))))
-                .versionId();
+    private List<String> deleteAbandonedObjects(String bucketName, List<ObjectIdentifier> objects) {
+        try {
+            var deleteObjectsResponse = s3SdkV2Client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(bucketName)
+                    .delete(Delete.builder().objects(objects).quiet(true).build())
+                    .build());
+            return deletedFileIds(bucketName, objects, deleteObjectsResponse);
+        } catch (S3Exception ex) {
+            throw new StorageException(
+                    String.format("Failed to delete abandoned files, bucketName=%s, objects=%d",
+                            bucketName, objects.size()),
+                    ex);
+        } finally {
+            objects.forEach(object -> fileDataCache.invalidate(object.key()));
+        }
     }
 
     private FileMetadata getFileMetadata(String fileId, String fileMetadataVersionId) {
+        // в формате body ревизия с метаданными читается сразу вместе с телом одним запросом
+        if (metadataSerializer.isReadWithBody()) {
+            var responseBytes = getFileMetadataObject(fileId, fileMetadataVersionId);
+            return decodeFileMetadata(
+                    fileId,
+                    fileMetadataVersionId,
+                    responseBytes.response().metadata(),
+                    responseBytes::asByteBuffer);
+        }
         try {
-            var request = GetObjectRequest.builder()
-                    .bucket(s3SdkV2Properties.getBucketName())
-                    .key(fileId)
-                    .versionId(fileMetadataVersionId)
-                    .build();
-            return s3SdkV2Client.getObject(
-                    request,
-                    (getObjectResponse, inputStream) -> {
-                        var response = getObjectResponse.sdkHttpResponse();
-                        log.info(String.format("Check get object result %d:%s",
-                                response.statusCode(), response.statusText()));
-                        if (response.isSuccessful()) {
-                            log.info("Object version with file metadata has been got, " +
-                                            "fileId={}, fileMetadataVersionId={}, bucketName={}",
-                                    fileId, fileMetadataVersionId, s3SdkV2Properties.getBucketName());
-                            if (getObjectResponse.hasMetadata() && !getObjectResponse.metadata().isEmpty()) {
-                                var s3Metadata = getObjectResponse.metadata();
-                                var metadata = s3Metadata.entrySet().stream()
-                                        .filter(entry -> entry.getKey().startsWith(METADATA)
-                                                && entry.getValue() != null)
-                                        .collect(Collectors.toMap(
-                                                o -> o.getKey().substring(METADATA.length()),
-                                                o -> DamselUtil.fromJson(o.getValue(), Value.class)));
-                                return new FileMetadata(fileId, s3Metadata.get(CREATED_AT), metadata);
-                            } else {
-                                throw new StorageException(String.format(
-                                        "Object version with file metadata is empty, " +
-                                                "fileId=%s, fileMetadataVersionId=%s, bucketName=%s",
-                                        fileId, fileMetadataVersionId, s3SdkV2Properties.getBucketName()));
-                            }
-                        } else {
-                            throw new StorageException(String.format(
-                                    "Failed to get object version with file metadata," +
-                                            " fileId=%s, fileMetadataVersionId=%s, bucketName=%s",
-                                    fileId, fileMetadataVersionId, s3SdkV2Properties.getBucketName()));
-                        }
-                    });
+            // нужны только заголовки ревизии, поэтому тело объекта не запрашивается
+            var headObjectResponse = s3SdkV2Client.headObject(
+                    headObjectRequest(bucketName(fileId), fileId, fileMetadataVersionId));
+            var response = headObjectResponse.sdkHttpResponse();
+            log.info(String.format("Check head object result %d:%s",
+                    response.statusCode(), response.statusText()));
+            if (response.isSuccessful()) {
+                log.info("Object version with file metadata has been got, " +
+                                "fileId={}, fileMetadataVersionId={}, bucketName={}",
+                        fileId, fileMetadataVersionId, bucketName(fileId));
+                // упакованные метаданные, не влезшие в заголовок, лежат в теле ревизии
+                return decodeFileMetadata(
+                        fileId,
+                        fileMetadataVersionId,
+                        headObjectResponse.metadata(),
+                        () -> getFileMetadataObject(fileId, fileMetadataVersionId).asByteBuffer());
+            } else {
+                throw new StorageException(String.format(
+                        "Failed to get object version with file metadata," +
+                                " fileId=%s, fileMetadataVersionId=%s, bucketName=%s",
+                        fileId, fileMetadataVersionId, bucketName(fileId)));
+            }
         } catch (S3Exception ex) {
             throw new StorageException(
                     String.format(
                             "Failed to get object version with file metadata, " +
                                     "fileId=%s, fileMetadataVersionId=%s, bucketName=%s",
-                            fileId, fileMetadataVersionId, s3SdkV2Properties.getBucketName()),
+                            fileId, fileMetadataVersionId, bucketName(fileId)),
                     ex);
         }
     }
 
-    private String getFileVersionId(String fileId, List<ObjectVersion> versions) {
-        return versions.stream()
-                .filter(ObjectVersion::isLatest)
-                .findFirst()
-                .orElseThrow(() -> new StorageException(String.format(
-                        "Object version with file not found, fileId=%s, bucketName=%s, objectVersions=%s, ",
-                        fileId,
-                        s3SdkV2Properties.getBucketName(),
-                        versions.stream().map(ObjectVersion::toString).collect(Collectors.joining(",")))))
-                .versionId();
+    private FileMetadata decodeFileMetadata(
+            String fileId,
+            String fileMetadataVersionId,
+            Map<String, String> s3Metadata,
+            Supplier<ByteBuffer> body) {
+        checkFileMetadataNotEmpty(bucketName(fileId), fileId, fileMetadataVersionId, s3Metadata);
+        var metadata = metadataSerializer.isStoredInBody(s3Metadata)
+                ? metadataSerializer.decodeBody(body.get())
+                : metadataSerializer.decodeHeaders(s3Metadata);
+        return new FileMetadata(fileId, s3Metadata.get(CREATED_AT), metadata);
+    }
+
+    private ResponseBytes<GetObjectResponse> getFileMetadataObject(String fileId, String fileMetadataVersionId) {
+        try {
+            // тело ревизии с метаданными небольшое, ResponseBytes отдает его буфером без копирования
+            var responseBytes = s3SdkV2Client.getObjectAsBytes(
+                    getObjectRequest(bucketName(fileId), fileId, fileMetadataVersionId));
+            var response = responseBytes.response().sdkHttpResponse();
+            log.info(String.format("Check get object result %d:%s",
+                    response.statusCode(), response.statusText()));
+            if (response.isSuccessful()) {
+                log.info("Object version body with file metadata has been got, " +
+                                "fileId={}, fileMetadataVersionId={}, bucketName={}",
+                        fileId, fileMetadataVersionId, bucketName(fileId));
+                return responseBytes;
+            } else {
+                throw new StorageException(String.format(
+                        "Failed to get object version body with file metadata, " +
+                                "fileId=%s, fileMetadataVersionId=%s, bucketName=%s",
+                        fileId, fileMetadataVersionId, bucketName(fileId)));
+            }
+        } catch (S3Exception ex) {
+            throw new StorageException(
+                    String.format(
+                            "Failed to get object version body with file metadata, " +
+                                    "fileId=%s, fileMetadataVersionId=%s, bucketName=%s",
+                            fileId, fileMetadataVersionId, bucketName(fileId)),
+                    ex);
+        }
     }
 
     private String getFileName(String fileId, String fileVersionId) {
         try {
-            var request = GetObjectRequest.builder()
-                    .bucket(s3SdkV2Properties.getBucketName())
-                    .key(fileId)
-                    .versionId(fileVersionId)
-                    .build();
-            return s3SdkV2Client.getObject(
-                    request,
-                    (getObjectResponse, inputStream) -> {
-                        var response = getObjectResponse.sdkHttpResponse();
-                        log.info(String.format("Check get object result %d:%s",
-                                response.statusCode(), response.statusText()));
-                        if (response.isSuccessful()) {
-                            log.info("Object version with file has been got, " +
-                                            "fileId={}, fileVersionId={}, bucketName={}",
-                                    fileId, fileVersionId, s3SdkV2Properties.getBucketName());
-                            return Optional.ofNullable(getObjectResponse.contentDisposition())
-                                    .map(this::extractFileName)
-                                    .or(() -> response.firstMatchingHeader("Content-Disposition")
-                                            .map(this::extractFileName))
-                                    .orElseThrow(() -> new StorageException(String.format(
-                                            "Header 'Content-Disposition' in object version with file is empty, " +
-                                                    "fileId=%s, fileVersionId=%s, bucketName=%s",
-                                            fileId, fileVersionId, s3SdkV2Properties.getBucketName())));
-                        } else {
-                            throw new StorageException(String.format(
-                                    "Failed to get object version with file, " +
-                                            "fileId=%s, fileVersionId=%s, bucketName=%s",
-                                    fileId, fileVersionId, s3SdkV2Properties.getBucketName()));
-                        }
-                    });
+            // загруженный файл может весить мегабайты, для имени файла достаточно заголовков
+            var headObjectResponse = s3SdkV2Client.headObject(
+                    headObjectRequest(bucketName(fileId), fileId, fileVersionId));
+            var response = headObjectResponse.sdkHttpResponse();
+            log.info(String.format("Check head object result %d:%s",
+                    response.statusCode(), response.statusText()));
+            if (response.isSuccessful()) {
+                log.info("Object version with file has been got, " +
+                                "fileId={}, fileVersionId={}, bucketName={}",
+                        fileId, fileVersionId, bucketName(fileId));
+                return fileName(bucketName(fileId), fileId, fileVersionId, headObjectResponse);
+            } else {
+                throw new StorageException(String.format(
+                        "Failed to get object version with file, " +
+                                "fileId=%s, fileVersionId=%s, bucketName=%s",
+                        fileId, fileVersionId, bucketName(fileId)));
+            }
         } catch (S3Exception ex) {
             throw new StorageException(
                     String.format(
                             "Failed to get object version with file, " +
                                     "fileId=%s, fileVersionId=%s, bucketName=%s",
-                            fileId, fileVersionId, s3SdkV2Properties.getBucketName()),
+                            fileId, fileVersionId, bucketName(fileId)),
                     ex);
         }
     }
 
-    private String extractFileName(String contentDisposition) {
-        int fileNameIndex = contentDisposition.lastIndexOf(FILENAME_PARAM) + FILENAME_PARAM.length();
-        return contentDisposition.substring(fileNameIndex).replaceAll("\"", "");
+    private StorageException uploadException(String operation, String fileId, SdkException ex) {
+        return new StorageException(
+                String.format("Failed to %s, fileId=%s, bucketName=%s", operation, fileId, bucketName(fileId)),
+                ex);
     }
 
+    // части передаются потоком поверх буфера — RequestBody.fromBytes скопировал бы каждую часть
     @RequiredArgsConstructor
-    @Getter
-    @ToString
-    private static class FileMetadata {
+    private class S3MultipartTarget implements MultipartTarget {
 
         private final String fileId;
-        private final String createdAt;
-        private final Map<String, Value> metadata;
+        private final String contentDisposition;
+        private final String contentType;
+
+        @Override
+        public void putObject(byte[] data, int length) {
+            try {
+                s3SdkV2Client.putObject(
+                        PutObjectRequest.builder()
+                                .bucket(bucketName(fileId))
+                                .key(fileId)
+                                .contentDisposition(contentDisposition)
+                                .contentType(contentType)
+                                .build(),
+                        RequestBody.fromInputStream(new ByteArrayInputStream(data, 0, length), length));
+            } catch (SdkException ex) {
+                throw uploadException("put object with file", fileId, ex);
+            }
+        }
+
+        @Override
+        public String createMultipartUpload() {
+            try {
+                return s3SdkV2Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                                .bucket(bucketName(fileId))
+                                .key(fileId)
+                                .contentDisposition(contentDisposition)
+                                .contentType(contentType)
+                                .build())
+                        .uploadId();
+            } catch (SdkException ex) {
+                throw uploadException("create multipart upload", fileId, ex);
+            }
+        }
+
+        @Override
+        public String uploadPart(String uploadId, int partNumber, byte[] data, int length) {
+            try {
+                return s3SdkV2Client.uploadPart(
+                                UploadPartRequest.builder()
+                                        .bucket(bucketName(fileId))
+                                        .key(fileId)
+                                        .uploadId(uploadId)
+                                        .partNumber(partNumber)
+                                        .contentLength((long) length)
+                                        .build(),
+                                RequestBody.fromInputStream(new ByteArrayInputStream(data, 0, length), length))
+                        .eTag();
+            } catch (SdkException ex) {
+                throw uploadException("upload part " + partNumber, fileId, ex);
+            }
+        }
 
+        @Override
+        public void completeMultipartUpload(String uploadId, List<String> partETags) {
+            try {
+                s3SdkV2Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                        .bucket(bucketName(fileId))
+                        .key(fileId)
+                        .uploadId(uploadId)
+                        .multipartUpload(CompletedMultipartUpload.builder()
+                                .parts(completedParts(partETags))
+                                .build())
+                        .build());
+            } catch (SdkException ex) {
+                throw uploadException("complete multipart upload", fileId, ex);
+            }
+        }
+
+        @Override
+        public void abortMultipartUpload(String uploadId) {
+            try {
+                s3SdkV2Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucketName(fileId))
+                        .key(fileId)
+                        .uploadId(uploadId)
+                        .build());
+            } catch (SdkException ex) {
+                throw uploadException("abort multipart upload", fileId, ex);
+            }
+        }
     }
 }
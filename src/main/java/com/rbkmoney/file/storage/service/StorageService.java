@@ -3,9 +3,17 @@ package com.rbkmoney.file.storage.service;
 import com.rbkmoney.file.storage.FileData;
 import com.rbkmoney.file.storage.NewFileResult;
 import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.batch.BatchResult;
+import com.rbkmoney.file.storage.service.download.FileContent;
+import com.rbkmoney.file.storage.service.download.FileContentRequest;
+import com.rbkmoney.file.storage.service.reaper.PendingUpload;
+import com.rbkmoney.file.storage.service.reaper.ReapedFiles;
+import com.rbkmoney.file.storage.service.upload.FileUpload;
+import com.rbkmoney.file.storage.service.upload.NewMultipartFileResult;
 
 import java.net.URL;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 
 public interface StorageService {
@@ -16,4 +24,34 @@ public interface StorageService {
 
     FileData getFileData(String fileDataId);
 
+    BatchResult<URL> generateDownloadUrlBatch(List<String> fileDataIds, Instant expirationTime);
+
+    BatchResult<FileData> getFileDataBatch(List<String> fileDataIds);
+
+    // тело файла отдается потоком из соединения с s3, вызывающий обязан закрыть FileContent.getContent
+    FileContent getFileContent(FileContentRequest request);
+
+    // тело файла загружается в s3 потоком по частям, возвращает число загруженных байт
+    long uploadFile(FileUpload fileUpload);
+
+    // multipart вариант createNewFile — клиент загружает части параллельно по presigned ссылкам напрямую в s3,
+    // а затем завершает загрузку списком ETag частей
+    NewMultipartFileResult createNewMultipartFile(
+            Map<String, Value> metadata,
+            String fileName,
+            Instant expirationTime,
+            int partCount);
+
+    void completeMultipartFile(String fileDataId, String uploadId, List<String> partETags);
+
+    void abortMultipartFile(String fileDataId, String uploadId);
+
+    void deleteFile(String fileDataId);
+
+    // удаляет файлы отметок, которые так и не были загружены, и отменяет их multipart загрузки
+    ReapedFiles deleteAbandonedFiles(List<PendingUpload> pendingUploads);
+
+    // разбирает загруженный файл по уведомлению s3, чтобы первое чтение не ходило в s3 за ревизиями
+    void resolveUploadedFile(String fileId);
+
 }
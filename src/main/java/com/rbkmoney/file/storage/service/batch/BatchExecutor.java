@@ -0,0 +1,109 @@
+package com.rbkmoney.file.storage.service.batch;
+
+import com.rbkmoney.file.storage.configuration.properties.FileBatchProperties;
+import com.rbkmoney.file.storage.configuration.properties.VirtualThreadsProperties;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import com.rbkmoney.file.storage.util.VirtualThreads;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+// выполняет запросы пачки файлов параллельно, но не более file-batch.parallelism одновременно,
+// отсутствующие файлы возвращаются отдельным списком, остальные ошибки прерывают всю пачку
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class BatchExecutor {
+
+    private final FileBatchProperties fileBatchProperties;
+    private final VirtualThreadsProperties virtualThreadsProperties;
+    private ExecutorService executorService;
+
+    // в режиме виртуальных потоков каждый запрос пачки идет в своем потоке, а parallelism ограничивает
+    // только число запросов одной пачки в полете, как и для неблокирующих реализаций
+    @PostConstruct
+    public void init() {
+        if (virtualThreadsProperties.isEnabled()) {
+            executorService = VirtualThreads.newThreadPerTaskExecutor("file-batch-");
+            return;
+        }
+        executorService = Executors.newFixedThreadPool(
+                fileBatchProperties.getParallelism(),
+                new CustomizableThreadFactory("file-batch-"));
+    }
+
+    @PreDestroy
+    public void terminate() {
+        executorService.shutdownNow();
+    }
+
+    public <T> BatchResult<T> execute(Collection<String> ids, Function<String, T> loader) {
+        if (virtualThreadsProperties.isEnabled()) {
+            return executeAsync(ids, id -> CompletableFuture.supplyAsync(() -> loader.apply(id), executorService));
+        }
+        var futures = new LinkedHashMap<String, CompletableFuture<T>>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            futures.put(id, CompletableFuture.supplyAsync(() -> loader.apply(id), executorService));
+        }
+        return collect(futures);
+    }
+
+    // для неблокирующих реализаций пул не нужен, количество запросов в полете ограничивается семафором
+    public <T> BatchResult<T> executeAsync(Collection<String> ids, Function<String, CompletableFuture<T>> loader) {
+        var permits = new Semaphore(fileBatchProperties.getParallelism());
+        var futures = new LinkedHashMap<String, CompletableFuture<T>>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            acquire(permits);
+            CompletableFuture<T> future;
+            try {
+                future = loader.apply(id);
+            } catch (RuntimeException ex) {
+                future = CompletableFuture.failedFuture(ex);
+            }
+            futures.put(id, future.whenComplete((result, throwable) -> permits.release()));
+        }
+        return collect(futures);
+    }
+
+    private void acquire(Semaphore permits) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Thread is interrupted while waiting for the batch lookup");
+        }
+    }
+
+    private <T> BatchResult<T> collect(Map<String, CompletableFuture<T>> futures) {
+        var results = new LinkedHashMap<String, T>();
+        var notFound = new ArrayList<String>();
+        for (Map.Entry<String, CompletableFuture<T>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), join(entry.getValue()));
+            } catch (FileNotFoundException ex) {
+                log.warn("File not found in batch, id={}", entry.getKey(), ex);
+                notFound.add(entry.getKey());
+            }
+        }
+        return new BatchResult<>(results, notFound);
+    }
+
+    private <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.rbkmoney.file.storage.service.batch;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class BatchResult<T> {
+
+    private final Map<String, T> results;
+    private final List<String> notFound;
+
+    public <R> BatchResult<R> map(Function<T, R> mapper) {
+        var mappedResults = new LinkedHashMap<String, R>();
+        results.forEach((id, result) -> mappedResults.put(id, mapper.apply(result)));
+        return new BatchResult<>(mappedResults, notFound);
+    }
+}
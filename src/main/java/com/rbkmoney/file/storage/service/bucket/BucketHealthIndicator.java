@@ -0,0 +1,34 @@
+package com.rbkmoney.file.storage.service.bucket;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+// состояние бакета для readiness группы: пока проверка бакета не прошла, трафик на под не идет
+@Component
+@RequiredArgsConstructor
+public class BucketHealthIndicator implements HealthIndicator {
+
+    private final BucketInitializer bucketInitializer;
+
+    @Override
+    public Health health() {
+        Health.Builder builder;
+        switch (bucketInitializer.getStatus()) {
+            case READY:
+                builder = Health.up();
+                break;
+            case FAILED:
+                var lastError = bucketInitializer.getLastError();
+                builder = lastError != null ? Health.down().withException(lastError) : Health.down();
+                break;
+            default:
+                builder = Health.outOfService();
+        }
+        return builder
+                .withDetail("bucketNames", bucketInitializer.getBucketNames())
+                .withDetail("attempts", bucketInitializer.getAttempts())
+                .build();
+    }
+}
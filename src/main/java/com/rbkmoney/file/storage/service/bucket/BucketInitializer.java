@@ -0,0 +1,112 @@
+package com.rbkmoney.file.storage.service.bucket;
+
+import com.rbkmoney.file.storage.configuration.properties.S3BucketInitProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// проверка и создание бакета при старте сервиса. В блокирующем режиме выполняется прямо в @PostConstruct
+// и при ошибке роняет старт, в асинхронном — на отдельном потоке с повторами до успеха,
+// а до готовности бакета readiness проба отдает OUT_OF_SERVICE
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class BucketInitializer {
+
+    private final S3BucketInitProperties s3BucketInitProperties;
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private volatile List<String> bucketNames = List.of();
+    private volatile BucketStatus status = BucketStatus.PENDING;
+    private volatile Throwable lastError;
+    private ScheduledExecutorService executor;
+
+    public void initialize(List<String> bucketNames, Consumer<String> bucketInit) {
+        this.bucketNames = List.copyOf(bucketNames);
+        if (!s3BucketInitProperties.isAsyncEnabled()) {
+            attempt(bucketInit);
+            return;
+        }
+        log.info("Buckets will be checked in background, bucketNames={}", bucketNames);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "bucket-init");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(() -> attemptWithRetry(bucketInit));
+    }
+
+    public boolean awaitReady(Duration timeout) throws InterruptedException {
+        return ready.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public BucketStatus getStatus() {
+        return status;
+    }
+
+    public List<String> getBucketNames() {
+        return bucketNames;
+    }
+
+    public int getAttempts() {
+        return attempts.get();
+    }
+
+    public Throwable getLastError() {
+        return lastError;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void attempt(Consumer<String> bucketInit) {
+        long start = System.nanoTime();
+        int attempt = attempts.incrementAndGet();
+        try {
+            bucketNames.forEach(bucketInit);
+        } catch (RuntimeException ex) {
+            lastError = ex;
+            status = BucketStatus.FAILED;
+            throw ex;
+        }
+        lastError = null;
+        status = BucketStatus.READY;
+        ready.countDown();
+        log.info("Buckets are ready, bucketNames={}, attempt={}, duration={}ms",
+                bucketNames, attempt, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void attemptWithRetry(Consumer<String> bucketInit) {
+        try {
+            attempt(bucketInit);
+        } catch (RuntimeException ex) {
+            var retryDelay = s3BucketInitProperties.getRetryDelay();
+            log.warn("Failed to init buckets, retry in {}, bucketNames={}", retryDelay, bucketNames, ex);
+            if (!executor.isShutdown()) {
+                executor.schedule(() -> attemptWithRetry(bucketInit), retryDelay.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public enum BucketStatus {
+
+        PENDING,
+        READY,
+        FAILED
+
+    }
+}
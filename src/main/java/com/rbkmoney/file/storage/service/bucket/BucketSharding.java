@@ -0,0 +1,92 @@
+package com.rbkmoney.file.storage.service.bucket;
+
+import com.rbkmoney.file.storage.configuration.properties.S3BucketShardingProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// новые файлы раскладываются по shards бакетам: номер бакета считается хэшем от uuid и записывается в id
+// префиксом "<номер>.", поэтому бакет файла определяется по самому id без обращений к s3. Бакет с номером 0 —
+// исходный bucketName, в нем же лежат файлы со старыми id. Число бакетов можно только увеличивать: префикс
+// с номером не меньше shards не считается номером бакета, и такой id ищется в исходном бакете, где его нет
+@Component
+@RequiredArgsConstructor
+public class BucketSharding {
+
+    private static final char SEPARATOR = '.';
+    private static final int MAX_SHARD_DIGITS = 4;
+    private static final int UUID_LENGTH = 36;
+
+    private final S3BucketShardingProperties s3BucketShardingProperties;
+
+    public List<String> bucketNames(String bucketName) {
+        return IntStream.range(0, shards())
+                .mapToObj(shard -> bucketName(bucketName, shard))
+                .collect(Collectors.toList());
+    }
+
+    public String bucketName(String bucketName, String fileId) {
+        return bucketName(bucketName, shard(fileId));
+    }
+
+    public String newFileId() {
+        var uuid = UUID.randomUUID();
+        if (shards() == 1) {
+            return uuid.toString();
+        }
+        int shard = Math.floorMod(uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits(), shards());
+        return shard + String.valueOf(SEPARATOR) + uuid;
+    }
+
+    // id еще одного объекта того же файла, который должен лежать в одном бакете с объектом sameBucketFileId
+    public String newFileId(String sameBucketFileId) {
+        var separator = separator(sameBucketFileId);
+        return sameBucketFileId.substring(0, separator + 1) + UUID.randomUUID();
+    }
+
+    private int shards() {
+        return Math.max(1, s3BucketShardingProperties.getShards());
+    }
+
+    private int shard(String fileId) {
+        var separator = separator(fileId);
+        return separator < 0 ? 0 : Integer.parseInt(fileId, 0, separator, 10);
+    }
+
+    // id файла — uuid с необязательным номером бакета, ключи служебных объектов в бакете под это не подходят
+    public boolean isFileId(String key) {
+        var uuid = key.substring(separator(key) + 1);
+        if (uuid.length() != UUID_LENGTH) {
+            return false;
+        }
+        try {
+            UUID.fromString(uuid);
+            return true;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    // позиция разделителя номера бакета или -1 для id без номера и с номером несуществующего бакета
+    private int separator(String fileId) {
+        var separator = fileId.indexOf(SEPARATOR);
+        if (separator <= 0 || separator > MAX_SHARD_DIGITS) {
+            return -1;
+        }
+        for (int i = 0; i < separator; i++) {
+            var c = fileId.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return Integer.parseInt(fileId, 0, separator, 10) < shards() ? separator : -1;
+    }
+
+    private String bucketName(String bucketName, int shard) {
+        return shard == 0 ? bucketName : bucketName + "-" + shard;
+    }
+}
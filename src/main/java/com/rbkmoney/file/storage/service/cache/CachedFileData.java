@@ -0,0 +1,22 @@
+package com.rbkmoney.file.storage.service.cache;
+
+import com.rbkmoney.file.storage.msgpack.Value;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.util.Map;
+
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class CachedFileData {
+
+    private final String fileId;
+    private final String fileMetadataVersionId;
+    private final String fileVersionId;
+    private final String fileName;
+    private final String createdAt;
+    private final Map<String, Value> metadata;
+
+}
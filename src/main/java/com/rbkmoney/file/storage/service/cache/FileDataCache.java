@@ -0,0 +1,93 @@
+package com.rbkmoney.file.storage.service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rbkmoney.file.storage.configuration.properties.FileDataCacheProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Optional;
+
+// кэш уже загруженных файлов — после загрузки файла обе ревизии объекта неизменяемы,
+// поэтому метаданные, имя файла и id ревизий можно не перечитывать из s3 на каждый запрос
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class FileDataCache {
+
+    private static final String CACHE_NAME = "file-data";
+    private static final String FILE_VERSION_ID_CACHE_NAME = "file-version-id";
+
+    private final FileDataCacheProperties fileDataCacheProperties;
+    private final MeterRegistry meterRegistry;
+    private Cache<String, CachedFileData> cache;
+    private Cache<String, String> fileVersionIdCache;
+
+    @PostConstruct
+    public void init() {
+        if (!fileDataCacheProperties.isEnabled()) {
+            log.info("File data cache is disabled");
+            return;
+        }
+        cache = Caffeine.newBuilder()
+                .maximumSize(fileDataCacheProperties.getMaximumSize())
+                .expireAfterWrite(fileDataCacheProperties.getExpireAfterWrite())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+        log.info("File data cache is enabled, maximumSize={}, expireAfterWrite={}",
+                fileDataCacheProperties.getMaximumSize(), fileDataCacheProperties.getExpireAfterWrite());
+        if (fileDataCacheProperties.isFastDownloadUrlEnabled()) {
+            // для генерации ссылки на скачивание достаточно id ревизии с файлом,
+            // поэтому он кэшируется отдельно и не требует чтения метаданных
+            fileVersionIdCache = Caffeine.newBuilder()
+                    .maximumSize(fileDataCacheProperties.getMaximumSize())
+                    .expireAfterWrite(fileDataCacheProperties.getExpireAfterWrite())
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, fileVersionIdCache, FILE_VERSION_ID_CACHE_NAME);
+            log.info("Fast download url is enabled");
+        }
+    }
+
+    public Optional<CachedFileData> get(String fileId) {
+        if (cache == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(cache.getIfPresent(fileId));
+    }
+
+    public Optional<String> getFileVersionId(String fileId) {
+        return get(fileId)
+                .map(CachedFileData::getFileVersionId)
+                .or(() -> Optional.ofNullable(fileVersionIdCache)
+                        .map(versionIdCache -> versionIdCache.getIfPresent(fileId)));
+    }
+
+    public void putFileVersionId(String fileId, String fileVersionId) {
+        if (fileVersionIdCache == null) {
+            return;
+        }
+        fileVersionIdCache.put(fileId, fileVersionId);
+    }
+
+    public void put(CachedFileData cachedFileData) {
+        if (cache == null) {
+            return;
+        }
+        cache.put(cachedFileData.getFileId(), cachedFileData);
+    }
+
+    public void invalidate(String fileId) {
+        if (cache != null) {
+            cache.invalidate(fileId);
+        }
+        if (fileVersionIdCache != null) {
+            fileVersionIdCache.invalidate(fileId);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.rbkmoney.file.storage.service.dedup;
+
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.rbkmoney.file.storage.configuration.properties.FileDedupProperties;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Optional;
+
+import static java.lang.String.format;
+
+// одинаковые файлы, загруженные через сервис, хранятся одним объектом: индекс dedup/sha256/<хэш> указывает на
+// объект-оригинал с таким содержимым, а каждый файл, который на него ссылается, записывает объект-ссылку
+// dedup/refs/<id оригинала>/<fileDataId>. Атомарных счетчиков в s3 нет, поэтому счетчиком ссылок служит листинг
+// префикса ссылок — ссылки создаются и удаляются независимо, без гонок read-modify-write
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ContentDeduplicator {
+
+    private static final String CONTENT_INDEX_PREFIX = "dedup/sha256/";
+    private static final String REFS_PREFIX = "dedup/refs/";
+    private static final String FILE_ID = "x-rbkmoney-file-id";
+    private static final String CONTENT_HASH = "x-rbkmoney-content-sha256";
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final FileDedupProperties fileDedupProperties;
+    private final AmazonS3 s3Client;
+
+    public boolean isEnabled() {
+        return fileDedupProperties.isEnabled();
+    }
+
+    public DigestInputStream digest(InputStream content) {
+        try {
+            return new DigestInputStream(content, MessageDigest.getInstance(HASH_ALGORITHM));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public String contentHash(DigestInputStream content) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(content.getMessageDigest().digest());
+    }
+
+    // возвращает id объекта, на который должен ссылаться файл: оригинал с тем же содержимым
+    // или сам fileId, если такого содержимого в бакете еще нет
+    public String acquire(String bucketName, String fileDataId, String fileId, String contentHash) {
+        var original = findOriginal(bucketName, contentHash);
+        if (original.isPresent() && !original.get().equals(fileId)) {
+            var originalId = original.get();
+            putRef(bucketName, originalId, fileDataId, contentHash);
+            // release удаляет индекс раньше, чем считает ссылки, поэтому если после записи ссылки индекс все еще
+            // указывает на оригинал, то release эту ссылку увидит и оригинал не удалит
+            if (findOriginal(bucketName, contentHash).filter(originalId::equals).isPresent()) {
+                log.info("Duplicate content was found, fileDataId={}, originalId={}, bucketName={}",
+                        fileDataId, originalId, bucketName);
+                return originalId;
+            }
+            deleteRef(bucketName, originalId, fileDataId);
+        }
+        putRef(bucketName, fileId, fileDataId, contentHash);
+        putIndex(bucketName, contentHash, fileId);
+        return fileId;
+    }
+
+    // снимает ссылку файла на объект и удаляет объект, если ссылка была последней. Файлы без ссылок
+    // (загруженные по presigned ссылке или до включения дедупликации) владеют объектом единолично
+    public boolean release(String bucketName, String fileDataId, String fileId) {
+        try {
+            var contentHash = getRefContentHash(bucketName, fileId, fileDataId);
+            s3Client.deleteObject(bucketName, refKey(fileId, fileDataId));
+            if (hasRefs(bucketName, fileId)) {
+                return false;
+            }
+            if (contentHash.isPresent() && findOriginal(bucketName, contentHash.get())
+                    .filter(fileId::equals)
+                    .isPresent()) {
+                s3Client.deleteObject(bucketName, CONTENT_INDEX_PREFIX + contentHash.get());
+                // ссылка, записанная до удаления индекса, видна здесь — см. acquire
+                if (hasRefs(bucketName, fileId)) {
+                    return false;
+                }
+            }
+            s3Client.deleteObject(bucketName, fileId);
+            return true;
+        } catch (SdkBaseException ex) {
+            throw new StorageException(
+                    format("Failed to release content, fileDataId=%s, fileId=%s, bucketId=%s",
+                            fileDataId, fileId, bucketName),
+                    ex
+            );
+        }
+    }
+
+    private Optional<String> findOriginal(String bucketName, String contentHash) {
+        try {
+            return Optional.ofNullable(
+                    s3Client.getObjectMetadata(bucketName, CONTENT_INDEX_PREFIX + contentHash)
+                            .getUserMetaDataOf(FILE_ID));
+        } catch (AmazonS3Exception ex) {
+            if (ex.getStatusCode() == 404) {
+                return Optional.empty();
+            }
+            throw indexException(bucketName, contentHash, ex);
+        } catch (SdkBaseException ex) {
+            throw indexException(bucketName, contentHash, ex);
+        }
+    }
+
+    private void putIndex(String bucketName, String contentHash, String fileId) {
+        var metadata = emptyObjectMetadata();
+        metadata.addUserMetadata(FILE_ID, fileId);
+        try {
+            s3Client.putObject(bucketName, CONTENT_INDEX_PREFIX + contentHash, new ByteArrayInputStream(new byte[0]),
+                    metadata);
+        } catch (SdkBaseException ex) {
+            throw indexException(bucketName, contentHash, ex);
+        }
+    }
+
+    private Optional<String> getRefContentHash(String bucketName, String fileId, String fileDataId) {
+        try {
+            return Optional.ofNullable(
+                    s3Client.getObjectMetadata(bucketName, refKey(fileId, fileDataId)).getUserMetaDataOf(CONTENT_HASH));
+        } catch (AmazonS3Exception ex) {
+            if (ex.getStatusCode() == 404) {
+                return Optional.empty();
+            }
+            throw ex;
+        }
+    }
+
+    private void putRef(String bucketName, String fileId, String fileDataId, String contentHash) {
+        var metadata = emptyObjectMetadata();
+        metadata.addUserMetadata(CONTENT_HASH, contentHash);
+        try {
+            s3Client.putObject(bucketName, refKey(fileId, fileDataId), new ByteArrayInputStream(new byte[0]),
+                    metadata);
+        } catch (SdkBaseException ex) {
+            throw refException(bucketName, fileId, fileDataId, ex);
+        }
+    }
+
+    private void deleteRef(String bucketName, String fileId, String fileDataId) {
+        try {
+            s3Client.deleteObject(bucketName, refKey(fileId, fileDataId));
+        } catch (SdkBaseException ex) {
+            throw refException(bucketName, fileId, fileDataId, ex);
+        }
+    }
+
+    private boolean hasRefs(String bucketName, String fileId) {
+        var request = new ListObjectsV2Request()
+                .withBucketName(bucketName)
+                .withPrefix(REFS_PREFIX + fileId + "/")
+                .withMaxKeys(1);
+        return s3Client.listObjectsV2(request).getKeyCount() > 0;
+    }
+
+    private ObjectMetadata emptyObjectMetadata() {
+        var metadata = new ObjectMetadata();
+        metadata.setContentLength(0);
+        return metadata;
+    }
+
+    private String refKey(String fileId, String fileDataId) {
+        return REFS_PREFIX + fileId + "/" + fileDataId;
+    }
+
+    private StorageException indexException(String bucketName, String contentHash, SdkBaseException ex) {
+        return new StorageException(
+                format("Failed to access content index, contentHash=%s, bucketId=%s", contentHash, bucketName),
+                ex
+        );
+    }
+
+    private StorageException refException(String bucketName, String fileId, String fileDataId, SdkBaseException ex) {
+        return new StorageException(
+                format("Failed to access content reference, fileDataId=%s, fileId=%s, bucketId=%s",
+                        fileDataId, fileId, bucketName),
+                ex
+        );
+    }
+}
@@ -0,0 +1,53 @@
+package com.rbkmoney.file.storage.service.download;
+
+import com.rbkmoney.file.storage.configuration.properties.FileDownloadProperties;
+import com.rbkmoney.file.storage.util.UrlSignatureUtil;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+// ссылки на скачивание через сервис подписываются hmac от id файла и времени истечения,
+// поэтому сервлету не нужно хранить выданные ссылки, а подделать или продлить ссылку нельзя
+@Component
+@RequiredArgsConstructor
+public class DownloadUrlSigner {
+
+    private static final String METHOD = "GET";
+
+    private final FileDownloadProperties fileDownloadProperties;
+
+    public boolean isEnabled() {
+        return fileDownloadProperties.isEnabled();
+    }
+
+    // при выключенной раздаче через сервис отдается presigned ссылка на s3
+    public String downloadUrl(String fileDataId, Instant expirationTime, URL presignedUrl) {
+        return isEnabled()
+                ? sign(fileDataId, expirationTime).toString()
+                : presignedUrl.toString();
+    }
+
+    public URL sign(String fileDataId, Instant expirationTime) {
+        long expires = expirationTime.getEpochSecond();
+        try {
+            return new URL(String.format("%s/%s?expires=%d&signature=%s",
+                    fileDownloadProperties.getPublicUrl(),
+                    URLEncoder.encode(fileDataId, StandardCharsets.UTF_8),
+                    expires,
+                    UrlSignatureUtil.sign(fileDownloadProperties.getSecret(), METHOD, fileDataId, expires)));
+        } catch (MalformedURLException ex) {
+            throw new IllegalStateException(String.format(
+                    "Failed to build download url, publicUrl=%s", fileDownloadProperties.getPublicUrl()), ex);
+        }
+    }
+
+    public boolean verify(String fileDataId, long expires, String signature, Instant now) {
+        return now.getEpochSecond() <= expires
+                && UrlSignatureUtil.verify(fileDownloadProperties.getSecret(), METHOD, fileDataId, expires, signature);
+    }
+}
@@ -0,0 +1,50 @@
+package com.rbkmoney.file.storage.service.download;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.io.InputStream;
+import java.time.Instant;
+
+// ответ s3 на скачивание файла — тело не вычитывается в память, а отдается потоком из соединения с s3,
+// поток обязательно закрывается, а при обрыве клиента прерывается через abort, чтобы не дочитывать файл
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class FileContent {
+
+    public static final int OK = 200;
+    public static final int PARTIAL_CONTENT = 206;
+    public static final int NOT_MODIFIED = 304;
+    public static final int PRECONDITION_FAILED = 412;
+    public static final int RANGE_NOT_SATISFIABLE = 416;
+
+    private final int status;
+    private final Long contentLength;
+    private final String contentRange;
+    private final String eTag;
+    private final Instant lastModified;
+    private final String contentType;
+    private final String contentDisposition;
+    @ToString.Exclude
+    private final InputStream content;
+    @ToString.Exclude
+    private final Runnable abort;
+
+    // ответ без тела — HEAD запрос или невыполненное условие
+    public static FileContent withoutBody(int status, Long contentLength, String contentRange, String eTag,
+                                          Instant lastModified, String contentType, String contentDisposition) {
+        return new FileContent(status, contentLength, contentRange, eTag, lastModified, contentType,
+                contentDisposition, null, () -> {
+                });
+    }
+
+    public static FileContent status(int status, String eTag) {
+        return withoutBody(status, null, null, eTag, null, null, null);
+    }
+
+    public boolean hasBody() {
+        return content != null;
+    }
+}
@@ -0,0 +1,52 @@
+package com.rbkmoney.file.storage.service.download;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+// заголовки Range и условных запросов клиента — для AWS SDK S3 V2 передаются в s3 как есть,
+// и s3 сам отвечает 206, 304, 412 или 416
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class FileContentRequest {
+
+    private final String fileDataId;
+    private final boolean headOnly;
+    private final String range;
+    private final String ifMatch;
+    private final String ifNoneMatch;
+    private final Instant ifModifiedSince;
+    private final Instant ifUnmodifiedSince;
+
+    // проверка условий в порядке из RFC 7232 для sdk, который не отдает статус ответа s3 на условный запрос,
+    // возвращает 412, 304 или null, если ответ отдается целиком
+    public Integer preconditionStatus(String eTag, Instant lastModified) {
+        // даты в заголовках http передаются с точностью до секунды
+        var modified = lastModified.truncatedTo(ChronoUnit.SECONDS);
+        if (ifMatch != null && !matches(ifMatch, eTag)) {
+            return FileContent.PRECONDITION_FAILED;
+        }
+        if (ifMatch == null && ifUnmodifiedSince != null && modified.isAfter(ifUnmodifiedSince)) {
+            return FileContent.PRECONDITION_FAILED;
+        }
+        if (ifNoneMatch != null && matches(ifNoneMatch, eTag)) {
+            return FileContent.NOT_MODIFIED;
+        }
+        if (ifNoneMatch == null && ifModifiedSince != null && !modified.isAfter(ifModifiedSince)) {
+            return FileContent.NOT_MODIFIED;
+        }
+        return null;
+    }
+
+    private boolean matches(String condition, String eTag) {
+        return "*".equals(condition.trim()) || Arrays.stream(condition.split(","))
+                .map(String::trim)
+                .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .anyMatch(tag -> tag.equals(eTag));
+    }
+}
@@ -0,0 +1,45 @@
+package com.rbkmoney.file.storage.service.download;
+
+import lombok.RequiredArgsConstructor;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import static com.rbkmoney.file.storage.util.FileContentUtil.fileContent;
+
+// future с FileContent завершается сразу после заголовков ответа, а тело дочитывается из s3 по мере чтения потока,
+// ошибки после этого момента приходят уже в поток
+@RequiredArgsConstructor
+public class FileContentResponseTransformer implements AsyncResponseTransformer<GetObjectResponse, FileContent> {
+
+    private final int prefetch;
+    private volatile CompletableFuture<FileContent> future;
+    private volatile GetObjectResponse response;
+
+    // sdk вызывает prepare заново на каждую повторную попытку запроса
+    @Override
+    public CompletableFuture<FileContent> prepare() {
+        future = new CompletableFuture<>();
+        return future;
+    }
+
+    @Override
+    public void onResponse(GetObjectResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    public void onStream(SdkPublisher<ByteBuffer> publisher) {
+        var content = new PublisherInputStream(prefetch);
+        publisher.subscribe(content);
+        future.complete(fileContent(response, content, content::close));
+    }
+
+    @Override
+    public void exceptionOccurred(Throwable throwable) {
+        future.completeExceptionally(throwable);
+    }
+}
@@ -0,0 +1,122 @@
+package com.rbkmoney.file.storage.service.download;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// блокирующий поток поверх тела ответа S3AsyncClient — у издателя запрашивается не больше prefetch буферов
+// вперед, следующий буфер запрашивается только после чтения предыдущего, поэтому медленный клиент
+// притормаживает чтение из s3, а в памяти на одно скачивание лежит не больше prefetch буферов
+public class PublisherInputStream extends InputStream implements Subscriber<ByteBuffer> {
+
+    private static final Object COMPLETE = new Object();
+
+    private final int prefetch;
+    private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+    private volatile Subscription subscription;
+    private volatile boolean closed;
+    private ByteBuffer current;
+    private boolean done;
+
+    public PublisherInputStream(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        if (closed) {
+            subscription.cancel();
+        } else {
+            subscription.request(prefetch);
+        }
+    }
+
+    @Override
+    public void onNext(ByteBuffer byteBuffer) {
+        signals.add(byteBuffer);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        signals.add(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        signals.add(COMPLETE);
+    }
+
+    @Override
+    public int read() throws IOException {
+        var single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if (length == 0) {
+            return 0;
+        }
+        while (current == null || !current.hasRemaining()) {
+            if (done) {
+                return -1;
+            }
+            if (current != null) {
+                current = null;
+                subscription.request(1);
+            }
+            var signal = take();
+            if (signal == COMPLETE) {
+                done = true;
+            } else if (signal instanceof Throwable) {
+                done = true;
+                throw new IOException("Failed to read object content", (Throwable) signal);
+            } else {
+                current = (ByteBuffer) signal;
+            }
+        }
+        int read = Math.min(length, current.remaining());
+        current.get(bytes, offset, read);
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.remaining();
+    }
+
+    // закрытие до конца тела отменяет подписку, и sdk закрывает соединение, не дочитывая файл
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        var currentSubscription = subscription;
+        if (!done && currentSubscription != null) {
+            currentSubscription.cancel();
+        }
+        signals.clear();
+        current = null;
+    }
+
+    private Object take() throws IOException {
+        try {
+            return signals.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for object content");
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.rbkmoney.file.storage.service.exception;
+
+public class FileAlreadyUploadedException extends StorageException {
+
+    public FileAlreadyUploadedException(String message) {
+        super(message);
+    }
+
+    public FileAlreadyUploadedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
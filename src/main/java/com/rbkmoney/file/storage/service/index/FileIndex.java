@@ -0,0 +1,193 @@
+package com.rbkmoney.file.storage.service.index;
+
+import com.rbkmoney.file.storage.configuration.properties.FileIndexProperties;
+import com.rbkmoney.file.storage.msgpack.Value;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// вторичный индекс файлов по метаданным и времени создания. Индекс лежит в том же s3 пустыми объектами,
+// все нужные запросу поля закодированы в ключе:
+//   index/created/<время>/<fileDataId>                  — все файлы
+//   index/key/<ключ>/<время>/<fileDataId>               — файлы с ключом метаданных
+//   index/value/<ключ>/<значение>/<время>/<fileDataId>  — файлы с ключом и значением
+// Время записывается epoch millis фиксированной ширины, поэтому листинг префикса отдает файлы по времени создания,
+// а страница запроса — это один LIST от нужного ключа. При создании файла синхронно пишется только опись его ключей,
+// сами ключи появляются после загрузки файла, поэтому поиск не отдает файлы, которые так и не были загружены
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class FileIndex {
+
+    private static final String FILES_PREFIX = "index/files/";
+    private static final String CREATED_PREFIX = "index/created/";
+    private static final String KEY_PREFIX = "index/key/";
+    private static final String VALUE_PREFIX = "index/value/";
+    private static final String SEPARATOR = "/";
+    private static final String DROPPED_WRITES = "file_storage.index.dropped_writes";
+    private static final int MAX_DELETE_KEYS = 1000;
+
+    private final FileIndexProperties fileIndexProperties;
+    private final IndexStore indexStore;
+    private final MeterRegistry meterRegistry;
+    private Counter droppedWrites;
+
+    @PostConstruct
+    public void init() {
+        if (!isEnabled()) {
+            log.info("File index is disabled");
+            return;
+        }
+        droppedWrites = meterRegistry.counter(DROPPED_WRITES);
+        log.info("File index is enabled, maxPageSize={}", fileIndexProperties.getMaxPageSize());
+    }
+
+    public boolean isEnabled() {
+        return fileIndexProperties.isEnabled();
+    }
+
+    // опись пишется до ответа на создание файла, иначе загруженный файл мог бы так и не попасть в индекс,
+    // поэтому ошибка записи (StorageException) роняет создание файла
+    public void index(String fileDataId, Instant createdAt, Map<String, Value> metadata) {
+        if (!isEnabled()) {
+            return;
+        }
+        var keys = indexKeys(fileDataId, createdAt, metadata);
+        indexStore.put(FILES_PREFIX + fileDataId, String.join("\n", keys).getBytes(StandardCharsets.UTF_8));
+        log.debug("File has been added to index, fileDataId={}, keys={}", fileDataId, keys.size());
+    }
+
+    // файл загружен и открывается для поиска. Повторная запись тех же ключей ничего не меняет, поэтому отметить
+    // файл можно из нескольких мест. Файл уже загружен, поэтому ошибка индекса не роняет загрузку, а считается
+    public void markUploaded(String fileDataId) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            var keys = manifestKeys(fileDataId);
+            for (String key : keys) {
+                indexStore.put(key, new byte[0]);
+            }
+            log.debug("File has been marked as uploaded in index, fileDataId={}, keys={}", fileDataId, keys.size());
+        } catch (RuntimeException ex) {
+            droppedWrites.increment();
+            log.warn("Failed to mark file as uploaded in index, fileDataId={}", fileDataId, ex);
+        }
+    }
+
+    public void remove(String fileDataId) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            var keys = manifestKeys(fileDataId);
+            keys.add(FILES_PREFIX + fileDataId);
+            for (int from = 0; from < keys.size(); from += MAX_DELETE_KEYS) {
+                indexStore.delete(keys.subList(from, Math.min(keys.size(), from + MAX_DELETE_KEYS)));
+            }
+            log.debug("File has been removed from index, fileDataId={}", fileDataId);
+        } catch (RuntimeException ex) {
+            droppedWrites.increment();
+            log.warn("Failed to remove file from index, fileDataId={}", fileDataId, ex);
+        }
+    }
+
+    public FileIndexPage find(FileIndexQuery query) {
+        if (!isEnabled()) {
+            throw new IllegalStateException("File index is disabled");
+        }
+        var prefix = queryPrefix(query);
+        String startAfter = null;
+        if (query.getPageToken() != null) {
+            startAfter = prefix + query.getPageToken();
+        } else if (query.getCreatedFrom() != null) {
+            // ключи файлов, созданных ровно в createdFrom, длиннее этой строки и идут после нее
+            startAfter = prefix + timeKey(query.getCreatedFrom());
+        }
+        int limit = Math.min(query.getLimit(), fileIndexProperties.getMaxPageSize());
+        var keys = indexStore.list(prefix, startAfter, limit);
+        var createdTo = query.getCreatedTo() != null ? timeKey(query.getCreatedTo()) : null;
+        var files = new ArrayList<IndexedFile>(keys.size());
+        String lastEntry = null;
+        for (String key : keys) {
+            var entry = key.substring(prefix.length());
+            var separator = entry.indexOf(SEPARATOR);
+            var time = entry.substring(0, separator);
+            if (createdTo != null && time.compareTo(createdTo) >= 0) {
+                return new FileIndexPage(files, null);
+            }
+            files.add(new IndexedFile(entry.substring(separator + 1), Instant.ofEpochMilli(Long.parseLong(time))));
+            lastEntry = entry;
+        }
+        return new FileIndexPage(files, keys.size() == limit ? lastEntry : null);
+    }
+
+    // файлы, созданные до включения индекса, описи не имеют
+    private List<String> manifestKeys(String fileDataId) {
+        var manifest = indexStore.get(FILES_PREFIX + fileDataId);
+        if (manifest == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(new String(manifest, StandardCharsets.UTF_8).split("\n")));
+    }
+
+    private List<String> indexKeys(String fileDataId, Instant createdAt, Map<String, Value> metadata) {
+        var suffix = timeKey(createdAt) + SEPARATOR + fileDataId;
+        var keys = new ArrayList<String>();
+        keys.add(CREATED_PREFIX + suffix);
+        metadata.forEach((key, value) -> {
+            // длина ключа объекта s3 ограничена, слишком длинные ключи и значения не индексируются
+            if (key.length() > fileIndexProperties.getMaxValueLength()) {
+                return;
+            }
+            keys.add(KEY_PREFIX + encode(key) + SEPARATOR + suffix);
+            var indexValue = indexValue(value);
+            if (indexValue != null && indexValue.length() <= fileIndexProperties.getMaxValueLength()) {
+                keys.add(VALUE_PREFIX + encode(key) + SEPARATOR + encode(indexValue) + SEPARATOR + suffix);
+            }
+        });
+        return keys;
+    }
+
+    private String queryPrefix(FileIndexQuery query) {
+        if (query.getMetadataKey() == null) {
+            return CREATED_PREFIX;
+        }
+        if (query.getMetadataValue() == null) {
+            return KEY_PREFIX + encode(query.getMetadataKey()) + SEPARATOR;
+        }
+        return VALUE_PREFIX + encode(query.getMetadataKey()) + SEPARATOR + encode(query.getMetadataValue()) + SEPARATOR;
+    }
+
+    private String indexValue(Value value) {
+        if (value.isSetStr()) {
+            return value.getStr();
+        }
+        if (value.isSetI()) {
+            return Long.toString(value.getI());
+        }
+        if (value.isSetB()) {
+            return Boolean.toString(value.getB());
+        }
+        return null;
+    }
+
+    private String timeKey(Instant instant) {
+        return String.format("%013d", instant.toEpochMilli());
+    }
+
+    private String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,18 @@
+package com.rbkmoney.file.storage.service.index;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+// nextPageToken равен null на последней странице
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class FileIndexPage {
+
+    private final List<IndexedFile> files;
+    private final String nextPageToken;
+
+}
@@ -0,0 +1,23 @@
+package com.rbkmoney.file.storage.service.index;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.time.Instant;
+
+// без metadataKey ищутся все файлы, metadataValue сравнивается со строковым видом str, i и b значений,
+// createdFrom включается в диапазон, createdTo — нет
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class FileIndexQuery {
+
+    private final String metadataKey;
+    private final String metadataValue;
+    private final Instant createdFrom;
+    private final Instant createdTo;
+    private final String pageToken;
+    private final int limit;
+
+}
@@ -0,0 +1,29 @@
+package com.rbkmoney.file.storage.service.index;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// хранилище объектов индекса — пустых объектов, вся информация которых записана в ключе,
+// и описей файлов со списком их ключей. В нем же лежат отметки ожидающих загрузки файлов PendingUploads
+public interface IndexStore {
+
+    void put(String key, byte[] body);
+
+    // null, если объекта нет
+    byte[] get(String key);
+
+    // null в результате, если объекта нет. Без асинхронного клиента s3 объект читается на вызывающем потоке
+    default CompletableFuture<byte[]> getAsync(String key) {
+        try {
+            return CompletableFuture.completedFuture(get(key));
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    void delete(List<String> keys);
+
+    // ключи с префиксом prefix строго после startAfter по возрастанию, не больше maxKeys
+    List<String> list(String prefix, String startAfter, int maxKeys);
+
+}
@@ -0,0 +1,17 @@
+package com.rbkmoney.file.storage.service.index;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.time.Instant;
+
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class IndexedFile {
+
+    private final String fileDataId;
+    private final Instant createdAt;
+
+}
@@ -0,0 +1,93 @@
+package com.rbkmoney.file.storage.service.index;
+
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.util.IOUtils;
+import com.rbkmoney.file.storage.configuration.properties.S3Properties;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+// индекс лежит в исходном бакете, даже если файлы разложены по нескольким бакетам
+@Component
+@ConditionalOnProperty(value = "s3-sdk-v2.enabled", havingValue = "false")
+@RequiredArgsConstructor
+public class S3IndexStore implements IndexStore {
+
+    private final S3Properties s3Properties;
+    private final AmazonS3 s3Client;
+
+    @Override
+    public void put(String key, byte[] body) {
+        var objectMetadata = new ObjectMetadata();
+        objectMetadata.setContentLength(body.length);
+        try {
+            s3Client.putObject(s3Properties.getBucketName(), key, new ByteArrayInputStream(body), objectMetadata);
+        } catch (SdkBaseException ex) {
+            throw indexException("put", key, ex);
+        }
+    }
+
+    @Override
+    public byte[] get(String key) {
+        try (var s3Object = s3Client.getObject(s3Properties.getBucketName(), key)) {
+            return IOUtils.toByteArray(s3Object.getObjectContent());
+        } catch (AmazonS3Exception ex) {
+            if (ex.getStatusCode() == 404) {
+                return null;
+            }
+            throw indexException("get", key, ex);
+        } catch (SdkBaseException ex) {
+            throw indexException("get", key, ex);
+        } catch (IOException ex) {
+            throw new StorageException(format("Failed to read index object, key=%s", key), ex);
+        }
+    }
+
+    @Override
+    public void delete(List<String> keys) {
+        try {
+            s3Client.deleteObjects(new DeleteObjectsRequest(s3Properties.getBucketName())
+                    .withKeys(keys.toArray(String[]::new))
+                    .withQuiet(true));
+        } catch (SdkBaseException ex) {
+            throw indexException("delete", keys.get(0), ex);
+        }
+    }
+
+    @Override
+    public List<String> list(String prefix, String startAfter, int maxKeys) {
+        try {
+            return s3Client.listObjectsV2(new ListObjectsV2Request()
+                            .withBucketName(s3Properties.getBucketName())
+                            .withPrefix(prefix)
+                            .withStartAfter(startAfter)
+                            .withMaxKeys(maxKeys))
+                    .getObjectSummaries().stream()
+                    .map(S3ObjectSummary::getKey)
+                    .collect(Collectors.toList());
+        } catch (SdkBaseException ex) {
+            throw indexException("list", prefix, ex);
+        }
+    }
+
+    private StorageException indexException(String operation, String key, SdkBaseException ex) {
+        return new StorageException(
+                format("Failed to %s index object, key=%s, bucketId=%s", operation, key, s3Properties.getBucketName()),
+                ex
+        );
+    }
+}
@@ -0,0 +1,128 @@
+package com.rbkmoney.file.storage.service.index;
+
+import com.rbkmoney.file.storage.configuration.properties.S3SdkV2Properties;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+// индекс лежит в исходном бакете, даже если файлы разложены по нескольким бакетам. В версионированном бакете
+// удаление оставляет delete marker, но листинг текущих объектов его не показывает
+@Component
+@ConditionalOnProperty(value = "s3-sdk-v2.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class S3V2IndexStore implements IndexStore {
+
+    private final S3SdkV2Properties s3SdkV2Properties;
+    private final S3Client s3SdkV2Client;
+    // есть только при s3-sdk-v2.async-enabled
+    private final ObjectProvider<S3AsyncClient> s3SdkV2AsyncClient;
+
+    @Override
+    public void put(String key, byte[] body) {
+        try {
+            s3SdkV2Client.putObject(
+                    PutObjectRequest.builder().bucket(s3SdkV2Properties.getBucketName()).key(key).build(),
+                    RequestBody.fromBytes(body));
+        } catch (SdkException ex) {
+            throw indexException("put", key, ex);
+        }
+    }
+
+    @Override
+    public byte[] get(String key) {
+        try {
+            return s3SdkV2Client.getObjectAsBytes(
+                    GetObjectRequest.builder().bucket(s3SdkV2Properties.getBucketName()).key(key).build())
+                    .asByteArray();
+        } catch (NoSuchKeyException ex) {
+            return null;
+        } catch (SdkException ex) {
+            throw indexException("get", key, ex);
+        }
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getAsync(String key) {
+        var s3AsyncClient = s3SdkV2AsyncClient.getIfAvailable();
+        if (s3AsyncClient == null) {
+            return IndexStore.super.getAsync(key);
+        }
+        return s3AsyncClient.getObject(
+                        GetObjectRequest.builder().bucket(s3SdkV2Properties.getBucketName()).key(key).build(),
+                        AsyncResponseTransformer.toBytes())
+                .handle((response, throwable) -> {
+                    if (throwable == null) {
+                        return response.asByteArray();
+                    }
+                    var cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    if (cause instanceof NoSuchKeyException) {
+                        return null;
+                    }
+                    if (cause instanceof SdkException) {
+                        throw indexException("get", key, (SdkException) cause);
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
+
+    @Override
+    public void delete(List<String> keys) {
+        try {
+            s3SdkV2Client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(s3SdkV2Properties.getBucketName())
+                    .delete(Delete.builder()
+                            .objects(keys.stream()
+                                    .map(key -> ObjectIdentifier.builder().key(key).build())
+                                    .collect(Collectors.toList()))
+                            .quiet(true)
+                            .build())
+                    .build());
+        } catch (SdkException ex) {
+            throw indexException("delete", keys.get(0), ex);
+        }
+    }
+
+    @Override
+    public List<String> list(String prefix, String startAfter, int maxKeys) {
+        try {
+            return s3SdkV2Client.listObjectsV2(ListObjectsV2Request.builder()
+                            .bucket(s3SdkV2Properties.getBucketName())
+                            .prefix(prefix)
+                            .startAfter(startAfter)
+                            .maxKeys(maxKeys)
+                            .build())
+                    .contents().stream()
+                    .map(S3Object::key)
+                    .collect(Collectors.toList());
+        } catch (SdkException ex) {
+            throw indexException("list", prefix, ex);
+        }
+    }
+
+    private StorageException indexException(String operation, String key, SdkException ex) {
+        return new StorageException(
+                String.format("Failed to %s index object, key=%s, bucketName=%s",
+                        operation, key, s3SdkV2Properties.getBucketName()),
+                ex);
+    }
+}
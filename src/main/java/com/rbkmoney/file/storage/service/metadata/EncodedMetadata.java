@@ -0,0 +1,18 @@
+package com.rbkmoney.file.storage.service.metadata;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.util.Map;
+
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class EncodedMetadata {
+
+    private final Map<String, String> headers;
+    @ToString.Exclude
+    private final byte[] body;
+
+}
@@ -0,0 +1,12 @@
+package com.rbkmoney.file.storage.service.metadata;
+
+public enum MetadataFormat {
+
+    // каждый ключ метаданных — отдельный заголовок с json значением
+    HEADERS,
+    // вся карта метаданных одним упакованным заголовком, либо в теле объекта, если не влезает в заголовок
+    PACKED,
+    // упакованные метаданные всегда в теле объекта, ревизия с метаданными читается одним GET запросом
+    BODY
+
+}
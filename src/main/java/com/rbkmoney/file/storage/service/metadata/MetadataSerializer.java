@@ -0,0 +1,105 @@
+package com.rbkmoney.file.storage.service.metadata;
+
+import com.rbkmoney.file.storage.configuration.properties.FileMetadataProperties;
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.exception.ExtractMetadataException;
+import com.rbkmoney.file.storage.util.DamselUtil;
+import com.rbkmoney.file.storage.util.PackedMetadataCodec;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// раскладка метаданных файла по заголовкам и телу объекта-маркера,
+// раскладка пишется в отдельный заголовок, объекты без него читаются в старом формате — заголовок на ключ.
+// Упакованные раскладки не читаются версиями сервиса без них, поэтому пишутся только после включения
+// packed-write-enabled, когда все читатели бакета обновлены. До этого запись идет в формате HEADERS
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class MetadataSerializer {
+
+    private static final String METADATA = "x-rbkmoney-metadata-";
+    // имена служебных заголовков не должны начинаться с METADATA, иначе старые версии сервиса
+    // примут их за ключи метаданных
+    private static final String LAYOUT = "x-rbkmoney-layout";
+    private static final String PACKED_METADATA = "x-rbkmoney-packed-metadata";
+    private static final String PACKED_HEADER_LAYOUT = "packed-header";
+    private static final String PACKED_BODY_LAYOUT = "packed-body";
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private final FileMetadataProperties fileMetadataProperties;
+
+    @PostConstruct
+    public void init() {
+        if (writeFormat() != fileMetadataProperties.getFormat()) {
+            log.warn("Packed metadata writes are disabled, metadata will be written in headers format, format={}",
+                    fileMetadataProperties.getFormat());
+        }
+    }
+
+    public EncodedMetadata encode(Map<String, Value> metadata) {
+        switch (writeFormat()) {
+            case HEADERS:
+                var headers = new HashMap<String, String>();
+                metadata.forEach((key, value) -> headers.put(METADATA + key, DamselUtil.toJsonString(value)));
+                return new EncodedMetadata(headers, EMPTY_BODY);
+            case PACKED:
+                var packed = PackedMetadataCodec.pack(metadata);
+                var encoded = Base64.getEncoder().encodeToString(packed);
+                if (encoded.length() <= fileMetadataProperties.getMaxHeaderSize()) {
+                    return new EncodedMetadata(
+                            Map.of(LAYOUT, PACKED_HEADER_LAYOUT, PACKED_METADATA, encoded),
+                            EMPTY_BODY);
+                }
+                return new EncodedMetadata(Map.of(LAYOUT, PACKED_BODY_LAYOUT), packed);
+            case BODY:
+                return new EncodedMetadata(Map.of(LAYOUT, PACKED_BODY_LAYOUT), PackedMetadataCodec.pack(metadata));
+            default:
+                throw new IllegalStateException(
+                        String.format("Unknown metadata format, format=%s", fileMetadataProperties.getFormat()));
+        }
+    }
+
+    // при записи в тело объекта с метаданными его выгоднее сразу читать GET запросом вместо HEAD,
+    // объекты в старых форматах при этом читаются так же — заголовки приходят и в ответе на GET
+    public boolean isReadWithBody() {
+        return writeFormat() == MetadataFormat.BODY;
+    }
+
+    public boolean isStoredInBody(Map<String, String> headers) {
+        return PACKED_BODY_LAYOUT.equals(headers.get(LAYOUT));
+    }
+
+    public Map<String, Value> decodeHeaders(Map<String, String> headers) {
+        var layout = headers.get(LAYOUT);
+        if (layout == null) {
+            return headers.entrySet().stream()
+                    .filter(entry -> entry.getKey().startsWith(METADATA) && entry.getValue() != null)
+                    .collect(Collectors.toMap(
+                            o -> o.getKey().substring(METADATA.length()),
+                            o -> DamselUtil.fromJson(o.getValue(), Value.class)));
+        }
+        var packedMetadata = headers.get(PACKED_METADATA);
+        if (PACKED_HEADER_LAYOUT.equals(layout) && packedMetadata != null) {
+            return PackedMetadataCodec.unpack(ByteBuffer.wrap(Base64.getDecoder().decode(packedMetadata)));
+        }
+        throw new ExtractMetadataException(String.format("Metadata is not stored in headers, layout=%s", layout));
+    }
+
+    public Map<String, Value> decodeBody(ByteBuffer body) {
+        return PackedMetadataCodec.unpack(body);
+    }
+
+    private MetadataFormat writeFormat() {
+        return fileMetadataProperties.isPackedWriteEnabled()
+                ? fileMetadataProperties.getFormat()
+                : MetadataFormat.HEADERS;
+    }
+}
@@ -0,0 +1,63 @@
+package com.rbkmoney.file.storage.service.metrics;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.http.HttpMethodName;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Map;
+import java.util.Optional;
+
+// то же, что S3SdkV2MetricsInterceptor, для клиента первой версии сдк,
+// подпись ссылок через обработчики не проходит и считается в сервисе
+@RequiredArgsConstructor
+public class S3MetricsRequestHandler extends RequestHandler2 {
+
+    private static final HandlerContextKey<Long> START_TIME = new HandlerContextKey<>("FileStorageStartTime");
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String REQUEST_SUFFIX = "Request";
+
+    private final StorageMetrics storageMetrics;
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        request.addHandlerContext(START_TIME, System.nanoTime());
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        var operation = operation(request);
+        storageMetrics.recordS3(operation, duration(request), null);
+        contentLength(request.getHeaders())
+                .ifPresent(bytes -> storageMetrics.recordS3Bytes(operation, StorageMetrics.SENT, bytes));
+        // у HEAD ответа Content-Length — размер объекта, а не переданное тело
+        if (request.getHttpMethod() != HttpMethodName.HEAD && response.getHttpResponse() != null) {
+            contentLength(response.getHttpResponse().getHeaders())
+                    .ifPresent(bytes -> storageMetrics.recordS3Bytes(operation, StorageMetrics.RECEIVED, bytes));
+        }
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        storageMetrics.recordS3(operation(request), duration(request), e);
+    }
+
+    private String operation(Request<?> request) {
+        var operation = request.getOriginalRequest().getClass().getSimpleName();
+        return operation.endsWith(REQUEST_SUFFIX)
+                ? operation.substring(0, operation.length() - REQUEST_SUFFIX.length())
+                : operation;
+    }
+
+    private long duration(Request<?> request) {
+        Long startTime = request.getHandlerContext(START_TIME);
+        return startTime == null ? 0 : System.nanoTime() - startTime;
+    }
+
+    private Optional<Long> contentLength(Map<String, String> headers) {
+        return Optional.ofNullable(headers.get(CONTENT_LENGTH))
+                .map(Long::parseLong);
+    }
+}
@@ -0,0 +1,59 @@
+package com.rbkmoney.file.storage.service.metrics;
+
+import lombok.RequiredArgsConstructor;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.http.SdkHttpResponse;
+
+// время s3 операции считается от начала выполнения до результата, то есть вместе с ретраями,
+// подходит и для синхронного, и для асинхронного клиента
+@RequiredArgsConstructor
+public class S3SdkV2MetricsInterceptor implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<Long> START_TIME = new ExecutionAttribute<>("FileStorageStartTime");
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    private final StorageMetrics storageMetrics;
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(START_TIME, System.nanoTime());
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        var operation = executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+        storageMetrics.recordS3(operation, duration(executionAttributes), null);
+        recordBytes(operation, context.httpRequest(), context.httpResponse());
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        storageMetrics.recordS3(
+                executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME),
+                duration(executionAttributes),
+                context.exception());
+    }
+
+    private long duration(ExecutionAttributes executionAttributes) {
+        Long startTime = executionAttributes.getAttribute(START_TIME);
+        return startTime == null ? 0 : System.nanoTime() - startTime;
+    }
+
+    private void recordBytes(String operation, SdkHttpRequest request, SdkHttpResponse response) {
+        request.firstMatchingHeader(CONTENT_LENGTH)
+                .map(Long::parseLong)
+                .ifPresent(bytes -> storageMetrics.recordS3Bytes(operation, StorageMetrics.SENT, bytes));
+        // у HEAD ответа Content-Length — размер объекта, а не переданное тело
+        if (request.method() != SdkHttpMethod.HEAD) {
+            response.firstMatchingHeader(CONTENT_LENGTH)
+                    .map(Long::parseLong)
+                    .ifPresent(bytes -> storageMetrics.recordS3Bytes(operation, StorageMetrics.RECEIVED, bytes));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.rbkmoney.file.storage.service.metrics;
+
+import lombok.RequiredArgsConstructor;
+import org.apache.http.pool.PoolStats;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// пул http клиента сдк наружу не доступен, его состояние приходит только в метриках каждого запроса,
+// поэтому gauge показывает пул на момент последнего запроса. Публикатор создается на каждый клиент, чтобы пулы
+// узлов при нескольких endpoints не смешивались
+@RequiredArgsConstructor
+public class S3SdkV2PoolMetricPublisher implements MetricPublisher {
+
+    private static final String SDK = "v2";
+
+    private final StorageMetrics storageMetrics;
+    private final String endpoint;
+    private final Map<String, PoolStats> poolStats = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(MetricCollection metricCollection) {
+        var httpClientNames = metricCollection.metricValues(HttpMetric.HTTP_CLIENT_NAME);
+        // url connection клиент своего пула не имеет и состояние пула не публикует
+        if (!httpClientNames.isEmpty() && !metricCollection.metricValues(HttpMetric.MAX_CONCURRENCY).isEmpty()) {
+            var httpClient = httpClientNames.get(0);
+            var stats = new PoolStats(
+                    value(metricCollection, HttpMetric.LEASED_CONCURRENCY),
+                    value(metricCollection, HttpMetric.PENDING_CONCURRENCY_ACQUIRES),
+                    value(metricCollection, HttpMetric.AVAILABLE_CONCURRENCY),
+                    value(metricCollection, HttpMetric.MAX_CONCURRENCY));
+            if (poolStats.put(httpClient, stats) == null) {
+                storageMetrics.registerPool(SDK, httpClient, endpoint, () -> poolStats.get(httpClient));
+            }
+            storageMetrics.recordPendingAcquires(SDK, httpClient, endpoint, stats.getPending());
+        }
+        metricCollection.children().forEach(this::publish);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private int value(MetricCollection metricCollection, SdkMetric<Integer> metric) {
+        var values = metricCollection.metricValues(metric);
+        return values.isEmpty() ? 0 : values.get(0);
+    }
+}
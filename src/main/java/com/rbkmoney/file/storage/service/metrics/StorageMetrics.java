@@ -0,0 +1,181 @@
+package com.rbkmoney.file.storage.service.metrics;
+
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.apache.http.pool.PoolStats;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// таймеры thrift методов и обращений к s3 с перцентилями и гистограммой для prometheus,
+// по тегам outcome/exception отличаются отсутствующие файлы от ошибок хранилища
+@Component
+@RequiredArgsConstructor
+public class StorageMetrics {
+
+    public static final String HANDLER_REQUESTS = "file_storage.handler.requests";
+    public static final String S3_REQUESTS = "file_storage.s3.requests";
+    public static final String S3_BYTES = "file_storage.s3.bytes";
+    public static final String S3_POOL_CONNECTIONS = "file_storage.s3.pool.connections";
+    public static final String S3_POOL_PENDING_ACQUIRES = "file_storage.s3.pool.pending_acquires";
+    public static final String S3_ENDPOINT_LATENCY = "file_storage.s3.endpoint.latency";
+    public static final String S3_ENDPOINT_EJECTED = "file_storage.s3.endpoint.ejected";
+    public static final String S3_ENDPOINT_RETRIES = "file_storage.s3.endpoint.retries";
+    public static final String SENT = "sent";
+    public static final String RECEIVED = "received";
+
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99, 0.999};
+    private static final String NONE = "none";
+
+    private final MeterRegistry meterRegistry;
+    // builder с перцентилями и register на каждый вызов дороже самой записи, поэтому метры кэшируются по имени и тегам
+    private final Map<List<String>, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<List<String>, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+    public <T> T recordHandler(String method, Supplier<T> call) {
+        return record(HANDLER_REQUESTS, "method", method, call);
+    }
+
+    // время считается до завершения future, а исключение при самом вызове возвращается упавшей future
+    public <T> CompletableFuture<T> recordHandlerAsync(String method, Supplier<CompletableFuture<T>> call) {
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException ex) {
+            future = CompletableFuture.failedFuture(ex);
+        }
+        return future.whenComplete((result, error) -> timer(HANDLER_REQUESTS, "method", method, error)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    // подпись ссылки не ходит в s3, но считается вместе с s3 операциями, чтобы ее доля была видна рядом с ними
+    public <T> T recordPresign(String operation, Supplier<T> presign) {
+        return record(S3_REQUESTS, "operation", operation, presign);
+    }
+
+    public void recordS3(String operation, long durationNanos, Throwable error) {
+        timer(S3_REQUESTS, "operation", operation, error).record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordS3Bytes(String operation, String direction, long bytes) {
+        summaries.computeIfAbsent(
+                        List.of(S3_BYTES, operation, direction),
+                        key -> DistributionSummary.builder(S3_BYTES)
+                                .baseUnit("bytes")
+                                .tag("operation", operation)
+                                .tag("direction", direction)
+                                .publishPercentiles(PERCENTILES)
+                                .register(meterRegistry))
+                .record(bytes);
+    }
+
+    // состояние пула соединений http клиента: занятые, свободные, максимум и запросы в ожидании соединения,
+    // при нескольких endpoints у каждого узла свой клиент и свой пул
+    public void registerPool(String sdk, String httpClient, String endpoint, Supplier<PoolStats> poolStats) {
+        registerPoolGauge(sdk, httpClient, endpoint, "leased", () -> poolStats.get().getLeased());
+        registerPoolGauge(sdk, httpClient, endpoint, "available", () -> poolStats.get().getAvailable());
+        registerPoolGauge(sdk, httpClient, endpoint, "max", () -> poolStats.get().getMax());
+        registerPoolGauge(sdk, httpClient, endpoint, "pending", () -> poolStats.get().getPending());
+    }
+
+    // снимок пула в gauge может пропустить короткий всплеск, поэтому ожидание соединения пишется и распределением
+    public void recordPendingAcquires(String sdk, String httpClient, String endpoint, int pending) {
+        summaries.computeIfAbsent(
+                        List.of(S3_POOL_PENDING_ACQUIRES, sdk, httpClient, endpoint),
+                        key -> DistributionSummary.builder(S3_POOL_PENDING_ACQUIRES)
+                                .tag("sdk", sdk)
+                                .tag("http_client", httpClient)
+                                .tag("endpoint", endpoint)
+                                .publishPercentiles(PERCENTILES)
+                                .register(meterRegistry))
+                .record(pending);
+    }
+
+    // узел кластера при клиентской балансировке: задержка, по которой выбирается узел, и признак исключения
+    public void registerEndpoint(String sdk,
+                                 String endpoint,
+                                 Supplier<Number> latencySeconds,
+                                 Supplier<Number> ejected) {
+        Gauge.builder(S3_ENDPOINT_LATENCY, latencySeconds)
+                .baseUnit("seconds")
+                .tag("sdk", sdk)
+                .tag("endpoint", endpoint)
+                .register(meterRegistry);
+        Gauge.builder(S3_ENDPOINT_EJECTED, ejected)
+                .tag("sdk", sdk)
+                .tag("endpoint", endpoint)
+                .register(meterRegistry);
+    }
+
+    public void recordEndpointRetry(String sdk, String endpoint) {
+        meterRegistry.counter(S3_ENDPOINT_RETRIES, "sdk", sdk, "endpoint", endpoint).increment();
+    }
+
+    private void registerPoolGauge(String sdk,
+                                   String httpClient,
+                                   String endpoint,
+                                   String state,
+                                   Supplier<Number> value) {
+        Gauge.builder(S3_POOL_CONNECTIONS, value)
+                .tag("sdk", sdk)
+                .tag("http_client", httpClient)
+                .tag("endpoint", endpoint)
+                .tag("state", state)
+                .register(meterRegistry);
+    }
+
+    private <T> T record(String name, String key, String value, Supplier<T> call) {
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            return call.get();
+        } catch (RuntimeException | Error ex) {
+            error = ex;
+            throw ex;
+        } finally {
+            timer(name, key, value, error).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer timer(String name, String key, String value, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause()
+                : error;
+        var outcome = outcome(cause);
+        var exception = cause == null ? NONE : cause.getClass().getSimpleName();
+        return timers.computeIfAbsent(
+                List.of(name, key, value, outcome, exception),
+                meterKey -> Timer.builder(name)
+                        .tag(key, value)
+                        .tag("outcome", outcome)
+                        .tag("exception", exception)
+                        .publishPercentiles(PERCENTILES)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry));
+    }
+
+    private String outcome(Throwable error) {
+        if (error == null) {
+            return "success";
+        }
+        if (error instanceof FileNotFoundException) {
+            return "not_found";
+        }
+        if (error instanceof StorageException) {
+            return "storage_error";
+        }
+        return "error";
+    }
+}
@@ -0,0 +1,124 @@
+package com.rbkmoney.file.storage.service.notification;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rbkmoney.file.storage.configuration.properties.FileNotificationProperties;
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.cache.CachedFileData;
+import com.rbkmoney.file.storage.service.index.IndexStore;
+import com.rbkmoney.file.storage.util.PackedMetadataCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+// загруженные файлы, разобранные по уведомлению s3: id ревизий, имя файла и метаданные одним объектом
+// resolved/<fileId>. Первое чтение файла на любом экземпляре сервиса — один GET этого объекта вместо листинга
+// ревизий и чтения обеих ревизий. Объекты ревизий неизменяемы, поэтому запись не устаревает до удаления файла.
+// У файлов, созданных до включения уведомлений или с отброшенным уведомлением, записи нет, и чтобы не ходить за ней
+// на каждый промах кэша, отсутствие записи запоминается на missing-cache-expire-after-write. Такой файл разбирается
+// по ревизиям, как и без уведомлений
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ResolvedFiles {
+
+    private static final String MISSING_CACHE_NAME = "resolved-file-missing";
+    private static final String RESOLVED_PREFIX = "resolved/";
+    private static final String FILE_ID = "file_id";
+    private static final String FILE_METADATA_VERSION_ID = "file_metadata_version_id";
+    private static final String FILE_VERSION_ID = "file_version_id";
+    private static final String FILE_NAME = "file_name";
+    private static final String CREATED_AT = "created_at";
+    private static final String METADATA = "metadata";
+
+    private final FileNotificationProperties fileNotificationProperties;
+    private final IndexStore indexStore;
+    private final MeterRegistry meterRegistry;
+    private Cache<String, Boolean> missingCache;
+
+    @PostConstruct
+    public void init() {
+        if (!fileNotificationProperties.isEnabled()) {
+            return;
+        }
+        missingCache = Caffeine.newBuilder()
+                .maximumSize(fileNotificationProperties.getMissingCacheMaximumSize())
+                .expireAfterWrite(fileNotificationProperties.getMissingCacheExpireAfterWrite())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, missingCache, MISSING_CACHE_NAME);
+    }
+
+    public void put(CachedFileData cachedFileData) {
+        if (!fileNotificationProperties.isEnabled()) {
+            return;
+        }
+        var fields = new HashMap<String, Value>();
+        fields.put(FILE_ID, Value.str(cachedFileData.getFileId()));
+        fields.put(FILE_METADATA_VERSION_ID, Value.str(cachedFileData.getFileMetadataVersionId()));
+        fields.put(FILE_VERSION_ID, Value.str(cachedFileData.getFileVersionId()));
+        if (cachedFileData.getFileName() != null) {
+            fields.put(FILE_NAME, Value.str(cachedFileData.getFileName()));
+        }
+        fields.put(CREATED_AT, Value.str(cachedFileData.getCreatedAt()));
+        fields.put(METADATA, Value.bin(PackedMetadataCodec.pack(cachedFileData.getMetadata())));
+        indexStore.put(RESOLVED_PREFIX + cachedFileData.getFileId(), PackedMetadataCodec.pack(fields));
+        missingCache.invalidate(cachedFileData.getFileId());
+    }
+
+    // запись есть только у файлов, о загрузке которых пришло уведомление
+    public Optional<CachedFileData> get(String fileId) {
+        if (!fileNotificationProperties.isEnabled() || missingCache.getIfPresent(fileId) != null) {
+            return Optional.empty();
+        }
+        return resolvedFile(fileId, indexStore.get(RESOLVED_PREFIX + fileId));
+    }
+
+    // для неблокирующей реализации хранилища: запись читается без ожидания на вызывающем потоке
+    public CompletableFuture<Optional<CachedFileData>> getAsync(String fileId) {
+        if (!fileNotificationProperties.isEnabled() || missingCache.getIfPresent(fileId) != null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return indexStore.getAsync(RESOLVED_PREFIX + fileId)
+                .thenApply(body -> resolvedFile(fileId, body));
+    }
+
+    private Optional<CachedFileData> resolvedFile(String fileId, byte[] body) {
+        if (body == null) {
+            missingCache.put(fileId, Boolean.TRUE);
+            return Optional.empty();
+        }
+        try {
+            Map<String, Value> fields = PackedMetadataCodec.unpack(ByteBuffer.wrap(body));
+            var fileName = fields.get(FILE_NAME);
+            return Optional.of(new CachedFileData(
+                    fields.get(FILE_ID).getStr(),
+                    fields.get(FILE_METADATA_VERSION_ID).getStr(),
+                    fields.get(FILE_VERSION_ID).getStr(),
+                    fileName != null ? fileName.getStr() : null,
+                    fields.get(CREATED_AT).getStr(),
+                    PackedMetadataCodec.unpack(ByteBuffer.wrap(fields.get(METADATA).getBin()))));
+        } catch (RuntimeException ex) {
+            // битая запись не мешает чтению файла, он разбирается по ревизиям как раньше
+            log.warn("Failed to read resolved file, fileId={}", fileId, ex);
+            return Optional.empty();
+        }
+    }
+
+    public void remove(String fileId) {
+        if (!fileNotificationProperties.isEnabled()) {
+            return;
+        }
+        indexStore.delete(List.of(RESOLVED_PREFIX + fileId));
+    }
+}
@@ -0,0 +1,98 @@
+package com.rbkmoney.file.storage.service.notification;
+
+import com.rbkmoney.file.storage.configuration.properties.FileNotificationProperties;
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.bucket.BucketSharding;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// очередь уведомлений s3 о созданных объектах: загруженный файл сразу разбирается и сохраняется в ResolvedFiles
+// и кэш, а не при первом чтении. Уведомления разбираются в фоне, чтобы s3 не ждал ответа и не слал их повторно,
+// уведомления сверх queue-capacity отбрасываются — такой файл разберется при первом чтении, как и без уведомлений
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class UploadNotifications {
+
+    private static final String RESOLVED_FILES = "file_storage.notification.resolved_files";
+    private static final String DROPPED_NOTIFICATIONS = "file_storage.notification.dropped_notifications";
+
+    private final FileNotificationProperties fileNotificationProperties;
+    private final StorageService storageService;
+    private final BucketSharding bucketSharding;
+    private final MeterRegistry meterRegistry;
+    private ExecutorService executor;
+    private Counter resolvedFiles;
+    private Counter droppedNotifications;
+
+    @PostConstruct
+    public void init() {
+        if (!fileNotificationProperties.isEnabled()) {
+            return;
+        }
+        var threadFactory = new CustomizableThreadFactory("file-notification-");
+        threadFactory.setDaemon(true);
+        executor = new ThreadPoolExecutor(
+                fileNotificationProperties.getParallelism(),
+                fileNotificationProperties.getParallelism(),
+                0,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(fileNotificationProperties.getQueueCapacity()),
+                threadFactory);
+        resolvedFiles = meterRegistry.counter(RESOLVED_FILES);
+        droppedNotifications = meterRegistry.counter(DROPPED_NOTIFICATIONS);
+        log.info("Upload notifications are enabled, parallelism={}, queueCapacity={}",
+                fileNotificationProperties.getParallelism(), fileNotificationProperties.getQueueCapacity());
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    // ключи созданных объектов, служебные объекты и объекты других сервисов в бакете пропускаются
+    public void objectsCreated(List<String> objectKeys) {
+        objectKeys.stream()
+                .filter(bucketSharding::isFileId)
+                .forEach(this::submit);
+    }
+
+    private void submit(String fileId) {
+        try {
+            executor.execute(() -> resolve(fileId));
+        } catch (RejectedExecutionException ex) {
+            droppedNotifications.increment();
+            log.warn("Upload notification queue is full, fileId={}", fileId);
+        }
+    }
+
+    private void resolve(String fileId) {
+        try {
+            storageService.resolveUploadedFile(fileId);
+            resolvedFiles.increment();
+        } catch (FileNotFoundException ex) {
+            // уведомление о записи метаданных при создании файла, сам файл еще не загружен
+            log.debug("File is not uploaded yet, fileId={}", fileId);
+        } catch (RuntimeException ex) {
+            droppedNotifications.increment();
+            log.warn("Failed to resolve uploaded file, fileId={}", fileId, ex);
+        }
+    }
+}
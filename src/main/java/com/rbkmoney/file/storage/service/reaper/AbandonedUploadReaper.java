@@ -0,0 +1,138 @@
+package com.rbkmoney.file.storage.service.reaper;
+
+import com.rbkmoney.file.storage.configuration.properties.FileReaperProperties;
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.index.FileIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// фоновая очистка файлов, которые так и не загрузили до истечения ссылки: раз в interval дочитывает отметки
+// PendingUploads с истекшим больше чем grace назад сроком и удаляет пачками по batch-size те файлы, у которых
+// так и осталась одна ревизия с метаданными, заодно отменяя их multipart загрузки. Пачки идут одна за другой
+// не чаще deletes-per-second файлов в секунду, поэтому сборщик не отнимает у запросов клиентов заметную долю s3.
+// Отметки пишут все экземпляры сервиса, а проход выполняет только держатель ReaperLease
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class AbandonedUploadReaper {
+
+    private static final String DELETED_FILES = "file_storage.reaper.deleted_files";
+
+    private final FileReaperProperties fileReaperProperties;
+    private final PendingUploads pendingUploads;
+    private final ReaperLease reaperLease;
+    private final StorageService storageService;
+    private final FileIndex fileIndex;
+    private final MeterRegistry meterRegistry;
+    private ScheduledExecutorService executor;
+    private Counter deletedFiles;
+
+    @PostConstruct
+    public void init() {
+        if (!fileReaperProperties.isEnabled()) {
+            return;
+        }
+        deletedFiles = meterRegistry.counter(DELETED_FILES);
+        var threadFactory = new CustomizableThreadFactory("file-reaper-");
+        threadFactory.setDaemon(true);
+        executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        var interval = fileReaperProperties.getInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::reapSafely, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Abandoned upload reaper is enabled, interval={}, grace={}, batchSize={}, deletesPerSecond={}, " +
+                        "leaseDuration={}",
+                fileReaperProperties.getInterval(),
+                fileReaperProperties.getGrace(),
+                fileReaperProperties.getBatchSize(),
+                fileReaperProperties.getDeletesPerSecond(),
+                fileReaperProperties.getLeaseDuration());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    // возвращает число удаленных файлов. Отметки, которые остались после проверки, пропускаются до следующего прохода
+    public int reap() throws InterruptedException {
+        try {
+            return reapWithLease();
+        } finally {
+            reaperLease.release();
+        }
+    }
+
+    // аренда продлевается перед каждой пачкой, и потерявший ее экземпляр прекращает проход
+    private int reapWithLease() throws InterruptedException {
+        var expiredBefore = Instant.now().minus(fileReaperProperties.getGrace());
+        String startAfter = null;
+        int deleted = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            long start = System.nanoTime();
+            if (!reaperLease.acquire(Instant.now())) {
+                log.info("Abandoned uploads are reaped by another instance, deleted={}", deleted);
+                break;
+            }
+            var batch = pendingUploads.expired(expiredBefore, startAfter, fileReaperProperties.getBatchSize());
+            if (batch.isEmpty()) {
+                break;
+            }
+            deleted += reap(batch);
+            if (batch.size() < fileReaperProperties.getBatchSize()) {
+                break;
+            }
+            startAfter = batch.get(batch.size() - 1).getKey();
+            pace(batch.size(), start);
+        }
+        return deleted;
+    }
+
+    private int reap(List<PendingUpload> batch) {
+        var reapedFiles = storageService.deleteAbandonedFiles(batch);
+        // отметки удаленных и загруженных файлов больше не нужны, а остальные, например не удаленные из-за ошибки
+        // DeleteObjects или отмены загрузки, остаются до следующего прохода
+        var resolved = new HashSet<>(reapedFiles.getResolved());
+        pendingUploads.remove(batch.stream()
+                .filter(pendingUpload -> resolved.contains(pendingUpload.getFileDataId()))
+                .collect(Collectors.toList()));
+        var deleted = new HashSet<>(reapedFiles.getDeleted());
+        deleted.forEach(fileIndex::remove);
+        deletedFiles.increment(deleted.size());
+        log.info("Abandoned uploads have been reaped, checked={}, deleted={}, resolved={}",
+                batch.size(), deleted.size(), resolved.size());
+        return deleted.size();
+    }
+
+    private void pace(int files, long start) throws InterruptedException {
+        long budgetNanos = TimeUnit.SECONDS.toNanos(files) / fileReaperProperties.getDeletesPerSecond();
+        long sleepNanos = budgetNanos - (System.nanoTime() - start);
+        if (sleepNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        }
+    }
+
+    private void reapSafely() {
+        try {
+            reap();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            log.warn("Failed to reap abandoned uploads, will retry in {}", fileReaperProperties.getInterval(), ex);
+        }
+    }
+}
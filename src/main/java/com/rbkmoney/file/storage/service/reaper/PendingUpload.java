@@ -0,0 +1,17 @@
+package com.rbkmoney.file.storage.service.reaper;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class PendingUpload {
+
+    private final String fileDataId;
+    // null, если файл загружается не multipart загрузкой
+    private final String uploadId;
+    private final String key;
+
+}
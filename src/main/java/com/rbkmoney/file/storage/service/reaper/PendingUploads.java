@@ -0,0 +1,82 @@
+package com.rbkmoney.file.storage.service.reaper;
+
+import com.rbkmoney.file.storage.configuration.properties.FileReaperProperties;
+import com.rbkmoney.file.storage.service.index.IndexStore;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// отметки файлов, ожидающих загрузки, — пустые объекты reaper/pending/<срок загрузки>/<fileDataId>. Срок записан
+// epoch millis фиксированной ширины, поэтому листинг отдает отметки по сроку, и сборщику не нужно сканировать бакет,
+// чтобы найти брошенные файлы — достаточно дочитать префикс до текущего момента
+@Component
+@RequiredArgsConstructor
+public class PendingUploads {
+
+    private static final String PENDING_PREFIX = "reaper/pending/";
+    private static final String SEPARATOR = "/";
+    // fileDataId может содержать '.' после номера бакета, но не '@'
+    private static final String UPLOAD_ID_SEPARATOR = "@";
+
+    private final FileReaperProperties fileReaperProperties;
+    private final IndexStore indexStore;
+
+    // отметка пишется до объекта с метаданными, поэтому у каждого файла без загрузки она есть
+    public void track(String fileDataId, Instant expirationTime) {
+        if (!fileReaperProperties.isEnabled()) {
+            return;
+        }
+        indexStore.put(key(expirationTime, fileDataId), new byte[0]);
+    }
+
+    // после создания multipart загрузки отметка заменяется отметкой с uploadId
+    // reaper/pending/<срок загрузки>/<fileDataId>@<uploadId>, чтобы сборщик отменил брошенную загрузку
+    // и ее части не остались в s3
+    public void trackMultipart(String fileDataId, Instant expirationTime, String uploadId) {
+        if (!fileReaperProperties.isEnabled()) {
+            return;
+        }
+        indexStore.put(key(expirationTime, fileDataId) + UPLOAD_ID_SEPARATOR + uploadId, new byte[0]);
+        indexStore.delete(List.of(key(expirationTime, fileDataId)));
+    }
+
+    // отметки с истекшим до expiredBefore сроком после отметки startAfter, по возрастанию срока
+    public List<PendingUpload> expired(Instant expiredBefore, String startAfter, int limit) {
+        var expiredBeforeKey = timeKey(expiredBefore);
+        return indexStore.list(PENDING_PREFIX, startAfter, limit).stream()
+                .map(key -> key.substring(PENDING_PREFIX.length()))
+                .takeWhile(entry -> entry.substring(0, entry.indexOf(SEPARATOR)).compareTo(expiredBeforeKey) < 0)
+                .map(this::pendingUpload)
+                .collect(Collectors.toList());
+    }
+
+    public void remove(List<PendingUpload> pendingUploads) {
+        if (pendingUploads.isEmpty()) {
+            return;
+        }
+        indexStore.delete(pendingUploads.stream().map(PendingUpload::getKey).collect(Collectors.toList()));
+    }
+
+    private PendingUpload pendingUpload(String entry) {
+        var fileDataId = entry.substring(entry.indexOf(SEPARATOR) + 1);
+        var uploadIdSeparator = fileDataId.indexOf(UPLOAD_ID_SEPARATOR);
+        if (uploadIdSeparator < 0) {
+            return new PendingUpload(fileDataId, null, PENDING_PREFIX + entry);
+        }
+        return new PendingUpload(
+                fileDataId.substring(0, uploadIdSeparator),
+                fileDataId.substring(uploadIdSeparator + 1),
+                PENDING_PREFIX + entry);
+    }
+
+    private String key(Instant expirationTime, String fileDataId) {
+        return PENDING_PREFIX + timeKey(expirationTime) + SEPARATOR + fileDataId;
+    }
+
+    private String timeKey(Instant instant) {
+        return String.format("%013d", instant.toEpochMilli());
+    }
+}
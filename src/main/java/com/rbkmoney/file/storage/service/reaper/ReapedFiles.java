@@ -0,0 +1,19 @@
+package com.rbkmoney.file.storage.service.reaper;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+// итог проверки отметок: deleted — удаленные брошенные файлы, resolved — файлы, отметки которых больше не нужны:
+// удаленные, загруженные и уже не существующие. Отметки остальных файлов сборщик проверит в следующий раз
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class ReapedFiles {
+
+    private final List<String> deleted;
+    private final List<String> resolved;
+
+}
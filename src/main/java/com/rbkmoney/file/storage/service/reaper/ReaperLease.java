@@ -0,0 +1,64 @@
+package com.rbkmoney.file.storage.service.reaper;
+
+import com.rbkmoney.file.storage.configuration.properties.FileReaperProperties;
+import com.rbkmoney.file.storage.service.index.IndexStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+// проход сборщика выполняет один экземпляр сервиса — тот, кто держит аренду reaper/lease: объект с id владельца
+// и сроком аренды lease-duration, который владелец продлевает перед каждой пачкой. Атомарной записи с условием в s3
+// нет, поэтому после записи аренда перечитывается, и проход начинает только тот, чья запись осталась последней.
+// Редкое наложение проходов при гонке записей безопасно: файл удаляется, только если у него так и нет загруженной
+// ревизии, а отмена уже отмененной загрузки считается успешной
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ReaperLease {
+
+    private static final String LEASE_KEY = "reaper/lease";
+    private static final String SEPARATOR = " ";
+
+    private final FileReaperProperties fileReaperProperties;
+    private final IndexStore indexStore;
+    private final String owner = UUID.randomUUID().toString();
+
+    // берет или продлевает аренду, false — аренду держит другой экземпляр
+    public boolean acquire(Instant now) {
+        var lease = indexStore.get(LEASE_KEY);
+        if (lease != null && !isOwner(lease) && expiresAt(lease).isAfter(now)) {
+            return false;
+        }
+        var expiresAt = now.plus(fileReaperProperties.getLeaseDuration());
+        indexStore.put(LEASE_KEY, (owner + SEPARATOR + expiresAt.toEpochMilli()).getBytes(StandardCharsets.UTF_8));
+        lease = indexStore.get(LEASE_KEY);
+        return lease != null && isOwner(lease);
+    }
+
+    public void release() {
+        var lease = indexStore.get(LEASE_KEY);
+        if (lease != null && isOwner(lease)) {
+            indexStore.delete(List.of(LEASE_KEY));
+        }
+    }
+
+    private boolean isOwner(byte[] lease) {
+        return new String(lease, StandardCharsets.UTF_8).startsWith(owner + SEPARATOR);
+    }
+
+    // битая аренда считается истекшей, иначе сборщик остановился бы навсегда
+    private Instant expiresAt(byte[] lease) {
+        var value = new String(lease, StandardCharsets.UTF_8);
+        try {
+            return Instant.ofEpochMilli(Long.parseLong(value.substring(value.indexOf(SEPARATOR) + 1)));
+        } catch (NumberFormatException ex) {
+            log.warn("Failed to read reaper lease, lease={}", value, ex);
+            return Instant.EPOCH;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.rbkmoney.file.storage.service.routing;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// узел кластера s3 со своим клиентом: задержка считается скользящим средним с затуханием по времени,
+// которое сразу поднимается до пика на медленном ответе (peak ewma), чтобы деградировавший узел быстро терял трафик
+@RequiredArgsConstructor
+public class EndpointNode<T> {
+
+    private static final long MIN_FAILURE_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Getter
+    private final String endpoint;
+    @Getter
+    private final T client;
+    private final long latencyDecayNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long ejectedUntilNanos;
+    private double latencyNanos;
+    private long latencyUpdatedAtNanos;
+
+    public long start() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    // возвращает true, если после этой ошибки узел исключен
+    public boolean complete(long startNanos, boolean failed, int failureThreshold, long ejectionNanos) {
+        long now = System.nanoTime();
+        inFlight.decrementAndGet();
+        updateLatency(now, now - startNanos, failed);
+        if (!failed) {
+            consecutiveFailures.set(0);
+            return false;
+        }
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            ejectedUntilNanos = now + ejectionNanos;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isEjected(long nowNanos) {
+        return ejectedUntilNanos - nowNanos > 0;
+    }
+
+    // меньше — лучше: ожидаемая задержка с учетом запросов, уже ушедших на узел
+    public synchronized double score() {
+        return latencyNanos * (inFlight.get() + 1);
+    }
+
+    public synchronized double getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    // отказ соединения приходит быстрее любого ответа, поэтому ошибка узла удваивает его задержку,
+    // иначе недоступный узел выглядел бы самым быстрым
+    private synchronized void updateLatency(long now, long sampleNanos, boolean failed) {
+        if (failed) {
+            latencyNanos = Math.max(Math.max(latencyNanos * 2, sampleNanos), MIN_FAILURE_LATENCY_NANOS);
+        } else if (sampleNanos > latencyNanos) {
+            latencyNanos = sampleNanos;
+        } else {
+            double weight = Math.exp(-(double) (now - latencyUpdatedAtNanos) / latencyDecayNanos);
+            latencyNanos = latencyNanos * weight + sampleNanos * (1 - weight);
+        }
+        latencyUpdatedAtNanos = now;
+    }
+}
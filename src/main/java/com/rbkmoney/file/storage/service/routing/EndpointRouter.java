@@ -0,0 +1,255 @@
+package com.rbkmoney.file.storage.service.routing;
+
+import com.rbkmoney.file.storage.configuration.properties.S3EndpointRoutingProperties;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+// клиентская балансировка запросов между узлами кластера s3 за интерфейсом клиента сдк: из двух случайных узлов
+// запрос уходит на узел с меньшей задержкой с учетом запросов в работе (power of two choices).
+// Узел после failure-threshold ошибок подряд исключается на ejection-duration, а читающий запрос, упавший
+// из-за узла, повторяется на другом узле, всего не более max-attempts попыток. Запись на другом узле не повторяется —
+// тело запроса может быть уже вычитано
+@Slf4j
+public class EndpointRouter<T> implements InvocationHandler {
+
+    // вызовы без обращения к узлу (подпись ссылок, настройки клиента) идут в основной клиент
+    private static final Set<String> LOCAL_METHODS = Set.of(
+            "serviceName", "utilities", "waiter", "generatePresignedUrl", "getUrl", "getRegion", "getRegionName");
+    private static final Set<String> BROADCAST_METHODS = Set.of("close", "shutdown");
+    // на другом узле повторяются только идемпотентные чтения, ответ которых не пишется в файл или transformer —
+    // иначе повтор допишет частично переданное тело
+    private static final Set<String> RETRYABLE_METHODS = Set.of(
+            "headObject", "headBucket", "getObject", "getObjectAsBytes", "getObjectMetadata", "listObjectVersions",
+            "listObjectsV2", "doesObjectExist", "doesBucketExistV2");
+    private static final List<Class<?>> STREAMING_PARAMETERS = List.of(
+            Path.class, File.class, ResponseTransformer.class, AsyncResponseTransformer.class);
+
+    private final Class<T> clientType;
+    private final T primary;
+    private final List<EndpointNode<T>> nodes = new ArrayList<>();
+    private final Predicate<Throwable> nodeFailure;
+    private final S3EndpointRoutingProperties s3EndpointRoutingProperties;
+    private final StorageMetrics storageMetrics;
+    private final String sdk;
+    private final Map<Method, Boolean> retryableMethods = new ConcurrentHashMap<>();
+
+    public EndpointRouter(Class<T> clientType,
+                          T primary,
+                          Map<String, T> clients,
+                          Predicate<Throwable> nodeFailure,
+                          S3EndpointRoutingProperties s3EndpointRoutingProperties,
+                          StorageMetrics storageMetrics,
+                          String sdk) {
+        this.clientType = clientType;
+        this.primary = primary;
+        this.nodeFailure = nodeFailure;
+        this.s3EndpointRoutingProperties = s3EndpointRoutingProperties;
+        this.storageMetrics = storageMetrics;
+        this.sdk = sdk;
+        var latencyDecayNanos = s3EndpointRoutingProperties.getLatencyDecay().toNanos();
+        clients.forEach((endpoint, client) -> {
+            var node = new EndpointNode<>(endpoint, client, latencyDecayNanos);
+            nodes.add(node);
+            storageMetrics.registerEndpoint(
+                    sdk,
+                    endpoint,
+                    () -> node.getLatencyNanos() / 1e9,
+                    () -> node.isEjected(System.nanoTime()) ? 1 : 0);
+        });
+    }
+
+    public T proxy() {
+        return clientType.cast(Proxy.newProxyInstance(clientType.getClassLoader(), new Class<?>[]{clientType}, this));
+    }
+
+    public List<EndpointNode<T>> getNodes() {
+        return nodes;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return invokeObjectMethod(proxy, method, args);
+        }
+        var name = method.getName();
+        if (BROADCAST_METHODS.contains(name)) {
+            for (var node : nodes) {
+                call(method, node.getClient(), args);
+            }
+            if (nodes.stream().noneMatch(node -> node.getClient() == primary)) {
+                call(method, primary, args);
+            }
+            return null;
+        }
+        if (LOCAL_METHODS.contains(name)) {
+            return call(method, primary, args);
+        }
+        if (CompletableFuture.class.isAssignableFrom(method.getReturnType())) {
+            return invokeAsync(method, args, new ArrayList<>());
+        }
+        return invokeSync(method, args);
+    }
+
+    EndpointNode<T> choose(List<EndpointNode<T>> tried) {
+        long now = System.nanoTime();
+        var candidates = new ArrayList<EndpointNode<T>>(nodes.size());
+        for (var node : nodes) {
+            if (!tried.contains(node) && !node.isEjected(now)) {
+                candidates.add(node);
+            }
+        }
+        // все оставшиеся узлы исключены — лучше попробовать исключенный узел, чем сразу вернуть ошибку
+        if (candidates.isEmpty()) {
+            for (var node : nodes) {
+                if (!tried.contains(node)) {
+                    candidates.add(node);
+                }
+            }
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        var random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        var firstNode = candidates.get(first);
+        var secondNode = candidates.get(second);
+        return firstNode.score() <= secondNode.score() ? firstNode : secondNode;
+    }
+
+    private Object invokeSync(Method method, Object[] args) throws Throwable {
+        int maxAttempts = maxAttempts(method);
+        var tried = new ArrayList<EndpointNode<T>>(maxAttempts);
+        Throwable error = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            var node = choose(tried);
+            tried.add(node);
+            long start = node.start();
+            try {
+                var result = call(method, node.getClient(), args);
+                complete(node, start, null);
+                return result;
+            } catch (Throwable ex) {
+                error = ex;
+                if (!complete(node, start, ex) || attempt == maxAttempts) {
+                    break;
+                }
+                logRetry(method, node, ex);
+            }
+        }
+        throw error;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Object> invokeAsync(Method method, Object[] args, List<EndpointNode<T>> tried) {
+        var node = choose(tried);
+        tried.add(node);
+        long start = node.start();
+        CompletableFuture<Object> future;
+        try {
+            future = (CompletableFuture<Object>) call(method, node.getClient(), args);
+        } catch (Throwable ex) {
+            future = CompletableFuture.failedFuture(ex);
+        }
+        return future
+                .handle((result, throwable) -> {
+                    var cause = throwable instanceof CompletionException && throwable.getCause() != null
+                            ? throwable.getCause()
+                            : throwable;
+                    if (cause == null) {
+                        complete(node, start, null);
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    if (complete(node, start, cause) && tried.size() < maxAttempts(method)) {
+                        logRetry(method, node, cause);
+                        return invokeAsync(method, args, tried);
+                    }
+                    return CompletableFuture.failedFuture(cause);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    // возвращает true, если ошибка вызвана узлом, а не самим запросом
+    private boolean complete(EndpointNode<T> node, long start, Throwable error) {
+        boolean failed = error != null && nodeFailure.test(error);
+        boolean ejected = node.complete(
+                start,
+                failed,
+                s3EndpointRoutingProperties.getFailureThreshold(),
+                s3EndpointRoutingProperties.getEjectionDuration().toNanos());
+        if (ejected) {
+            log.warn("S3 endpoint is ejected for {}, endpoint={}",
+                    s3EndpointRoutingProperties.getEjectionDuration(), node.getEndpoint());
+        }
+        return failed;
+    }
+
+    private int maxAttempts(Method method) {
+        if (!retryableMethods.computeIfAbsent(method, this::isRetryable)) {
+            return 1;
+        }
+        return Math.max(1, Math.min(nodes.size(), s3EndpointRoutingProperties.getMaxAttempts()));
+    }
+
+    private boolean isRetryable(Method method) {
+        if (!RETRYABLE_METHODS.contains(method.getName())) {
+            return false;
+        }
+        for (var parameterType : method.getParameterTypes()) {
+            if (STREAMING_PARAMETERS.stream().anyMatch(streaming -> streaming.isAssignableFrom(parameterType))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void logRetry(Method method, EndpointNode<T> node, Throwable error) {
+        storageMetrics.recordEndpointRetry(sdk, node.getEndpoint());
+        log.warn("S3 request failed on endpoint, retrying on another one, method={}, endpoint={}, error={}",
+                method.getName(), node.getEndpoint(), error.toString());
+    }
+
+    private Object call(Method method, T client, Object[] args) throws Throwable {
+        try {
+            return method.invoke(client, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return String.format("%s%s", clientType.getSimpleName(), nodes.stream()
+                        .map(EndpointNode::getEndpoint)
+                        .collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.rbkmoney.file.storage.service.singleflight;
+
+import com.rbkmoney.file.storage.configuration.properties.FileSingleFlightProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+// одновременные запросы одного ключа разделяют один вызов в s3 и его результат или исключение,
+// результат не хранится — после завершения вызова следующий запрос снова идет в s3
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class SingleFlight {
+
+    private static final String SHARED_CALLS = "file_storage.single_flight.shared";
+    private static final String IN_FLIGHT = "file_storage.single_flight.in_flight";
+
+    private final FileSingleFlightProperties fileSingleFlightProperties;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentMap<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private Counter sharedCalls;
+
+    @PostConstruct
+    public void init() {
+        sharedCalls = meterRegistry.counter(SHARED_CALLS);
+        meterRegistry.gaugeMapSize(IN_FLIGHT, Tags.empty(), inFlight);
+        log.info("Single flight is {}", fileSingleFlightProperties.isEnabled() ? "enabled" : "disabled");
+    }
+
+    public <T> T execute(String key, Supplier<T> call) {
+        if (!fileSingleFlightProperties.isEnabled()) {
+            return call.get();
+        }
+        var flight = new CompletableFuture<T>();
+        var existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            sharedCalls.increment();
+            return join(cast(existing));
+        }
+        try {
+            T result = call.get();
+            land(key, flight);
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error ex) {
+            land(key, flight);
+            flight.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    public <T> CompletableFuture<T> executeAsync(String key, Supplier<CompletableFuture<T>> call) {
+        if (!fileSingleFlightProperties.isEnabled()) {
+            return call.get();
+        }
+        var flight = new CompletableFuture<T>();
+        var existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            sharedCalls.increment();
+            // копия, чтобы вызывающий не мог завершить общий future за остальных
+            return this.<T>cast(existing).copy();
+        }
+        CompletableFuture<T> source;
+        try {
+            source = call.get();
+        } catch (RuntimeException ex) {
+            source = CompletableFuture.failedFuture(ex);
+        }
+        source.whenComplete((result, throwable) -> {
+            land(key, flight);
+            if (throwable != null) {
+                flight.completeExceptionally(unwrap(throwable));
+            } else {
+                flight.complete(result);
+            }
+        });
+        return flight.copy();
+    }
+
+    // ключ снимается до завершения future, чтобы пришедшие после результата запросы не получили его повторно
+    private void land(String key, CompletableFuture<?> flight) {
+        inFlight.remove(key, flight);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> cast(CompletableFuture<?> future) {
+        return (CompletableFuture<T>) future;
+    }
+
+    private <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+    }
+}
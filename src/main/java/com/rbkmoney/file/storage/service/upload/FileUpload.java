@@ -0,0 +1,26 @@
+package com.rbkmoney.file.storage.service.upload;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class FileUpload {
+
+    private final String fileDataId;
+    private final String contentDisposition;
+    private final String contentType;
+    @ToString.Exclude
+    private final InputStream content;
+
+    // имя файла при чтении достается из Content-Disposition ревизии с файлом
+    public static String contentDisposition(String fileName) {
+        return "attachment;filename=" + URLEncoder.encode(fileName, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,20 @@
+package com.rbkmoney.file.storage.service.upload;
+
+import java.util.List;
+
+// операции multipart загрузки одного объекта, которые MultipartUploader вызывает через конкретный sdk,
+// части передаются буфером и длиной, чтобы sdk читал их без копирования
+public interface MultipartTarget {
+
+    void putObject(byte[] data, int length);
+
+    String createMultipartUpload();
+
+    String uploadPart(String uploadId, int partNumber, byte[] data, int length);
+
+    // eTag части с номером n лежит в списке под индексом n - 1
+    void completeMultipartUpload(String uploadId, List<String> partETags);
+
+    void abortMultipartUpload(String uploadId);
+
+}
@@ -0,0 +1,275 @@
+package com.rbkmoney.file.storage.service.upload;
+
+import com.rbkmoney.file.storage.configuration.properties.FileUploadProperties;
+import com.rbkmoney.file.storage.configuration.properties.VirtualThreadsProperties;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import com.rbkmoney.file.storage.service.exception.WaitingUploadException;
+import com.rbkmoney.file.storage.util.VirtualThreads;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// потоковая загрузка тела запроса в s3 частями: пока части прошлых буферов загружаются параллельно,
+// из запроса читается следующая. Буферы частей общие на все загрузки сервиса и ограничены max-buffered-parts,
+// поэтому память под загрузки не превышает part-size * max-buffered-parts, а упавшая часть повторяется
+// из своего буфера с растущей задержкой, не начиная загрузку файла заново
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class MultipartUploader {
+
+    private static final String BUFFERED_PARTS = "file_storage.upload.buffered_parts";
+
+    private final FileUploadProperties fileUploadProperties;
+    private final VirtualThreadsProperties virtualThreadsProperties;
+    private final MeterRegistry meterRegistry;
+    private final BlockingQueue<byte[]> freeBuffers = new LinkedBlockingQueue<>();
+    private final AtomicInteger allocatedBuffers = new AtomicInteger();
+    private final AtomicInteger bufferedParts = new AtomicInteger();
+    private ExecutorService executor;
+    private Semaphore partPermits;
+
+    // в режиме виртуальных потоков каждая часть загружается в своем потоке, а число частей в полете
+    // ограничивает семафор на parallelism, как и пул потоков платформы
+    @PostConstruct
+    public void init() {
+        meterRegistry.gauge(BUFFERED_PARTS, bufferedParts);
+        if (virtualThreadsProperties.isEnabled()) {
+            executor = VirtualThreads.newThreadPerTaskExecutor("file-upload-");
+            partPermits = new Semaphore(fileUploadProperties.getParallelism());
+            return;
+        }
+        var threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(fileUploadProperties.getParallelism(), runnable -> {
+            var thread = new Thread(runnable, "file-upload-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // возвращает число загруженных байт, при ошибке начатая multipart загрузка отменяется
+    public long upload(String fileId, InputStream content, MultipartTarget target) {
+        var buffer = acquireBuffer();
+        int length;
+        try {
+            length = read(fileId, content, buffer);
+        } catch (RuntimeException ex) {
+            releaseBuffer(buffer);
+            throw ex;
+        }
+        // файл меньше одной части загружается одним PUT
+        if (length < buffer.length) {
+            try {
+                target.putObject(buffer, length);
+                return length;
+            } finally {
+                releaseBuffer(buffer);
+            }
+        }
+        var uploadId = target.createMultipartUpload();
+        var parts = new ArrayList<CompletableFuture<String>>();
+        var failure = new AtomicReference<Throwable>();
+        long uploaded = 0;
+        try {
+            while (length > 0 && failure.get() == null) {
+                var partBuffer = buffer;
+                buffer = null;
+                parts.add(uploadPart(fileId, target, uploadId, parts.size() + 1, partBuffer, length, failure));
+                uploaded += length;
+                buffer = acquireBuffer();
+                length = read(fileId, content, buffer);
+            }
+            releaseBuffer(buffer);
+            buffer = null;
+            var partETags = join(parts, failure);
+            target.completeMultipartUpload(uploadId, partETags);
+            log.info("Multipart upload has been completed, fileId={}, parts={}, bytes={}",
+                    fileId, partETags.size(), uploaded);
+            return uploaded;
+        } catch (RuntimeException ex) {
+            if (buffer != null) {
+                releaseBuffer(buffer);
+            }
+            // еще не начатые части не загружаются, а начатые дожидаются, чтобы отмена не гонялась с ними
+            failure.compareAndSet(null, ex);
+            await(parts);
+            abort(fileId, target, uploadId);
+            throw ex;
+        }
+    }
+
+    private CompletableFuture<String> uploadPart(String fileId,
+                                                 MultipartTarget target,
+                                                 String uploadId,
+                                                 int partNumber,
+                                                 byte[] buffer,
+                                                 int length,
+                                                 AtomicReference<Throwable> failure) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                if (failure.get() != null) {
+                    throw new StorageException(String.format(
+                            "Multipart upload is aborted, fileId=%s, partNumber=%d", fileId, partNumber));
+                }
+                return uploadPartWithPermit(fileId, target, uploadId, partNumber, buffer, length);
+            } catch (RuntimeException ex) {
+                failure.compareAndSet(null, ex);
+                throw ex;
+            } finally {
+                releaseBuffer(buffer);
+            }
+        }, executor);
+    }
+
+    private String uploadPartWithPermit(String fileId,
+                                        MultipartTarget target,
+                                        String uploadId,
+                                        int partNumber,
+                                        byte[] buffer,
+                                        int length) {
+        if (partPermits == null) {
+            return uploadPartWithRetry(fileId, target, uploadId, partNumber, buffer, length);
+        }
+        try {
+            partPermits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WaitingUploadException("Thread is interrupted while waiting for a part upload permit", ex);
+        }
+        try {
+            return uploadPartWithRetry(fileId, target, uploadId, partNumber, buffer, length);
+        } finally {
+            partPermits.release();
+        }
+    }
+
+    private String uploadPartWithRetry(String fileId,
+                                       MultipartTarget target,
+                                       String uploadId,
+                                       int partNumber,
+                                       byte[] buffer,
+                                       int length) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return target.uploadPart(uploadId, partNumber, buffer, length);
+            } catch (RuntimeException ex) {
+                if (attempt >= fileUploadProperties.getMaxPartAttempts()) {
+                    throw ex;
+                }
+                var delay = retryDelay(attempt);
+                log.warn("Failed to upload part, retrying, fileId={}, partNumber={}, attempt={}, delay={}",
+                        fileId, partNumber, attempt, delay, ex);
+                try {
+                    Thread.sleep(delay.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    // экспоненциальная задержка от part-retry-delay до max-part-retry-delay, половина которой случайна, чтобы части,
+    // упавшие вместе из-за перегрузки s3, не повторялись одновременно
+    private Duration retryDelay(int attempt) {
+        var maxDelay = fileUploadProperties.getMaxPartRetryDelay().toMillis();
+        var delay = Math.min(
+                maxDelay,
+                fileUploadProperties.getPartRetryDelay().toMillis() << Math.min(attempt - 1, 30));
+        return Duration.ofMillis(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+    }
+
+    // первой падает одна часть, остальные после нее только отменяются, поэтому наружу уходит ее исключение
+    private List<String> join(List<CompletableFuture<String>> parts, AtomicReference<Throwable> failure) {
+        await(parts);
+        var cause = failure.get();
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause != null) {
+            throw new CompletionException(cause);
+        }
+        var partETags = new ArrayList<String>(parts.size());
+        parts.forEach(part -> partETags.add(part.join()));
+        return partETags;
+    }
+
+    private void await(List<CompletableFuture<String>> parts) {
+        CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                .exceptionally(throwable -> null)
+                .join();
+    }
+
+    private void abort(String fileId, MultipartTarget target, String uploadId) {
+        try {
+            target.abortMultipartUpload(uploadId);
+        } catch (RuntimeException ex) {
+            log.warn("Failed to abort multipart upload, fileId={}, uploadId={}", fileId, uploadId, ex);
+        }
+    }
+
+    private int read(String fileId, InputStream content, byte[] buffer) {
+        int length = 0;
+        try {
+            int read;
+            while (length < buffer.length && (read = content.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            return length;
+        } catch (IOException ex) {
+            // ошибка чтения запроса — ошибка клиента, а не хранилища
+            throw new UncheckedIOException(String.format("Failed to read uploaded content, fileId=%s", fileId), ex);
+        }
+    }
+
+    // буферы выделяются по мере надобности и переиспользуются, пока их меньше max-buffered-parts,
+    // иначе чтение следующей части ждет, пока загрузится одна из предыдущих
+    private byte[] acquireBuffer() {
+        var buffer = freeBuffers.poll();
+        if (buffer == null && allocatedBuffers.getAndUpdate(
+                allocated -> allocated < fileUploadProperties.getMaxBufferedParts() ? allocated + 1 : allocated)
+                < fileUploadProperties.getMaxBufferedParts()) {
+            buffer = new byte[(int) fileUploadProperties.getPartSize().toBytes()];
+        }
+        if (buffer == null) {
+            try {
+                buffer = freeBuffers.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new WaitingUploadException("Thread is interrupted while waiting for a free upload buffer", ex);
+            }
+        }
+        bufferedParts.incrementAndGet();
+        return buffer;
+    }
+
+    private void releaseBuffer(byte[] buffer) {
+        bufferedParts.decrementAndGet();
+        freeBuffers.add(buffer);
+    }
+}
@@ -0,0 +1,19 @@
+package com.rbkmoney.file.storage.service.upload;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+// ссылка на загрузку части с номером n лежит в списке под индексом n - 1
+@RequiredArgsConstructor
+@Getter
+@ToString
+public class NewMultipartFileResult {
+
+    private final String fileDataId;
+    private final String uploadId;
+    private final List<String> partUploadUrls;
+
+}
@@ -0,0 +1,51 @@
+package com.rbkmoney.file.storage.service.upload;
+
+import com.rbkmoney.file.storage.configuration.properties.FileUploadProperties;
+import com.rbkmoney.file.storage.util.UrlSignatureUtil;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+@Component
+@RequiredArgsConstructor
+public class UploadUrlSigner {
+
+    private static final String METHOD = "PUT";
+
+    private final FileUploadProperties fileUploadProperties;
+
+    public boolean isEnabled() {
+        return fileUploadProperties.isEnabled();
+    }
+
+    // при выключенной загрузке через сервис отдается presigned ссылка на s3
+    public String uploadUrl(String fileDataId, Instant expirationTime, String presignedUrl) {
+        return isEnabled()
+                ? sign(fileDataId, expirationTime).toString()
+                : presignedUrl;
+    }
+
+    public URL sign(String fileDataId, Instant expirationTime) {
+        long expires = expirationTime.getEpochSecond();
+        try {
+            return new URL(String.format("%s/%s?expires=%d&signature=%s",
+                    fileUploadProperties.getPublicUrl(),
+                    URLEncoder.encode(fileDataId, StandardCharsets.UTF_8),
+                    expires,
+                    UrlSignatureUtil.sign(fileUploadProperties.getSecret(), METHOD, fileDataId, expires)));
+        } catch (MalformedURLException ex) {
+            throw new IllegalStateException(String.format(
+                    "Failed to build upload url, publicUrl=%s", fileUploadProperties.getPublicUrl()), ex);
+        }
+    }
+
+    public boolean verify(String fileDataId, long expires, String signature, Instant now) {
+        return now.getEpochSecond() <= expires
+                && UrlSignatureUtil.verify(fileUploadProperties.getSecret(), METHOD, fileDataId, expires, signature);
+    }
+}
@@ -0,0 +1,277 @@
+package com.rbkmoney.file.storage.servlet;
+
+import com.rbkmoney.file.storage.configuration.properties.FileDownloadProperties;
+import com.rbkmoney.file.storage.service.AsyncStorageService;
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.download.DownloadUrlSigner;
+import com.rbkmoney.file.storage.service.download.FileContent;
+import com.rbkmoney.file.storage.service.download.FileContentRequest;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// скачивание файла через сервис по подписанной ссылке вместо presigned ссылки на s3 — тело копируется из
+// соединения с s3 в ответ через буфер фиксированного размера, поэтому память на скачивание не зависит от
+// размера файла, а блокирующая запись в медленного клиента притормаживает чтение из s3. С асинхронной реализацией
+// хранилища поток запроса не ждет ответа s3: запрос переводится в AsyncContext и продолжается по готовности заголовков
+@Slf4j
+@RequiredArgsConstructor
+public class FileDownloadServlet extends HttpServlet {
+
+    private final StorageService storageService;
+    private final DownloadUrlSigner downloadUrlSigner;
+    private final FileDownloadProperties fileDownloadProperties;
+    private final StorageMetrics storageMetrics;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        download(req, resp, false);
+    }
+
+    @Override
+    protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        download(req, resp, true);
+    }
+
+    private void download(HttpServletRequest req, HttpServletResponse resp, boolean headOnly) throws IOException {
+        var fileDataId = fileDataId(req);
+        if (fileDataId == null || !isSigned(req, fileDataId)) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        var request = new FileContentRequest(
+                fileDataId,
+                headOnly,
+                req.getHeader("Range"),
+                req.getHeader("If-Match"),
+                req.getHeader("If-None-Match"),
+                dateHeader(req, "If-Modified-Since"),
+                dateHeader(req, "If-Unmodified-Since"));
+        if (storageService instanceof AsyncStorageService) {
+            downloadAsync(req.startAsync(), (AsyncStorageService) storageService, request);
+            return;
+        }
+        FileContent fileContent;
+        try {
+            fileContent = storageMetrics.recordHandler("downloadFile", () -> storageService.getFileContent(request));
+        } catch (StorageException e) {
+            sendError(resp, e);
+            return;
+        }
+        write(resp, fileContent, fileDataId);
+    }
+
+    // пока s3 ищет ревизию и отвечает заголовками, поток запроса свободен. Тело копируется той же блокирующей
+    // записью на потоке контейнера из AsyncContext#start, поэтому поток занят, только пока есть что передавать
+    private void downloadAsync(AsyncContext asyncContext,
+                               AsyncStorageService asyncStorageService,
+                               FileContentRequest request) {
+        asyncContext.setTimeout(fileDownloadProperties.getAsyncTimeout().toMillis());
+        var asyncDownload = new AsyncDownload(asyncContext, request.getFileDataId());
+        asyncContext.addListener(asyncDownload);
+        storageMetrics.recordHandlerAsync("downloadFile", () -> asyncStorageService.getFileContentAsync(request))
+                .whenComplete(asyncDownload::respond);
+    }
+
+    private void write(HttpServletResponse resp, FileContent fileContent, String fileDataId) throws IOException {
+        writeHeaders(resp, fileContent);
+        if (fileContent.hasBody()) {
+            writeBody(resp, fileContent, fileDataId);
+        }
+    }
+
+    private void sendError(HttpServletResponse resp, Throwable throwable) throws IOException {
+        var cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        if (cause instanceof FileNotFoundException) {
+            log.warn("File not found", cause);
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        } else if (cause instanceof StorageException) {
+            log.error("Error with storage", cause);
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } else {
+            log.error("Failed to download file", cause);
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private void writeHeaders(HttpServletResponse resp, FileContent fileContent) {
+        resp.setStatus(fileContent.getStatus());
+        resp.setHeader("Accept-Ranges", "bytes");
+        if (fileContent.getETag() != null) {
+            resp.setHeader("ETag", fileContent.getETag());
+        }
+        if (fileContent.getLastModified() != null) {
+            resp.setDateHeader("Last-Modified", fileContent.getLastModified().toEpochMilli());
+        }
+        if (fileContent.getStatus() == FileContent.NOT_MODIFIED
+                || fileContent.getStatus() == FileContent.PRECONDITION_FAILED
+                || fileContent.getStatus() == FileContent.RANGE_NOT_SATISFIABLE) {
+            resp.setContentLength(0);
+            return;
+        }
+        if (fileContent.getContentLength() != null) {
+            resp.setContentLengthLong(fileContent.getContentLength());
+        }
+        if (fileContent.getContentRange() != null) {
+            resp.setHeader("Content-Range", fileContent.getContentRange());
+        }
+        if (fileContent.getContentType() != null) {
+            resp.setContentType(fileContent.getContentType());
+        }
+        if (fileContent.getContentDisposition() != null) {
+            resp.setHeader("Content-Disposition", fileContent.getContentDisposition());
+        }
+    }
+
+    // при обрыве клиента соединение с s3 прерывается до закрытия потока, иначе http клиент sdk дочитал бы
+    // остаток файла, чтобы вернуть соединение в пул
+    private void writeBody(HttpServletResponse resp, FileContent fileContent, String fileDataId) throws IOException {
+        var buffer = new byte[fileDownloadProperties.getBufferSize()];
+        var content = fileContent.getContent();
+        var completed = false;
+        try {
+            OutputStream output = resp.getOutputStream();
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            completed = true;
+        } catch (IOException e) {
+            log.warn("File download was interrupted, fileDataId={}", fileDataId, e);
+            throw e;
+        } finally {
+            if (!completed) {
+                fileContent.getAbort().run();
+            }
+            content.close();
+        }
+    }
+
+    // все скачивание ограничено async-timeout: если s3 не ответил к этому времени, клиент получает 504, а пришедший
+    // позже ответ s3 сразу прерывается. Если тело уже передается, прерывается соединение с s3, и контекст
+    // завершает поток записи
+    @RequiredArgsConstructor
+    private class AsyncDownload implements AsyncListener {
+
+        private final AsyncContext asyncContext;
+        private final String fileDataId;
+        private final AtomicBoolean responding = new AtomicBoolean();
+        private final AtomicReference<FileContent> writing = new AtomicReference<>();
+        private final CountDownLatch written = new CountDownLatch(1);
+
+        void respond(FileContent fileContent, Throwable throwable) {
+            writing.set(fileContent);
+            if (!responding.compareAndSet(false, true)) {
+                // ответ s3 пришел после таймаута, клиент уже получил 504
+                if (fileContent != null) {
+                    fileContent.getAbort().run();
+                    close(fileContent);
+                }
+                return;
+            }
+            asyncContext.start(() -> writeResponse(fileContent, throwable));
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            if (responding.compareAndSet(false, true)) {
+                log.warn("File download timed out waiting for s3, fileDataId={}", fileDataId);
+                ((HttpServletResponse) asyncContext.getResponse()).sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+                asyncContext.complete();
+                return;
+            }
+            log.warn("File download timed out, fileDataId={}", fileDataId);
+            var fileContent = writing.get();
+            if (fileContent != null) {
+                fileContent.getAbort().run();
+            }
+            // контекст завершает поток записи, который после обрыва s3 сразу выходит из копирования
+            try {
+                written.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private void writeResponse(FileContent fileContent, Throwable throwable) {
+            var resp = (HttpServletResponse) asyncContext.getResponse();
+            try {
+                if (throwable == null) {
+                    write(resp, fileContent, fileDataId);
+                } else {
+                    sendError(resp, throwable);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to write file download response, fileDataId={}", fileDataId, e);
+            } finally {
+                asyncContext.complete();
+                written.countDown();
+            }
+        }
+
+        private void close(FileContent fileContent) {
+            try {
+                fileContent.getContent().close();
+            } catch (IOException e) {
+                log.warn("Failed to close file content, fileDataId={}", fileDataId, e);
+            }
+        }
+    }
+
+    private boolean isSigned(HttpServletRequest req, String fileDataId) {
+        try {
+            var expires = Long.parseLong(req.getParameter("expires"));
+            return downloadUrlSigner.verify(fileDataId, expires, req.getParameter("signature"), Instant.now());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private String fileDataId(HttpServletRequest req) {
+        var pathInfo = req.getPathInfo();
+        if (pathInfo == null || pathInfo.length() <= 1) {
+            return null;
+        }
+        return pathInfo.substring(1);
+    }
+
+    private Instant dateHeader(HttpServletRequest req, String name) {
+        try {
+            var date = req.getDateHeader(name);
+            return date == -1 ? null : Instant.ofEpochMilli(date);
+        } catch (IllegalArgumentException e) {
+            // некорректная дата в условном заголовке игнорируется
+            return null;
+        }
+    }
+}
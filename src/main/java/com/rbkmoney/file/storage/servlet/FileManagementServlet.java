@@ -0,0 +1,195 @@
+package com.rbkmoney.file.storage.servlet;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+import com.rbkmoney.file.storage.FileData;
+import com.rbkmoney.file.storage.configuration.properties.FileBatchProperties;
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.batch.BatchResult;
+import com.rbkmoney.file.storage.service.download.DownloadUrlSigner;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import com.rbkmoney.file.storage.service.index.FileIndex;
+import com.rbkmoney.file.storage.service.index.FileIndexQuery;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.util.ValueJsonCodec;
+import com.rbkmoney.geck.common.util.TypeUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static com.rbkmoney.file.storage.util.CheckerUtil.checkString;
+
+// операции над файлами, которых нет в file-storage-proto: DELETE /file_storage/files/{fileDataId} — удалить файл,
+// GET /file_storage/files?metadataKey=&metadataValue=&createdFrom=&createdTo=&pageToken=&limit= — найти файлы
+// по вторичному индексу, постранично по времени создания, POST /file_storage/files/batch/file_data
+// и POST /file_storage/files/batch/download_urls с телом {"fileDataIds": [...]} — пачечные getFileData
+// и generateDownloadUrl, отсутствующие файлы возвращаются отдельным списком notFound
+@Slf4j
+@RequiredArgsConstructor
+public class FileManagementServlet extends HttpServlet {
+
+    private static final String BATCH_FILE_DATA = "batch/file_data";
+    private static final String BATCH_DOWNLOAD_URLS = "batch/download_urls";
+
+    private final StorageService storageService;
+    private final FileIndex fileIndex;
+    private final DownloadUrlSigner downloadUrlSigner;
+    private final FileBatchProperties fileBatchProperties;
+    private final StorageMetrics storageMetrics;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (fileDataId(req) != null || !fileIndex.isEnabled()) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        handle(resp, "findFiles", () -> {
+            var metadataKey = req.getParameter("metadataKey");
+            var metadataValue = req.getParameter("metadataValue");
+            if (metadataValue != null) {
+                checkString(metadataKey, "Bad request parameter, metadataKey required with metadataValue");
+            }
+            var limit = parseLimit(req.getParameter("limit"));
+            return fileIndex.find(new FileIndexQuery(
+                    metadataKey,
+                    metadataValue,
+                    parseInstant(req.getParameter("createdFrom")),
+                    parseInstant(req.getParameter("createdTo")),
+                    req.getParameter("pageToken"),
+                    limit));
+        });
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        var route = fileDataId(req);
+        if (!BATCH_FILE_DATA.equals(route) && !BATCH_DOWNLOAD_URLS.equals(route)) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        JsonNode body;
+        try {
+            body = objectMapper.readTree(req.getInputStream());
+        } catch (JsonProcessingException e) {
+            log.warn("Failed to parse batch request", e);
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        if (BATCH_FILE_DATA.equals(route)) {
+            handle(resp, "getFileDataBatch", () -> storageService.getFileDataBatch(fileDataIds(body))
+                    .map(this::fileData));
+        } else {
+            handle(resp, "generateDownloadUrlBatch", () -> generateDownloadUrlBatch(body));
+        }
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        var fileDataId = fileDataId(req);
+        if (fileDataId == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        handle(resp, "deleteFile", () -> {
+            checkString(fileDataId, "Bad request parameter, fileDataId required and not empty arg");
+            storageService.deleteFile(fileDataId);
+            return null;
+        });
+    }
+
+    private BatchResult<String> generateDownloadUrlBatch(JsonNode body) {
+        var fileDataIds = fileDataIds(body);
+        var expiresAt = body.path("expiresAt").asText(null);
+        checkString(expiresAt, "Bad request parameter, expiresAt required and not empty arg");
+        Instant instant = TypeUtil.stringToInstant(expiresAt);
+        var urls = storageService.generateDownloadUrlBatch(fileDataIds, instant);
+        var downloadUrls = new LinkedHashMap<String, String>();
+        urls.getResults().forEach((fileDataId, url) ->
+                downloadUrls.put(fileDataId, downloadUrlSigner.downloadUrl(fileDataId, instant, url)));
+        return new BatchResult<>(downloadUrls, urls.getNotFound());
+    }
+
+    private List<String> fileDataIds(JsonNode body) {
+        var fileDataIds = new ArrayList<String>();
+        body.path("fileDataIds").forEach(fileDataId -> fileDataIds.add(fileDataId.asText(null)));
+        if (fileDataIds.isEmpty() || fileDataIds.size() > fileBatchProperties.getMaxSize()) {
+            throw new IllegalArgumentException(String.format(
+                    "Bad request parameter, fileDataIds required and must contain no more than %d ids",
+                    fileBatchProperties.getMaxSize()));
+        }
+        fileDataIds.forEach(
+                fileDataId -> checkString(fileDataId, "Bad request parameter, fileDataId required and not empty arg"));
+        return fileDataIds;
+    }
+
+    // значения метаданных в том же json формате msgpack Value, что и при создании multipart файла
+    private Map<String, Object> fileData(FileData fileData) {
+        var metadata = new LinkedHashMap<String, RawValue>();
+        fileData.getMetadata().forEach((key, value) ->
+                metadata.put(key, new RawValue(ValueJsonCodec.toJsonString(value))));
+        var result = new LinkedHashMap<String, Object>();
+        result.put("fileDataId", fileData.getFileDataId());
+        result.put("fileName", fileData.getFileName());
+        result.put("createdAt", fileData.getCreatedAt());
+        result.put("metadata", metadata);
+        return result;
+    }
+
+    private void handle(HttpServletResponse resp, String method, Supplier<Object> call) throws IOException {
+        try {
+            var result = storageMetrics.recordHandler(method, call);
+            resp.setStatus(HttpServletResponse.SC_OK);
+            if (result != null) {
+                resp.setContentType("application/json");
+                objectMapper.writeValue(resp.getOutputStream(), result);
+            }
+        } catch (FileNotFoundException e) {
+            log.warn("File not found", e);
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        } catch (StorageException e) {
+            log.error("Error with storage", e);
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } catch (IllegalArgumentException e) {
+            log.warn("Bad file request, method={}", method, e);
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private int parseLimit(String limit) {
+        try {
+            var value = Integer.parseInt(limit);
+            if (value < 1) {
+                throw new IllegalArgumentException("Bad request parameter, limit must be positive");
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad request parameter, limit required and must be a number", e);
+        }
+    }
+
+    private Instant parseInstant(String instant) {
+        return instant != null ? TypeUtil.stringToInstant(instant) : null;
+    }
+
+    private String fileDataId(HttpServletRequest req) {
+        var pathInfo = req.getPathInfo();
+        if (pathInfo == null || pathInfo.length() <= 1) {
+            return null;
+        }
+        return pathInfo.substring(1);
+    }
+}
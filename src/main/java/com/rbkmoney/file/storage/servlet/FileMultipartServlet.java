@@ -0,0 +1,141 @@
+package com.rbkmoney.file.storage.servlet;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.util.ValueJsonCodec;
+import com.rbkmoney.geck.common.util.TypeUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static com.rbkmoney.file.storage.util.CheckerUtil.checkString;
+
+// загрузка большого файла клиентом напрямую в s3 частями по presigned ссылкам. В file-storage-proto этих методов нет,
+// поэтому они отдаются по http в тех же терминах, что и multipart api s3:
+// POST /file_storage/multipart — создать файл и загрузку, POST /file_storage/multipart/{fileDataId}?uploadId= —
+// завершить загрузку списком ETag частей, DELETE /file_storage/multipart/{fileDataId}?uploadId= — отменить загрузку
+@Slf4j
+@RequiredArgsConstructor
+public class FileMultipartServlet extends HttpServlet {
+
+    // ограничение s3 на число частей одной multipart загрузки
+    private static final int MAX_PART_COUNT = 10000;
+
+    private final StorageService storageService;
+    private final StorageMetrics storageMetrics;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        JsonNode body;
+        try {
+            body = objectMapper.readTree(req.getInputStream());
+        } catch (JsonProcessingException e) {
+            log.warn("Failed to parse multipart request", e);
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        var fileDataId = fileDataId(req);
+        if (fileDataId == null) {
+            handle(resp, "createNewMultipartFile", () -> createNewMultipartFile(body));
+        } else {
+            handle(resp, "completeMultipartFile", () -> completeMultipartFile(fileDataId, req, body));
+        }
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        var fileDataId = fileDataId(req);
+        if (fileDataId == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        handle(resp, "abortMultipartFile", () -> {
+            var uploadId = req.getParameter("uploadId");
+            checkString(uploadId, "Bad request parameter, uploadId required and not empty arg");
+            storageService.abortMultipartFile(fileDataId, uploadId);
+            return null;
+        });
+    }
+
+    private Object createNewMultipartFile(JsonNode body) {
+        var fileName = body.path("fileName").asText(null);
+        var expiresAt = body.path("expiresAt").asText(null);
+        var partCount = body.path("partCount").asInt();
+        checkString(fileName, "Bad request parameter, fileName required and not empty arg");
+        checkString(expiresAt, "Bad request parameter, expiresAt required and not empty arg");
+        if (partCount < 1 || partCount > MAX_PART_COUNT) {
+            throw new IllegalArgumentException(String.format(
+                    "Bad request parameter, partCount must be between 1 and %d", MAX_PART_COUNT));
+        }
+        Instant instant = TypeUtil.stringToInstant(expiresAt);
+        return storageService.createNewMultipartFile(metadata(body.path("metadata")), fileName, instant, partCount);
+    }
+
+    private Object completeMultipartFile(String fileDataId, HttpServletRequest req, JsonNode body) {
+        var uploadId = req.getParameter("uploadId");
+        checkString(uploadId, "Bad request parameter, uploadId required and not empty arg");
+        var partETags = new ArrayList<String>();
+        body.path("partETags").forEach(eTag -> partETags.add(eTag.asText(null)));
+        if (partETags.isEmpty() || partETags.size() > MAX_PART_COUNT) {
+            throw new IllegalArgumentException(String.format(
+                    "Bad request parameter, partETags required and must contain no more than %d etags",
+                    MAX_PART_COUNT));
+        }
+        partETags.forEach(eTag -> checkString(eTag, "Bad request parameter, eTag required and not empty arg"));
+        storageService.completeMultipartFile(fileDataId, uploadId, partETags);
+        return null;
+    }
+
+    // значения метаданных в том же json формате msgpack Value, что и в заголовках объектов s3
+    private Map<String, Value> metadata(JsonNode metadata) {
+        var values = new HashMap<String, Value>();
+        metadata.fields().forEachRemaining(field -> values.put(
+                field.getKey(),
+                ValueJsonCodec.fromJson(field.getValue().toString())));
+        return values;
+    }
+
+    private void handle(HttpServletResponse resp, String method, Supplier<Object> call) throws IOException {
+        try {
+            var result = storageMetrics.recordHandler(method, call);
+            resp.setStatus(HttpServletResponse.SC_OK);
+            if (result != null) {
+                resp.setContentType("application/json");
+                objectMapper.writeValue(resp.getOutputStream(), result);
+            }
+        } catch (FileNotFoundException e) {
+            log.warn("File not found", e);
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        } catch (StorageException e) {
+            log.error("Error with storage", e);
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } catch (IllegalArgumentException e) {
+            log.warn("Bad multipart request, method={}", method, e);
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private String fileDataId(HttpServletRequest req) {
+        var pathInfo = req.getPathInfo();
+        if (pathInfo == null || pathInfo.length() <= 1) {
+            return null;
+        }
+        return pathInfo.substring(1);
+    }
+}
@@ -0,0 +1,84 @@
+package com.rbkmoney.file.storage.servlet;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rbkmoney.file.storage.configuration.properties.FileNotificationProperties;
+import com.rbkmoney.file.storage.service.notification.UploadNotifications;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+// webhook для уведомлений s3 о событиях бакета (minio webhook target, ceph rgw http push endpoint) в формате
+// событий aws: {"Records": [{"eventName": "s3:ObjectCreated:Put", "s3": {"object": {"key": "..."}}}]}.
+// Ответ отдается сразу, созданные объекты разбираются в фоне UploadNotifications
+@Slf4j
+@RequiredArgsConstructor
+public class FileNotificationServlet extends HttpServlet {
+
+    private static final String OBJECT_CREATED = "ObjectCreated:";
+    private static final String BEARER = "Bearer ";
+
+    private final UploadNotifications uploadNotifications;
+    private final FileNotificationProperties fileNotificationProperties;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (!isAuthorized(req)) {
+            resp.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        List<String> objectKeys;
+        try {
+            objectKeys = createdObjectKeys(objectMapper.readTree(req.getInputStream()));
+        } catch (JsonProcessingException e) {
+            log.warn("Failed to parse bucket notification", e);
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        log.debug("Bucket notification has been received, createdObjects={}", objectKeys.size());
+        uploadNotifications.objectsCreated(objectKeys);
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    private List<String> createdObjectKeys(JsonNode notification) {
+        var objectKeys = new ArrayList<String>();
+        for (JsonNode record : notification.path("Records")) {
+            if (!record.path("eventName").asText().contains(OBJECT_CREATED)) {
+                continue;
+            }
+            var key = record.path("s3").path("object").path("key").asText(null);
+            if (key != null) {
+                // ключ в событии закодирован как параметр url
+                objectKeys.add(URLDecoder.decode(key, StandardCharsets.UTF_8));
+            }
+        }
+        return objectKeys;
+    }
+
+    // minio передает auth_token с префиксом Bearer. Без токена в настройках сервис не запускается,
+    // см. FileNotificationConfig
+    private boolean isAuthorized(HttpServletRequest req) {
+        var authToken = fileNotificationProperties.getAuthToken();
+        var authorization = req.getHeader("Authorization");
+        if (authorization == null) {
+            return false;
+        }
+        if (authorization.startsWith(BEARER)) {
+            authorization = authorization.substring(BEARER.length());
+        }
+        return MessageDigest.isEqual(
+                authorization.getBytes(StandardCharsets.UTF_8),
+                authToken.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,79 @@
+package com.rbkmoney.file.storage.servlet;
+
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.exception.FileAlreadyUploadedException;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.service.upload.FileUpload;
+import com.rbkmoney.file.storage.service.upload.UploadUrlSigner;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+
+// загрузка файла через сервис по подписанной ссылке вместо presigned PUT ссылки на s3 — тело запроса
+// загружается в s3 multipart загрузкой по частям, поэтому размер файла не ограничен одним PUT,
+// а упавшая часть повторяется без повторной загрузки всего файла
+@Slf4j
+@RequiredArgsConstructor
+public class FileUploadServlet extends HttpServlet {
+
+    private final StorageService storageService;
+    private final UploadUrlSigner uploadUrlSigner;
+    private final StorageMetrics storageMetrics;
+
+    @Override
+    protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        var fileDataId = fileDataId(req);
+        if (fileDataId == null || !isSigned(req, fileDataId)) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        // имя файла читается из Content-Disposition, как и при загрузке по presigned ссылке
+        var contentDisposition = req.getHeader("Content-Disposition");
+        if (contentDisposition == null) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Header 'Content-Disposition' is required");
+            return;
+        }
+        try {
+            var fileUpload = new FileUpload(fileDataId, contentDisposition, req.getContentType(), req.getInputStream());
+            storageMetrics.recordHandler("uploadFile", () -> storageService.uploadFile(fileUpload));
+            resp.setStatus(HttpServletResponse.SC_OK);
+        } catch (FileNotFoundException e) {
+            log.warn("File not found", e);
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        } catch (FileAlreadyUploadedException e) {
+            log.warn("File has been already uploaded", e);
+            resp.sendError(HttpServletResponse.SC_CONFLICT);
+        } catch (StorageException e) {
+            log.error("Error with storage", e);
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } catch (UncheckedIOException e) {
+            log.warn("File upload was interrupted, fileDataId={}", fileDataId, e);
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        }
+    }
+
+    private boolean isSigned(HttpServletRequest req, String fileDataId) {
+        try {
+            var expires = Long.parseLong(req.getParameter("expires"));
+            return uploadUrlSigner.verify(fileDataId, expires, req.getParameter("signature"), Instant.now());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private String fileDataId(HttpServletRequest req) {
+        var pathInfo = req.getPathInfo();
+        if (pathInfo == null || pathInfo.length() <= 1) {
+            return null;
+        }
+        return pathInfo.substring(1);
+    }
+}
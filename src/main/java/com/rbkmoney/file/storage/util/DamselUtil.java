@@ -2,6 +2,7 @@ package com.rbkmoney.file.storage.util;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rbkmoney.file.storage.msgpack.Value;
 import com.rbkmoney.geck.serializer.kit.json.JsonHandler;
 import com.rbkmoney.geck.serializer.kit.json.JsonProcessor;
 import com.rbkmoney.geck.serializer.kit.tbase.TBaseHandler;
@@ -12,7 +13,12 @@ import java.io.IOException;
 
 public class DamselUtil {
 
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
     public static String toJsonString(TBase value) {
+        if (value instanceof Value) {
+            return ValueJsonCodec.toJsonString((Value) value);
+        }
         return toJson(value).toString();
     }
 
@@ -25,8 +31,11 @@ public class DamselUtil {
     }
 
     public static <T extends TBase> T fromJson(String jsonString, Class<T> type) {
+        if (type == Value.class) {
+            return type.cast(ValueJsonCodec.fromJson(jsonString));
+        }
         try {
-            return new JsonProcessor().process(new ObjectMapper().readTree(jsonString), new TBaseHandler<>(type));
+            return new JsonProcessor().process(OBJECT_MAPPER.readTree(jsonString), new TBaseHandler<>(type));
         } catch (IOException ex) {
             throw new IllegalArgumentException(ex);
         }
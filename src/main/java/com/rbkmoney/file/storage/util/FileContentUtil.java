@@ -0,0 +1,55 @@
+package com.rbkmoney.file.storage.util;
+
+import com.rbkmoney.file.storage.service.download.FileContent;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.InputStream;
+import java.util.Optional;
+
+// перенос ответа AWS SDK S3 V2 в FileContent для синхронного и асинхронного клиентов
+public class FileContentUtil {
+
+    public static FileContent fileContent(GetObjectResponse response, InputStream content, Runnable abort) {
+        return new FileContent(
+                response.sdkHttpResponse().statusCode(),
+                response.contentLength(),
+                response.contentRange(),
+                response.eTag(),
+                response.lastModified(),
+                response.contentType(),
+                response.contentDisposition(),
+                content,
+                abort);
+    }
+
+    // у HeadObjectResponse нет поля Content-Range, для HEAD с Range оно берется из заголовков ответа
+    public static FileContent fileContent(HeadObjectResponse response) {
+        var sdkHttpResponse = response.sdkHttpResponse();
+        return FileContent.withoutBody(
+                sdkHttpResponse.statusCode(),
+                response.contentLength(),
+                sdkHttpResponse.firstMatchingHeader("Content-Range").orElse(null),
+                response.eTag(),
+                response.lastModified(),
+                response.contentType(),
+                response.contentDisposition());
+    }
+
+    // s3 отвечает на невыполненное условие или недопустимый Range ошибкой, которая для клиента — обычный ответ
+    public static Optional<FileContent> conditionalStatus(S3Exception ex) {
+        int status = ex.statusCode();
+        if (status != FileContent.NOT_MODIFIED
+                && status != FileContent.PRECONDITION_FAILED
+                && status != FileContent.RANGE_NOT_SATISFIABLE) {
+            return Optional.empty();
+        }
+        var eTag = Optional.ofNullable(ex.awsErrorDetails())
+                .map(AwsErrorDetails::sdkHttpResponse)
+                .flatMap(response -> response.firstMatchingHeader("ETag"))
+                .orElse(null);
+        return Optional.of(FileContent.status(status, eTag));
+    }
+}
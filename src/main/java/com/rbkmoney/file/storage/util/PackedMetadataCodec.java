@@ -0,0 +1,214 @@
+package com.rbkmoney.file.storage.util;
+
+import com.rbkmoney.file.storage.msgpack.Nil;
+import com.rbkmoney.file.storage.msgpack.Value;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// упакованные метаданные: [версия формата][тип сжатия][msgpack map<string, value>],
+// небольшие карты не сжимаются — у deflate на них выходит больше, чем экономится
+public class PackedMetadataCodec {
+
+    public static final byte FORMAT_VERSION = 1;
+
+    private static final byte NO_COMPRESSION = 0;
+    private static final byte DEFLATE = 1;
+    private static final int COMPRESSION_THRESHOLD = 256;
+    // буферы msgpack по умолчанию рассчитаны на потоки (8 кб), для карты метаданных это основная часть аллокаций
+    private static final MessagePack.PackerConfig PACKER_CONFIG = new MessagePack.PackerConfig()
+            .withBufferSize(512);
+    private static final MessagePack.UnpackerConfig UNPACKER_CONFIG = new MessagePack.UnpackerConfig()
+            .withBufferSize(1024)
+            .withStringDecoderBufferSize(256);
+
+    public static byte[] pack(Map<String, Value> metadata) {
+        try (MessageBufferPacker packer = PACKER_CONFIG.newBufferPacker()) {
+            packer.packMapHeader(metadata.size());
+            for (Map.Entry<String, Value> entry : metadata.entrySet()) {
+                packer.packString(entry.getKey());
+                packValue(entry.getValue(), packer);
+            }
+            byte[] payload = packer.toByteArray();
+            if (payload.length >= COMPRESSION_THRESHOLD) {
+                byte[] compressed = deflate(payload);
+                if (compressed.length < payload.length) {
+                    return withHeader(DEFLATE, compressed);
+                }
+            }
+            return withHeader(NO_COMPRESSION, payload);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    public static Map<String, Value> unpack(ByteBuffer packed) {
+        ByteBuffer buffer = packed.slice();
+        if (buffer.remaining() < 2) {
+            throw new IllegalArgumentException("Packed metadata is too short");
+        }
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException(String.format("Unknown packed metadata version, version=%d", version));
+        }
+        byte compression = buffer.get();
+        try (MessageUnpacker unpacker = unpacker(compression, buffer.slice())) {
+            int size = unpacker.unpackMapHeader();
+            Map<String, Value> metadata = new HashMap<>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                metadata.put(unpacker.unpackString(), unpackValue(unpacker));
+            }
+            return metadata;
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    private static MessageUnpacker unpacker(byte compression, ByteBuffer payload) {
+        switch (compression) {
+            case NO_COMPRESSION:
+                // msgpack оборачивает без копирования только буферы с доступным массивом,
+                // read-only буферы (например ResponseBytes#asByteBuffer) читаются потоком
+                return payload.hasArray()
+                        ? UNPACKER_CONFIG.newUnpacker(payload)
+                        : UNPACKER_CONFIG.newUnpacker(new ByteBufferInputStream(payload));
+            case DEFLATE:
+                return UNPACKER_CONFIG.newUnpacker(new InflaterInputStream(new ByteBufferInputStream(payload)));
+            default:
+                throw new IllegalArgumentException(
+                        String.format("Unknown packed metadata compression, compression=%d", compression));
+        }
+    }
+
+    private static void packValue(Value value, MessagePacker packer) throws IOException {
+        Value._Fields field = value.getSetField();
+        if (field == null) {
+            packer.packNil();
+            return;
+        }
+        switch (field) {
+            case NL:
+                packer.packNil();
+                break;
+            case B:
+                packer.packBoolean(value.getB());
+                break;
+            case I:
+                packer.packLong(value.getI());
+                break;
+            case FLT:
+                packer.packDouble(value.getFlt());
+                break;
+            case STR:
+                packer.packString(value.getStr());
+                break;
+            case BIN:
+                byte[] bin = value.getBin();
+                packer.packBinaryHeader(bin.length);
+                packer.writePayload(bin);
+                break;
+            case OBJ:
+                packer.packMapHeader(value.getObj().size());
+                for (Map.Entry<Value, Value> entry : value.getObj().entrySet()) {
+                    packValue(entry.getKey(), packer);
+                    packValue(entry.getValue(), packer);
+                }
+                break;
+            case ARR:
+                packer.packArrayHeader(value.getArr().size());
+                for (Value element : value.getArr()) {
+                    packValue(element, packer);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown value field, field=%s", field));
+        }
+    }
+
+    private static Value unpackValue(MessageUnpacker unpacker) throws IOException {
+        switch (unpacker.getNextFormat().getValueType()) {
+            case NIL:
+                unpacker.unpackNil();
+                return Value.nl(new Nil());
+            case BOOLEAN:
+                return Value.b(unpacker.unpackBoolean());
+            case INTEGER:
+                return Value.i(unpacker.unpackLong());
+            case FLOAT:
+                return Value.flt(unpacker.unpackDouble());
+            case STRING:
+                return Value.str(unpacker.unpackString());
+            case BINARY:
+                return Value.bin(unpacker.readPayload(unpacker.unpackBinaryHeader()));
+            case MAP:
+                int mapSize = unpacker.unpackMapHeader();
+                Map<Value, Value> map = new HashMap<>(mapSize * 4 / 3 + 1);
+                for (int i = 0; i < mapSize; i++) {
+                    map.put(unpackValue(unpacker), unpackValue(unpacker));
+                }
+                return Value.obj(map);
+            case ARRAY:
+                int arraySize = unpacker.unpackArrayHeader();
+                List<Value> list = new ArrayList<>(arraySize);
+                for (int i = 0; i < arraySize; i++) {
+                    list.add(unpackValue(unpacker));
+                }
+                return Value.arr(list);
+            default:
+                throw new IllegalArgumentException(
+                        String.format("Unsupported msgpack value, format=%s", unpacker.getNextFormat()));
+        }
+    }
+
+    private static byte[] deflate(byte[] payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length);
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+            deflater.write(payload);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] withHeader(byte compression, byte[] payload) {
+        byte[] packed = new byte[payload.length + 2];
+        packed[0] = FORMAT_VERSION;
+        packed[1] = compression;
+        System.arraycopy(payload, 0, packed, 2, payload.length);
+        return packed;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int length = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, length);
+            return length;
+        }
+    }
+}
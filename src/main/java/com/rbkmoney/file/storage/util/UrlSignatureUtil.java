@@ -0,0 +1,32 @@
+package com.rbkmoney.file.storage.util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+// hmac подпись ссылок на скачивание и загрузку через сервис, http метод входит в подпись,
+// чтобы ссылку на скачивание нельзя было использовать для загрузки и наоборот
+public class UrlSignatureUtil {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    public static String sign(String secret, String method, String fileDataId, long expires) {
+        try {
+            var mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+            var hash = mac.doFinal((method + "\n" + fileDataId + "\n" + expires).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Failed to sign url", ex);
+        }
+    }
+
+    public static boolean verify(String secret, String method, String fileDataId, long expires, String signature) {
+        return signature != null && MessageDigest.isEqual(
+                sign(secret, method, fileDataId, expires).getBytes(StandardCharsets.US_ASCII),
+                signature.getBytes(StandardCharsets.US_ASCII));
+    }
+}
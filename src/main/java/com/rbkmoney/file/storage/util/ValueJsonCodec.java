@@ -0,0 +1,233 @@
+package com.rbkmoney.file.storage.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.rbkmoney.file.storage.msgpack.Nil;
+import com.rbkmoney.file.storage.msgpack.Value;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// потоковый кодек msgpack Value <-> json строка заголовка без промежуточного дерева JsonNode,
+// формат совпадает с geck JsonHandler / JsonProcessor, поэтому ранее записанные метаданные читаются как раньше
+public class ValueJsonCodec {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String ESC_SYMBOL = "@";
+    private static final String KEY = "key";
+    private static final String VALUE = "value";
+    private static final String MAP = "map";
+    private static final String LIST = "list";
+
+    public static String toJsonString(Value value) {
+        StringWriter writer = new StringWriter(64);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            write(value, generator);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+        return writer.toString();
+    }
+
+    public static Value fromJson(String jsonString) {
+        try (JsonParser parser = JSON_FACTORY.createParser(jsonString)) {
+            parser.nextToken();
+            Value value = read(parser);
+            if (parser.nextToken() != null) {
+                throw new JsonParseException(parser, "Unexpected content after value");
+            }
+            return value;
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    private static void write(Value value, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        Value._Fields field = value.getSetField();
+        if (field != null) {
+            generator.writeFieldName(field.getFieldName());
+            switch (field) {
+                case NL:
+                    generator.writeStartObject();
+                    generator.writeEndObject();
+                    break;
+                case B:
+                    generator.writeBoolean(value.getB());
+                    break;
+                case I:
+                    generator.writeNumber(value.getI());
+                    break;
+                case FLT:
+                    generator.writeNumber(value.getFlt());
+                    break;
+                case STR:
+                    String str = value.getStr();
+                    generator.writeString(str.startsWith(ESC_SYMBOL) ? ESC_SYMBOL + str : str);
+                    break;
+                case BIN:
+                    generator.writeString(ESC_SYMBOL + Base64.getEncoder().encodeToString(value.getBin()));
+                    break;
+                case OBJ:
+                    generator.writeStartArray();
+                    generator.writeString(MAP);
+                    for (Map.Entry<Value, Value> entry : value.getObj().entrySet()) {
+                        generator.writeStartObject();
+                        generator.writeFieldName(KEY);
+                        write(entry.getKey(), generator);
+                        generator.writeFieldName(VALUE);
+                        write(entry.getValue(), generator);
+                        generator.writeEndObject();
+                    }
+                    generator.writeEndArray();
+                    break;
+                case ARR:
+                    generator.writeStartArray();
+                    generator.writeString(LIST);
+                    for (Value element : value.getArr()) {
+                        write(element, generator);
+                    }
+                    generator.writeEndArray();
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown value field, field=%s", field));
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private static Value read(JsonParser parser) throws IOException {
+        expect(parser, JsonToken.START_OBJECT);
+        Value value = new Value();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            value = readField(fieldName, parser);
+        }
+        expect(parser, JsonToken.END_OBJECT);
+        return value;
+    }
+
+    private static Value readField(String fieldName, JsonParser parser) throws IOException {
+        switch (fieldName) {
+            case "nl":
+                expect(parser, JsonToken.START_OBJECT);
+                parser.skipChildren();
+                return Value.nl(new Nil());
+            case "b":
+                if (parser.currentToken() != JsonToken.VALUE_TRUE && parser.currentToken() != JsonToken.VALUE_FALSE) {
+                    throw new JsonParseException(parser, "Expected boolean value");
+                }
+                return Value.b(parser.getBooleanValue());
+            case "i":
+                expect(parser, JsonToken.VALUE_NUMBER_INT);
+                return Value.i(parser.getLongValue());
+            case "flt":
+                if (parser.currentToken() != JsonToken.VALUE_NUMBER_INT
+                        && parser.currentToken() != JsonToken.VALUE_NUMBER_FLOAT) {
+                    throw new JsonParseException(parser, "Expected numeric value");
+                }
+                return Value.flt(parser.getDoubleValue());
+            case "str":
+                return Value.str(readString(parser));
+            case "bin":
+                return Value.bin(readBinary(parser));
+            case "obj":
+                return Value.obj(readMap(parser));
+            case "arr":
+                return Value.arr(readList(parser));
+            default:
+                throw new JsonParseException(parser, String.format("Unknown value field, field=%s", fieldName));
+        }
+    }
+
+    private static String readString(JsonParser parser) throws IOException {
+        expect(parser, JsonToken.VALUE_STRING);
+        String text = parser.getText();
+        if (!text.startsWith(ESC_SYMBOL)) {
+            return text;
+        }
+        if (text.startsWith(ESC_SYMBOL, 1)) {
+            return text.substring(1);
+        }
+        throw new JsonParseException(parser, "Expected string value, but got binary");
+    }
+
+    private static byte[] readBinary(JsonParser parser) throws IOException {
+        expect(parser, JsonToken.VALUE_STRING);
+        String text = parser.getText();
+        if (!text.startsWith(ESC_SYMBOL) || text.startsWith(ESC_SYMBOL, 1)) {
+            throw new JsonParseException(parser, "Expected binary value, but got string");
+        }
+        try {
+            return Base64.getDecoder().decode(text.substring(1));
+        } catch (IllegalArgumentException ex) {
+            throw new JsonParseException(parser, "Error when decode base64 field", ex);
+        }
+    }
+
+    private static Map<Value, Value> readMap(JsonParser parser) throws IOException {
+        readArrayType(parser, MAP);
+        Map<Value, Value> map = new HashMap<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            expect(parser, JsonToken.START_OBJECT);
+            Value key = null;
+            Value value = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if (KEY.equals(fieldName)) {
+                    key = read(parser);
+                } else if (VALUE.equals(fieldName)) {
+                    value = read(parser);
+                } else {
+                    throw new JsonParseException(parser, String.format("Unknown map entry field, field=%s", fieldName));
+                }
+            }
+            if (key == null || value == null) {
+                throw new JsonParseException(parser, "Map entry must contain key and value");
+            }
+            map.put(key, value);
+        }
+        return map;
+    }
+
+    private static List<Value> readList(JsonParser parser) throws IOException {
+        readArrayType(parser, LIST);
+        List<Value> list = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            list.add(read(parser));
+        }
+        return list;
+    }
+
+    private static void readArrayType(JsonParser parser, String type) throws IOException {
+        expect(parser, JsonToken.START_ARRAY);
+        parser.nextToken();
+        expect(parser, JsonToken.VALUE_STRING);
+        if (!type.equals(parser.getText())) {
+            throw new JsonParseException(
+                    parser,
+                    String.format("Incorrect structure of array, expected=%s, actual=%s", type, parser.getText())
+            );
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken token) throws JsonParseException {
+        if (parser.currentToken() != token) {
+            throw new JsonParseException(
+                    parser,
+                    String.format("Unexpected token, expected=%s, actual=%s", token, parser.currentToken())
+            );
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.rbkmoney.file.storage.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// виртуальные потоки java 21. Сервис собирается под java 11, поэтому api вызывается через reflection —
+// на старой jvm режим виртуальных потоков не включится и сервис упадет при старте с понятной ошибкой
+public class VirtualThreads {
+
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    // фабрика виртуальных потоков с именами <prefix><номер>
+    public static ThreadFactory threadFactory(String prefix) {
+        try {
+            var builderClass = Class.forName("java.lang.Thread$Builder");
+            var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException ex) {
+            throw unsupported(ex);
+        } catch (InvocationTargetException ex) {
+            throw new IllegalStateException("Failed to create virtual thread factory", ex.getCause());
+        }
+    }
+
+    // новый виртуальный поток на каждую задачу, без пула и без очереди
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        var threadFactory = threadFactory(prefix);
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw unsupported(ex);
+        } catch (InvocationTargetException ex) {
+            throw new IllegalStateException("Failed to create virtual thread executor", ex.getCause());
+        }
+    }
+
+    private static IllegalStateException unsupported(Exception ex) {
+        return new IllegalStateException(String.format(
+                "Virtual threads require java 21 or newer, current java version is %s",
+                System.getProperty("java.version")),
+                ex);
+    }
+}
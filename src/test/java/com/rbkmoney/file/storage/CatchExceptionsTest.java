@@ -37,7 +37,7 @@ public class CatchExceptionsTest {
                 .withNetworkTimeout(555000)
                 .build(FileStorageSrv.Iface.class);
 
-        Mockito.when(s3Client.getObject(Mockito.any())).thenThrow(SdkClientException.class);
+        Mockito.when(s3Client.getObjectMetadata(Mockito.any())).thenThrow(SdkClientException.class);
 
         assertThrows(
                 WRuntimeException.class,
@@ -0,0 +1,10 @@
+package com.rbkmoney.file.storage.bucketsharding;
+
+import com.rbkmoney.file.storage.FileStorageTest;
+import com.rbkmoney.testcontainers.annotations.minio.MinioTestcontainerSingleton;
+
+@MinioTestcontainerSingleton(
+        properties = {"s3-sdk-v2.enabled=true", "s3-bucket-sharding.shards=3"},
+        bucketName = "bucketsharding")
+public class WithMinio extends FileStorageTest {
+}
@@ -0,0 +1,192 @@
+package com.rbkmoney.file.storage.loadtest;
+
+import com.rbkmoney.file.storage.FileStorageSrv;
+import com.rbkmoney.file.storage.NewFileResult;
+import com.rbkmoney.woody.thrift.impl.http.THSpawnClientBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.rbkmoney.testcontainers.annotations.util.ValuesGenerator.generateCurrentTimePlusDay;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// нагрузочный прогон thrift api: rate сценариев в секунду в течение duration, сценарий — createNewFile, PUT файла
+// по ссылке, getFileData и generateDownloadUrl. Сценарии запускаются по расписанию независимо от ответов сервиса,
+// а время сценария считается от запланированного старта, поэтому очередь перед сервисом видна в перцентилях,
+// а не скрывается снижением нагрузки. Параметры задаются системными свойствами load-test.*
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource("classpath:application.yml")
+@DirtiesContext
+@Slf4j
+public abstract class FileStorageLoadTest {
+
+    private static final int TIMEOUT = 60000;
+    private static final String FILE_NAME = "load-test.bin";
+    private static final String LATENCY = "file_storage.load_test.latency";
+    private static final String ERRORS = "file_storage.load_test.errors";
+    private static final String SCENARIO = "scenario";
+    private static final String[] OPERATIONS = {
+            "createNewFile", "upload", "getFileData", "generateDownloadUrl", SCENARIO};
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+    private final int rate = Integer.getInteger("load-test.rate", 50);
+    private final Duration duration = Duration.ofSeconds(Long.getLong("load-test.duration", 30));
+    private final int concurrency = Integer.getInteger("load-test.concurrency", 64);
+    private final int fileSize = Integer.getInteger("load-test.file-size", 4096);
+
+    @Value("${local.server.port}")
+    private int port;
+
+    private FileStorageSrv.Iface fileStorageClient;
+    private CloseableHttpClient httpClient;
+    private MeterRegistry meterRegistry;
+    private byte[] fileData;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        fileStorageClient = new THSpawnClientBuilder()
+                .withAddress(new URI("http://localhost:" + port + "/file_storage"))
+                .withNetworkTimeout(TIMEOUT)
+                .build(FileStorageSrv.Iface.class);
+        httpClient = HttpClientBuilder.create()
+                .setMaxConnTotal(concurrency)
+                .setMaxConnPerRoute(concurrency)
+                .build();
+        meterRegistry = new SimpleMeterRegistry();
+        fileData = new byte[fileSize];
+        ThreadLocalRandom.current().nextBytes(fileData);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        httpClient.close();
+    }
+
+    @Test
+    public void uploadAndReadFilesAtFixedRate() throws InterruptedException {
+        var threadFactory = new CustomizableThreadFactory("load-test-");
+        threadFactory.setDaemon(true);
+        var executor = new ThreadPoolExecutor(
+                concurrency, concurrency, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long scenarios = duration.toSeconds() * rate;
+        log.info("Load test is started, rate={}, duration={}, concurrency={}, fileSize={}",
+                rate, duration, concurrency, fileSize);
+
+        long start = System.nanoTime();
+        for (long i = 0; i < scenarios; i++) {
+            long scheduledAt = start + i * periodNanos;
+            LockSupport.parkNanos(scheduledAt - System.nanoTime());
+            executor.execute(() -> scenario(scheduledAt));
+        }
+        executor.shutdown();
+        boolean completed = executor.awaitTermination(duration.toMillis() + TIMEOUT, TimeUnit.MILLISECONDS);
+        long elapsedNanos = System.nanoTime() - start;
+
+        report(elapsedNanos);
+        assertTrue(completed, "Load test scenarios have not completed in time");
+        assertEquals(scenarios, timer(SCENARIO).count());
+        assertEquals(0, meterRegistry.find(ERRORS).counters().stream().mapToDouble(Counter::count).sum());
+    }
+
+    private void scenario(long scheduledAt) {
+        try {
+            var expirationTime = generateCurrentTimePlusDay().toString();
+            var metadata = Map.of(
+                    "author", com.rbkmoney.file.storage.msgpack.Value.str("Mary Doe"),
+                    "version", com.rbkmoney.file.storage.msgpack.Value.str("1.0.0.0"));
+            NewFileResult fileResult = record(
+                    "createNewFile", () -> fileStorageClient.createNewFile(metadata, expirationTime));
+            record("upload", () -> upload(fileResult.getUploadUrl()));
+            record("getFileData", () -> fileStorageClient.getFileData(fileResult.getFileDataId()));
+            record("generateDownloadUrl",
+                    () -> fileStorageClient.generateDownloadUrl(fileResult.getFileDataId(), expirationTime));
+            timer(SCENARIO).record(System.nanoTime() - scheduledAt, TimeUnit.NANOSECONDS);
+        } catch (Exception ex) {
+            meterRegistry.counter(ERRORS, "operation", SCENARIO).increment();
+            log.warn("Load test scenario has failed", ex);
+        }
+    }
+
+    private <T> T record(String operation, Callable<T> call) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } catch (Exception ex) {
+            meterRegistry.counter(ERRORS, "operation", operation).increment();
+            throw ex;
+        } finally {
+            timer(operation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Integer upload(String uploadUrl) throws IOException {
+        var request = new HttpPut(uploadUrl);
+        request.setHeader("Content-Disposition", "attachment;filename=" + FILE_NAME);
+        request.setEntity(new ByteArrayEntity(fileData));
+        HttpResponse response = httpClient.execute(request);
+        EntityUtils.consume(response.getEntity());
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode != org.apache.http.HttpStatus.SC_OK) {
+            throw new IOException(String.format("Failed to upload file, statusCode=%d", statusCode));
+        }
+        return statusCode;
+    }
+
+    // перцентили по всему прогону: окно статистики длиннее прогона и не сбрасывается
+    private Timer timer(String operation) {
+        return Timer.builder(LATENCY)
+                .tag("operation", operation)
+                .publishPercentiles(PERCENTILES)
+                .percentilePrecision(2)
+                .distributionStatisticExpiry(duration.multipliedBy(2).plusMillis(TIMEOUT))
+                .distributionStatisticBufferLength(1)
+                .register(meterRegistry);
+    }
+
+    private void report(long elapsedNanos) {
+        double elapsedSeconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        var report = new StringBuilder(String.format("%n%-20s %8s %8s %10s %10s %10s %10s %10s",
+                "operation", "count", "errors", "ops/s", "p50, ms", "p99, ms", "p999, ms", "max, ms"));
+        for (String operation : OPERATIONS) {
+            var snapshot = timer(operation).takeSnapshot();
+            var errors = meterRegistry.counter(ERRORS, "operation", operation).count();
+            report.append(String.format("%n%-20s %8d %8.0f %10.1f", operation, snapshot.count(), errors,
+                    snapshot.count() / elapsedSeconds));
+            for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+                report.append(String.format(" %10.1f", percentile.value(TimeUnit.MILLISECONDS)));
+            }
+            report.append(String.format(" %10.1f", snapshot.max(TimeUnit.MILLISECONDS)));
+        }
+        log.info("Load test is finished, elapsed={}s{}", String.format("%.1f", elapsedSeconds), report);
+    }
+}
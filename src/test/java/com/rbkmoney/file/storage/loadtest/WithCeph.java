@@ -0,0 +1,9 @@
+package com.rbkmoney.file.storage.loadtest;
+
+import com.rbkmoney.testcontainers.annotations.ceph.CephTestcontainerSingleton;
+
+@CephTestcontainerSingleton(
+        properties = {"s3-sdk-v2.enabled=true", "s3-sdk-v2.region=us-east-1"},
+        bucketName = "loadtest")
+public class WithCeph extends FileStorageLoadTest {
+}
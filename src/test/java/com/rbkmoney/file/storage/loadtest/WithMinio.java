@@ -0,0 +1,9 @@
+package com.rbkmoney.file.storage.loadtest;
+
+import com.rbkmoney.testcontainers.annotations.minio.MinioTestcontainerSingleton;
+
+@MinioTestcontainerSingleton(
+        properties = "s3-sdk-v2.enabled=true",
+        bucketName = "loadtest")
+public class WithMinio extends FileStorageLoadTest {
+}
@@ -0,0 +1,12 @@
+package com.rbkmoney.file.storage.packedmetadata;
+
+import com.rbkmoney.file.storage.FileStorageTest;
+import com.rbkmoney.testcontainers.annotations.ceph.CephTestcontainerSingleton;
+
+// нулевой лимит заголовка — упакованные метаданные всегда уходят в тело фейкового файла
+@CephTestcontainerSingleton(
+        properties = {"file-metadata.format=packed", "file-metadata.packed-write-enabled=true",
+                "file-metadata.max-header-size=0"},
+        bucketName = "packedmetadata")
+public class WithCeph extends FileStorageTest {
+}
@@ -0,0 +1,11 @@
+package com.rbkmoney.file.storage.packedmetadata;
+
+import com.rbkmoney.file.storage.FileStorageTest;
+import com.rbkmoney.testcontainers.annotations.minio.MinioTestcontainerSingleton;
+
+@MinioTestcontainerSingleton(
+        properties = {"s3-sdk-v2.enabled=true", "file-metadata.format=packed",
+                "file-metadata.packed-write-enabled=true"},
+        bucketName = "packedmetadata")
+public class WithMinio extends FileStorageTest {
+}
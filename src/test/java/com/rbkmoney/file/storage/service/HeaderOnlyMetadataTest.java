@@ -0,0 +1,152 @@
+package com.rbkmoney.file.storage.service;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.rbkmoney.file.storage.FileData;
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.metadata.EncodedMetadata;
+import com.rbkmoney.file.storage.service.metadata.MetadataFormat;
+import com.rbkmoney.file.storage.service.metadata.MetadataSerializer;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class HeaderOnlyMetadataTest {
+
+    private static final String FILE_NAME = "scan.pdf";
+    private static final long LARGE_FILE_SIZE = 64L * 1024 * 1024;
+
+    @Test
+    public void s3V2ServiceShouldNotTransferBodyOfLargeFile() {
+        String fileId = UUID.randomUUID().toString();
+        S3Client s3Client = Mockito.mock(S3Client.class);
+        when(s3Client.listObjectVersions(any(ListObjectVersionsRequest.class)))
+                .thenReturn(objectVersions(fileId));
+        HeadObjectResponse fileMetadataVersion = (HeadObjectResponse) HeadObjectResponse.builder()
+                .contentLength(0L)
+                .metadata(Map.of(
+                        "x-rbkmoney-file-id", fileId,
+                        "x-rbkmoney-created-at", "2021-10-01T00:00:00Z"))
+                .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                .build();
+        HeadObjectResponse fileVersion = (HeadObjectResponse) HeadObjectResponse.builder()
+                .contentLength(LARGE_FILE_SIZE)
+                .contentDisposition("attachment;filename=" + FILE_NAME)
+                .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                .build();
+        when(s3Client.headObject(any(HeadObjectRequest.class)))
+                .thenAnswer(invocation -> {
+                    HeadObjectRequest request = invocation.getArgument(0);
+                    return "1".equals(request.versionId()) ? fileMetadataVersion : fileVersion;
+                });
+
+        S3V2Service s3V2Service = TestServices.s3V2Service(s3Client);
+
+        FileData fileData = s3V2Service.getFileData(fileId);
+
+        assertEquals(FILE_NAME, fileData.getFileName());
+        // кроме листинга ревизий и двух HEAD запросов к s3 обращений нет, тело файла не читается
+        verify(s3Client).listObjectVersions(any(ListObjectVersionsRequest.class));
+        verify(s3Client, times(2)).headObject(any(HeadObjectRequest.class));
+        verifyNoMoreInteractions(s3Client);
+    }
+
+    @Test
+    public void s3V2ServiceShouldReadBodyFormatMetadataInOneRequest() {
+        String fileId = UUID.randomUUID().toString();
+        Map<String, Value> metadata = Map.of("author", Value.str("Mary Doe"));
+        MetadataSerializer metadataSerializer = TestServices.metadataSerializer(MetadataFormat.BODY);
+        EncodedMetadata encodedMetadata = metadataSerializer.encode(metadata);
+        Map<String, String> s3Metadata = new HashMap<>(encodedMetadata.getHeaders());
+        s3Metadata.put("x-rbkmoney-file-id", fileId);
+        s3Metadata.put("x-rbkmoney-created-at", "2021-10-01T00:00:00Z");
+        S3Client s3Client = Mockito.mock(S3Client.class);
+        when(s3Client.listObjectVersions(any(ListObjectVersionsRequest.class)))
+                .thenReturn(objectVersions(fileId));
+        when(s3Client.getObjectAsBytes(any(software.amazon.awssdk.services.s3.model.GetObjectRequest.class)))
+                .thenReturn(ResponseBytes.fromByteArray(
+                        (GetObjectResponse) GetObjectResponse.builder()
+                                .metadata(s3Metadata)
+                                .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                                .build(),
+                        encodedMetadata.getBody()));
+        when(s3Client.headObject(any(HeadObjectRequest.class)))
+                .thenReturn((HeadObjectResponse) HeadObjectResponse.builder()
+                        .contentLength(LARGE_FILE_SIZE)
+                        .contentDisposition("attachment;filename=" + FILE_NAME)
+                        .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                        .build());
+
+        S3V2Service s3V2Service = TestServices.s3V2Service(s3Client, MetadataFormat.BODY);
+
+        FileData fileData = s3V2Service.getFileData(fileId);
+
+        assertEquals(metadata, fileData.getMetadata());
+        // ревизия с метаданными читается одним GET запросом, ревизия с файлом — только HEAD
+        verify(s3Client).listObjectVersions(any(ListObjectVersionsRequest.class));
+        verify(s3Client).getObjectAsBytes(any(software.amazon.awssdk.services.s3.model.GetObjectRequest.class));
+        verify(s3Client).headObject(any(HeadObjectRequest.class));
+        verifyNoMoreInteractions(s3Client);
+    }
+
+    @Test
+    public void s3ServiceShouldNotTransferBodyOfLargeFile() {
+        String fileDataId = UUID.randomUUID().toString();
+        String fileId = UUID.randomUUID().toString();
+        AmazonS3 s3Client = Mockito.mock(AmazonS3.class);
+        ObjectMetadata fileMetadata = new ObjectMetadata();
+        fileMetadata.addUserMetadata("x-rbkmoney-file-data-id", fileDataId);
+        fileMetadata.addUserMetadata("x-rbkmoney-file-id", fileId);
+        fileMetadata.addUserMetadata("x-rbkmoney-created-at", "2021-10-01T00:00:00Z");
+        ObjectMetadata file = new ObjectMetadata();
+        file.setContentLength(LARGE_FILE_SIZE);
+        file.setContentDisposition("attachment;filename=" + FILE_NAME);
+        when(s3Client.getObjectMetadata(any(GetObjectMetadataRequest.class)))
+                .thenAnswer(invocation -> {
+                    GetObjectMetadataRequest request = invocation.getArgument(0);
+                    return fileDataId.equals(request.getKey()) ? fileMetadata : file;
+                });
+        when(s3Client.doesObjectExist(anyString(), anyString())).thenReturn(true);
+
+        S3Service s3Service = TestServices.s3Service(s3Client);
+
+        FileData fileData = s3Service.getFileData(fileDataId);
+
+        assertEquals(FILE_NAME, fileData.getFileName());
+        verify(s3Client, never()).getObject(any(GetObjectRequest.class));
+        verify(s3Client, never()).getObject(anyString(), anyString());
+    }
+
+    private ListObjectVersionsResponse objectVersions(String fileId) {
+        return (ListObjectVersionsResponse) ListObjectVersionsResponse.builder()
+                .versions(
+                        ObjectVersion.builder().key(fileId).versionId("1").isLatest(false).size(0L).build(),
+                        ObjectVersion.builder().key(fileId).versionId("2").isLatest(true)
+                                .size(LARGE_FILE_SIZE).build())
+                .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                .build();
+    }
+}
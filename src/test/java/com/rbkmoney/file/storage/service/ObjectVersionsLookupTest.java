@@ -0,0 +1,90 @@
+package com.rbkmoney.file.storage.service;
+
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ObjectVersionsLookupTest {
+
+    private static final String FILE_ID = "file";
+
+    private S3Client s3Client;
+    private S3V2Service s3V2Service;
+
+    @BeforeEach
+    public void setUp() {
+        s3Client = Mockito.mock(S3Client.class);
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenReturn(DeleteObjectsResponse.builder().build());
+        s3V2Service = TestServices.s3V2Service(s3Client);
+    }
+
+    @Test
+    public void shouldReadVersionsOfExactKeyPageByPage() {
+        when(s3Client.listObjectVersions(any(ListObjectVersionsRequest.class))).thenReturn(
+                page(true, FILE_ID, "2", version(FILE_ID, "1"), version(FILE_ID, "2")),
+                page(true, FILE_ID + "-other", "3", version(FILE_ID, "3"), version(FILE_ID + "-other", "3")));
+
+        s3V2Service.deleteFile(FILE_ID);
+
+        var listRequests = ArgumentCaptor.forClass(ListObjectVersionsRequest.class);
+        verify(s3Client, times(2)).listObjectVersions(listRequests.capture());
+        assertNull(listRequests.getAllValues().get(0).keyMarker());
+        assertEquals(FILE_ID, listRequests.getAllValues().get(1).keyMarker());
+        assertEquals("2", listRequests.getAllValues().get(1).versionIdMarker());
+        listRequests.getAllValues().forEach(request -> assertEquals(3, request.maxKeys()));
+
+        var deleteRequest = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client).deleteObjects(deleteRequest.capture());
+        assertEquals(List.of("1", "2", "3"), deleteRequest.getValue().delete().objects().stream()
+                .map(ObjectIdentifier::versionId)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void shouldIgnoreKeysWithSamePrefix() {
+        when(s3Client.listObjectVersions(any(ListObjectVersionsRequest.class)))
+                .thenReturn(page(true, FILE_ID + "-other", "1", version(FILE_ID + "-other", "1")));
+
+        assertThrows(FileNotFoundException.class, () -> s3V2Service.deleteFile(FILE_ID));
+        verify(s3Client).listObjectVersions(any(ListObjectVersionsRequest.class));
+    }
+
+    private ListObjectVersionsResponse page(boolean truncated,
+                                            String nextKeyMarker,
+                                            String nextVersionIdMarker,
+                                            ObjectVersion... versions) {
+        return (ListObjectVersionsResponse) ListObjectVersionsResponse.builder()
+                .versions(versions)
+                .isTruncated(truncated)
+                .nextKeyMarker(nextKeyMarker)
+                .nextVersionIdMarker(nextVersionIdMarker)
+                .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                .build();
+    }
+
+    private ObjectVersion version(String key, String versionId) {
+        return ObjectVersion.builder().key(key).versionId(versionId).build();
+    }
+}
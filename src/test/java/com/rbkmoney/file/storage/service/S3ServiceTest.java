@@ -0,0 +1,32 @@
+package com.rbkmoney.file.storage.service;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class S3ServiceTest {
+
+    @Test
+    public void deleteFileShouldFailWithFileNotFoundWhenFileIsMissing() {
+        String fileDataId = UUID.randomUUID().toString();
+        AmazonS3 s3Client = Mockito.mock(AmazonS3.class);
+        AmazonS3Exception notFound = new AmazonS3Exception("Not Found");
+        notFound.setStatusCode(404);
+        when(s3Client.getObjectMetadata(anyString(), anyString())).thenThrow(notFound);
+
+        S3Service s3Service = TestServices.s3Service(s3Client);
+
+        assertThrows(FileNotFoundException.class, () -> s3Service.deleteFile(fileDataId));
+        verify(s3Client, never()).deleteObject(anyString(), anyString());
+    }
+}
@@ -0,0 +1,171 @@
+package com.rbkmoney.file.storage.service;
+
+import com.rbkmoney.file.storage.FileData;
+import com.rbkmoney.file.storage.service.download.FileContentRequest;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import com.rbkmoney.file.storage.service.reaper.PendingUpload;
+import com.rbkmoney.file.storage.service.reaper.ReapedFiles;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class S3V2AsyncServiceTest {
+
+    private static final String FILE_NAME = "scan.pdf";
+
+    @Test
+    public void getFileDataShouldCompleteWhenS3Responds() {
+        String fileId = UUID.randomUUID().toString();
+        S3AsyncClient s3AsyncClient = Mockito.mock(S3AsyncClient.class);
+        CompletableFuture<ListObjectVersionsResponse> listing = new CompletableFuture<>();
+        when(s3AsyncClient.listObjectVersions(any(ListObjectVersionsRequest.class))).thenReturn(listing);
+        when(s3AsyncClient.headObject(any(HeadObjectRequest.class)))
+                .thenAnswer(invocation -> {
+                    HeadObjectRequest request = invocation.getArgument(0);
+                    return CompletableFuture.completedFuture("1".equals(request.versionId())
+                            ? headObject(HeadObjectResponse.builder().metadata(Map.of(
+                                    "x-rbkmoney-file-id", fileId,
+                                    "x-rbkmoney-created-at", "2021-10-01T00:00:00Z")))
+                            : headObject(HeadObjectResponse.builder()
+                                    .contentDisposition("attachment;filename=" + FILE_NAME)));
+                });
+
+        S3V2AsyncService s3V2AsyncService = TestServices.s3V2AsyncService(s3AsyncClient);
+
+        // вызывающий поток не ждет s3 — future завершается только с ответом листинга
+        CompletableFuture<FileData> fileData = s3V2AsyncService.getFileDataAsync(fileId);
+        assertFalse(fileData.isDone());
+        listing.complete(objectVersions(fileId, 2));
+
+        assertEquals(FILE_NAME, fileData.join().getFileName());
+        assertEquals("2021-10-01T00:00:00Z", fileData.join().getCreatedAt());
+        verify(s3AsyncClient, times(2)).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void getFileContentShouldFailWithFileNotFoundWhenFileIsNotUploaded() {
+        String fileId = UUID.randomUUID().toString();
+        S3AsyncClient s3AsyncClient = Mockito.mock(S3AsyncClient.class);
+        when(s3AsyncClient.listObjectVersions(any(ListObjectVersionsRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(objectVersions(fileId, 1)));
+
+        S3V2AsyncService s3V2AsyncService = TestServices.s3V2AsyncService(s3AsyncClient);
+
+        CompletionException exception = assertThrows(
+                CompletionException.class,
+                () -> s3V2AsyncService.getFileContentAsync(
+                        new FileContentRequest(fileId, false, null, null, null, null, null)).join());
+        assertTrue(exception.getCause() instanceof FileNotFoundException);
+        // синхронный метод интерфейса отдает исключение сервиса без обертки
+        assertThrows(FileNotFoundException.class, () -> s3V2AsyncService.getFileData(fileId));
+    }
+
+    @Test
+    public void s3ErrorShouldBeWrappedInStorageException() {
+        String fileId = UUID.randomUUID().toString();
+        S3AsyncClient s3AsyncClient = Mockito.mock(S3AsyncClient.class);
+        when(s3AsyncClient.listObjectVersions(any(ListObjectVersionsRequest.class)))
+                .thenReturn(CompletableFuture.failedFuture(S3Exception.builder().statusCode(500).build()));
+
+        S3V2AsyncService s3V2AsyncService = TestServices.s3V2AsyncService(s3AsyncClient);
+
+        StorageException exception = assertThrows(StorageException.class, () -> s3V2AsyncService.getFileData(fileId));
+        assertTrue(exception.getCause() instanceof S3Exception);
+    }
+
+    @Test
+    public void deleteAbandonedFilesShouldDeleteOnlyFilesWithMetadataVersion() {
+        String abandonedFileId = UUID.randomUUID().toString();
+        String uploadedFileId = UUID.randomUUID().toString();
+        String notAbortedFileId = UUID.randomUUID().toString();
+        S3AsyncClient s3AsyncClient = Mockito.mock(S3AsyncClient.class);
+        when(s3AsyncClient.listObjectVersions(any(ListObjectVersionsRequest.class)))
+                .thenAnswer(invocation -> {
+                    ListObjectVersionsRequest request = invocation.getArgument(0);
+                    return CompletableFuture.completedFuture(uploadedFileId.equals(request.prefix())
+                            ? objectVersions(uploadedFileId, 2)
+                            : objectVersions(request.prefix(), 1));
+                });
+        when(s3AsyncClient.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenAnswer(invocation -> {
+                    AbortMultipartUploadRequest request = invocation.getArgument(0);
+                    return notAbortedFileId.equals(request.key())
+                            ? CompletableFuture.failedFuture(S3Exception.builder().statusCode(500).build())
+                            : CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build());
+                });
+        when(s3AsyncClient.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(DeleteObjectsResponse.builder().build()));
+
+        S3V2AsyncService s3V2AsyncService = TestServices.s3V2AsyncService(s3AsyncClient);
+
+        ReapedFiles reapedFiles = s3V2AsyncService.deleteAbandonedFilesAsync(List.of(
+                new PendingUpload(abandonedFileId, "upload-1", "marker-1"),
+                new PendingUpload(uploadedFileId, "upload-2", "marker-2"),
+                new PendingUpload(notAbortedFileId, "upload-3", "marker-3")))
+                .join();
+
+        assertEquals(List.of(abandonedFileId), reapedFiles.getDeleted());
+        // отметка файла, загрузку которого не удалось отменить, остается
+        assertEquals(Set.of(abandonedFileId, uploadedFileId), Set.copyOf(reapedFiles.getResolved()));
+        verify(s3AsyncClient).abortMultipartUpload(Mockito.<AbortMultipartUploadRequest>argThat(request ->
+                abandonedFileId.equals(request.key()) && "upload-1".equals(request.uploadId())));
+        verify(s3AsyncClient, never()).abortMultipartUpload(Mockito.<AbortMultipartUploadRequest>argThat(request ->
+                uploadedFileId.equals(request.key())));
+        verify(s3AsyncClient).deleteObjects(Mockito.<DeleteObjectsRequest>argThat(request -> {
+            List<String> keys = request.delete().objects().stream()
+                    .map(ObjectIdentifier::key)
+                    .collect(Collectors.toList());
+            return keys.equals(List.of(abandonedFileId))
+                    && "1".equals(request.delete().objects().get(0).versionId());
+        }));
+    }
+
+    private HeadObjectResponse headObject(HeadObjectResponse.Builder builder) {
+        return (HeadObjectResponse) builder
+                .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                .build();
+    }
+
+    private ListObjectVersionsResponse objectVersions(String fileId, int count) {
+        List<ObjectVersion> versions = count == 1
+                ? List.of(ObjectVersion.builder().key(fileId).versionId("1").isLatest(true).size(0L).build())
+                : List.of(
+                        ObjectVersion.builder().key(fileId).versionId("1").isLatest(false).size(0L).build(),
+                        ObjectVersion.builder().key(fileId).versionId("2").isLatest(true).size(1024L).build());
+        return (ListObjectVersionsResponse) ListObjectVersionsResponse.builder()
+                .versions(versions)
+                .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                .build();
+    }
+}
@@ -0,0 +1,140 @@
+package com.rbkmoney.file.storage.service;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.rbkmoney.file.storage.configuration.properties.FileDataCacheProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileDedupProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileIndexProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileMetadataProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileNotificationProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileReaperProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileSingleFlightProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileUploadProperties;
+import com.rbkmoney.file.storage.configuration.properties.S3BucketInitProperties;
+import com.rbkmoney.file.storage.configuration.properties.S3BucketShardingProperties;
+import com.rbkmoney.file.storage.configuration.properties.S3Properties;
+import com.rbkmoney.file.storage.configuration.properties.S3SdkV2Properties;
+import com.rbkmoney.file.storage.configuration.properties.VirtualThreadsProperties;
+import com.rbkmoney.file.storage.service.batch.BatchExecutor;
+import com.rbkmoney.file.storage.service.bucket.BucketInitializer;
+import com.rbkmoney.file.storage.service.bucket.BucketSharding;
+import com.rbkmoney.file.storage.service.cache.FileDataCache;
+import com.rbkmoney.file.storage.service.dedup.ContentDeduplicator;
+import com.rbkmoney.file.storage.service.index.FileIndex;
+import com.rbkmoney.file.storage.service.metadata.MetadataFormat;
+import com.rbkmoney.file.storage.service.metadata.MetadataSerializer;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import com.rbkmoney.file.storage.service.notification.ResolvedFiles;
+import com.rbkmoney.file.storage.service.reaper.PendingUploads;
+import com.rbkmoney.file.storage.service.singleflight.SingleFlight;
+import com.rbkmoney.file.storage.service.upload.MultipartUploader;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Mockito;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+// сервисы хранилища поверх моков клиентов s3 с настройками по умолчанию: кэш, индекс, сборщик и уведомления
+// выключены. Новые зависимости сервисов добавляются только здесь, а не в каждом тесте
+public class TestServices {
+
+    public static final String BUCKET_NAME = "files";
+
+    public static S3V2Service s3V2Service(S3Client s3Client) {
+        return s3V2Service(s3Client, MetadataFormat.HEADERS);
+    }
+
+    public static S3V2Service s3V2Service(S3Client s3Client, MetadataFormat metadataFormat) {
+        S3SdkV2Properties s3SdkV2Properties = new S3SdkV2Properties();
+        s3SdkV2Properties.setBucketName(BUCKET_NAME);
+        return new S3V2Service(
+                s3SdkV2Properties,
+                s3Client,
+                Mockito.mock(S3Presigner.class),
+                fileDataCache(),
+                Mockito.mock(BatchExecutor.class),
+                metadataSerializer(metadataFormat),
+                new StorageMetrics(new SimpleMeterRegistry()),
+                singleFlight(),
+                new BucketInitializer(new S3BucketInitProperties()),
+                new BucketSharding(new S3BucketShardingProperties()),
+                multipartUploader(),
+                fileIndex(),
+                new PendingUploads(new FileReaperProperties(), null),
+                new ResolvedFiles(new FileNotificationProperties(), null, new SimpleMeterRegistry()));
+    }
+
+    public static S3V2AsyncService s3V2AsyncService(S3AsyncClient s3AsyncClient) {
+        S3SdkV2Properties s3SdkV2Properties = new S3SdkV2Properties();
+        s3SdkV2Properties.setBucketName(BUCKET_NAME);
+        return new S3V2AsyncService(
+                s3SdkV2Properties,
+                s3AsyncClient,
+                Mockito.mock(S3Presigner.class),
+                fileDataCache(),
+                Mockito.mock(BatchExecutor.class),
+                metadataSerializer(MetadataFormat.HEADERS),
+                new StorageMetrics(new SimpleMeterRegistry()),
+                singleFlight(),
+                new BucketInitializer(new S3BucketInitProperties()),
+                new BucketSharding(new S3BucketShardingProperties()),
+                multipartUploader(),
+                fileIndex(),
+                new PendingUploads(new FileReaperProperties(), null),
+                new ResolvedFiles(new FileNotificationProperties(), null, new SimpleMeterRegistry()));
+    }
+
+    public static S3Service s3Service(AmazonS3 s3Client) {
+        S3Properties s3Properties = new S3Properties();
+        s3Properties.setBucketName(BUCKET_NAME);
+        S3Service s3Service = new S3Service(
+                Mockito.mock(TransferManager.class),
+                s3Client,
+                s3Properties,
+                Mockito.mock(BatchExecutor.class),
+                metadataSerializer(MetadataFormat.HEADERS),
+                new StorageMetrics(new SimpleMeterRegistry()),
+                singleFlight(),
+                new BucketInitializer(new S3BucketInitProperties()),
+                new BucketSharding(new S3BucketShardingProperties()),
+                multipartUploader(),
+                new ContentDeduplicator(new FileDedupProperties(), s3Client),
+                fileIndex(),
+                new PendingUploads(new FileReaperProperties(), null));
+        s3Service.init();
+        return s3Service;
+    }
+
+    public static MetadataSerializer metadataSerializer(MetadataFormat metadataFormat) {
+        FileMetadataProperties fileMetadataProperties = new FileMetadataProperties();
+        fileMetadataProperties.setFormat(metadataFormat);
+        fileMetadataProperties.setPackedWriteEnabled(true);
+        return new MetadataSerializer(fileMetadataProperties);
+    }
+
+    private static FileDataCache fileDataCache() {
+        FileDataCache fileDataCache = new FileDataCache(new FileDataCacheProperties(), new SimpleMeterRegistry());
+        fileDataCache.init();
+        return fileDataCache;
+    }
+
+    private static SingleFlight singleFlight() {
+        FileSingleFlightProperties fileSingleFlightProperties = new FileSingleFlightProperties();
+        fileSingleFlightProperties.setEnabled(true);
+        SingleFlight singleFlight = new SingleFlight(fileSingleFlightProperties, new SimpleMeterRegistry());
+        singleFlight.init();
+        return singleFlight;
+    }
+
+    // загрузка через сервис в тестах не вызывается, поэтому потоки загрузчика не запускаются
+    private static MultipartUploader multipartUploader() {
+        return new MultipartUploader(
+                new FileUploadProperties(),
+                new VirtualThreadsProperties(),
+                new SimpleMeterRegistry());
+    }
+
+    private static FileIndex fileIndex() {
+        return new FileIndex(new FileIndexProperties(), null, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,82 @@
+package com.rbkmoney.file.storage.service.batch;
+
+import com.rbkmoney.file.storage.configuration.properties.FileBatchProperties;
+import com.rbkmoney.file.storage.configuration.properties.VirtualThreadsProperties;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchExecutorTest {
+
+    private static final int PARALLELISM = 4;
+
+    private BatchExecutor batchExecutor;
+
+    @BeforeEach
+    public void setUp() {
+        FileBatchProperties fileBatchProperties = new FileBatchProperties();
+        fileBatchProperties.setParallelism(PARALLELISM);
+        batchExecutor = new BatchExecutor(fileBatchProperties, new VirtualThreadsProperties());
+        batchExecutor.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        batchExecutor.terminate();
+    }
+
+    @Test
+    public void shouldSplitResultsAndNotFoundIds() {
+        Function<String, String> loader = id -> {
+            if (id.startsWith("missing")) {
+                throw new FileNotFoundException(id);
+            }
+            return "data-" + id;
+        };
+
+        BatchResult<String> batchResult = batchExecutor.execute(List.of("1", "missing-2", "3", "1"), loader);
+
+        assertEquals(Map.of("1", "data-1", "3", "data-3"), batchResult.getResults());
+        assertEquals(List.of("missing-2"), batchResult.getNotFound());
+    }
+
+    @Test
+    public void shouldFailWholeBatchOnStorageError() {
+        assertThrows(
+                StorageException.class,
+                () -> batchExecutor.execute(List.of("1", "2"), id -> {
+                    throw new StorageException(id);
+                }));
+    }
+
+    @Test
+    public void shouldBoundInFlightAsyncLookups() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Function<String, CompletableFuture<String>> loader = id -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                inFlight.decrementAndGet();
+                return id;
+            });
+        };
+
+        List<String> ids = List.of("1", "2", "3", "4", "5", "6", "7", "8", "9", "10");
+        BatchResult<String> batchResult = batchExecutor.executeAsync(ids, loader);
+
+        assertEquals(ids.size(), batchResult.getResults().size());
+        assertTrue(maxInFlight.get() <= PARALLELISM);
+    }
+}
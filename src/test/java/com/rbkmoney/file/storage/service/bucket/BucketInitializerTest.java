@@ -0,0 +1,95 @@
+package com.rbkmoney.file.storage.service.bucket;
+
+import com.rbkmoney.file.storage.configuration.properties.S3BucketInitProperties;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BucketInitializerTest {
+
+    private static final List<String> BUCKET_NAMES = List.of("files", "files-1");
+
+    private BucketInitializer bucketInitializer;
+
+    @AfterEach
+    public void tearDown() {
+        bucketInitializer.shutdown();
+    }
+
+    @Test
+    public void shouldInitBucketInStartupThread() {
+        bucketInitializer = bucketInitializer(false);
+        BucketHealthIndicator bucketHealthIndicator = new BucketHealthIndicator(bucketInitializer);
+        assertEquals(Status.OUT_OF_SERVICE, bucketHealthIndicator.health().getStatus());
+
+        List<String> initialized = new ArrayList<>();
+
+        bucketInitializer.initialize(BUCKET_NAMES, initialized::add);
+
+        assertEquals(BUCKET_NAMES, initialized);
+        assertEquals(BucketInitializer.BucketStatus.READY, bucketInitializer.getStatus());
+        assertEquals(Status.UP, bucketHealthIndicator.health().getStatus());
+    }
+
+    @Test
+    public void shouldFailStartupInBlockingMode() {
+        bucketInitializer = bucketInitializer(false);
+
+        assertThrows(StorageException.class, () -> bucketInitializer.initialize(BUCKET_NAMES, bucketName -> {
+            throw new StorageException("Failed to check bucket on exist, bucketName=files");
+        }));
+
+        assertEquals(BucketInitializer.BucketStatus.FAILED, bucketInitializer.getStatus());
+    }
+
+    @Test
+    public void shouldRetryInBackgroundUntilBucketIsReady() throws InterruptedException {
+        bucketInitializer = bucketInitializer(true);
+        BucketHealthIndicator bucketHealthIndicator = new BucketHealthIndicator(bucketInitializer);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        bucketInitializer.initialize(BUCKET_NAMES, bucketName -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new StorageException("Failed to check bucket on exist, bucketName=files");
+            }
+            await(release);
+        });
+
+        // старт не ждет проверки бакета, пока она не прошла readiness не поднимается
+        assertTrue(bucketHealthIndicator.health().getStatus() != Status.UP);
+        release.countDown();
+        assertTrue(bucketInitializer.awaitReady(Duration.ofSeconds(5)));
+        // каждая попытка проверяет все бакеты заново
+        assertEquals(4, calls.get());
+        assertEquals(3, bucketInitializer.getAttempts());
+        assertEquals(Status.UP, bucketHealthIndicator.health().getStatus());
+    }
+
+    private BucketInitializer bucketInitializer(boolean asyncEnabled) {
+        S3BucketInitProperties s3BucketInitProperties = new S3BucketInitProperties();
+        s3BucketInitProperties.setAsyncEnabled(asyncEnabled);
+        s3BucketInitProperties.setRetryDelay(Duration.ofMillis(10));
+        return new BucketInitializer(s3BucketInitProperties);
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
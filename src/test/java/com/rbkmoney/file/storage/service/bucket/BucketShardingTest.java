@@ -0,0 +1,79 @@
+package com.rbkmoney.file.storage.service.bucket;
+
+import com.rbkmoney.file.storage.configuration.properties.S3BucketShardingProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BucketShardingTest {
+
+    private static final String BUCKET_NAME = "files";
+
+    @Test
+    public void shouldKeepSingleBucketAndPlainIdsWithoutSharding() {
+        BucketSharding bucketSharding = bucketSharding(1);
+
+        String fileId = bucketSharding.newFileId();
+
+        assertEquals(UUID.fromString(fileId).toString(), fileId);
+        assertEquals(List.of(BUCKET_NAME), bucketSharding.bucketNames(BUCKET_NAME));
+        assertEquals(BUCKET_NAME, bucketSharding.bucketName(BUCKET_NAME, fileId));
+    }
+
+    @Test
+    public void shouldSpreadNewFilesAcrossBuckets() {
+        BucketSharding bucketSharding = bucketSharding(4);
+        List<String> bucketNames = bucketSharding.bucketNames(BUCKET_NAME);
+        Map<String, Integer> files = new HashMap<>();
+
+        for (int i = 0; i < 4000; i++) {
+            String fileId = bucketSharding.newFileId();
+            String bucketName = bucketSharding.bucketName(BUCKET_NAME, fileId);
+            assertTrue(bucketNames.contains(bucketName));
+            // второй объект файла попадает в тот же бакет
+            assertEquals(bucketName, bucketSharding.bucketName(BUCKET_NAME, bucketSharding.newFileId(fileId)));
+            files.merge(bucketName, 1, Integer::sum);
+        }
+
+        assertEquals(List.of("files", "files-1", "files-2", "files-3"), bucketNames);
+        assertEquals(4, files.size());
+        files.values().forEach(count -> assertTrue(count > 800, "uneven shards " + files));
+    }
+
+    @Test
+    public void shouldRouteByIdAfterShardsGrow() {
+        String legacyFileId = UUID.randomUUID().toString();
+        String fileId = bucketSharding(2).newFileId();
+        String bucketName = bucketSharding(2).bucketName(BUCKET_NAME, fileId);
+
+        // после увеличения числа бакетов файлы читаются из прежних, старые id без номера — из исходного
+        assertEquals(bucketName, bucketSharding(8).bucketName(BUCKET_NAME, fileId));
+        assertEquals(BUCKET_NAME, bucketSharding(8).bucketName(BUCKET_NAME, legacyFileId));
+        assertEquals(legacyFileId.length(), bucketSharding(8).newFileId(legacyFileId).length());
+    }
+
+    @Test
+    public void shouldNotRouteToMissingBucket() {
+        BucketSharding bucketSharding = bucketSharding(4);
+        String fileId = "9999." + UUID.randomUUID();
+
+        // номер бакета вне shards не дает имени несуществующего бакета, такой id не считается id файла
+        assertEquals(BUCKET_NAME, bucketSharding.bucketName(BUCKET_NAME, fileId));
+        assertEquals(BUCKET_NAME, bucketSharding.bucketName(BUCKET_NAME, "4." + UUID.randomUUID()));
+        assertEquals("files-3", bucketSharding.bucketName(BUCKET_NAME, "3." + UUID.randomUUID()));
+        assertFalse(bucketSharding.isFileId(fileId));
+    }
+
+    private BucketSharding bucketSharding(int shards) {
+        S3BucketShardingProperties s3BucketShardingProperties = new S3BucketShardingProperties();
+        s3BucketShardingProperties.setShards(shards);
+        return new BucketSharding(s3BucketShardingProperties);
+    }
+}
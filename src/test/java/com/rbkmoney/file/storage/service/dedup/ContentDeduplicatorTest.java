@@ -0,0 +1,117 @@
+package com.rbkmoney.file.storage.service.dedup;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.rbkmoney.file.storage.configuration.properties.FileDedupProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+public class ContentDeduplicatorTest {
+
+    private static final String BUCKET_NAME = "files";
+
+    private final Map<String, Map<String, String>> objects = new ConcurrentHashMap<>();
+    private ContentDeduplicator contentDeduplicator;
+
+    @BeforeEach
+    public void setUp() {
+        AmazonS3 s3Client = Mockito.mock(AmazonS3.class);
+        when(s3Client.getObjectMetadata(anyString(), anyString())).thenAnswer(invocation -> {
+            Map<String, String> userMetadata = objects.get(invocation.<String>getArgument(1));
+            if (userMetadata == null) {
+                AmazonS3Exception ex = new AmazonS3Exception("Not Found");
+                ex.setStatusCode(404);
+                throw ex;
+            }
+            ObjectMetadata objectMetadata = new ObjectMetadata();
+            objectMetadata.setUserMetadata(userMetadata);
+            return objectMetadata;
+        });
+        when(s3Client.putObject(anyString(), anyString(), any(InputStream.class), any(ObjectMetadata.class)))
+                .thenAnswer(invocation -> {
+                    ObjectMetadata objectMetadata = invocation.getArgument(3);
+                    objects.put(invocation.getArgument(1), objectMetadata.getUserMetadata());
+                    return null;
+                });
+        doAnswer(invocation -> objects.remove(invocation.<String>getArgument(1)))
+                .when(s3Client).deleteObject(anyString(), anyString());
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            ListObjectsV2Result result = new ListObjectsV2Result();
+            result.setKeyCount((int) objects.keySet().stream()
+                    .filter(key -> key.startsWith(request.getPrefix()))
+                    .limit(request.getMaxKeys())
+                    .count());
+            return result;
+        });
+        FileDedupProperties fileDedupProperties = new FileDedupProperties();
+        fileDedupProperties.setEnabled(true);
+        contentDeduplicator = new ContentDeduplicator(fileDedupProperties, s3Client);
+    }
+
+    @Test
+    public void shouldPointDuplicateToOriginal() throws IOException {
+        String contentHash = contentHash("same pdf");
+        objects.put("file-1", Map.of());
+        objects.put("file-2", Map.of());
+
+        assertEquals("file-1", contentDeduplicator.acquire(BUCKET_NAME, "data-1", "file-1", contentHash));
+        assertEquals("file-1", contentDeduplicator.acquire(BUCKET_NAME, "data-2", "file-2", contentHash));
+        assertNotEquals(contentHash, contentHash("other pdf"));
+        assertEquals("file-3", contentDeduplicator.acquire(BUCKET_NAME, "data-3", "file-3", contentHash("other pdf")));
+    }
+
+    @Test
+    public void shouldDeleteOriginalWithLastReference() throws IOException {
+        String contentHash = contentHash("same pdf");
+        objects.put("file-1", Map.of());
+        contentDeduplicator.acquire(BUCKET_NAME, "data-1", "file-1", contentHash);
+        contentDeduplicator.acquire(BUCKET_NAME, "data-2", "file-2", contentHash);
+
+        assertFalse(contentDeduplicator.release(BUCKET_NAME, "data-1", "file-1"));
+        assertTrue(objects.containsKey("file-1"));
+
+        assertTrue(contentDeduplicator.release(BUCKET_NAME, "data-2", "file-1"));
+        assertFalse(objects.containsKey("file-1"));
+        assertTrue(objects.isEmpty());
+
+        // новый файл с тем же содержимым становится оригиналом сам
+        objects.put("file-3", Map.of());
+        assertEquals("file-3", contentDeduplicator.acquire(BUCKET_NAME, "data-3", "file-3", contentHash));
+    }
+
+    @Test
+    public void shouldDeleteObjectOfFileWithoutReferences() {
+        objects.put("file-1", Map.of());
+
+        assertTrue(contentDeduplicator.release(BUCKET_NAME, "data-1", "file-1"));
+        assertTrue(objects.isEmpty());
+    }
+
+    private String contentHash(String content) throws IOException {
+        var digestInputStream = contentDeduplicator.digest(
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        digestInputStream.readAllBytes();
+        return contentDeduplicator.contentHash(digestInputStream);
+    }
+}
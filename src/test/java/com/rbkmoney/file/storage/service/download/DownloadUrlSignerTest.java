@@ -0,0 +1,62 @@
+package com.rbkmoney.file.storage.service.download;
+
+import com.rbkmoney.file.storage.configuration.properties.FileDownloadProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DownloadUrlSignerTest {
+
+    private static final String FILE_DATA_ID = "2.5f0c4a6e-8f0e-4c43-9d5a-1f4b2c3d4e5f";
+    private static final Instant NOW = Instant.parse("2021-10-01T10:00:00Z");
+
+    private DownloadUrlSigner downloadUrlSigner;
+
+    @BeforeEach
+    public void setUp() {
+        FileDownloadProperties fileDownloadProperties = new FileDownloadProperties();
+        fileDownloadProperties.setEnabled(true);
+        fileDownloadProperties.setPublicUrl("http://file-storage:8022/file_storage/download");
+        fileDownloadProperties.setSecret("secret");
+        downloadUrlSigner = new DownloadUrlSigner(fileDownloadProperties);
+    }
+
+    @Test
+    public void shouldVerifySignedUrl() {
+        URL url = downloadUrlSigner.sign(FILE_DATA_ID, NOW.plusSeconds(60));
+        Map<String, String> params = params(url);
+
+        assertEquals("/file_storage/download/" + FILE_DATA_ID, url.getPath());
+        assertTrue(downloadUrlSigner.verify(
+                FILE_DATA_ID, Long.parseLong(params.get("expires")), params.get("signature"), NOW));
+    }
+
+    @Test
+    public void shouldRejectExpiredOrForgedUrl() {
+        Instant expirationTime = NOW.plusSeconds(60);
+        Map<String, String> params = params(downloadUrlSigner.sign(FILE_DATA_ID, expirationTime));
+        long expires = Long.parseLong(params.get("expires"));
+        String signature = params.get("signature");
+
+        assertFalse(downloadUrlSigner.verify(FILE_DATA_ID, expires, signature, expirationTime.plusSeconds(1)));
+        // продление срока или подмена файла ломают подпись
+        assertFalse(downloadUrlSigner.verify(FILE_DATA_ID, expires + 3600, signature, NOW));
+        assertFalse(downloadUrlSigner.verify("other-file", expires, signature, NOW));
+        assertFalse(downloadUrlSigner.verify(FILE_DATA_ID, expires, null, NOW));
+    }
+
+    private Map<String, String> params(URL url) {
+        return Arrays.stream(url.getQuery().split("&"))
+                .map(param -> param.split("=", 2))
+                .collect(Collectors.toMap(param -> param[0], param -> param[1]));
+    }
+}
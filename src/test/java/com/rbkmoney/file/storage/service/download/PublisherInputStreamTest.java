@@ -0,0 +1,93 @@
+package com.rbkmoney.file.storage.service.download;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PublisherInputStreamTest {
+
+    private static final int PREFETCH = 2;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    @Test
+    public void shouldRequestNextBufferOnlyAfterReadingPrevious() throws IOException {
+        PublisherInputStream stream = subscribedStream();
+        assertEquals(PREFETCH, requested.get());
+
+        stream.onNext(buffer("he"));
+        stream.onNext(buffer("llo"));
+        stream.onComplete();
+
+        byte[] bytes = new byte[8];
+        assertEquals(2, stream.read(bytes, 0, bytes.length));
+        // первый буфер еще не считан до конца, следующий не запрашивается
+        assertEquals(PREFETCH, requested.get());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(bytes, 0, 2);
+        int read;
+        while ((read = stream.read(bytes, 0, bytes.length)) != -1) {
+            output.write(bytes, 0, read);
+        }
+
+        assertEquals("hello", output.toString(StandardCharsets.UTF_8));
+        assertEquals(PREFETCH + 2, requested.get());
+    }
+
+    @Test
+    public void shouldPassErrorToReader() {
+        PublisherInputStream stream = subscribedStream();
+        stream.onNext(buffer("he"));
+        stream.onError(new IllegalStateException("connection reset"));
+
+        byte[] bytes = new byte[8];
+        assertThrows(IOException.class, () -> {
+            while (stream.read(bytes, 0, bytes.length) != -1) {
+                // дочитываем до ошибки
+            }
+        });
+    }
+
+    @Test
+    public void shouldCancelSubscriptionOnEarlyClose() throws IOException {
+        PublisherInputStream stream = subscribedStream();
+        stream.onNext(buffer("hello"));
+
+        assertEquals('h', stream.read());
+        stream.close();
+
+        assertTrue(cancelled.get());
+        assertThrows(IOException.class, stream::read);
+    }
+
+    private PublisherInputStream subscribedStream() {
+        PublisherInputStream stream = new PublisherInputStream(PREFETCH);
+        stream.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                requested.addAndGet(n);
+            }
+
+            @Override
+            public void cancel() {
+                cancelled.set(true);
+            }
+        });
+        return stream;
+    }
+
+    private ByteBuffer buffer(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,127 @@
+package com.rbkmoney.file.storage.service.index;
+
+import com.rbkmoney.file.storage.configuration.properties.FileIndexProperties;
+import com.rbkmoney.file.storage.msgpack.Value;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileIndexTest {
+
+    private static final Instant CREATED_AT = Instant.parse("2021-10-01T00:00:00Z");
+
+    private final ConcurrentSkipListMap<String, byte[]> objects = new ConcurrentSkipListMap<>();
+    private FileIndex fileIndex;
+
+    @BeforeEach
+    public void setUp() {
+        FileIndexProperties fileIndexProperties = new FileIndexProperties();
+        fileIndexProperties.setEnabled(true);
+        fileIndexProperties.setMaxPageSize(100);
+        fileIndexProperties.setMaxValueLength(256);
+        fileIndex = new FileIndex(fileIndexProperties, new MapIndexStore(), new SimpleMeterRegistry());
+        fileIndex.init();
+    }
+
+    @Test
+    public void shouldFindFilesByMetadataValuePageByPage() {
+        for (int i = 0; i < 5; i++) {
+            fileIndex.index("file-" + i, CREATED_AT.plusSeconds(i), Map.of(
+                    "author", Value.str(i % 2 == 0 ? "alice" : "bob"),
+                    "size", Value.i(i)));
+            fileIndex.markUploaded("file-" + i);
+        }
+
+        FileIndexPage firstPage = fileIndex.find(new FileIndexQuery("author", "alice", null, null, null, 2));
+        assertEquals(List.of("file-0", "file-2"), fileDataIds(firstPage));
+        assertEquals(CREATED_AT, firstPage.getFiles().get(0).getCreatedAt());
+
+        FileIndexPage lastPage = fileIndex.find(
+                new FileIndexQuery("author", "alice", null, null, firstPage.getNextPageToken(), 2));
+        assertEquals(List.of("file-4"), fileDataIds(lastPage));
+        assertNull(lastPage.getNextPageToken());
+
+        FileIndexPage bySize = fileIndex.find(new FileIndexQuery("size", "3", null, null, null, 10));
+        assertEquals(List.of("file-3"), fileDataIds(bySize));
+    }
+
+    @Test
+    public void shouldFindFilesByCreatedAtRange() {
+        for (int i = 0; i < 5; i++) {
+            fileIndex.index("file-" + i, CREATED_AT.plusSeconds(i), Map.of("author", Value.str("alice")));
+            fileIndex.markUploaded("file-" + i);
+        }
+
+        FileIndexPage allFiles = fileIndex.find(
+                new FileIndexQuery(null, null, CREATED_AT.plusSeconds(1), CREATED_AT.plusSeconds(3), null, 10));
+        assertEquals(List.of("file-1", "file-2"), fileDataIds(allFiles));
+        assertNull(allFiles.getNextPageToken());
+
+        FileIndexPage byKey = fileIndex.find(
+                new FileIndexQuery("author", null, CREATED_AT.plusSeconds(3), null, null, 10));
+        assertEquals(List.of("file-3", "file-4"), fileDataIds(byKey));
+    }
+
+    @Test
+    public void shouldFindOnlyUploadedFiles() {
+        fileIndex.index("file-0", CREATED_AT, Map.of("author", Value.str("alice")));
+        fileIndex.index("file-1", CREATED_AT.plusSeconds(1), Map.of("author", Value.str("alice")));
+
+        // до загрузки в индексе есть только опись ключей файла
+        assertTrue(fileIndex.find(new FileIndexQuery(null, null, null, null, null, 10)).getFiles().isEmpty());
+
+        fileIndex.markUploaded("file-1");
+
+        assertEquals(List.of("file-1"), fileDataIds(fileIndex.find(
+                new FileIndexQuery("author", "alice", null, null, null, 10))));
+    }
+
+    @Test
+    public void shouldRemoveAllKeysOfFile() {
+        fileIndex.index("file-0", CREATED_AT, Map.of("author", Value.str("alice"), "tags", Value.arr(List.of())));
+        fileIndex.markUploaded("file-0");
+        fileIndex.remove("file-0");
+
+        assertTrue(objects.isEmpty());
+    }
+
+    private List<String> fileDataIds(FileIndexPage page) {
+        return page.getFiles().stream().map(IndexedFile::getFileDataId).collect(Collectors.toList());
+    }
+
+    private class MapIndexStore implements IndexStore {
+
+        @Override
+        public void put(String key, byte[] body) {
+            objects.put(key, body);
+        }
+
+        @Override
+        public byte[] get(String key) {
+            return objects.get(key);
+        }
+
+        @Override
+        public void delete(List<String> keys) {
+            keys.forEach(objects::remove);
+        }
+
+        @Override
+        public List<String> list(String prefix, String startAfter, int maxKeys) {
+            return objects.tailMap(startAfter != null ? startAfter : prefix, false).keySet().stream()
+                    .filter(key -> key.startsWith(prefix))
+                    .limit(maxKeys)
+                    .collect(Collectors.toList());
+        }
+    }
+}
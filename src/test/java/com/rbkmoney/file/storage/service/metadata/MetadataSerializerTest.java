@@ -0,0 +1,121 @@
+package com.rbkmoney.file.storage.service.metadata;
+
+import com.rbkmoney.file.storage.configuration.properties.FileMetadataProperties;
+import com.rbkmoney.file.storage.msgpack.Nil;
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.exception.ExtractMetadataException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetadataSerializerTest {
+
+    private static final int MAX_HEADER_SIZE = 1536;
+
+    private final Map<String, Value> metadata = Map.of(
+            "author", Value.str("Mary Doe"),
+            "version", Value.i(1),
+            "score", Value.flt(0.5),
+            "signed", Value.b(true),
+            "empty", Value.nl(new Nil()),
+            "attachment", Value.bin(new byte[]{0, 1, -1}),
+            "tags", Value.arr(List.of(Value.str("scan"), Value.obj(Map.of(Value.str("page"), Value.i(2))))));
+
+    @Test
+    public void shouldKeepHeaderPerKeyLayout() {
+        MetadataSerializer metadataSerializer = metadataSerializer(MetadataFormat.HEADERS, MAX_HEADER_SIZE);
+
+        EncodedMetadata encodedMetadata = metadataSerializer.encode(metadata);
+
+        assertEquals("{\"str\":\"Mary Doe\"}", encodedMetadata.getHeaders().get("x-rbkmoney-metadata-author"));
+        assertEquals(0, encodedMetadata.getBody().length);
+        assertFalse(metadataSerializer.isStoredInBody(encodedMetadata.getHeaders()));
+        assertEquals(metadata, metadataSerializer.decodeHeaders(encodedMetadata.getHeaders()));
+    }
+
+    @Test
+    public void shouldPackMetadataIntoSingleHeader() {
+        MetadataSerializer metadataSerializer = metadataSerializer(MetadataFormat.PACKED, MAX_HEADER_SIZE);
+
+        EncodedMetadata encodedMetadata = metadataSerializer.encode(metadata);
+
+        assertEquals(2, encodedMetadata.getHeaders().size());
+        assertEquals(0, encodedMetadata.getBody().length);
+        assertFalse(metadataSerializer.isStoredInBody(encodedMetadata.getHeaders()));
+        assertEquals(metadata, metadataSerializer.decodeHeaders(encodedMetadata.getHeaders()));
+    }
+
+    @Test
+    public void shouldMoveLargeMetadataIntoBody() {
+        MetadataSerializer metadataSerializer = metadataSerializer(MetadataFormat.PACKED, MAX_HEADER_SIZE);
+        Map<String, Value> largeMetadata = new HashMap<>(metadata);
+        for (int i = 0; i < 500; i++) {
+            largeMetadata.put("key-" + i, Value.str("value-" + i));
+        }
+
+        EncodedMetadata encodedMetadata = metadataSerializer.encode(largeMetadata);
+
+        assertTrue(metadataSerializer.isStoredInBody(encodedMetadata.getHeaders()));
+        assertThrows(
+                ExtractMetadataException.class,
+                () -> metadataSerializer.decodeHeaders(encodedMetadata.getHeaders()));
+        // тело ответа sdk отдает read-only буфером
+        ByteBuffer body = ByteBuffer.wrap(encodedMetadata.getBody()).asReadOnlyBuffer();
+        assertEquals(largeMetadata, metadataSerializer.decodeBody(body));
+    }
+
+    @Test
+    public void shouldAlwaysPackMetadataIntoBodyInBodyFormat() {
+        MetadataSerializer metadataSerializer = metadataSerializer(MetadataFormat.BODY, MAX_HEADER_SIZE);
+
+        EncodedMetadata encodedMetadata = metadataSerializer.encode(metadata);
+
+        assertTrue(metadataSerializer.isReadWithBody());
+        assertTrue(metadataSerializer.isStoredInBody(encodedMetadata.getHeaders()));
+        assertEquals(metadata, metadataSerializer.decodeBody(ByteBuffer.wrap(encodedMetadata.getBody())));
+    }
+
+    @Test
+    public void shouldReadHeaderPerKeyLayoutInPackedFormat() {
+        MetadataSerializer metadataSerializer = metadataSerializer(MetadataFormat.PACKED, MAX_HEADER_SIZE);
+        Map<String, String> headers = Map.of(
+                "x-rbkmoney-file-id", "fileId",
+                "x-rbkmoney-metadata-author", "{\"str\":\"Mary Doe\"}");
+
+        assertEquals(Map.of("author", Value.str("Mary Doe")), metadataSerializer.decodeHeaders(headers));
+    }
+
+    @Test
+    public void shouldWriteHeaderPerKeyLayoutUntilPackedWriteIsEnabled() {
+        MetadataSerializer metadataSerializer = metadataSerializer(MetadataFormat.BODY, MAX_HEADER_SIZE, false);
+
+        EncodedMetadata encodedMetadata = metadataSerializer.encode(metadata);
+
+        assertEquals("{\"str\":\"Mary Doe\"}", encodedMetadata.getHeaders().get("x-rbkmoney-metadata-author"));
+        assertEquals(0, encodedMetadata.getBody().length);
+        assertFalse(metadataSerializer.isReadWithBody());
+        assertEquals(metadata, metadataSerializer.decodeHeaders(encodedMetadata.getHeaders()));
+    }
+
+    private MetadataSerializer metadataSerializer(MetadataFormat format, int maxHeaderSize) {
+        return metadataSerializer(format, maxHeaderSize, true);
+    }
+
+    private MetadataSerializer metadataSerializer(MetadataFormat format,
+                                                  int maxHeaderSize,
+                                                  boolean packedWriteEnabled) {
+        FileMetadataProperties fileMetadataProperties = new FileMetadataProperties();
+        fileMetadataProperties.setFormat(format);
+        fileMetadataProperties.setMaxHeaderSize(maxHeaderSize);
+        fileMetadataProperties.setPackedWriteEnabled(packedWriteEnabled);
+        return new MetadataSerializer(fileMetadataProperties);
+    }
+}
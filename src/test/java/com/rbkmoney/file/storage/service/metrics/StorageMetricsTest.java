@@ -0,0 +1,90 @@
+package com.rbkmoney.file.storage.service.metrics;
+
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class StorageMetricsTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final StorageMetrics storageMetrics = new StorageMetrics(meterRegistry);
+
+    @Test
+    public void shouldTagHandlerCallsByOutcome() {
+        assertEquals("url", storageMetrics.recordHandler("generateDownloadUrl", () -> "url"));
+        assertThrows(
+                FileNotFoundException.class,
+                () -> storageMetrics.recordHandler("getFileData", () -> {
+                    throw new FileNotFoundException("not found");
+                }));
+        assertThrows(
+                StorageException.class,
+                () -> storageMetrics.recordHandler("getFileData", () -> {
+                    throw new StorageException("unavailable");
+                }));
+
+        assertEquals(1, handlerCount("generateDownloadUrl", "success", "none"));
+        assertEquals(1, handlerCount("getFileData", "not_found", "FileNotFoundException"));
+        assertEquals(1, handlerCount("getFileData", "storage_error", "StorageException"));
+    }
+
+    @Test
+    public void shouldRecordS3CallsAndTransferredBytes() {
+        storageMetrics.recordS3("HeadObject", 1_000_000, null);
+        storageMetrics.recordS3("GetObject", 1_000_000, new CompletionException(new StorageException("timeout")));
+        storageMetrics.recordS3Bytes("GetObject", StorageMetrics.RECEIVED, 512);
+        storageMetrics.recordS3Bytes("GetObject", StorageMetrics.RECEIVED, 1024);
+
+        assertEquals(1, meterRegistry.get(StorageMetrics.S3_REQUESTS)
+                .tags("operation", "HeadObject", "outcome", "success")
+                .timer()
+                .count());
+        assertEquals(1, meterRegistry.get(StorageMetrics.S3_REQUESTS)
+                .tags("operation", "GetObject", "outcome", "storage_error", "exception", "StorageException")
+                .timer()
+                .count());
+        assertEquals(1536, meterRegistry.get(StorageMetrics.S3_BYTES)
+                .tags("operation", "GetObject", "direction", StorageMetrics.RECEIVED)
+                .summary()
+                .totalAmount());
+    }
+
+    @Test
+    public void shouldRegisterMeterOncePerTags() {
+        AtomicInteger registrations = new AtomicInteger();
+        meterRegistry.config().meterFilter(new MeterFilter() {
+            @Override
+            public Meter.Id map(Meter.Id id) {
+                registrations.incrementAndGet();
+                return id;
+            }
+        });
+
+        for (int i = 0; i < 3; i++) {
+            storageMetrics.recordS3("HeadObject", 1_000_000, null);
+            storageMetrics.recordS3Bytes("GetObject", StorageMetrics.RECEIVED, 512);
+        }
+        storageMetrics.recordS3("HeadObject", 1_000_000, new StorageException("timeout"));
+
+        assertEquals(3, meterRegistry.get(StorageMetrics.S3_REQUESTS).tags("outcome", "success").timer().count());
+        // по одной регистрации на таймер успеха, таймер ошибки и распределение байт
+        assertEquals(3, registrations.get());
+    }
+
+    private long handlerCount(String method, String outcome, String exception) {
+        return meterRegistry.get(StorageMetrics.HANDLER_REQUESTS)
+                .tags("method", method, "outcome", outcome, "exception", exception)
+                .timer()
+                .count();
+    }
+}
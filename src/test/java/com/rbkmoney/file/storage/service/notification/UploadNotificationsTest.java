@@ -0,0 +1,149 @@
+package com.rbkmoney.file.storage.service.notification;
+
+import com.rbkmoney.file.storage.configuration.properties.FileNotificationProperties;
+import com.rbkmoney.file.storage.configuration.properties.S3BucketShardingProperties;
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.bucket.BucketSharding;
+import com.rbkmoney.file.storage.service.cache.CachedFileData;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.index.IndexStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class UploadNotificationsTest {
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final List<String> reads = new ArrayList<>();
+    private FileNotificationProperties fileNotificationProperties;
+
+    @BeforeEach
+    public void setUp() {
+        fileNotificationProperties = new FileNotificationProperties();
+        fileNotificationProperties.setEnabled(true);
+        fileNotificationProperties.setParallelism(2);
+        fileNotificationProperties.setQueueCapacity(100);
+        fileNotificationProperties.setMissingCacheMaximumSize(100);
+        fileNotificationProperties.setMissingCacheExpireAfterWrite(Duration.ofMinutes(1));
+    }
+
+    @Test
+    public void shouldResolveOnlyFileObjects() throws InterruptedException {
+        String fileId = UUID.randomUUID().toString();
+        String notUploadedFileId = UUID.randomUUID().toString();
+        StorageService storageService = Mockito.mock(StorageService.class);
+        doThrow(new FileNotFoundException("not uploaded")).when(storageService).resolveUploadedFile(notUploadedFileId);
+        UploadNotifications uploadNotifications = new UploadNotifications(
+                fileNotificationProperties,
+                storageService,
+                new BucketSharding(new S3BucketShardingProperties()),
+                new SimpleMeterRegistry());
+        uploadNotifications.init();
+
+        uploadNotifications.objectsCreated(List.of(
+                fileId,
+                notUploadedFileId,
+                "index/created/0001633046400000/" + fileId,
+                "reaper/pending/0001633046400000/" + fileId,
+                "other-service-object"));
+        uploadNotifications.shutdown();
+
+        verify(storageService, timeout(1000)).resolveUploadedFile(fileId);
+        verify(storageService, timeout(1000)).resolveUploadedFile(notUploadedFileId);
+        verifyNoMoreInteractions(storageService);
+    }
+
+    @Test
+    public void shouldStoreAndReadResolvedFile() {
+        ResolvedFiles resolvedFiles = resolvedFiles();
+        CachedFileData cachedFileData = new CachedFileData(
+                "file", "1", "2", null, "2021-10-01T00:00:00Z", Map.of("author", Value.str("alice")));
+
+        resolvedFiles.put(cachedFileData);
+        CachedFileData resolvedFile = resolvedFiles.get("file").orElseThrow();
+
+        assertEquals("file", resolvedFile.getFileId());
+        assertEquals("1", resolvedFile.getFileMetadataVersionId());
+        assertEquals("2", resolvedFile.getFileVersionId());
+        assertNull(resolvedFile.getFileName());
+        assertEquals("2021-10-01T00:00:00Z", resolvedFile.getCreatedAt());
+        assertEquals(Map.of("author", Value.str("alice")), resolvedFile.getMetadata());
+
+        resolvedFiles.remove("file");
+        assertTrue(objects.isEmpty());
+        assertFalse(resolvedFiles.get("file").isPresent());
+    }
+
+    @Test
+    public void shouldNotReadMissingResolvedFileTwice() {
+        ResolvedFiles resolvedFiles = resolvedFiles();
+
+        assertFalse(resolvedFiles.get("file").isPresent());
+        assertFalse(resolvedFiles.get("file").isPresent());
+        assertEquals(List.of("resolved/file"), reads);
+
+        // запись, появившаяся по уведомлению, читается сразу
+        resolvedFiles.put(new CachedFileData("file", "1", "2", null, "2021-10-01T00:00:00Z", Map.of()));
+        assertTrue(resolvedFiles.get("file").isPresent());
+    }
+
+    @Test
+    public void shouldReadResolvedFileAsync() {
+        ResolvedFiles resolvedFiles = resolvedFiles();
+        resolvedFiles.put(new CachedFileData("file", "1", "2", null, "2021-10-01T00:00:00Z", Map.of()));
+
+        assertEquals("2", resolvedFiles.getAsync("file").join().orElseThrow().getFileVersionId());
+        assertFalse(resolvedFiles.getAsync("missing").join().isPresent());
+        assertFalse(resolvedFiles.getAsync("missing").join().isPresent());
+        assertEquals(List.of("resolved/file", "resolved/missing"), reads);
+    }
+
+    private ResolvedFiles resolvedFiles() {
+        ResolvedFiles resolvedFiles = new ResolvedFiles(
+                fileNotificationProperties, new MapIndexStore(), new SimpleMeterRegistry());
+        resolvedFiles.init();
+        return resolvedFiles;
+    }
+
+    private class MapIndexStore implements IndexStore {
+
+        @Override
+        public void put(String key, byte[] body) {
+            objects.put(key, body);
+        }
+
+        @Override
+        public byte[] get(String key) {
+            reads.add(key);
+            return objects.get(key);
+        }
+
+        @Override
+        public void delete(List<String> keys) {
+            keys.forEach(objects::remove);
+        }
+
+        @Override
+        public List<String> list(String prefix, String startAfter, int maxKeys) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.rbkmoney.file.storage.service.reaper;
+
+import com.rbkmoney.file.storage.configuration.properties.FileIndexProperties;
+import com.rbkmoney.file.storage.configuration.properties.FileReaperProperties;
+import com.rbkmoney.file.storage.service.StorageService;
+import com.rbkmoney.file.storage.service.index.FileIndex;
+import com.rbkmoney.file.storage.service.index.IndexStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+public class AbandonedUploadReaperTest {
+
+    private final ConcurrentSkipListMap<String, byte[]> objects = new ConcurrentSkipListMap<>();
+    private final List<List<String>> checkedBatches = new ArrayList<>();
+    private final List<String> abortedUploads = new ArrayList<>();
+    private PendingUploads pendingUploads;
+    private ReaperLease reaperLease;
+    private AbandonedUploadReaper reaper;
+
+    @BeforeEach
+    public void setUp() {
+        FileReaperProperties fileReaperProperties = new FileReaperProperties();
+        fileReaperProperties.setEnabled(true);
+        // планировщик за время теста не сработает, сборка вызывается из теста
+        fileReaperProperties.setInterval(Duration.ofDays(1));
+        fileReaperProperties.setGrace(Duration.ofMinutes(5));
+        fileReaperProperties.setBatchSize(2);
+        fileReaperProperties.setDeletesPerSecond(1000);
+        fileReaperProperties.setLeaseDuration(Duration.ofMinutes(5));
+        pendingUploads = new PendingUploads(fileReaperProperties, new MapIndexStore());
+        reaperLease = new ReaperLease(fileReaperProperties, new MapIndexStore());
+
+        // загруженные файлы удалять нельзя, а файлы, которые не удалось удалить, проверяются в следующий раз
+        Set<String> uploaded = Set.of("file-1");
+        Set<String> failed = Set.of("file-3");
+        StorageService storageService = Mockito.mock(StorageService.class);
+        when(storageService.deleteAbandonedFiles(anyList())).thenAnswer(invocation -> {
+            List<PendingUpload> batch = invocation.getArgument(0);
+            checkedBatches.add(batch.stream().map(PendingUpload::getFileDataId).collect(Collectors.toList()));
+            batch.stream()
+                    .filter(pendingUpload -> pendingUpload.getUploadId() != null)
+                    .forEach(pendingUpload -> abortedUploads.add(pendingUpload.getUploadId()));
+            List<String> deleted = batch.stream()
+                    .map(PendingUpload::getFileDataId)
+                    .filter(fileDataId -> !uploaded.contains(fileDataId) && !failed.contains(fileDataId))
+                    .collect(Collectors.toList());
+            List<String> resolved = new ArrayList<>(deleted);
+            resolved.addAll(uploaded);
+            return new ReapedFiles(deleted, resolved);
+        });
+        FileIndex fileIndex = new FileIndex(new FileIndexProperties(), null, new SimpleMeterRegistry());
+        reaper = new AbandonedUploadReaper(
+                fileReaperProperties,
+                pendingUploads,
+                reaperLease,
+                storageService,
+                fileIndex,
+                new SimpleMeterRegistry());
+        reaper.init();
+    }
+
+    @Test
+    public void shouldDeleteOnlyExpiredAbandonedFilesInBatches() throws InterruptedException {
+        Instant now = Instant.now();
+        for (int i = 0; i < 5; i++) {
+            pendingUploads.track("file-" + i, now.minus(Duration.ofHours(1)).plusSeconds(i));
+        }
+        pendingUploads.track("file-fresh", now);
+
+        assertEquals(3, reaper.reap());
+        reaper.shutdown();
+
+        assertEquals(List.of(List.of("file-0", "file-1"), List.of("file-2", "file-3"), List.of("file-4")),
+                checkedBatches);
+        // остались отметка файла, который не удалось удалить, и отметка файла, срок загрузки которого еще не вышел
+        assertEquals(2, objects.size());
+        assertTrue(objects.firstKey().endsWith("/file-3"));
+        assertTrue(objects.lastKey().endsWith("/file-fresh"));
+    }
+
+    @Test
+    public void shouldPassUploadIdOfAbandonedMultipartUpload() throws InterruptedException {
+        Instant expired = Instant.now().minus(Duration.ofHours(1));
+        pendingUploads.track("1.file-0", expired);
+        pendingUploads.trackMultipart("1.file-0", expired, "upload-0");
+
+        assertEquals(1, reaper.reap());
+        reaper.shutdown();
+
+        assertEquals(List.of(List.of("1.file-0")), checkedBatches);
+        assertEquals(List.of("upload-0"), abortedUploads);
+        assertTrue(objects.isEmpty());
+    }
+
+    @Test
+    public void shouldNotReapWhileAnotherInstanceHoldsLease() throws InterruptedException {
+        Instant expired = Instant.now().minus(Duration.ofHours(1));
+        pendingUploads.track("file-0", expired);
+        FileReaperProperties fileReaperProperties = new FileReaperProperties();
+        fileReaperProperties.setLeaseDuration(Duration.ofMinutes(5));
+        ReaperLease otherInstanceLease = new ReaperLease(fileReaperProperties, new MapIndexStore());
+        assertTrue(otherInstanceLease.acquire(Instant.now()));
+
+        assertEquals(0, reaper.reap());
+        assertTrue(checkedBatches.isEmpty());
+
+        // истекшую аренду другого экземпляра сборщик забирает
+        assertTrue(reaperLease.acquire(Instant.now().plus(Duration.ofMinutes(6))));
+        otherInstanceLease.release();
+        assertEquals(1, reaper.reap());
+        reaper.shutdown();
+
+        assertEquals(List.of(List.of("file-0")), checkedBatches);
+        assertTrue(objects.isEmpty());
+    }
+
+    @Test
+    public void shouldNotTrackUploadsWhenDisabled() {
+        FileReaperProperties disabled = new FileReaperProperties();
+        new PendingUploads(disabled, new MapIndexStore()).track("file-0", Instant.now());
+
+        assertTrue(objects.isEmpty());
+    }
+
+    private class MapIndexStore implements IndexStore {
+
+        @Override
+        public void put(String key, byte[] body) {
+            objects.put(key, body);
+        }
+
+        @Override
+        public byte[] get(String key) {
+            return objects.get(key);
+        }
+
+        @Override
+        public void delete(List<String> keys) {
+            keys.forEach(objects::remove);
+        }
+
+        @Override
+        public List<String> list(String prefix, String startAfter, int maxKeys) {
+            return objects.tailMap(startAfter != null ? startAfter : prefix, false).keySet().stream()
+                    .filter(key -> key.startsWith(prefix))
+                    .limit(maxKeys)
+                    .collect(Collectors.toList());
+        }
+    }
+}
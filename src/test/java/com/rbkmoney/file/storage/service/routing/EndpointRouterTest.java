@@ -0,0 +1,228 @@
+package com.rbkmoney.file.storage.service.routing;
+
+import com.rbkmoney.file.storage.configuration.properties.S3EndpointRoutingProperties;
+import com.rbkmoney.file.storage.service.metrics.StorageMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EndpointRouterTest {
+
+    private static final HeadObjectRequest HEAD_OBJECT_REQUEST = HeadObjectRequest.builder()
+            .bucket("files")
+            .key("file")
+            .build();
+
+    private S3EndpointRoutingProperties s3EndpointRoutingProperties;
+
+    @BeforeEach
+    public void setUp() {
+        s3EndpointRoutingProperties = new S3EndpointRoutingProperties();
+        s3EndpointRoutingProperties.setFailureThreshold(2);
+        s3EndpointRoutingProperties.setEjectionDuration(Duration.ofMinutes(1));
+        s3EndpointRoutingProperties.setLatencyDecay(Duration.ofSeconds(10));
+        s3EndpointRoutingProperties.setMaxAttempts(2);
+    }
+
+    @Test
+    public void shouldRetryReadOnAnotherNode() {
+        S3Client failed = Mockito.mock(S3Client.class);
+        S3Client healthy = Mockito.mock(S3Client.class);
+        when(failed.headObject(any(HeadObjectRequest.class))).thenThrow(SdkClientException.create("refused"));
+        when(healthy.headObject(any(HeadObjectRequest.class))).thenReturn(HeadObjectResponse.builder().build());
+        S3Client s3Client = router(S3Client.class, failed, healthy).proxy();
+
+        for (int i = 0; i < 50; i++) {
+            s3Client.headObject(HEAD_OBJECT_REQUEST);
+        }
+
+        // после двух ошибок подряд узел исключен и запросы на него больше не уходят
+        verify(failed, Mockito.atMost(2)).headObject(any(HeadObjectRequest.class));
+        verify(healthy, times(50)).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void shouldEjectNodeAfterConsecutiveFailures() {
+        S3Client failed = Mockito.mock(S3Client.class);
+        when(failed.headObject(any(HeadObjectRequest.class))).thenThrow(SdkClientException.create("refused"));
+        EndpointRouter<S3Client> router = router(S3Client.class, failed);
+        S3Client s3Client = router.proxy();
+
+        assertThrows(SdkClientException.class, () -> s3Client.headObject(HEAD_OBJECT_REQUEST));
+        assertFalse(router.getNodes().get(0).isEjected(System.nanoTime()));
+        assertThrows(SdkClientException.class, () -> s3Client.headObject(HEAD_OBJECT_REQUEST));
+        assertTrue(router.getNodes().get(0).isEjected(System.nanoTime()));
+        // единственный исключенный узел все равно получает запросы
+        assertThrows(SdkClientException.class, () -> s3Client.headObject(HEAD_OBJECT_REQUEST));
+        verify(failed, times(3)).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void shouldNotRetryWriteOrClientError() {
+        S3Client first = Mockito.mock(S3Client.class);
+        S3Client second = Mockito.mock(S3Client.class);
+        SdkClientException refused = SdkClientException.create("refused");
+        when(first.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenThrow(refused);
+        when(second.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenThrow(refused);
+        SdkServiceException notFound = SdkServiceException.builder().statusCode(404).build();
+        when(first.headObject(any(HeadObjectRequest.class))).thenThrow(notFound);
+        when(second.headObject(any(HeadObjectRequest.class))).thenThrow(notFound);
+        S3Client s3Client = router(S3Client.class, first, second).proxy();
+
+        assertThrows(SdkClientException.class, () -> s3Client.putObject(
+                PutObjectRequest.builder().bucket("files").key("file").build(),
+                RequestBody.fromString("file")));
+        assertThrows(SdkServiceException.class, () -> s3Client.headObject(HEAD_OBJECT_REQUEST));
+        assertThrows(SdkServiceException.class, () -> s3Client.headObject(HEAD_OBJECT_REQUEST));
+
+        // запись не повторяется, 404 — не ошибка узла
+        verify(first, Mockito.atMost(1)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(second, Mockito.atMost(1)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        verify(first, Mockito.atMost(2)).headObject(any(HeadObjectRequest.class));
+        verify(second, Mockito.atMost(2)).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void shouldNotRetryStreamingRead() {
+        S3Client first = Mockito.mock(S3Client.class);
+        S3Client second = Mockito.mock(S3Client.class);
+        SdkClientException refused = SdkClientException.create("refused");
+        for (S3Client client : List.of(first, second)) {
+            when(client.getObject(any(GetObjectRequest.class), any(Path.class))).thenThrow(refused);
+            when(client.getObject(any(GetObjectRequest.class), any(ResponseTransformer.class))).thenThrow(refused);
+        }
+        S3Client s3Client = router(S3Client.class, first, second).proxy();
+        GetObjectRequest request = GetObjectRequest.builder().bucket("files").key("file").build();
+
+        assertThrows(SdkClientException.class, () -> s3Client.getObject(request, Path.of("file")));
+        assertThrows(SdkClientException.class, () -> s3Client.getObject(request, ResponseTransformer.toBytes()));
+
+        // тело могло быть частично записано в файл или transformer, поэтому запрос не повторяется
+        int calls = Mockito.mockingDetails(first).getInvocations().size()
+                + Mockito.mockingDetails(second).getInvocations().size();
+        assertEquals(2, calls);
+    }
+
+    @Test
+    public void shouldPreferFasterNode() {
+        S3Client slow = Mockito.mock(S3Client.class);
+        S3Client fast = Mockito.mock(S3Client.class);
+        when(slow.headObject(any(HeadObjectRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return HeadObjectResponse.builder().build();
+        });
+        when(fast.headObject(any(HeadObjectRequest.class))).thenReturn(HeadObjectResponse.builder().build());
+        // первый вызов мока медленный сам по себе
+        fast.headObject(HEAD_OBJECT_REQUEST);
+        Mockito.clearInvocations(fast);
+        S3Client s3Client = router(S3Client.class, slow, fast).proxy();
+
+        for (int i = 0; i < 50; i++) {
+            s3Client.headObject(HEAD_OBJECT_REQUEST);
+        }
+
+        // из двух узлов всегда выбирается узел с меньшей задержкой, медленный получает только первые запросы
+        verify(slow, Mockito.atMost(2)).headObject(any(HeadObjectRequest.class));
+        verify(fast, atLeastOnce()).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void shouldRetryAsyncReadOnAnotherNode() {
+        S3AsyncClient failed = Mockito.mock(S3AsyncClient.class);
+        S3AsyncClient healthy = Mockito.mock(S3AsyncClient.class);
+        when(failed.headObject(any(HeadObjectRequest.class))).thenReturn(CompletableFuture.failedFuture(
+                SdkServiceException.builder().statusCode(503).build()));
+        when(healthy.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(HeadObjectResponse.builder().build()));
+        S3AsyncClient s3AsyncClient = router(S3AsyncClient.class, failed, healthy).proxy();
+
+        for (int i = 0; i < 10; i++) {
+            s3AsyncClient.headObject(HEAD_OBJECT_REQUEST).join();
+        }
+
+        verify(healthy, times(10)).headObject(any(HeadObjectRequest.class));
+        verify(failed, Mockito.atMost(2)).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void shouldFailAfterMaxAttempts() {
+        S3AsyncClient first = Mockito.mock(S3AsyncClient.class);
+        S3AsyncClient second = Mockito.mock(S3AsyncClient.class);
+        S3AsyncClient third = Mockito.mock(S3AsyncClient.class);
+        for (S3AsyncClient client : List.of(first, second, third)) {
+            when(client.headObject(any(HeadObjectRequest.class))).thenReturn(CompletableFuture.failedFuture(
+                    SdkClientException.create("refused")));
+        }
+        S3AsyncClient s3AsyncClient = router(S3AsyncClient.class, first, second, third).proxy();
+
+        CompletionException ex = assertThrows(
+                CompletionException.class,
+                () -> s3AsyncClient.headObject(HEAD_OBJECT_REQUEST).join());
+
+        assertTrue(ex.getCause() instanceof SdkClientException);
+        int calls = Mockito.mockingDetails(first).getInvocations().size()
+                + Mockito.mockingDetails(second).getInvocations().size()
+                + Mockito.mockingDetails(third).getInvocations().size();
+        assertEquals(2, calls);
+    }
+
+    @Test
+    public void shouldCloseAllNodes() {
+        S3Client first = Mockito.mock(S3Client.class);
+        S3Client second = Mockito.mock(S3Client.class);
+
+        router(S3Client.class, first, second).proxy().close();
+
+        verify(first).close();
+        verify(second).close();
+        verify(first, never()).headObject(any(HeadObjectRequest.class));
+    }
+
+    @SafeVarargs
+    private <T> EndpointRouter<T> router(Class<T> clientType, T... clients) {
+        Map<String, T> endpoints = new LinkedHashMap<>();
+        for (int i = 0; i < clients.length; i++) {
+            endpoints.put("http://127.0.0.1:901" + i, clients[i]);
+        }
+        return new EndpointRouter<>(
+                clientType,
+                clients[0],
+                endpoints,
+                ex -> ex instanceof SdkServiceException
+                        ? ((SdkServiceException) ex).statusCode() >= 500
+                        : ex instanceof SdkClientException,
+                s3EndpointRoutingProperties,
+                new StorageMetrics(new SimpleMeterRegistry()),
+                "v2");
+    }
+}
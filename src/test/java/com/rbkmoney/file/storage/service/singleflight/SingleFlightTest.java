@@ -0,0 +1,132 @@
+package com.rbkmoney.file.storage.service.singleflight;
+
+import com.rbkmoney.file.storage.configuration.properties.FileSingleFlightProperties;
+import com.rbkmoney.file.storage.service.exception.FileNotFoundException;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private SingleFlight singleFlight;
+    private ExecutorService executorService;
+
+    @BeforeEach
+    public void setUp() {
+        FileSingleFlightProperties fileSingleFlightProperties = new FileSingleFlightProperties();
+        fileSingleFlightProperties.setEnabled(true);
+        singleFlight = new SingleFlight(fileSingleFlightProperties, new SimpleMeterRegistry());
+        singleFlight.init();
+        executorService = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void shouldShareOneCallBetweenConcurrentCallers() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = submit(() -> singleFlight.execute("file-data:1", () -> {
+            calls.incrementAndGet();
+            await(release);
+            return "data-1";
+        }));
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("data-1", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        // ключ снимается после завершения, следующий вызов снова идет в хранилище
+        assertEquals("data-2", singleFlight.execute("file-data:1", () -> "data-" + calls.incrementAndGet()));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void shouldShareExceptionBetweenConcurrentCallers() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = submit(() -> singleFlight.execute("file-data:2", () -> {
+            calls.incrementAndGet();
+            await(release);
+            throw new FileNotFoundException("file-data:2");
+        }));
+        release.countDown();
+
+        for (Future<String> result : results) {
+            ExecutionException ex = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertTrue(ex.getCause() instanceof FileNotFoundException);
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void shouldShareAsyncCall() {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> source = new CompletableFuture<>();
+
+        CompletableFuture<String> first = singleFlight.executeAsync("file-data:3", () -> {
+            calls.incrementAndGet();
+            return source;
+        });
+        CompletableFuture<String> second = singleFlight.executeAsync("file-data:3", () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        source.completeExceptionally(new StorageException("file-data:3"));
+
+        assertEquals(1, calls.get());
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals("data", singleFlight.executeAsync("file-data:3", () -> CompletableFuture.completedFuture("data"))
+                .join());
+    }
+
+    private <T> List<Future<T>> submit(Callable<T> callable) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(CALLERS);
+        List<Future<T>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executorService.submit(() -> {
+                started.countDown();
+                return callable.call();
+            }));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // даем вызывающим встать в очередь за первым вызовом
+        Thread.sleep(100);
+        return results;
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.rbkmoney.file.storage.service.upload;
+
+import com.rbkmoney.file.storage.configuration.properties.FileUploadProperties;
+import com.rbkmoney.file.storage.configuration.properties.VirtualThreadsProperties;
+import com.rbkmoney.file.storage.service.exception.StorageException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MultipartUploaderTest {
+
+    private static final int PART_SIZE = 1024;
+    private static final int MAX_BUFFERED_PARTS = 3;
+
+    private SimpleMeterRegistry meterRegistry;
+    private MultipartUploader multipartUploader;
+
+    @BeforeEach
+    public void setUp() {
+        FileUploadProperties fileUploadProperties = new FileUploadProperties();
+        fileUploadProperties.setPartSize(DataSize.ofBytes(PART_SIZE));
+        fileUploadProperties.setMaxBufferedParts(MAX_BUFFERED_PARTS);
+        fileUploadProperties.setParallelism(4);
+        fileUploadProperties.setMaxPartAttempts(2);
+        fileUploadProperties.setPartRetryDelay(Duration.ofMillis(1));
+        fileUploadProperties.setMaxPartRetryDelay(Duration.ofMillis(10));
+        meterRegistry = new SimpleMeterRegistry();
+        multipartUploader = new MultipartUploader(fileUploadProperties, new VirtualThreadsProperties(), meterRegistry);
+        multipartUploader.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        multipartUploader.shutdown();
+    }
+
+    @Test
+    public void shouldPutSmallFileWithoutMultipartUpload() {
+        byte[] content = content(PART_SIZE - 1);
+        InMemoryTarget target = new InMemoryTarget(Map.of());
+
+        assertEquals(content.length, multipartUploader.upload("file", new ByteArrayInputStream(content), target));
+
+        assertArrayEquals(content, target.object);
+        assertEquals(0, target.uploadedParts.get());
+    }
+
+    @Test
+    public void shouldUploadPartsInParallelWithinBufferBudget() {
+        byte[] content = content(PART_SIZE * 10 + 7);
+        // вторая часть падает один раз и повторяется из своего буфера
+        InMemoryTarget target = new InMemoryTarget(Map.of(2, 1));
+
+        assertEquals(content.length, multipartUploader.upload("file", new ByteArrayInputStream(content), target));
+
+        assertArrayEquals(content, target.object);
+        assertEquals(12, target.uploadedParts.get());
+        assertTrue(target.maxConcurrentParts.get() <= MAX_BUFFERED_PARTS);
+        assertEquals(0.0, meterRegistry.get("file_storage.upload.buffered_parts").gauge().value());
+    }
+
+    @Test
+    public void shouldAbortUploadWhenPartFailsAllAttempts() {
+        byte[] content = content(PART_SIZE * 10);
+        InMemoryTarget target = new InMemoryTarget(Map.of(3, 2));
+
+        assertThrows(StorageException.class,
+                () -> multipartUploader.upload("file", new ByteArrayInputStream(content), target));
+
+        assertTrue(target.aborted);
+        assertEquals(0.0, meterRegistry.get("file_storage.upload.buffered_parts").gauge().value());
+    }
+
+    private byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    private static class InMemoryTarget implements MultipartTarget {
+
+        private final Map<Integer, AtomicInteger> failures = new ConcurrentHashMap<>();
+        private final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+        private final AtomicInteger uploadedParts = new AtomicInteger();
+        private final AtomicInteger concurrentParts = new AtomicInteger();
+        private final AtomicInteger maxConcurrentParts = new AtomicInteger();
+        private volatile byte[] object;
+        private volatile boolean aborted;
+
+        private InMemoryTarget(Map<Integer, Integer> failures) {
+            failures.forEach((partNumber, count) -> this.failures.put(partNumber, new AtomicInteger(count)));
+        }
+
+        @Override
+        public void putObject(byte[] data, int length) {
+            object = Arrays.copyOf(data, length);
+        }
+
+        @Override
+        public String createMultipartUpload() {
+            return "upload-id";
+        }
+
+        @Override
+        public String uploadPart(String uploadId, int partNumber, byte[] data, int length) {
+            int concurrent = concurrentParts.incrementAndGet();
+            maxConcurrentParts.accumulateAndGet(concurrent, Math::max);
+            try {
+                uploadedParts.incrementAndGet();
+                AtomicInteger remainingFailures = failures.get(partNumber);
+                if (remainingFailures != null && remainingFailures.getAndDecrement() > 0) {
+                    throw new StorageException("Failed to upload part " + partNumber);
+                }
+                parts.put(partNumber, Arrays.copyOf(data, length));
+                return "etag-" + partNumber;
+            } finally {
+                concurrentParts.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void completeMultipartUpload(String uploadId, List<String> partETags) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            for (int i = 0; i < partETags.size(); i++) {
+                assertEquals("etag-" + (i + 1), partETags.get(i));
+                output.writeBytes(parts.get(i + 1));
+            }
+            object = output.toByteArray();
+        }
+
+        @Override
+        public void abortMultipartUpload(String uploadId) {
+            aborted = true;
+        }
+    }
+}
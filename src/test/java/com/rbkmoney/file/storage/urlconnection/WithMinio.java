@@ -0,0 +1,10 @@
+package com.rbkmoney.file.storage.urlconnection;
+
+import com.rbkmoney.file.storage.FileStorageTest;
+import com.rbkmoney.testcontainers.annotations.minio.MinioTestcontainerSingleton;
+
+@MinioTestcontainerSingleton(
+        properties = {"s3-sdk-v2.enabled=true", "s3-sdk-v2.http-client=url_connection"},
+        bucketName = "urlconnection")
+public class WithMinio extends FileStorageTest {
+}
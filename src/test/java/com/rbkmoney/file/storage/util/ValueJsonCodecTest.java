@@ -0,0 +1,115 @@
+package com.rbkmoney.file.storage.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rbkmoney.file.storage.msgpack.Nil;
+import com.rbkmoney.file.storage.msgpack.Value;
+import com.rbkmoney.geck.serializer.kit.json.JsonHandler;
+import com.rbkmoney.geck.serializer.kit.json.JsonProcessor;
+import com.rbkmoney.geck.serializer.kit.tbase.TBaseHandler;
+import com.rbkmoney.geck.serializer.kit.tbase.TBaseProcessor;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ValueJsonCodecTest {
+
+    @Test
+    public void shouldWriteGeckJsonFormat() {
+        assertEquals("{\"str\":\"Mary Doe\"}", ValueJsonCodec.toJsonString(Value.str("Mary Doe")));
+        assertEquals("{\"str\":\"@@mention\"}", ValueJsonCodec.toJsonString(Value.str("@mention")));
+        assertEquals("{\"i\":42}", ValueJsonCodec.toJsonString(Value.i(42)));
+        assertEquals("{\"flt\":1.5}", ValueJsonCodec.toJsonString(Value.flt(1.5)));
+        assertEquals("{\"b\":true}", ValueJsonCodec.toJsonString(Value.b(true)));
+        assertEquals("{\"nl\":{}}", ValueJsonCodec.toJsonString(Value.nl(new Nil())));
+        assertEquals("{\"bin\":\"@AQI=\"}", ValueJsonCodec.toJsonString(Value.bin(new byte[]{1, 2})));
+        assertEquals(
+                "{\"arr\":[\"list\",{\"str\":\"scan\"},{\"i\":1}]}",
+                ValueJsonCodec.toJsonString(Value.arr(List.of(Value.str("scan"), Value.i(1))))
+        );
+        assertEquals(
+                "{\"obj\":[\"map\",{\"key\":{\"str\":\"author\"},\"value\":{\"str\":\"Mary Doe\"}}]}",
+                ValueJsonCodec.toJsonString(Value.obj(Map.of(Value.str("author"), Value.str("Mary Doe"))))
+        );
+    }
+
+    @Test
+    public void shouldReadGeckJsonFormat() {
+        Value value = ValueJsonCodec.fromJson(
+                "{ \"obj\" : [ \"map\", {\"value\": {\"arr\": [\"list\", {\"str\": \"@@mention\"}, {\"flt\": 2}]}, "
+                        + "\"key\": {\"str\": \"tags\"}} ] }"
+        );
+
+        assertEquals(
+                Value.obj(Map.of(Value.str("tags"), Value.arr(List.of(Value.str("@mention"), Value.flt(2))))),
+                value
+        );
+        assertArrayEquals(
+                "test".getBytes(StandardCharsets.UTF_8),
+                ValueJsonCodec.fromJson("{\"bin\":\"@dGVzdA==\"}").getBin()
+        );
+    }
+
+    @Test
+    public void shouldRoundTripThroughDamselUtil() {
+        Value value = Value.obj(Map.of(
+                Value.str("author"), Value.str("Mary Doe"),
+                Value.str("version"), Value.i(Long.MAX_VALUE),
+                Value.str("score"), Value.flt(0.1),
+                Value.str("signed"), Value.b(false),
+                Value.str("empty"), Value.nl(new Nil()),
+                Value.str("tags"), Value.arr(List.of(Value.str("scan"), Value.bin(new byte[]{0, -1})))));
+
+        assertEquals(value, DamselUtil.fromJson(DamselUtil.toJsonString(value), Value.class));
+    }
+
+    @Test
+    public void shouldMatchGeckForEveryValueVariant() throws IOException {
+        List<Value> values = List.of(
+                Value.nl(new Nil()),
+                Value.b(true),
+                Value.i(Long.MIN_VALUE),
+                Value.flt(-0.1),
+                Value.flt(1e300),
+                Value.str("Mary Doe"),
+                Value.str("@mention"),
+                Value.str(""),
+                Value.bin(new byte[]{0, -1, 64}),
+                Value.bin(new byte[0]),
+                Value.arr(List.of()),
+                Value.arr(List.of(Value.str("scan"), Value.i(1), Value.nl(new Nil()))),
+                Value.obj(Map.of()),
+                Value.obj(Map.of(
+                        Value.str("author"), Value.str("Mary Doe"),
+                        Value.i(7), Value.bin(new byte[]{1, 2}))),
+                Value.obj(Map.of(
+                        Value.str("tags"), Value.arr(List.of(
+                                Value.obj(Map.of(Value.str("nested"), Value.arr(List.of(Value.b(false))))),
+                                Value.flt(2))))));
+
+        for (Value value : values) {
+            // эталон — geck TBaseProcessor + JsonHandler, которыми метаданные записывались раньше
+            String geckJson = new TBaseProcessor().process(value, new JsonHandler()).toString();
+            assertEquals(geckJson, ValueJsonCodec.toJsonString(value), geckJson);
+            Value geckValue = new JsonProcessor().process(
+                    new ObjectMapper().readTree(geckJson),
+                    new TBaseHandler<>(Value.class));
+            assertEquals(geckValue, ValueJsonCodec.fromJson(geckJson), geckJson);
+        }
+    }
+
+    @Test
+    public void shouldFailOnMalformedJson() {
+        assertThrows(IllegalArgumentException.class, () -> ValueJsonCodec.fromJson("{\"str\":1}"));
+        assertThrows(IllegalArgumentException.class, () -> ValueJsonCodec.fromJson("{\"unknown\":1}"));
+        assertThrows(IllegalArgumentException.class, () -> ValueJsonCodec.fromJson("{\"arr\":[\"map\"]}"));
+        assertThrows(IllegalArgumentException.class, () -> ValueJsonCodec.fromJson("{\"str\":\"a\"} {}"));
+        assertThrows(IllegalArgumentException.class, () -> ValueJsonCodec.fromJson("{\"str\":\"a\""));
+    }
+}
@@ -0,0 +1,50 @@
+package com.rbkmoney.file.storage.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// сборка идет под java 11, поэтому путь через reflection проверяется только на jvm с виртуальными потоками
+public class VirtualThreadsTest {
+
+    @Test
+    public void shouldRunTasksOnNamedVirtualThreads() throws Exception {
+        assumeTrue(VirtualThreads.isSupported(), "virtual threads are not available on this jvm");
+
+        var executor = VirtualThreads.newThreadPerTaskExecutor("test-virtual-");
+        try {
+            var first = CompletableFuture.supplyAsync(Thread::currentThread, executor).get(5, TimeUnit.SECONDS);
+            var second = CompletableFuture.supplyAsync(Thread::currentThread, executor).get(5, TimeUnit.SECONDS);
+
+            assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(first));
+            assertTrue(first.getName().startsWith("test-virtual-"));
+            // новый поток на каждую задачу
+            assertNotSame(first, second);
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldFailWithJavaVersionWhenVirtualThreadsAreNotAvailable() {
+        assumeFalse(VirtualThreads.isSupported(), "virtual threads are available on this jvm");
+
+        var ex = assertThrows(
+                IllegalStateException.class,
+                () -> VirtualThreads.newThreadPerTaskExecutor("test-virtual-"));
+
+        assertEquals(
+                String.format("Virtual threads require java 21 or newer, current java version is %s",
+                        System.getProperty("java.version")),
+                ex.getMessage());
+    }
+}